@@ -8,6 +8,7 @@ except:
   import json
 import json
 import zlib
+import base64
 from collections import defaultdict
 
 MYDOMAIN = 'im.partych.at'
@@ -20,6 +21,12 @@ STATUS = 'replacing app engine since 2011'
 PROXY_JID_PATTERN = '%s@im.partych.at/pcbot'
 PROXY_BARE_JID_PATTERN = '%s@im.partych.at/pcbot'
 
+# Batches whose roster we don't know yet are held (up to this many per
+# channel) until partychapp sends the roster again.
+MAX_HELD_BATCHES = 20
+# Don't ask partychapp for all rosters more often than this (in seconds).
+ROSTER_REQUEST_INTERVAL = 60
+
 import time
 
 
@@ -101,8 +108,9 @@ def GetControlMessage(event):
       # TODO: check from, and check signature of message
       msg_str = str(event['body'])
       if msg_str.startswith('gzip:'):
+        # zlib data is base64-encoded, since raw bytes can't go in a stanza.
         try:
-          msg_str = zlib.decompress(msg_str[len('gzip:'):])
+          msg_str = zlib.decompress(base64.b64decode(msg_str[len('gzip:'):]))
         except:
           open('/tmp/broken', 'wb').write(msg_str)
       return json.loads(msg_str)
@@ -111,6 +119,11 @@ class SimpleComponent:
   def __init__(self, jid, password, server, port, backend) :
     
     self.xmpp = sleekxmpp.componentxmpp.ComponentXMPP(jid, password, server, port)
+    # channel -> (roster hash, list of member JIDs)
+    self._rosters = {}
+    # channel -> envelopes waiting for their roster
+    self._held = defaultdict(list)
+    self._last_roster_request = 0
     self.xmpp.auto_authorize = None
     self.xmpp.auto_subscribe = None
     self.xmpp.add_event_handler('session_start', self.start_session)
@@ -137,6 +150,56 @@ class SimpleComponent:
       self.xmpp.add_event_handler(s, lambda event: self.generic_handler(s, event))
     
 
+  def _handle_control_envelope(self, ctl):
+      """Handles envelopes with a roster (or a roster hash) and a batch of
+      messages, each of which lists the roster members to exclude."""
+      from_channel = ctl.get('from_channel', '')
+      roster_hash = ctl.get('roster_hash')
+      if 'messages' not in ctl:
+        self._handle_control_message(ctl)
+        return
+      if 'roster' in ctl:
+        self._rosters[from_channel] = (roster_hash, ctl['roster'])
+      known_hash, roster = self._rosters.get(from_channel, (None, []))
+      if known_hash != roster_hash:
+        # We lost the roster (e.g. restarted); hold on to the batch and ask
+        # for everything again.
+        logging.warning('unknown roster %s for %s, holding batch',
+                        roster_hash, from_channel)
+        held = self._held[from_channel]
+        held.append(ctl)
+        if len(held) > MAX_HELD_BATCHES:
+          logging.warning('dropping oldest held batch for %s', from_channel)
+          del held[0]
+        self._request_rosters()
+        return
+      # Exclusions are JIDs, so held batches still make sense with a newer
+      # roster.
+      for held in self._held.pop(from_channel, []):
+        self._deliver_batch(from_channel, roster, held)
+      self._deliver_batch(from_channel, roster, ctl)
+
+  def _request_rosters(self):
+      now = time.time()
+      if now - self._last_roster_request < ROSTER_REQUEST_INTERVAL:
+        return
+      self._last_roster_request = now
+      self.xmpp.sendMessage(PARTYCHAPP_CONTROL,
+                            json.dumps(dict(state='new')),
+                            mfrom=MY_CONTROL,
+                            mtype='chat')
+
+  def _deliver_batch(self, from_channel, roster, ctl):
+      for m in ctl['messages']:
+        recipients = m.get('recipients')
+        if recipients is None:
+          exclude = set(m.get('exclude', []))
+          recipients = [r for r in roster if r not in exclude]
+        if recipients:
+          self._handle_control_message(dict(outmsg=m.get('outmsg'),
+                                            recipients=recipients,
+                                            from_channel=from_channel))
+
   def _handle_control_message(self, ctl):
       outmsg = ctl.get('outmsg')
       recipients = ctl.get('recipients', [])
@@ -179,7 +242,7 @@ class SimpleComponent:
 
     ctl = GetControlMessage(message)
     if ctl:
-      self._handle_control_message(ctl)
+      self._handle_control_envelope(ctl)
       return
     # inbound message
     # echo
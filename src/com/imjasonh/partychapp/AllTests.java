@@ -3,12 +3,31 @@ package com.imjasonh.partychapp;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 
+import com.imjasonh.partychapp.costsim.CostSimulatorTest;
 import com.imjasonh.partychapp.datastoretask.DatastoreTaskMasterTest;
+import com.imjasonh.partychapp.lastmessages.LastMessagesTest;
+import com.imjasonh.partychapp.messagelog.MessageLogBatchTest;
+import com.imjasonh.partychapp.messagelog.MessageLogTest;
+import com.imjasonh.partychapp.mr.CsvMessageLogInputTest;
+import com.imjasonh.partychapp.mr.MapReduceTest;
+import com.imjasonh.partychapp.mr.MessageLogMapperTest;
+import com.imjasonh.partychapp.mr.StatsCountersTest;
+import com.imjasonh.partychapp.mr.StatsTableTest;
+import com.imjasonh.partychapp.mr.TopNTest;
+import com.imjasonh.partychapp.outbox.OutboxTest;
+import com.imjasonh.partychapp.proxy.ProxyControlTest;
 import com.imjasonh.partychapp.ppb.PlusPlusBotTest;
+import com.imjasonh.partychapp.server.ConcurrentRequestsTest;
 import com.imjasonh.partychapp.server.PartychappServletTest;
+import com.imjasonh.partychapp.server.RateLimiterTest;
+import com.imjasonh.partychapp.server.WarmupServletTest;
+import com.imjasonh.partychapp.server.admin.ExportWriterTest;
 import com.imjasonh.partychapp.server.command.AliasHandlerTest;
 import com.imjasonh.partychapp.server.command.BroadcastHandlerTest;
 import com.imjasonh.partychapp.server.command.BugHandlerTest;
+import com.imjasonh.partychapp.server.command.BoundedRegexTest;
+import com.imjasonh.partychapp.server.command.CoalesceHandlerTest;
+import com.imjasonh.partychapp.server.command.CommandTest;
 import com.imjasonh.partychapp.server.command.DebugHandlerTest;
 import com.imjasonh.partychapp.server.command.GraphScoreHandlerTest;
 import com.imjasonh.partychapp.server.command.IncomingEmailHandlerTest;
@@ -30,6 +49,11 @@ import com.imjasonh.partychapp.server.command.StatusHandlerTest;
 import com.imjasonh.partychapp.server.command.SummonHandlerTest;
 import com.imjasonh.partychapp.server.command.ToggleLoggingHandlerTest;
 import com.imjasonh.partychapp.server.command.UndoHandlerTest;
+import com.imjasonh.partychapp.stats.ChannelStatsTest;
+import com.imjasonh.partychapp.stats.LatencyHistogramTest;
+import com.imjasonh.partychapp.stats.RequestTraceTest;
+import com.imjasonh.partychapp.stats.SpaceSavingTest;
+import com.imjasonh.partychapp.stats.TrafficSeriesTest;
 import com.imjasonh.partychapp.urlinfo.SimpleUrlInfoServiceTest;
 
 public class AllTests {
@@ -48,7 +72,14 @@ public class AllTests {
     suite.addTestSuite(MeHandlerTest.class);
     suite.addTestSuite(SearchReplaceHandlerTest.class);
     suite.addTestSuite(PartychappServletTest.class);
+    suite.addTestSuite(ConcurrentRequestsTest.class);
+    suite.addTestSuite(WarmupServletTest.class);
+    suite.addTestSuite(ConfigurationTest.class);
+    suite.addTestSuite(EntityDatastoreTest.class);
     suite.addTestSuite(MemberTest.class);
+    suite.addTestSuite(Base64Test.class);
+    suite.addTestSuite(LastMessagesTest.class);
+    suite.addTestSuite(MeteringDatastoreTest.class);
     suite.addTestSuite(StatusHandlerTest.class);
     suite.addTestSuite(BroadcastHandlerTest.class);
     suite.addTestSuite(SummonHandlerTest.class);
@@ -67,6 +98,27 @@ public class AllTests {
     suite.addTestSuite(KickHandlerTest.class);    
     suite.addTestSuite(UserTest.class);        
     suite.addTestSuite(SimpleUrlInfoServiceTest.class);
+    suite.addTestSuite(OutboxTest.class);
+    suite.addTestSuite(ProxyControlTest.class);
+    suite.addTestSuite(BoundedRegexTest.class);
+    suite.addTestSuite(ChannelStatsTest.class);
+    suite.addTestSuite(SpaceSavingTest.class);
+    suite.addTestSuite(TrafficSeriesTest.class);
+    suite.addTestSuite(LatencyHistogramTest.class);
+    suite.addTestSuite(RequestTraceTest.class);
+    suite.addTestSuite(MessageLogTest.class);
+    suite.addTestSuite(MessageLogBatchTest.class);
+    suite.addTestSuite(StatsCountersTest.class);
+    suite.addTestSuite(MessageLogMapperTest.class);
+    suite.addTestSuite(MapReduceTest.class);
+    suite.addTestSuite(CsvMessageLogInputTest.class);
+    suite.addTestSuite(ExportWriterTest.class);
+    suite.addTestSuite(TopNTest.class);
+    suite.addTestSuite(StatsTableTest.class);
+    suite.addTestSuite(CostSimulatorTest.class);
+    suite.addTestSuite(CoalesceHandlerTest.class);
+    suite.addTestSuite(CommandTest.class);
+    suite.addTestSuite(RateLimiterTest.class);
     // $JUnit-END$
     return suite;
   }
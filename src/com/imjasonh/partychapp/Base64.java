@@ -0,0 +1,79 @@
+package com.imjasonh.partychapp;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Standard (RFC 4648) base64 with padding and no line breaks. The libraries
+ * that we ship only have internal implementations, so this is our own.
+ */
+public final class Base64 {
+  private static final char[] ALPHABET =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+          .toCharArray();
+
+  private static final int[] VALUES = new int[128];
+  static {
+    Arrays.fill(VALUES, -1);
+    for (int i = 0; i < ALPHABET.length; i++) {
+      VALUES[ALPHABET[i]] = i;
+    }
+  }
+
+  private Base64() {}
+
+  public static String encode(byte[] bytes) {
+    StringBuilder encoded = new StringBuilder((bytes.length + 2) / 3 * 4);
+    for (int i = 0; i < bytes.length; i += 3) {
+      int remaining = Math.min(3, bytes.length - i);
+      int chunk = (bytes[i] & 0xff) << 16;
+      if (remaining > 1) {
+        chunk |= (bytes[i + 1] & 0xff) << 8;
+      }
+      if (remaining > 2) {
+        chunk |= bytes[i + 2] & 0xff;
+      }
+      encoded.append(ALPHABET[(chunk >> 18) & 0x3f]);
+      encoded.append(ALPHABET[(chunk >> 12) & 0x3f]);
+      encoded.append(remaining > 1 ? ALPHABET[(chunk >> 6) & 0x3f] : '=');
+      encoded.append(remaining > 2 ? ALPHABET[chunk & 0x3f] : '=');
+    }
+    return encoded.toString();
+  }
+
+  /**
+   * @throws IllegalArgumentException if {@code encoded} isn't valid base64
+   */
+  public static byte[] decode(String encoded) {
+    Preconditions.checkArgument(encoded.length() % 4 == 0,
+        "Length is not a multiple of 4: %s", encoded.length());
+    int padding = 0;
+    if (encoded.endsWith("==")) {
+      padding = 2;
+    } else if (encoded.endsWith("=")) {
+      padding = 1;
+    }
+    byte[] bytes = new byte[encoded.length() / 4 * 3 - padding];
+    int out = 0;
+    for (int i = 0; i < encoded.length(); i += 4) {
+      int chunk = 0;
+      for (int j = 0; j < 4; j++) {
+        char c = encoded.charAt(i + j);
+        int value;
+        if (c == '=' && i + j >= encoded.length() - padding) {
+          value = 0;
+        } else {
+          value = c < VALUES.length ? VALUES[c] : -1;
+          Preconditions.checkArgument(value >= 0,
+              "Invalid character at %s: %s", i + j, c);
+        }
+        chunk = (chunk << 6) | value;
+      }
+      for (int shift = 16; shift >= 0 && out < bytes.length; shift -= 8) {
+        bytes[out++] = (byte) (chunk >> shift);
+      }
+    }
+    return bytes;
+  }
+}
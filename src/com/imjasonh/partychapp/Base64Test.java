@@ -0,0 +1,42 @@
+package com.imjasonh.partychapp;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Base64Test extends TestCase {
+  public void testEncode() throws Exception {
+    // From RFC 4648.
+    assertEquals("", Base64.encode(new byte[0]));
+    assertEquals("Zg==", Base64.encode("f".getBytes("UTF-8")));
+    assertEquals("Zm8=", Base64.encode("fo".getBytes("UTF-8")));
+    assertEquals("Zm9v", Base64.encode("foo".getBytes("UTF-8")));
+    assertEquals("Zm9vYmFy", Base64.encode("foobar".getBytes("UTF-8")));
+    assertEquals("+/8=", Base64.encode(new byte[] {(byte) 0xfb, (byte) 0xff}));
+  }
+
+  public void testRoundTrip() {
+    Random random = new Random(42);
+    for (int length = 0; length < 20; length++) {
+      byte[] bytes = new byte[length];
+      random.nextBytes(bytes);
+      assertTrue(Arrays.equals(bytes, Base64.decode(Base64.encode(bytes))));
+    }
+  }
+
+  public void testDecodeInvalid() {
+    try {
+      Base64.decode("Zm9");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Wrong length
+    }
+    try {
+      Base64.decode("Zm9*");
+      fail();
+    } catch (IllegalArgumentException expected) {
+      // Not in the alphabet
+    }
+  }
+}
@@ -8,6 +8,8 @@ import com.imjasonh.partychapp.ppb.Target;
 import com.imjasonh.partychapp.server.admin.ChannelInvalidateServlet;
 import com.imjasonh.partychapp.server.admin.ChannelServlet;
 import com.imjasonh.partychapp.server.admin.UserServlet;
+import com.imjasonh.partychapp.stats.RequestTrace;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
 
 import java.util.Collection;
 import java.util.Iterator;
@@ -68,15 +70,15 @@ public abstract class CachingDatastore extends WrappingDatastore {
     return false;
   }
   
-  private Object getFromRequestCacheOrCache(String key) {
+  private Object getFromRequestCacheOrCache(Class<?> cls, String key) {
     Map<String, Object> cache = requestCache.get();
     
     Object value = cache.get(key);
-    if (value != null) {
-      return value;
+    if (value == null) {
+      value = getFromCache(key);
     }
-   
-    return getFromCache(key);
+    MeteringDatastore.recordCacheLookup(cls, value != null);
+    return value;
   }
 
   /**
@@ -116,9 +118,14 @@ public abstract class CachingDatastore extends WrappingDatastore {
 
   @Override public Channel getChannelByName(String name) {
     String key = getKey(Channel.class, name);
-    Channel channel = (Channel) getFromRequestCacheOrCache(key);
+    Channel channel = (Channel) getFromRequestCacheOrCache(Channel.class, key);
     if (channel == null) {
-      channel = wrapped.getChannelByName(name);
+      RequestTrace.Span span = RequestTrace.startSpan(Stage.DATASTORE_LOAD);
+      try {
+        channel = wrapped.getChannelByName(name);
+      } finally {
+        span.end();
+      }
       if (channel != null) {
         addToCache(key, channel);
       }
@@ -148,9 +155,14 @@ public abstract class CachingDatastore extends WrappingDatastore {
 
   @Override public User getUserByJID(String jid) {
     String key = getKey(User.class, jid);
-    User user = (User) getFromRequestCacheOrCache(key);
+    User user = (User) getFromRequestCacheOrCache(User.class, key);
     if (user == null) {
-      user = wrapped.getUserByJID(jid);
+      RequestTrace.Span span = RequestTrace.startSpan(Stage.DATASTORE_LOAD);
+      try {
+        user = wrapped.getUserByJID(jid);
+      } finally {
+        span.end();
+      }
       if (user != null) {
         addToCache(key, user);
       }
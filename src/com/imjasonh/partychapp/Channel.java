@@ -1,35 +1,36 @@
 package com.imjasonh.partychapp;
 
-import com.google.appengine.api.datastore.AsyncDatastoreService;
-import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.xmpp.JID;
-import com.google.appengine.repackaged.org.json.JSONException;
-import com.google.appengine.repackaged.org.json.JSONObject;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import com.imjasonh.partychapp.DebuggingOptions.Option;
 import com.imjasonh.partychapp.Member.SnoozeStatus;
+import com.imjasonh.partychapp.datastoretask.WakeSnoozersTask;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
+import com.imjasonh.partychapp.messagelog.MessageLog;
+import com.imjasonh.partychapp.outbox.Outbox;
+import com.imjasonh.partychapp.proxy.ProxyControl;
 import com.imjasonh.partychapp.server.MailUtil;
-import com.imjasonh.partychapp.server.PartychappServlet;
 import com.imjasonh.partychapp.server.SendUtil;
 import com.imjasonh.partychapp.server.live.ChannelUtil;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Random;
 import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.jdo.JDOHelper;
 import javax.jdo.annotations.Extension;
 import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
@@ -37,7 +38,6 @@ import javax.jdo.annotations.PrimaryKey;
 
 @PersistenceCapable(identityType = IdentityType.APPLICATION)
 public class Channel implements Serializable {
-  private static final Random randomGenerator = new Random();
 
   private static final Logger logger = 
       Logger.getLogger(Channel.class.getName());
@@ -46,7 +46,10 @@ public class Channel implements Serializable {
    * Channels with more than this many members may have slightly different
    * behavior.
    */
-  private static final int LARGE_CHANNEL_THRESHOLD = 50;
+  public static final int LARGE_CHANNEL_THRESHOLD = 50;
+
+  /** The datastore kind that JDO (and {@link EntityDatastore}) uses. */
+  public static final String KIND = "Channel";
 
   @PrimaryKey
   @Persistent
@@ -60,9 +63,15 @@ public class Channel implements Serializable {
   @Extension(vendorName = "datanucleus", key = "gae.unindexed", value="true")
   private Boolean inviteOnly = false;
 
+  /**
+   * Lowercased email addresses of invitees. This and
+   * {@link #requestedInvitations} are insertion-ordered sets, since
+   * {@link #fixUp} checks every member against them. They're stored as list
+   * properties, as they were when they were lists.
+   */
   @Persistent
   @Extension(vendorName = "datanucleus", key = "gae.unindexed", value="true")
-  private List<String> invitedIds = Lists.newArrayList();
+  private LinkedHashSet<String> invitedIds = Sets.newLinkedHashSet();
 
   @Persistent
   @Extension(vendorName = "datanucleus", key = "gae.unindexed", value="true")
@@ -73,7 +82,7 @@ public class Channel implements Serializable {
    */
   @Persistent
   @Extension(vendorName = "datanucleus", key = "gae.unindexed", value="true")
-  private List<String> requestedInvitations = Lists.newArrayList();
+  private LinkedHashSet<String> requestedInvitations = Sets.newLinkedHashSet();
 
   /**
    * Turns off storing of recent messages for the room. 
@@ -82,36 +91,109 @@ public class Channel implements Serializable {
   @Extension(vendorName = "datanucleus", key = "gae.unindexed", value="true")
   private Boolean loggingDisabled = false;
 
+  /**
+   * If positive, broadcasts are held for this many milliseconds so that
+   * bursts can be sent as one multi-line stanza (see {@link Outbox}). Null
+   * (the value for channels created before this was added) means disabled.
+   */
+  @Persistent
+  @Extension(vendorName = "datanucleus", key = "gae.unindexed", value="true")
+  private Integer coalescingWindowMillis;
+
+  /**
+   * No member will need to be woken up from snoozing before this time, so
+   * {@link #awakenSnoozers} doesn't need to look at members until then. It
+   * may be earlier than the real earliest wake time (e.g. if that member was
+   * unsnoozed by a message), but never later. Null means unknown, and is
+   * recomputed by {@link #fixUp} or the next {@link #awakenSnoozers}.
+   */
+  @NotPersistent
+  private transient Long nextWakeMillis;
+
   public Channel(JID serverJID) {
     this.name = serverJID.getId().split("@")[0];
   }
   
   
-  /// TODO(vijayp): this is really horribly horribly ugly
-  // and should be moved somewhere way better, like the Channel class,
-  // or maybe somewhere in persistent config.
-  
-  private static final Set<String> MIGRATED_CHANNELS = ImmutableSet.of(
-		  "partychat-migrated");
-  
-  
   public boolean isMigrated() {
-	  return MIGRATED_CHANNELS.contains(this.name);
+    return migratedChannelNames().contains(this.name);
   }
-  public static Iterable<String> migratedChannelNames() {
-	  return MIGRATED_CHANNELS;
+
+  /**
+   * Channels whose messages are delivered through the XMPP proxy, as set in
+   * {@link PersistentConfiguration}.
+   */
+  public static Set<String> migratedChannelNames() {
+    return Configuration.persistentConfig().migratedChannels();
   }
 
   public Channel(Channel other) {
     this.name = other.name;
     this.inviteOnly = other.inviteOnly;
-    this.invitedIds = Lists.newArrayList(other.invitedIds);
+    this.invitedIds = Sets.newLinkedHashSet(other.invitedIds);
+    this.requestedInvitations =
+        Sets.newLinkedHashSet(other.requestedInvitations);
     this.members = Sets.newHashSet();
     for (Member m : other.members) {
       this.members.add(new Member(m));
     }
     this.sequenceId = other.sequenceId;
     this.loggingDisabled = other.loggingDisabled;
+    this.coalescingWindowMillis = other.coalescingWindowMillis;
+  }
+
+  private Channel() {
+    // For fromEntity
+  }
+
+  /**
+   * Reads a channel stored by {@link #toEntity} or by JDO. Missing fields are
+   * left null for {@link #fixUp} to fill in, except for the invitee and
+   * request sets, since empty ones are stored as null.
+   */
+  @SuppressWarnings("unchecked")
+  public static Channel fromEntity(Entity entity) {
+    Channel channel = new Channel();
+    channel.name = entity.getKey().getName();
+    Collection<Member> members = (Collection<Member>)
+        EntityDatastore.getSerialized(entity, "members");
+    channel.members = members == null ? null : Sets.newHashSet(members);
+    channel.inviteOnly = EntityDatastore.getBoolean(entity, "inviteOnly");
+    channel.invitedIds =
+        toSet(EntityDatastore.getStringList(entity, "invitedIds"));
+    channel.sequenceId = EntityDatastore.getInteger(entity, "sequenceId");
+    channel.requestedInvitations = toSet(
+        EntityDatastore.getStringList(entity, "requestedInvitations"));
+    channel.loggingDisabled =
+        EntityDatastore.getBoolean(entity, "loggingDisabled");
+    channel.coalescingWindowMillis =
+        EntityDatastore.getInteger(entity, "coalescingWindowMillis");
+    return channel;
+  }
+
+  private static LinkedHashSet<String> toSet(List<String> list) {
+    return list == null ?
+        Sets.<String>newLinkedHashSet() : Sets.newLinkedHashSet(list);
+  }
+
+  /**
+   * @return this channel as an entity, with the same properties that JDO
+   * would store
+   */
+  public Entity toEntity() {
+    Entity entity = new Entity(KIND, name);
+    entity.setUnindexedProperty("members", EntityDatastore.toSerializedProperty(
+        members == null ? null : Sets.newHashSet(members)));
+    entity.setUnindexedProperty("inviteOnly", inviteOnly);
+    entity.setUnindexedProperty(
+        "invitedIds", EntityDatastore.toProperty(invitedIds));
+    entity.setUnindexedProperty("sequenceId", sequenceId);
+    entity.setUnindexedProperty("requestedInvitations",
+        EntityDatastore.toProperty(requestedInvitations));
+    entity.setUnindexedProperty("loggingDisabled", loggingDisabled);
+    entity.setUnindexedProperty(
+        "coalescingWindowMillis", coalescingWindowMillis);
+    return entity;
   }
 
   public JID serverJID() {
@@ -133,9 +215,7 @@ public class Channel implements Serializable {
   public void invite(String email) {
     // Need to be robust b/c invitees was added after v1 of this class.
     String cleanedUp = email.toLowerCase().trim();
-    if (!invitedIds.contains(cleanedUp)) {
-      invitedIds.add(cleanedUp);
-    }
+    invitedIds.add(cleanedUp);
     requestedInvitations.remove(cleanedUp);
   }
 
@@ -152,7 +232,7 @@ public class Channel implements Serializable {
     this.loggingDisabled = loggingDisabled;
     if (loggingDisabled) {
       // Clear currently logged messages if we're disabling logging.
-      fixUp();
+      LastMessages.instance().clear(getName(), getMemberJIDs());
     }
   }
 
@@ -217,9 +297,10 @@ public class Channel implements Serializable {
    */
   private List<Member> getMembersToSendTo(Member exclude) {
     List<Member> recipients = Lists.newArrayList();
+    long now = System.currentTimeMillis();
     for (Member member : getMembers()) {
       if (!member.equals(exclude)
-          && member.getSnoozeStatus() != SnoozeStatus.SNOOZING) {
+          && member.getSnoozeStatus(now) != SnoozeStatus.SNOOZING) {
         recipients.add(member);
       }
     }
@@ -235,6 +316,18 @@ public class Channel implements Serializable {
     return Collections.unmodifiableSet(mutableMembers());
   }
 
+  /**
+   * @return the JIDs of all of the channel's members
+   */
+  public List<String> getMemberJIDs() {
+    Set<Member> members = getMembers();
+    List<String> jids = Lists.newArrayListWithCapacity(members.size());
+    for (Member member : members) {
+      jids.add(member.getJID());
+    }
+    return jids;
+  }
+
   public Member getMemberByJID(JID jid) {
     return getMemberByJID(jid.getId());
   }
@@ -358,16 +451,39 @@ public class Channel implements Serializable {
     return inviteOnly;
   }
 
-  public List<String> getInvitees() {
-    return invitedIds;
+  public int getCoalescingWindowMillis() {
+    return coalescingWindowMillis != null ? coalescingWindowMillis : 0;
+  }
+
+  /**
+   * @param windowMillis 0 to disable coalescing, otherwise a value between
+   * {@link Outbox#MIN_WINDOW_MILLIS} and {@link Outbox#MAX_WINDOW_MILLIS}
+   */
+  public void setCoalescingWindowMillis(int windowMillis) {
+    Preconditions.checkArgument(windowMillis == 0 ||
+        (windowMillis >= Outbox.MIN_WINDOW_MILLIS &&
+            windowMillis <= Outbox.MAX_WINDOW_MILLIS),
+        "Coalescing window out of range: %s", windowMillis);
+    this.coalescingWindowMillis = windowMillis;
+  }
+
+  /**
+   * @return the invitees, in the order they were invited
+   */
+  public Set<String> getInvitees() {
+    return Collections.unmodifiableSet(invitedIds);
   }
 
   public void removeInvitee(String invitee) {
     invitedIds.remove(invitee.toLowerCase().trim());
   }  
 
-  public List<String> getRequestedInvitations() {
-    return requestedInvitations;
+  /**
+   * @return the email addresses that requested invitations, in the order
+   * they did
+   */
+  public Set<String> getRequestedInvitations() {
+    return Collections.unmodifiableSet(requestedInvitations);
   }
 
   public boolean hasRequestedInvitation(String email) {
@@ -375,45 +491,19 @@ public class Channel implements Serializable {
   }
 
   public void addRequestedInvitation(String email) {
-    String cleanedUp = email.toLowerCase().trim();
-    if (!requestedInvitations.contains(cleanedUp)) {
-      requestedInvitations.add(cleanedUp);
-    }
+    requestedInvitations.add(email.toLowerCase().trim());
   }    
 
   private void sendMessage(String message, List<Member> recipients) {
-  	
-  	try {
-    	if (this.isMigrated()) {
-    		logger.info("MIGRATED message");
-    		JSONObject jso = new JSONObject();
-
-    		jso.put("outmsg", message);
-    		List<String> rec = new ArrayList<String>();
-    		for (Member recipient : recipients) {
-    			rec.add(recipient.getJID().toString());
-    		}
-    		jso.put("recipients", rec);
-    		jso.put("from_channel", this.name);
-
-    		logger.info("Sending raw message" + jso.toString() + "to " 
-    					+ PartychappServlet.PROXY_CONTROL);
-    		boolean succ = ChannelUtil.sendMessage(jso.toString(), 
-    				PartychappServlet.PROXY_CONTROL,
-    				PartychappServlet.PARTYCHAPP_CONTROL);
-    		logger.info("Sent message to proxy control " + succ);
-    		if (message.isEmpty()) message = "<debug: refresh>";
-    	}
-    } catch (JSONException e) {
-    	// TODO Auto-generated catch block
-    	e.printStackTrace();
-    }
-
-  	
+    if (isMigrated()) {
+      ProxyControl.instance().send(this, message, recipients);
+      if (message.isEmpty()) message = "<debug: refresh>";
+    }
+
     List<JID> withSequenceId = Lists.newArrayList();
     List<JID> noSequenceId = Lists.newArrayList();
     for (Member m : recipients) {
-      if (m.debugOptions().isEnabled(Option.SEQUENCE_IDS)) {
+      if (m.isDebugOptionEnabled(Option.SEQUENCE_IDS)) {
         withSequenceId.add(new JID(m.getJID()));
       } else {
         noSequenceId.add(new JID(m.getJID()));
@@ -430,7 +520,21 @@ public class Channel implements Serializable {
     }
 
     Set<JID> errorJIDs = sendMessage(message, withSequenceId, noSequenceId);
+    notifyOfSendErrors(message, errorJIDs);
 
+    // TODO(mihaip): add uniform interface for XMPP and Channel endpoints, so
+    // that Channel doesn't have to know about either SendUtil or ChannelUtil.
+        
+    for (Member recipient : recipients) {
+      ChannelUtil.sendMessage(this, recipient, message);
+    }
+  }
+
+  /**
+   * Tells the members that asked for {@link Option#ERROR_NOTIFICATIONS} that
+   * {@code message} could not be delivered to them.
+   */
+  public void notifyOfSendErrors(String message, Set<JID> errorJIDs) {
     for (JID errorJID : errorJIDs) {
       // Skip over invitees, they're not members and so don't have debug options
       if (invitedIds.contains(errorJID.getId())) {
@@ -442,19 +546,12 @@ public class Channel implements Serializable {
             "Could not find member " + errorJID.getId() + " in channel" + name);
         continue;
       }
-      if (member.debugOptions().isEnabled(Option.ERROR_NOTIFICATIONS)) {
+      if (member.isDebugOptionEnabled(Option.ERROR_NOTIFICATIONS)) {
         sendDirect(
             "Attempted to send \"" + message + "\" to you but got an error",
             member);
       }
     }
-
-    // TODO(mihaip): add uniform interface for XMPP and Channel endpoints, so
-    // that Channel doesn't have to know about either SendUtil or ChannelUtil.
-        
-    for (Member recipient : recipients) {
-      ChannelUtil.sendMessage(this, recipient, message);
-    }
   }
 
   private Set<JID> sendMessage(
@@ -465,7 +562,13 @@ public class Channel implements Serializable {
     String messageWithSequenceId = message + " (" + sequenceId + ")";
 
     Set<JID> errorJIDs = Sets.newHashSet();
-    errorJIDs.addAll(SendUtil.sendMessage(message, serverJID(), noSequenceId));
+    // Members with sequence IDs are debugging delivery, so they always get
+    // their messages immediately. Errors for coalesced messages are reported
+    // by Outbox.flush, since they're sent by a later request.
+    if (getCoalescingWindowMillis() <= 0 ||
+        !Outbox.instance().enqueue(this, message, noSequenceId)) {
+      errorJIDs.addAll(SendUtil.sendMessage(message, serverJID(), noSequenceId));
+    }
     errorJIDs.addAll(
         SendUtil.sendMessage(messageWithSequenceId, serverJID(), withSequenceId));
 
@@ -489,28 +592,9 @@ public class Channel implements Serializable {
 
   private void maybeLogMessage(String message, Member sender,
       List<Member> recipients) {
-    Double frac = Configuration.persistentConfig().fractionOfMessagesToLog();
-
-    final double accept = (null == frac || frac > 1.0 || frac < 0.0) ? 
-        0.0 : frac.doubleValue(); 
-
-    if (Channel.randomGenerator.nextDouble() < accept) {
-      AsyncDatastoreService asyncDS = DatastoreServiceFactory.getAsyncDatastoreService();
-      Entity logEntity = createMessageLogEntity(message, sender, recipients);
-      asyncDS.put(logEntity);
-    }
-  }
-
-  private Entity createMessageLogEntity(String message, Member sender,
-      List<Member> recipients) {
-    Entity logEntity = new Entity("messageLog");
-    logEntity.setUnindexedProperty("from", 
-          (null == sender) ? "unknown@unknown" : sender.getJID());
-    logEntity.setUnindexedProperty("to", this.getName());
-    logEntity.setUnindexedProperty("num_recipients", recipients.size());
-    logEntity.setUnindexedProperty("payload_size", message.length());		
-    logEntity.setUnindexedProperty("time_ms", System.currentTimeMillis());
-    return logEntity;
+    MessageLog.instance().log(getName(),
+        (null == sender) ? "unknown@unknown" : sender.getJID(),
+        recipients.size(), message.length());
   }
 
   public void broadcastIncludingSender(String message) {
@@ -550,14 +634,28 @@ public class Channel implements Serializable {
     return sendSMS(body, getMembers());
   }
 
-  private void awakenSnoozers() {
+  /**
+   * Wakes up members whose snooze time has passed and broadcasts that they
+   * are awake. Called on every send, and also by {@link WakeSnoozersTask} so
+   * that snoozers in quiet rooms are woken up on time.
+   */
+  public void awakenSnoozers() {
+    long now = System.currentTimeMillis();
+    if (nextWakeMillis != null && now < nextWakeMillis) {
+      return;
+    }
+
     // awaken snoozers and broadcast them awaking.
     Set<Member> awoken = Sets.newHashSet();
+    long nextWake = Long.MAX_VALUE;
     for (Member member : getMembers()) {
-      if (member.unsnoozeIfNecessary()) {
+      if (member.unsnoozeIfNecessary(now)) {
         awoken.add(member);
+      } else if (member.getSnoozeUntilMillis() != 0) {
+        nextWake = Math.min(nextWake, member.getSnoozeUntilMillis());
       }
     }
+    nextWakeMillis = nextWake;
 
     if (!awoken.isEmpty()) {
       put();
@@ -572,6 +670,15 @@ public class Channel implements Serializable {
     }
   }
 
+  /**
+   * Should only be called by {@link Member#setSnoozeUntil}.
+   */
+  void onMemberSnoozed(Date snoozeUntil) {
+    if (nextWakeMillis != null) {
+      nextWakeMillis = Math.min(nextWakeMillis, snoozeUntil.getTime());
+    }
+  }
+
   private void incrementSequenceId() {
     ++sequenceId;
     if (sequenceId >= 100) {
@@ -604,15 +711,16 @@ public class Channel implements Serializable {
       shouldPut = true;
     }
     if (invitedIds == null) {
-      invitedIds = Lists.newArrayList();
+      invitedIds = Sets.newLinkedHashSet();
       shouldPut = true;
     }
     if (requestedInvitations == null) {
-      requestedInvitations = Lists.newArrayList();
+      requestedInvitations = Sets.newLinkedHashSet();
       shouldPut = true;
     }
 
     List<String> membersToRemove = Lists.newArrayList();
+    long nextWake = Long.MAX_VALUE;
 
     for (Member m : mutableMembers()) {
       // Don't allow channels to be in other channels {@link InviteHandler#
@@ -626,14 +734,15 @@ public class Channel implements Serializable {
         membersToRemove.add(m.getJID());
         continue;
       }
-      String jid = m.getJID().toLowerCase();
-      if (invitedIds.contains(jid)) {
-        invitedIds.remove(jid);
-      }
+      invitedIds.remove(m.getJID().toLowerCase());
       if (m.fixUp(this)) {
         shouldPut = true;
       }
+      if (m.getSnoozeUntilMillis() != 0) {
+        nextWake = Math.min(nextWake, m.getSnoozeUntilMillis());
+      }
     }
+    nextWakeMillis = nextWake;
 
     if (!membersToRemove.isEmpty()) {
       for (String jid : membersToRemove) {
@@ -1,5 +1,15 @@
 package com.imjasonh.partychapp;
 
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 public class Configuration {
   public static final String chatDomain = "partychapp.appspotchat.com";
   public static final String webDomain = "partychapp.appspot.com";
@@ -10,29 +20,207 @@ public class Configuration {
   // A nightly stats email is sent to this address. (See StatsCronJob.)
   public static final String statsEmailAddress = "nsanch@gmail.com";
 
-  private static PersistentConfiguration pc;
-  private static long pcLoadTimeMillis = 0;
+  private static final Logger logger =
+      Logger.getLogger(Configuration.class.getName());
+
+  /**
+   * How often an instance checks memcache for a newer published
+   * configuration, i.e. how long edits take to reach every instance.
+   */
+  private static final long CHECK_INTERVAL_MILLIS = 5 * 1000L;
+
+  /**
+   * If memcache has lost the published configuration, it's reloaded from the
+   * datastore (and re-published) at most this often.
+   */
   private static final long MAX_PC_AGE_MILLIS = 60 * 1000L;
 
+  private static final String MEMCACHE_KEY = "persistent-config";
+
+  /**
+   * What's kept in memcache: a configuration snapshot and its version (when
+   * it was published).
+   */
+  static class Published implements Serializable {
+    private static final long serialVersionUID = 4821043759103745621L;
+
+    final PersistentConfiguration pc;
+    final long version;
+
+    Published(PersistentConfiguration pc, long version) {
+      this.pc = pc;
+      this.version = version;
+    }
+  }
+
+  /**
+   * The configuration that requests use, with its version and when it was
+   * loaded and last checked. Immutable and swapped as a whole.
+   */
+  static class Snapshot {
+    final PersistentConfiguration pc;
+    final long version;
+    final long loadTimeMillis;
+    final long checkTimeMillis;
+
+    Snapshot(PersistentConfiguration pc, long version, long loadTimeMillis,
+        long checkTimeMillis) {
+      this.pc = pc.isFrozen() ? pc : pc.snapshot();
+      this.version = version;
+      this.loadTimeMillis = loadTimeMillis;
+      this.checkTimeMillis = checkTimeMillis;
+    }
+
+    Snapshot checkedAt(long nowMillis) {
+      return new Snapshot(pc, version, loadTimeMillis, nowMillis);
+    }
+  }
+
+  private static volatile Snapshot snapshot;
+
+  /** Set while a request is checking for a newer configuration. */
+  private static final AtomicBoolean revalidating = new AtomicBoolean();
+
+  private static volatile MemcacheService memcache = null;
+
+  /**
+   * Reloads the configuration from the datastore and publishes it, so that
+   * every instance picks it up.
+   */
   public static void reloadPersistentConfig() {
-    pc = null;
-    persistentConfig();
+    publish(loadFromDatastore());
+  }
+
+  /**
+   * Makes {@code pc} the configuration, on this instance right away and on
+   * others within {@link #CHECK_INTERVAL_MILLIS}. It should already have been
+   * stored in the datastore.
+   */
+  public static void publish(PersistentConfiguration pc) {
+    long now = System.currentTimeMillis();
+    Snapshot published = new Snapshot(pc, now, now, now);
+    try {
+      getMemcache().put(MEMCACHE_KEY,
+          new Published(published.pc, published.version));
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not publish configuration", err);
+    }
+    snapshot = published;
+  }
+
+  @VisibleForTesting
+  public static void setPersistentConfigForTesting(PersistentConfiguration pc) {
+    long now = System.currentTimeMillis();
+    snapshot = new Snapshot(pc, now, now, now);
   }
 
   public static long getPeristentConfigLoadTimeMillis() {
-    return pcLoadTimeMillis;
+    Snapshot current = snapshot;
+    return current == null ? 0 : current.loadTimeMillis;
   }
 
+  /**
+   * @return the current configuration snapshot. This only blocks the first
+   * time an instance needs it; after that, one request every
+   * {@link #CHECK_INTERVAL_MILLIS} checks memcache for a newer version, and
+   * the others carry on with the one they have.
+   */
   public static PersistentConfiguration persistentConfig() {
-    long now = System.currentTimeMillis();
-    long pcAge = now - pcLoadTimeMillis;
-    if (pc == null || pcAge > MAX_PC_AGE_MILLIS) {
-      pcLoadTimeMillis = now;
-      pc = Datastore.instance().getPersistentConfig();
-      if (pc == null) {
-        pc = new PersistentConfiguration();
+    Snapshot current = snapshot;
+    if (current == null) {
+      synchronized (Configuration.class) {
+        current = snapshot;
+        if (current == null) {
+          current = snapshot = loadInitial();
+        }
       }
+    } else if (System.currentTimeMillis() - current.checkTimeMillis >
+          CHECK_INTERVAL_MILLIS &&
+        revalidating.compareAndSet(false, true)) {
+      try {
+        current = snapshot = revalidate(current, System.currentTimeMillis());
+      } finally {
+        revalidating.set(false);
+      }
+    }
+    return current.pc;
+  }
+
+  private static Snapshot loadInitial() {
+    long now = System.currentTimeMillis();
+    Published published = getPublished();
+    if (published != null) {
+      return new Snapshot(published.pc, published.version, now, now);
+    }
+    Snapshot loaded = new Snapshot(loadFromDatastore(), now, now, now);
+    addPublished(loaded);
+    return loaded;
+  }
+
+  private static Snapshot revalidate(Snapshot current, long nowMillis) {
+    Published published = getPublished();
+    if (published != null) {
+      return next(current, published, nowMillis);
+    }
+    if (nowMillis - current.loadTimeMillis <= MAX_PC_AGE_MILLIS) {
+      return current.checkedAt(nowMillis);
+    }
+    Snapshot loaded =
+        new Snapshot(loadFromDatastore(), nowMillis, nowMillis, nowMillis);
+    addPublished(loaded);
+    return loaded;
+  }
+
+  /**
+   * @return the snapshot to use once {@code published} has been read from
+   * memcache
+   */
+  @VisibleForTesting
+  static Snapshot next(Snapshot current, Published published, long nowMillis) {
+    if (published.version == current.version) {
+      return current.checkedAt(nowMillis);
+    }
+    return new Snapshot(published.pc, published.version, nowMillis, nowMillis);
+  }
+
+  /**
+   * @return the published configuration, or null if memcache doesn't have it
+   * (or isn't available)
+   */
+  private static Published getPublished() {
+    try {
+      return (Published) getMemcache().get(MEMCACHE_KEY);
+    } catch (RuntimeException err) {
+      // Includes values that can't be deserialized anymore.
+      logger.log(Level.FINE, "Could not check for a newer configuration", err);
+      return null;
+    }
+  }
+
+  /**
+   * Re-publishes a configuration that was loaded from the datastore, unless
+   * something else was published in the meantime.
+   */
+  private static void addPublished(Snapshot loaded) {
+    try {
+      getMemcache().put(MEMCACHE_KEY,
+          new Published(loaded.pc, loaded.version), null,
+          SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+    } catch (RuntimeException err) {
+      logger.log(Level.FINE, "Could not publish configuration", err);
+    }
+  }
+
+  private static PersistentConfiguration loadFromDatastore() {
+    PersistentConfiguration pc = Datastore.instance().getPersistentConfig();
+    return pc == null ? new PersistentConfiguration() : pc.snapshot();
+  }
+
+  // Concurrent requests may both create one, which is harmless.
+  private static MemcacheService getMemcache() {
+    if (memcache == null) {
+      memcache = MemcacheServiceFactory.getMemcacheService();
     }
-    return pc;
+    return memcache;
   }
 }
@@ -0,0 +1,72 @@
+package com.imjasonh.partychapp;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.Configuration.Published;
+import com.imjasonh.partychapp.Configuration.Snapshot;
+
+import junit.framework.TestCase;
+
+public class ConfigurationTest extends TestCase {
+  @Override
+  public void tearDown() {
+    Configuration.setPersistentConfigForTesting(new PersistentConfiguration());
+  }
+
+  public void testSnapshotIsFrozenCopy() {
+    PersistentConfiguration pc = new PersistentConfiguration();
+    pc.setPlusPlusBlacklist(Lists.newArrayList("lol"));
+    PersistentConfiguration snapshot = pc.snapshot();
+
+    pc.setPlusPlusBlacklist(ImmutableList.of("rofl"));
+    assertEquals(ImmutableSet.of("lol"), snapshot.plusPlusBlacklist());
+    assertTrue(snapshot.isFrozen());
+    try {
+      snapshot.setSenderMessagesPerMinute(10);
+      fail("Snapshots should not be editable");
+    } catch (IllegalStateException expected) {
+      // Expected
+    }
+
+    PersistentConfiguration copy = new PersistentConfiguration(snapshot);
+    assertFalse(copy.isFrozen());
+    copy.setSenderMessagesPerMinute(10);
+    assertEquals(10, copy.senderMessagesPerMinute());
+    assertEquals(0, snapshot.senderMessagesPerMinute());
+  }
+
+  public void testPersistentConfigIsSnapshot() {
+    PersistentConfiguration pc = new PersistentConfiguration();
+    pc.setChannelMessagesPerMinute(30);
+    Configuration.setPersistentConfigForTesting(pc);
+    pc.setChannelMessagesPerMinute(60);
+
+    assertEquals(30, Configuration.persistentConfig().channelMessagesPerMinute());
+    assertTrue(Configuration.persistentConfig().isFrozen());
+  }
+
+  public void testNextKeepsSameVersion() {
+    Snapshot current = new Snapshot(new PersistentConfiguration(), 1, 100, 100);
+    Published published = new Published(new PersistentConfiguration(), 1);
+
+    Snapshot next = Configuration.next(current, published, 200);
+    assertSame(current.pc, next.pc);
+    assertEquals(100, next.loadTimeMillis);
+    assertEquals(200, next.checkTimeMillis);
+  }
+
+  public void testNextPicksUpNewVersion() {
+    Snapshot current = new Snapshot(new PersistentConfiguration(), 1, 100, 100);
+    PersistentConfiguration edited = new PersistentConfiguration();
+    edited.setSenderMessagesPerMinute(5);
+
+    Snapshot next =
+        Configuration.next(current, new Published(edited, 2), 200);
+    assertEquals(2, next.version);
+    assertEquals(5, next.pc.senderMessagesPerMinute());
+    assertTrue(next.pc.isFrozen());
+    assertEquals(200, next.loadTimeMillis);
+  }
+}
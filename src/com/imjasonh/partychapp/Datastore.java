@@ -18,20 +18,49 @@ import java.util.TimeZone;
 import java.util.logging.Logger;
 
 public abstract class Datastore {
-  private static Datastore instance;
+  private static volatile Datastore instance;
   
-  @SuppressWarnings("unused")
   private static final Logger logger = 
       Logger.getLogger(Datastore.class.getName());
 
+  /**
+   * System property (set in appengine-web.xml) that picks the implementation
+   * that talks to the datastore: "jdo" (the default) for
+   * {@link LiveDatastore}, or "entity" for {@link EntityDatastore}.
+   */
+  public static final String IMPLEMENTATION_PROPERTY = "partychapp.datastore";
+
   public static Datastore instance() {
-    if (instance == null) {
+    Datastore result = instance;
+    if (result == null) {
       // We have to do this lazily because tests won't have the
-      // live datastore dependencies set up
-      instance = new FixingDatastore(new MemcacheCachingDatastore(
-          new LiveDatastore()));
+      // live datastore dependencies set up. Requests may run concurrently,
+      // so only one of them creates it.
+      synchronized (Datastore.class) {
+        result = instance;
+        if (result == null) {
+          result = instance = new FixingDatastore(
+              new MeteringDatastore(
+                  new MemcacheCachingDatastore(
+                      new MeteringDatastore(newLiveDatastore(), "live", true)),
+                  "cached",
+                  false));
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Datastore newLiveDatastore() {
+    String implementation = System.getProperty(IMPLEMENTATION_PROPERTY, "jdo");
+    if (implementation.equals("entity")) {
+      return new EntityDatastore();
+    }
+    if (!implementation.equals("jdo")) {
+      logger.warning("Unknown " + IMPLEMENTATION_PROPERTY + " " +
+          implementation + ", using JDO");
     }
-    return instance;
+    return new LiveDatastore();
   }
   
 
@@ -84,27 +113,31 @@ public abstract class Datastore {
     public int sevenDayActiveUsers;
     public int thirtyDayActiveUsers;
 
-    private static final DateFormat dateFormat =
-        DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
-    static {
+    // Formats aren't thread-safe, so they're created as needed rather than
+    // shared.
+    private static DateFormat newDateFormat() {
+      DateFormat dateFormat =
+          DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
       dateFormat.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+      return dateFormat;
     }
     
-    private static final NumberFormat numberFormat =
-        NumberFormat.getIntegerInstance(Locale.US);
+    private static NumberFormat newNumberFormat() {
+      return NumberFormat.getIntegerInstance(Locale.US);
+    }
     
     public String getFormattedNumChannels() {
-      return numberFormat.format(numChannels); 
+      return newNumberFormat().format(numChannels); 
     }
     
     public String getFormattedSevenDayActiveUsers() {
-      return numberFormat.format(sevenDayActiveUsers); 
+      return newNumberFormat().format(sevenDayActiveUsers); 
     }    
     
     @Override
     public String toString() {
       String reply = "Number of channels (as of " + 
-          (timestamp != null ? dateFormat.format(timestamp) : "unknown") + 
+          (timestamp != null ? newDateFormat().format(timestamp) : "unknown") + 
           "): " + numChannels + "\n";
       reply += "1-day active users: " + oneDayActiveUsers + "\n";
       reply += "7-day active users: " + sevenDayActiveUsers + "\n";
@@ -5,6 +5,11 @@ import com.google.common.collect.Lists;
 import java.io.Serializable;
 import java.util.List;
 
+/**
+ * Members used to keep their debugging options in one of these, they're now a
+ * bitset in {@link Member}. Only kept so that members stored before then can
+ * still be read.
+ */
 public class DebuggingOptions implements Serializable {
   private static final long serialVersionUID = 98432798750987435L;
   
@@ -42,27 +47,21 @@ public class DebuggingOptions implements Serializable {
   }
 
   private List<String> opts = Lists.newArrayList();
-  
-  public DebuggingOptions() {}
-  
-  public DebuggingOptions(DebuggingOptions other) {
-    this.opts = Lists.newArrayList(other.opts);
-  }
 
-  public void add(Option option) {
-    opts.add(option.toString());
-  }
-  
-  public void clear() {
-    opts.clear();
-  }
+  private DebuggingOptions() {}
 
-  @Override
-  public String toString() {
-    return opts.toString();
-  }
-  
-  public boolean isEnabled(Option option) {
-    return opts.contains(option.toString());
+  /**
+   * @return the options that were enabled (skipping ones that have been
+   * removed since)
+   */
+  List<Option> getOptions() {
+    List<Option> options = Lists.newArrayList();
+    for (String opt : opts) {
+      Option option = Option.fromString(opt);
+      if (option != null) {
+        options.add(option);
+      }
+    }
+    return options;
   }
 }
@@ -0,0 +1,414 @@
+package com.imjasonh.partychapp;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Query.SortDirection;
+import com.google.appengine.api.memcache.InvalidValueException;
+import com.google.appengine.api.memcache.jsr107cache.GCacheFactory;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.ppb.Reason;
+import com.imjasonh.partychapp.ppb.Target;
+
+import net.sf.jsr107cache.Cache;
+import net.sf.jsr107cache.CacheException;
+import net.sf.jsr107cache.CacheManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of {@link Datastore} that uses the low-level datastore API
+ * directly instead of JDO (see {@link LiveDatastore}). Each persistent class
+ * maps itself to and from an {@link Entity} (e.g. {@link Channel#toEntity}
+ * and {@link Channel#fromEntity}), using the same kinds and property names
+ * and types that JDO does, so that the two implementations can read each
+ * other's data. The helpers below are for those mappings.
+ *
+ * There is no per-request state (loaded objects aren't attached to anything,
+ * and are only written when they are put), so this is thread-safe.
+ *
+ * Used instead of {@link LiveDatastore} when the
+ * {@link Datastore#IMPLEMENTATION_PROPERTY} system property is "entity".
+ */
+public class EntityDatastore extends Datastore {
+  private static final Logger logger =
+      Logger.getLogger(EntityDatastore.class.getName());
+
+  private static final String STATS_CACHE_KEY = "stats";
+
+  private static Cache STATS_CACHE = null;
+
+  static {
+    try {
+      STATS_CACHE = CacheManager.getInstance().getCacheFactory().createCache(
+              ImmutableMap.of(GCacheFactory.EXPIRATION_DELTA, 24 * 60 * 60L));
+    } catch (CacheException err) {
+      logger.log(Level.SEVERE, "Could not initialize STATS_CACHE", err);
+    }
+  }
+
+  private final DatastoreService datastore =
+      DatastoreServiceFactory.getDatastoreService();
+
+  private Entity get(String kind, String name) {
+    try {
+      return datastore.get(KeyFactory.createKey(kind, name));
+    } catch (EntityNotFoundException notFound) {
+      return null;
+    }
+  }
+
+  @Override
+  public PersistentConfiguration getPersistentConfig() {
+    Entity entity = get(PersistentConfiguration.KIND, "config");
+    return entity == null ? null : PersistentConfiguration.fromEntity(entity);
+  }
+
+  @Override
+  public Channel getChannelByName(String name) {
+    Entity entity = get(Channel.KIND, name);
+    return entity == null ? null : Channel.fromEntity(entity);
+  }
+
+  @Override
+  public User getUserByJID(String jid) {
+    Entity entity = get(User.KIND, jid);
+    return entity == null ? null : User.fromEntity(entity);
+  }
+
+  @Override
+  public User getUserByPhoneNumber(String phoneNumber) {
+    Query query = new Query(User.KIND)
+        .addFilter("phoneNumber", FilterOperator.EQUAL, phoneNumber);
+    List<Entity> entities = datastore.prepare(query).asList(
+        FetchOptions.Builder.withLimit(1));
+    return entities.isEmpty() ? null : User.fromEntity(entities.get(0));
+  }
+
+  @Override
+  public Target getTargetByID(String key) {
+    Entity entity = get(Target.KIND, key);
+    return entity == null ? null : Target.fromEntity(entity);
+  }
+
+  @Override
+  public List<Target> getTargetsByChannel(String channelName) {
+    Query query = new Query(Target.KIND)
+        .addFilter("channelName", FilterOperator.EQUAL, channelName);
+    List<Target> targets = Lists.newArrayList();
+    for (Entity entity : datastore.prepare(query).asIterable()) {
+      targets.add(Target.fromEntity(entity));
+    }
+    return targets;
+  }
+
+  @Override
+  public List<Reason> getReasons(Target target, int limit) {
+    Query query = new Query(Reason.KIND)
+        .addFilter("targetId", FilterOperator.EQUAL, target.key())
+        .addSort("timestamp", SortDirection.DESCENDING);
+    FetchOptions options = FetchOptions.Builder.withDefaults();
+    if (limit > 0) {
+      options.limit(limit);
+    }
+    List<Reason> reasons = Lists.newArrayList();
+    for (Entity entity : datastore.prepare(query).asIterable(options)) {
+      reasons.add(Reason.fromEntity(entity));
+    }
+    return reasons;
+  }
+
+  @Override
+  public void put(Object o) {
+    Entity entity = toEntity(o);
+    datastore.put(entity);
+    onPut(o, entity.getKey());
+  }
+
+  @Override
+  public void putAll(Collection<Object> objects) {
+    if (objects.isEmpty()) {
+      return;
+    }
+    List<Object> toPut = Lists.newArrayList(objects);
+    List<Entity> entities = Lists.newArrayListWithCapacity(toPut.size());
+    for (Object o : toPut) {
+      entities.add(toEntity(o));
+    }
+    List<Key> keys = datastore.put(entities);
+    for (int i = 0; i < toPut.size(); i++) {
+      onPut(toPut.get(i), keys.get(i));
+    }
+  }
+
+  @Override
+  public void delete(Object o) {
+    datastore.delete(toEntity(o).getKey());
+  }
+
+  @Override
+  public void startRequest() {
+    // Nothing to set up
+  }
+
+  @Override
+  public void endRequest() {
+    // Nothing to clean up, everything was written when it was put
+  }
+
+  private static Entity toEntity(Object o) {
+    if (o instanceof Channel) {
+      return ((Channel) o).toEntity();
+    } else if (o instanceof User) {
+      return ((User) o).toEntity();
+    } else if (o instanceof Target) {
+      return ((Target) o).toEntity();
+    } else if (o instanceof Reason) {
+      return ((Reason) o).toEntity();
+    } else if (o instanceof PersistentConfiguration) {
+      return ((PersistentConfiguration) o).toEntity();
+    }
+    throw new IllegalArgumentException(
+        "Can't store " + o.getClass().getName());
+  }
+
+  /**
+   * Gives new reasons the IDs that the datastore picked for them, like JDO
+   * does, so that putting them again updates them.
+   */
+  private static void onPut(Object o, Key key) {
+    if (o instanceof Reason) {
+      ((Reason) o).setKey(key);
+    }
+  }
+
+  @Override
+  public Stats getStats(boolean useCache) {
+    return getDatastoreStats(useCache);
+  }
+
+  /**
+   * Stats come from the low-level API for either implementation, so
+   * {@link LiveDatastore} uses this too.
+   */
+  static Stats getDatastoreStats(boolean useCache) {
+    if (useCache) {
+      try {
+        Stats cachedStats = (Stats) STATS_CACHE.get(STATS_CACHE_KEY);
+        if (cachedStats != null) {
+          return cachedStats;
+        }
+        logger.info("Stats not in cache, re-computing");
+      } catch (InvalidValueException err) {
+        logger.log(Level.WARNING, "Could not load data from memcache", err);
+      }
+    }
+
+    Stats ret = new Stats();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    PreparedQuery pq = datastore.prepare(new Query("__Stat_Kind__"));
+    for (Entity kindStat : pq.asIterable()) {
+      String kind = (String)kindStat.getProperty("kind_name");
+      if (Channel.KIND.equals(kind)) {
+        ret.numChannels = ((Long)kindStat.getProperty("count")).intValue();
+        ret.timestamp = (Date)kindStat.getProperty("timestamp");
+      }
+    }
+
+    ret.numUsers = countUsersActiveInLastNDays(datastore, -1);
+    ret.oneDayActiveUsers = countUsersActiveInLastNDays(datastore, 1);
+    ret.sevenDayActiveUsers = countUsersActiveInLastNDays(datastore, 7);
+    ret.thirtyDayActiveUsers = countUsersActiveInLastNDays(datastore, 30);
+
+    STATS_CACHE.put(STATS_CACHE_KEY, ret);
+
+    return ret;
+  }
+
+  private static int countUsersActiveInLastNDays(DatastoreService ds,
+      int numDays) {
+    Query q = new Query(User.KIND);
+    q.setKeysOnly();
+    if (numDays > 0) {
+      // This is ridiculous, but 30 days in milliseconds is 2.5B, and if numDays is
+      // in int, the expression below overflows and we look for
+      // lastSeen > some-future-date. To fix, just cast it to a long.
+      long numDays64Bit = numDays;
+      q.addFilter("lastSeen", FilterOperator.GREATER_THAN,
+                  new Date(System.currentTimeMillis() - numDays64Bit*24*60*60*1000));
+    }
+
+    // this is sad, I'm fetching everything and I just want a count. But this query should work according to
+    // http://groups.google.com/group/google-appengine-java/browse_thread/thread/f97bdd5bdf91c114/43035e4eea644c6b?#43035e4eea644c6b
+    PreparedQuery pq = ds.prepare(q);
+    FetchOptions fetchOptions = FetchOptions.Builder.withOffset(0);
+    return pq.asList(fetchOptions).size();
+  }
+
+  private static class ExtractingKeyIterable implements Iterator<String> {
+    private Iterator<Entity> wrapped;
+
+    public ExtractingKeyIterable(Iterator<Entity> wrapped) {
+      this.wrapped = wrapped;
+    }
+
+    public boolean hasNext() {
+      return wrapped.hasNext();
+    }
+
+    public String next() {
+      Key next = wrapped.next().getKey();
+      return next.getName();
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("remove isn't supported");
+    }
+  }
+
+  @Override
+  public Iterator<String> getAllEntityKeys(
+      Class<?> entityClass, String lastKey) {
+    return getDatastoreKeyNames(entityClass, lastKey);
+  }
+
+  /**
+   * Also used by {@link LiveDatastore}. JDO uses the class's simple name as
+   * the kind, and stores the primary key field as the key name (not as a
+   * property).
+   */
+  static Iterator<String> getDatastoreKeyNames(
+      Class<?> entityClass, String lastKey) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    String kind = entityClass.getSimpleName();
+    Query q = new Query(kind);
+    q.setKeysOnly();
+    q.addSort(Entity.KEY_RESERVED_PROPERTY);
+    if (lastKey != null) {
+      q.addFilter(Entity.KEY_RESERVED_PROPERTY, FilterOperator.GREATER_THAN,
+          KeyFactory.createKey(kind, lastKey));
+    }
+    PreparedQuery pq = datastore.prepare(q);
+    FetchOptions fetchOptions = FetchOptions.Builder.withOffset(0);
+    return new ExtractingKeyIterable(pq.asIterator(fetchOptions));
+  }
+
+  // Helpers for mapping to and from entities. JDO stores ints as longs and
+  // empty collections as null.
+
+  public static String getString(Entity entity, String name) {
+    return (String) entity.getProperty(name);
+  }
+
+  public static Integer getInteger(Entity entity, String name) {
+    Object value = entity.getProperty(name);
+    return value == null ? null : ((Number) value).intValue();
+  }
+
+  public static int getInt(Entity entity, String name) {
+    Integer value = getInteger(entity, name);
+    return value == null ? 0 : value;
+  }
+
+  public static Boolean getBoolean(Entity entity, String name) {
+    return (Boolean) entity.getProperty(name);
+  }
+
+  public static Double getDouble(Entity entity, String name) {
+    Object value = entity.getProperty(name);
+    return value == null ? null : ((Number) value).doubleValue();
+  }
+
+  public static Date getDate(Entity entity, String name) {
+    return (Date) entity.getProperty(name);
+  }
+
+  /**
+   * @return a mutable copy of a string list property, or null if it's
+   * missing (or was stored empty)
+   */
+  public static List<String> getStringList(Entity entity, String name) {
+    Collection<?> values = (Collection<?>) entity.getProperty(name);
+    if (values == null) {
+      return null;
+    }
+    List<String> list = Lists.newArrayListWithCapacity(values.size());
+    for (Object value : values) {
+      list.add((String) value);
+    }
+    return list;
+  }
+
+  /**
+   * @return the value to store for a collection property
+   */
+  public static Object toProperty(Collection<?> values) {
+    return values == null || values.isEmpty() ?
+        null : Lists.newArrayList(values);
+  }
+
+  /**
+   * @return the object in a property that was stored with
+   * {@code @Persistent(serialized = "true")} (as a serialized {@link Blob})
+   */
+  public static Object getSerialized(Entity entity, String name) {
+    Blob blob = (Blob) entity.getProperty(name);
+    if (blob == null) {
+      return null;
+    }
+    try {
+      ObjectInputStream in = new ObjectInputStream(
+          new ByteArrayInputStream(blob.getBytes()));
+      try {
+        return in.readObject();
+      } finally {
+        in.close();
+      }
+    } catch (IOException err) {
+      throw new IllegalStateException(
+          "Couldn't deserialize " + name + " of " + entity.getKey(), err);
+    } catch (ClassNotFoundException err) {
+      throw new IllegalStateException(
+          "Couldn't deserialize " + name + " of " + entity.getKey(), err);
+    }
+  }
+
+  /**
+   * @return {@code value} serialized the way JDO stores serialized fields
+   */
+  public static Blob toSerializedProperty(Serializable value) {
+    if (value == null) {
+      return null;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(bytes);
+      out.writeObject(value);
+      out.close();
+    } catch (IOException err) {
+      throw new IllegalStateException("Couldn't serialize " + value, err);
+    }
+    return new Blob(bytes.toByteArray());
+  }
+}
@@ -0,0 +1,176 @@
+package com.imjasonh.partychapp;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import com.imjasonh.partychapp.ppb.PlusPlusBot.Action;
+import com.imjasonh.partychapp.ppb.Reason;
+import com.imjasonh.partychapp.ppb.Target;
+import com.imjasonh.partychapp.testing.FakeApiEnvironment;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests the entity mappings used by {@link EntityDatastore}.
+ */
+public class EntityDatastoreTest extends TestCase {
+  @Override
+  public void setUp() {
+    FakeApiEnvironment.install();
+    FakeDatastore datastore = new FakeDatastore();
+    Datastore.setInstance(datastore);
+    datastore.setUp();
+  }
+
+  @Override
+  public void tearDown() {
+    FakeApiEnvironment.uninstall();
+  }
+
+  public void testChannelRoundTrip() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.setInviteOnly(true);
+    channel.invite("invitee@example.com");
+    channel.getMemberByAlias("neil").setAlias("neil2");
+
+    Entity entity = channel.toEntity();
+    assertEquals(Channel.KIND, entity.getKind());
+    assertEquals("pancake", entity.getKey().getName());
+
+    Channel read = Channel.fromEntity(entity);
+    assertEquals("pancake", read.getName());
+    assertTrue(read.isInviteOnly());
+    assertEquals(ImmutableList.of("invitee@example.com"),
+        ImmutableList.copyOf(read.getInvitees()));
+    assertEquals(channel.getSequenceId(), read.getSequenceId());
+    assertEquals(getAliases(channel), getAliases(read));
+    assertEquals("neil@gmail.com",
+        read.getMemberByAlias("neil2").getJID());
+  }
+
+  public void testReadsChannelStoredByJdo() {
+    HashSet<Member> members = Sets.newHashSet();
+    members.add(new Member(null, "neil@gmail.com"));
+    Entity entity = new Entity("Channel", "pancake");
+    entity.setUnindexedProperty(
+        "members", EntityDatastore.toSerializedProperty(members));
+    entity.setUnindexedProperty("sequenceId", 7L);
+    entity.setUnindexedProperty("inviteOnly", false);
+    // Empty lists are stored as null, and newer fields may be missing.
+    entity.setUnindexedProperty("invitedIds", null);
+
+    Channel read = Channel.fromEntity(entity);
+    assertEquals(7, read.getSequenceId());
+    assertFalse(read.isInviteOnly());
+    assertTrue(read.getInvitees().isEmpty());
+    assertTrue(read.getRequestedInvitations().isEmpty());
+    assertEquals(0, read.getCoalescingWindowMillis());
+    assertNotNull(read.getMemberByAlias("neil"));
+  }
+
+  public void testInviteesAndRequestsStoredAsLists() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.addRequestedInvitation("b@example.com");
+    channel.addRequestedInvitation("c@example.com");
+    channel.addRequestedInvitation("b@example.com");
+    channel.invite("C@example.com ");
+    channel.invite("a@example.com");
+    channel.invite("c@example.com");
+
+    Entity entity = channel.toEntity();
+    assertEquals(ImmutableList.of("c@example.com", "a@example.com"),
+        entity.getProperty("invitedIds"));
+    assertEquals(ImmutableList.of("b@example.com"),
+        entity.getProperty("requestedInvitations"));
+
+    Channel read = Channel.fromEntity(entity);
+    assertEquals(ImmutableList.of("c@example.com", "a@example.com"),
+        ImmutableList.copyOf(read.getInvitees()));
+    assertTrue(read.hasRequestedInvitation("B@example.com"));
+    read.removeInvitee("c@example.com");
+    assertEquals(ImmutableList.of("a@example.com"),
+        read.toEntity().getProperty("invitedIds"));
+  }
+
+  public void testUserRoundTrip() {
+    User user = new User("neil@gmail.com");
+    user.setPhoneNumber("5555551234");
+    user.setCarrier(User.Carrier.TMOBILE);
+
+    Entity entity = user.toEntity();
+    assertEquals("neil@gmail.com", entity.getKey().getName());
+    // JDO stores empty lists as null
+    assertNull(entity.getProperty("channelNames"));
+
+    User read = User.fromEntity(entity);
+    assertEquals("neil@gmail.com", read.getJID());
+    assertEquals("5555551234", read.phoneNumber());
+    assertEquals(User.Carrier.TMOBILE, read.carrier());
+    assertTrue(read.channelNames().isEmpty());
+
+    user.addChannel("pancake");
+    read = User.fromEntity(user.toEntity());
+    assertEquals(ImmutableList.of("pancake"), read.channelNames());
+  }
+
+  public void testTargetAndReasonRoundTrip() {
+    Channel channel = FakeDatastore.fakeChannel();
+    Target target = new Target("pancakes", channel);
+    Reason reason = target.takeAction(
+        channel.getMemberByAlias("neil"), Action.PLUSPLUS, "pancakes++ yum");
+
+    Target readTarget = Target.fromEntity(target.toEntity());
+    assertEquals(target.key(), readTarget.key());
+    assertEquals("pancakes", readTarget.name());
+    assertEquals(1, readTarget.score());
+
+    // New reasons get their ID when they are put.
+    Entity entity = reason.toEntity();
+    assertFalse(entity.getKey().isComplete());
+    reason.setKey(KeyFactory.createKey(Reason.KIND, 42));
+    entity = reason.toEntity();
+    assertEquals(42, entity.getKey().getId());
+    assertEquals(target.key(), entity.getProperty("targetId"));
+
+    Reason readReason = Reason.fromEntity(entity);
+    assertEquals(Action.PLUSPLUS, readReason.action());
+    assertEquals("pancakes++ yum", readReason.reason());
+    assertEquals(1, readReason.scoreAfter());
+    assertEquals(reason.timestamp(), readReason.timestamp());
+    assertEquals(42, readReason.toEntity().getKey().getId());
+  }
+
+  public void testPersistentConfigurationRoundTrip() {
+    PersistentConfiguration pc = new PersistentConfiguration();
+    pc.setChannelMessagesPerMinute(30);
+    pc.setFractionOfMessagesToLog(0.25);
+    pc.setPlusPlusBlacklist(Lists.newArrayList("c", "i"));
+
+    PersistentConfiguration read =
+        PersistentConfiguration.fromEntity(pc.toEntity());
+    assertEquals(30, read.channelMessagesPerMinute());
+    assertEquals(0, read.senderMessagesPerMinute());
+    assertEquals(0.25, read.fractionOfMessagesToLog());
+    assertEquals(Sets.newHashSet("c", "i"), read.plusPlusBlacklist());
+    // Not configured, so the defaults are used.
+    assertEquals(pc.migratedChannels(), read.migratedChannels());
+    assertEquals(pc.datastoreGetBudget(), read.datastoreGetBudget());
+  }
+
+  private static List<String> getAliases(Channel channel) {
+    List<String> aliases = Lists.newArrayList();
+    for (Member member : channel.getMembers()) {
+      aliases.add(member.getAlias() + " " + member.getJID());
+    }
+    Collections.sort(aliases);
+    return aliases;
+  }
+}
@@ -6,6 +6,8 @@ import java.util.List;
 
 import com.imjasonh.partychapp.ppb.Reason;
 import com.imjasonh.partychapp.ppb.Target;
+import com.imjasonh.partychapp.stats.RequestTrace;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
 
 
 public class FixingDatastore extends WrappingDatastore {
@@ -27,7 +29,12 @@ public class FixingDatastore extends WrappingDatastore {
   public Channel getChannelByName(String name) {
     Channel c = wrapped.getChannelByName(name);
     if (c != null) {
-      c.fixUp();
+      RequestTrace.Span span = RequestTrace.startSpan(Stage.FIXUP);
+      try {
+        c.fixUp();
+      } finally {
+        span.end();
+      }
     }
     return c;
   }
@@ -13,12 +13,13 @@ import java.util.Map;
 
 /**
  * Implementation of {@link CachingDatastore} that uses an in-memory
- * {@code HashMap} for the cache. Meant for test use only.
+ * map for the cache. Meant for test use only, but safe to use from
+ * concurrent requests, like memcache.
  *
  * @author mihai.parparita@gmail.com (Mihai Parparita)
  */
 public class InMemoryCachingDatastore extends CachingDatastore {
-  private Map<String, byte[]> cache = Maps.newHashMap();
+  private final Map<String, byte[]> cache = Maps.newConcurrentMap();
 
   public InMemoryCachingDatastore(Datastore wrapped) {
     super(wrapped);
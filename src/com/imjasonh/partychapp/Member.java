@@ -1,7 +1,15 @@
 package com.imjasonh.partychapp;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 
+import com.imjasonh.partychapp.DebuggingOptions.Option;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.Collections;
 import java.util.Comparator;
@@ -9,36 +17,61 @@ import java.util.Date;
 import java.util.List;
 import java.util.logging.Logger;
 
+/**
+ * A member of a {@link Channel}. Members are stored (and cached) serialized,
+ * as part of their channel, so they're kept compact: see
+ * {@link #serialPersistentFields} for the serialized form.
+ */
 public class Member implements Serializable {
 
   private static final long serialVersionUID = 8243978327905416562L;
 
-  @SuppressWarnings("unused")
   private static final Logger logger = Logger.getLogger(Member.class.getName());
 
   /**
-   * Maximum length of the message that we'll persist for s/r (the full message
-   * is still broadcast).
+   * The serialized form, which replaced the default one of the fields that
+   * members used to have ({@code jid}, {@code alias}, {@code snoozeUntil},
+   * {@code lastMessages}, {@code debugOptions}, {@code phoneNumber},
+   * {@code carrier} and {@code lastLivePing}). {@link #readObject} reads
+   * either.
+   *
+   * The JID is split at the "@", and the domain is interned, so that a
+   * channel's members share a handful of domain strings, which are only
+   * written once per channel. The alias is null if it's the default one, and
+   * times are 0 if they're not set.
    */
-  private static final int MAX_PERSISTED_MESSAGE_LENGTH = 512;
+  private static final ObjectStreamField[] serialPersistentFields = {
+    new ObjectStreamField("user", String.class),
+    new ObjectStreamField("domain", String.class),
+    new ObjectStreamField("customAlias", String.class),
+    new ObjectStreamField("snoozeUntilMillis", Long.TYPE),
+    new ObjectStreamField("debugOptionBits", Integer.TYPE),
+    new ObjectStreamField("lastLivePingMillis", Long.TYPE),
+  };
 
   private String jid;
 
   private String alias;
 
-  private Date snoozeUntil;
-  
-  private List<String> lastMessages = Lists.newArrayList();
+  /** 0 if the member isn't snoozing. */
+  private long snoozeUntilMillis;
+
+  /**
+   * {@link Option}s that are enabled, by ordinal (so new options have to be
+   * added at the end).
+   */
+  private int debugOptionBits;
 
-  private DebuggingOptions debugOptions = new DebuggingOptions();
+  /** 0 if the member hasn't been seen on the web UI. */
+  private long lastLivePingMillis;
   
   transient private Channel channel;
-  
-  String phoneNumber;
-  
-  String carrier;
-  
-  Date lastLivePing = null;
+
+  /**
+   * Set if this member was read from the old serialized form, so that
+   * {@link #fixUp} gets the channel put in the new one.
+   */
+  transient private boolean readFromOldForm;
   
   public enum SnoozeStatus {
     SNOOZING,
@@ -48,25 +81,26 @@ public class Member implements Serializable {
   
   public Member(Channel c, String jid) {
     this.jid = jid;
-    this.alias = this.jid.split("@")[0]; // remove anything after "@" for default alias
-    this.debugOptions = new DebuggingOptions();
+    this.alias = getDefaultAlias(jid);
     this.channel = c;
   }
   
   public Member(Member other) {
     this.jid = other.jid;
     this.alias = other.alias;
-    this.snoozeUntil = other.snoozeUntil;
-    if (other.lastMessages != null) {
-      this.lastMessages = Lists.newArrayList(other.lastMessages);
-    }
-    this.debugOptions = new DebuggingOptions(other.debugOptions());
-    this.phoneNumber = other.phoneNumber;
-    this.carrier = other.carrier;
+    this.snoozeUntilMillis = other.snoozeUntilMillis;
+    this.debugOptionBits = other.debugOptionBits;
+    this.lastLivePingMillis = other.lastLivePingMillis;
     // to simulate the not-persistent-ness, let's zero these out
     this.channel = null;
   }
 
+  /** Anything before the "@". */
+  private static String getDefaultAlias(String jid) {
+    int at = jid.indexOf('@');
+    return at == -1 ? jid : jid.substring(0, at);
+  }
+
   public String getAlias() {
     return alias;
   }
@@ -84,11 +118,18 @@ public class Member implements Serializable {
   }
   
   public SnoozeStatus getSnoozeStatus() {
-    Date now = new Date();
-    if (snoozeUntil == null) {
+    return getSnoozeStatus(System.currentTimeMillis());
+  }
+
+  /**
+   * Variant of {@link #getSnoozeStatus()} for callers that are checking many
+   * members at once and can compute the current time only once.
+   */
+  public SnoozeStatus getSnoozeStatus(long nowMillis) {
+    if (snoozeUntilMillis == 0) {
       return SnoozeStatus.NOT_SNOOZING;
     } else {
-      if (snoozeUntil.before(now)) {
+      if (snoozeUntilMillis < nowMillis) {
         return SnoozeStatus.SHOULD_WAKE;
       } else {
         return SnoozeStatus.SNOOZING;
@@ -97,46 +138,78 @@ public class Member implements Serializable {
   }
 
   public void setSnoozeUntil(Date snoozeUntil) {
-    this.snoozeUntil = snoozeUntil;
+    this.snoozeUntilMillis = snoozeUntil == null ? 0 : snoozeUntil.getTime();
+    if (snoozeUntil != null && channel != null) {
+      channel.onMemberSnoozed(snoozeUntil);
+    }
   }
 
   public Date getSnoozeUntil() {
-    return snoozeUntil;
+    return snoozeUntilMillis == 0 ? null : new Date(snoozeUntilMillis);
+  }
+
+  /**
+   * Variant of {@link #getSnoozeUntil()} that doesn't allocate.
+   *
+   * @return 0 if the member isn't snoozing
+   */
+  public long getSnoozeUntilMillis() {
+    return snoozeUntilMillis;
   }
   
-  public boolean unsnoozeIfNecessary() {
-    if (getSnoozeStatus() == SnoozeStatus.SHOULD_WAKE) {
+  public boolean unsnoozeIfNecessary(long nowMillis) {
+    if (getSnoozeStatus(nowMillis) == SnoozeStatus.SHOULD_WAKE) {
       setSnoozeUntil(null);
       return true;
     }
     return false;
   }
   
-  private List<String> mutableLastMessages() {
-    return lastMessages;
-  }
-
+  /**
+   * @return the member's most recent messages in this channel, most recent
+   * first. Loaded from {@link LastMessages} on each call, so callers that need
+   * them more than once should hold on to them.
+   */
   public List<String> getLastMessages() {
-    return Collections.unmodifiableList(mutableLastMessages());
+    Preconditions.checkState(channel != null, "Member has no channel");
+    if (channel.isLoggingDisabled()) {
+      return Collections.emptyList();
+    }
+    return LastMessages.instance().get(channel.getName(), jid);
   }
   
   public void addToLastMessages(String toAdd) {
-    if (channel != null && channel.isLoggingDisabled()) {
+    Preconditions.checkState(channel != null, "Member has no channel");
+    if (channel.isLoggingDisabled()) {
       return;
     }
-    if (toAdd.length() > MAX_PERSISTED_MESSAGE_LENGTH) {
-      toAdd = toAdd.substring(0, MAX_PERSISTED_MESSAGE_LENGTH);
-    }
     setSnoozeUntil(null);
-    List<String> messages = mutableLastMessages();
-    messages.add(0, toAdd);
-    if (messages.size() > 10) {
-      messages.remove(10);
-    }    
+    LastMessages.instance().add(channel.getName(), jid, toAdd);
+  }
+
+  public boolean isDebugOptionEnabled(Option option) {
+    return (debugOptionBits & (1 << option.ordinal())) != 0;
+  }
+
+  public void enableDebugOption(Option option) {
+    debugOptionBits |= 1 << option.ordinal();
+  }
+
+  public void clearDebugOptions() {
+    debugOptionBits = 0;
   }
 
-  public DebuggingOptions debugOptions() {
-    return debugOptions;
+  /**
+   * @return the enabled options, in declaration order
+   */
+  public List<Option> getDebugOptions() {
+    List<Option> options = Lists.newArrayList();
+    for (Option option : Option.values()) {
+      if (isDebugOptionEnabled(option)) {
+        options.add(option);
+      }
+    }
+    return options;
   }
 
   public boolean fixUp(Channel c) {
@@ -144,21 +217,92 @@ public class Member implements Serializable {
     if (channel != c) {
       channel = c;
     }
-    if (debugOptions == null) {
-      debugOptions = new DebuggingOptions();
-      shouldPut = true;
-    }
-    if (lastMessages == null) {
-      lastMessages = Lists.newArrayList();
-      shouldPut = true;
-    }
-    if (channel.isLoggingDisabled() && !lastMessages.isEmpty()) {
-      clearLastMessages();
+    if (readFromOldForm) {
+      readFromOldForm = false;
       shouldPut = true;
     }
     
     return shouldPut;
   }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    ObjectOutputStream.PutField fields = out.putFields();
+    int at = jid.indexOf('@');
+    if (at == -1) {
+      fields.put("user", jid);
+    } else {
+      fields.put("user", jid.substring(0, at));
+      fields.put("domain", jid.substring(at + 1).intern());
+    }
+    if (!alias.equals(getDefaultAlias(jid))) {
+      fields.put("customAlias", alias);
+    }
+    fields.put("snoozeUntilMillis", snoozeUntilMillis);
+    fields.put("debugOptionBits", debugOptionBits);
+    fields.put("lastLivePingMillis", lastLivePingMillis);
+    out.writeFields();
+  }
+
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    ObjectInputStream.GetField fields = in.readFields();
+    if (fields.getObjectStreamClass().getField("jid") != null) {
+      readOldForm(fields);
+      return;
+    }
+    String user = (String) fields.get("user", null);
+    String domain = (String) fields.get("domain", null);
+    jid = domain == null ? user : user + "@" + domain;
+    String customAlias = (String) fields.get("customAlias", null);
+    alias = customAlias == null ? getDefaultAlias(jid) : customAlias;
+    snoozeUntilMillis = fields.get("snoozeUntilMillis", 0L);
+    debugOptionBits = fields.get("debugOptionBits", 0);
+    lastLivePingMillis = fields.get("lastLivePingMillis", 0L);
+  }
+
+  /**
+   * Reads the fields that members used to have. Their last messages (now
+   * kept by {@link LastMessages}) are dropped rather than moved, moving them
+   * would take a write per message for every member the first time a channel
+   * is loaded. Phone numbers and carriers were never set on members (they're
+   * kept by {@link User}).
+   */
+  private void readOldForm(ObjectInputStream.GetField fields)
+      throws IOException {
+    jid = (String) fields.get("jid", null);
+    alias = (String) getOldField(fields, "alias");
+    if (alias == null) {
+      alias = getDefaultAlias(jid);
+    }
+    Date snoozeUntil = (Date) getOldField(fields, "snoozeUntil");
+    snoozeUntilMillis = snoozeUntil == null ? 0 : snoozeUntil.getTime();
+    Object debugOptions = getOldField(fields, "debugOptions");
+    if (debugOptions instanceof DebuggingOptions) {
+      for (Option option : ((DebuggingOptions) debugOptions).getOptions()) {
+        enableDebugOption(option);
+      }
+    }
+    Date lastLivePing = (Date) getOldField(fields, "lastLivePing");
+    lastLivePingMillis = lastLivePing == null ? 0 : lastLivePing.getTime();
+    readFromOldForm = true;
+    logger.fine("Read " + jid + " from the old serialized form");
+  }
+
+  /**
+   * Fields were added to the old form over time (members stored before
+   * debugging options or live pings don't have them), and
+   * {@link ObjectInputStream.GetField#get} throws for fields that neither the
+   * stream nor {@link #serialPersistentFields} has.
+   *
+   * @return the field's value, or null if the stream doesn't have it
+   */
+  private static Object getOldField(ObjectInputStream.GetField fields,
+      String name) throws IOException {
+    if (fields.getObjectStreamClass().getField(name) == null) {
+      return null;
+    }
+    return fields.get(name, null);
+  }
   
   public static class SortMembersForListComparator implements Comparator<Member> {
     public int compare(Member first, Member second) {
@@ -171,18 +315,19 @@ public class Member implements Serializable {
    * Meant for admin UI use only.
    */
   public void clearLastMessages() {
-    lastMessages.clear();
+    Preconditions.checkState(channel != null, "Member has no channel");
+    LastMessages.instance().clear(channel.getName(), jid);
   }
   
   public void onLivePing() {
-    this.lastLivePing = new Date();
+    this.lastLivePingMillis = System.currentTimeMillis();
   }
   
   public void clearLivePing() {
-    this.lastLivePing = null;
+    this.lastLivePingMillis = 0;
   }  
   
   public Date getLastLivePing() {
-   return lastLivePing; 
+   return lastLivePingMillis == 0 ? null : new Date(lastLivePingMillis); 
   }
 }
@@ -1,15 +1,79 @@
 package com.imjasonh.partychapp;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.DebuggingOptions.Option;
+import com.imjasonh.partychapp.lastmessages.InMemoryLastMessages;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
 import com.imjasonh.partychapp.testing.FakeDatastore;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+
 public class MemberTest extends TestCase {
+  /**
+   * A serialized {@code HashSet} of members in the old serialized form:
+   * user0@gmail.com (with a last message), user1@googlemail.com (aliased as
+   * nick1), user2@example.com (snoozing), user3@chat.facebook.com (with
+   * sequence IDs enabled) and user4@gmail.com (with a live ping).
+   */
+  private static final byte[] OLD_FORM_MEMBERS = decode(
+      "rO0ABXNyABFqYXZhLnV0aWwuSGFzaFNldLpEhZWWuLc0AwAAeHB3DAAAABA/QAAAAAAA" +
+      "BXNyAB5jb20uaW1qYXNvbmgucGFydHljaGFwcC5NZW1iZXJyaH6cWtI1cgIACEwABWFs" +
+      "aWFzdAASTGphdmEvbGFuZy9TdHJpbmc7TAAHY2FycmllcnEAfgADTAAMZGVidWdPcHRp" +
+      "b25zdAAqTGNvbS9pbWphc29uaC9wYXJ0eWNoYXBwL0RlYnVnZ2luZ09wdGlvbnM7TAAD" +
+      "amlkcQB+AANMAAxsYXN0TGl2ZVBpbmd0ABBMamF2YS91dGlsL0RhdGU7TAAMbGFzdE1l" +
+      "c3NhZ2VzdAAQTGphdmEvdXRpbC9MaXN0O0wAC3Bob25lTnVtYmVycQB+AANMAAtzbm9v" +
+      "emVVbnRpbHEAfgAFeHB0AAV1c2VyMnBzcgAoY29tLmltamFzb25oLnBhcnR5Y2hhcHAu" +
+      "RGVidWdnaW5nT3B0aW9ucwFdtBvjzNSrAgABTAAEb3B0c3EAfgAGeHBzcgATamF2YS51" +
+      "dGlsLkFycmF5TGlzdHiB0h2Zx2GdAwABSQAEc2l6ZXhwAAAAAHcEAAAAAHh0ABF1c2Vy" +
+      "MkBleGFtcGxlLmNvbXBwcHNyAA5qYXZhLnV0aWwuRGF0ZWhqgQFLWXQZAwAAeHB3CAAA" +
+      "AS6uCcgCeHNxAH4AAnQABXVzZXI0cHNxAH4ACXNxAH4ACwAAAAB3BAAAAAB4dAAPdXNl" +
+      "cjRAZ21haWwuY29tc3EAfgAOdwgAAAGhUT3kDnhwcHBzcQB+AAJ0AAV1c2VyMHBzcQB+" +
+      "AAlzcQB+AAsAAAAAdwQAAAAAeHQAD3VzZXIwQGdtYWlsLmNvbXBzcQB+AAsAAAABdwQA" +
+      "AAABdAACaGl4cHBzcQB+AAJ0AAVuaWNrMXBzcQB+AAlzcQB+AAsAAAAAdwQAAAAAeHQA" +
+      "FHVzZXIxQGdvb2dsZW1haWwuY29tcHBwcHNxAH4AAnQABXVzZXIzcHNxAH4ACXNxAH4A" +
+      "CwAAAAF3BAAAAAF0AAtzZXF1ZW5jZUlkc3h0ABd1c2VyM0BjaGF0LmZhY2Vib29rLmNv" +
+      "bXBwcHB4");
+
+  /**
+   * Like {@link #OLD_FORM_MEMBERS}, but from before members had debugging
+   * options or live pings: user0@gmail.com (with a last message) and
+   * user1@example.com (aliased as nick1, and snoozing).
+   */
+  private static final byte[] OLDEST_FORM_MEMBERS = decode(
+      "rO0ABXNyABFqYXZhLnV0aWwuSGFzaFNldLpEhZWWuLc0AwAAeHB3DAAAABA/QAAAAAAA" +
+      "AnNyAB5jb20uaW1qYXNvbmgucGFydHljaGFwcC5NZW1iZXJyaH6cWtI1cgIABEwABWFs" +
+      "aWFzdAASTGphdmEvbGFuZy9TdHJpbmc7TAADamlkcQB+AANMAAxsYXN0TWVzc2FnZXN0" +
+      "ABBMamF2YS91dGlsL0xpc3Q7TAALc25vb3plVW50aWx0ABBMamF2YS91dGlsL0RhdGU7" +
+      "eHB0AAVuaWNrMXQAEXVzZXIxQGV4YW1wbGUuY29tcHNyAA5qYXZhLnV0aWwuRGF0ZWhq" +
+      "gQFLWXQZAwAAeHB3CAAAAS6uCcgBeHNxAH4AAnQABXVzZXIwdAAPdXNlcjBAZ21haWwu" +
+      "Y29tc3IAE2phdmEudXRpbC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAF3" +
+      "BAAAAAF0AAJoaXhweA==");
+
+  private static byte[] decode(String base64) {
+    return Base64.decode(base64);
+  }
+
   @Override
   public void setUp() {
 	FakeDatastore datastore = new FakeDatastore();
 	Datastore.setInstance(datastore);
 	datastore.setUp();
+	LastMessages.setInstance(new InMemoryLastMessages());
+  }
+
+  @Override
+  public void tearDown() {
+    LastMessages.setInstance(null);
   }
   
   public void testAddToLastMessages() {
@@ -23,4 +87,98 @@ public class MemberTest extends TestCase {
       assertEquals(val.toString(), m.getLastMessages().get(i));
     }
   }
-}
\ No newline at end of file
+
+  public void testSerializationRoundTrip() throws Exception {
+    Member member = new Member(null, "neil@gmail.com");
+    Member aliased = new Member(null, "jason@gmail.com");
+    aliased.setAlias("jasonh");
+    aliased.setSnoozeUntil(new Date(1300000000000L));
+    aliased.enableDebugOption(Option.ERROR_NOTIFICATIONS);
+    aliased.onLivePing();
+    Member noDomain = new Member(null, "kushal");
+    HashSet<Member> members = new HashSet<Member>(
+        ImmutableList.of(member, aliased, noDomain));
+
+    Map<String, Member> read = readMembers(serialize(members));
+    assertEquals(3, read.size());
+    Member readMember = read.get("neil@gmail.com");
+    assertEquals("neil", readMember.getAlias());
+    assertNull(readMember.getSnoozeUntil());
+    assertTrue(readMember.getDebugOptions().isEmpty());
+    assertNull(readMember.getLastLivePing());
+
+    Member readAliased = read.get("jason@gmail.com");
+    assertEquals("jasonh", readAliased.getAlias());
+    assertEquals(new Date(1300000000000L), readAliased.getSnoozeUntil());
+    assertEquals(ImmutableList.of(Option.ERROR_NOTIFICATIONS),
+        readAliased.getDebugOptions());
+    assertEquals(aliased.getLastLivePing(), readAliased.getLastLivePing());
+
+    assertEquals("kushal", read.get("kushal").getAlias());
+  }
+
+  public void testReadsOldSerializedForm() throws Exception {
+    Map<String, Member> read = readMembers(OLD_FORM_MEMBERS);
+    assertEquals(5, read.size());
+    assertEquals("user0", read.get("user0@gmail.com").getAlias());
+    assertEquals("nick1", read.get("user1@googlemail.com").getAlias());
+    assertEquals(new Date(1300000000002L),
+        read.get("user2@example.com").getSnoozeUntil());
+    assertEquals(ImmutableList.of(Option.SEQUENCE_IDS),
+        read.get("user3@chat.facebook.com").getDebugOptions());
+    assertNotNull(read.get("user4@gmail.com").getLastLivePing());
+    assertNull(read.get("user0@gmail.com").getLastLivePing());
+
+    // Channels with members in the old form get put in the new one.
+    Channel channel = FakeDatastore.fakeChannel();
+    assertTrue(read.get("user0@gmail.com").fixUp(channel));
+    assertFalse(read.get("user0@gmail.com").fixUp(channel));
+    assertFalse(new Member(null, "neil@gmail.com").fixUp(channel));
+  }
+
+  public void testReadsOldSerializedFormWithoutNewerFields()
+      throws Exception {
+    Map<String, Member> read = readMembers(OLDEST_FORM_MEMBERS);
+    assertEquals(2, read.size());
+    Member user0 = read.get("user0@gmail.com");
+    assertEquals("user0", user0.getAlias());
+    assertNull(user0.getSnoozeUntil());
+    assertTrue(user0.getDebugOptions().isEmpty());
+    assertNull(user0.getLastLivePing());
+    Member user1 = read.get("user1@example.com");
+    assertEquals("nick1", user1.getAlias());
+    assertEquals(new Date(1300000000001L), user1.getSnoozeUntil());
+    assertTrue(user1.fixUp(FakeDatastore.fakeChannel()));
+  }
+
+  public void testNewFormIsSmaller() throws Exception {
+    Map<String, Member> read = readMembers(OLD_FORM_MEMBERS);
+    byte[] newForm = serialize(new HashSet<Member>(read.values()));
+    assertTrue(newForm.length + " vs. " + OLD_FORM_MEMBERS.length,
+        newForm.length < OLD_FORM_MEMBERS.length);
+    assertEquals(read.keySet(), readMembers(newForm).keySet());
+  }
+
+  private static byte[] serialize(Object object) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(object);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return the members, by JID
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<String, Member> readMembers(byte[] serialized)
+      throws Exception {
+    ObjectInputStream in =
+        new ObjectInputStream(new ByteArrayInputStream(serialized));
+    Map<String, Member> members = Maps.newHashMap();
+    for (Member member : (HashSet<Member>) in.readObject()) {
+      members.put(member.getJID(), member);
+    }
+    return members;
+  }
+}
@@ -4,6 +4,9 @@ import com.google.appengine.api.memcache.jsr107cache.GCacheFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.common.collect.ImmutableMap;
 
+import com.imjasonh.partychapp.stats.RequestTrace;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
+
 import net.sf.jsr107cache.Cache;
 import net.sf.jsr107cache.CacheException;
 import net.sf.jsr107cache.CacheManager;
@@ -83,11 +86,14 @@ public class MemcacheCachingDatastore extends CachingDatastore {
 
   @Override protected Object getFromCache(String key) {
     if (cache == null) return null;
+    RequestTrace.Span span = RequestTrace.startSpan(Stage.MEMCACHE_LOAD);
     try {
       return cache.get(key);
     } catch (RuntimeException err) {
       logger.log(Level.SEVERE, "Could get" + key + " from cache", err);
       return null;
+    } finally {
+      span.end();
     }
   }
 
@@ -5,6 +5,8 @@ import com.google.common.base.Preconditions;
 
 import com.imjasonh.partychapp.testing.FakeDatastore;
 
+import java.util.regex.MatchResult;
+
 public class Message {
   public enum MessageType { EMAIL, XMPP, SMS }
   
@@ -26,6 +28,39 @@ public class Message {
   public Member member;
   public Channel channel;
   public final User user;
+
+  private String trimmedContent = null;
+
+  /**
+   * Set while finding the command handler for this message (see
+   * {@link com.imjasonh.partychapp.server.command.Command#getCommandHandler}),
+   * so that the handler that matched doesn't have to match again.
+   */
+  private Object matchedBy = null;
+  private MatchResult match = null;
+
+  /**
+   * @return {@link #content} with leading and trailing whitespace removed
+   */
+  public String trimmedContent() {
+    if (trimmedContent == null) {
+      trimmedContent = content.trim();
+    }
+    return trimmedContent;
+  }
+
+  /**
+   * @return the match that {@code handler} previously stored with
+   * {@link #setMatch}, or null if it hasn't stored one
+   */
+  public MatchResult getMatch(Object handler) {
+    return matchedBy == handler ? match : null;
+  }
+
+  public void setMatch(Object handler, MatchResult match) {
+    this.matchedBy = handler;
+    this.match = match;
+  }
   
   public static class Builder {
     private String content;
@@ -0,0 +1,313 @@
+package com.imjasonh.partychapp;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.CountingOutputStream;
+
+import com.imjasonh.partychapp.ppb.Reason;
+import com.imjasonh.partychapp.ppb.Target;
+import com.imjasonh.partychapp.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Wrapper around {@link Datastore} that counts and times the operations that
+ * pass through it, per entity kind. It can be inserted at any level of the
+ * {@link WrappingDatastore} chain; each instance has a layer name so that
+ * e.g. requests that reach the live datastore can be told apart from ones
+ * that were served by the cache.
+ *
+ * Operations are also counted per request (between {@link #startRequest} and
+ * {@link #endRequest}), and requests that do more gets or queries than
+ * {@link PersistentConfiguration#datastoreGetBudget} or
+ * {@link PersistentConfiguration#datastoreQueryBudget} allow are logged, so
+ * that N+1 access patterns stand out.
+ *
+ * Totals are kept in memory per instance.
+ */
+public class MeteringDatastore extends WrappingDatastore {
+  private static final Logger logger =
+      Logger.getLogger(MeteringDatastore.class.getName());
+
+  public enum Operation {
+    GET,
+    QUERY,
+    PUT,
+    DELETE,
+    CACHE_HIT,
+    CACHE_MISS
+  }
+
+  /** Layer name used by {@link #recordCacheLookup}. */
+  public static final String CACHE_LAYER = "cache";
+
+  /**
+   * Totals for one operation on one entity kind at one layer.
+   */
+  public static class Meter {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong byteCount = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public long getCount() {
+      return count.get();
+    }
+
+    /**
+     * @return the serialized size of the entities that were read or written
+     * (only measured by layers that were asked to)
+     */
+    public long getByteCount() {
+      return byteCount.get();
+    }
+
+    public LatencyHistogram getLatency() {
+      return latency;
+    }
+  }
+
+  /** Keyed by "layer kind OPERATION". */
+  private static final ConcurrentMap<String, Meter> meters =
+      Maps.newConcurrentMap();
+
+  /** This request's counts, with the same keys as {@link #meters}. */
+  private static final ThreadLocal<Map<String, Integer>> requestCounts =
+      new ThreadLocal<Map<String, Integer>>() {
+        @Override protected Map<String, Integer> initialValue() {
+          return Maps.newTreeMap();
+        }
+      };
+
+  private final String layer;
+  private final boolean measureBytes;
+
+  /**
+   * @param measureBytes whether to serialize entities to measure their size,
+   * which isn't free, so it's best done only where operations are expensive
+   * anyway (e.g. in front of the live datastore)
+   */
+  public MeteringDatastore(Datastore wrapped, String layer,
+      boolean measureBytes) {
+    super(wrapped);
+    this.layer = layer;
+    this.measureBytes = measureBytes;
+  }
+
+  public String getLayer() {
+    return layer;
+  }
+
+  /**
+   * Records a cache lookup made by {@link CachingDatastore} (which doesn't
+   * otherwise show up as an operation on a layer).
+   */
+  public static void recordCacheLookup(Class<?> kind, boolean hit) {
+    record(CACHE_LAYER, kind.getSimpleName(),
+        hit ? Operation.CACHE_HIT : Operation.CACHE_MISS, -1, 0);
+  }
+
+  private static void record(String layer, String kind, Operation operation,
+      long startNanos, long byteCount) {
+    String key = layer + " " + kind + " " + operation.name();
+    Meter meter = meters.get(key);
+    if (meter == null) {
+      meters.putIfAbsent(key, new Meter());
+      meter = meters.get(key);
+    }
+    meter.count.incrementAndGet();
+    meter.byteCount.addAndGet(byteCount);
+    if (startNanos != -1) {
+      meter.latency.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    Map<String, Integer> counts = requestCounts.get();
+    Integer count = counts.get(key);
+    counts.put(key, count == null ? 1 : count + 1);
+  }
+
+  private void record(Class<?> kind, Operation operation, long startNanos,
+      Object entity) {
+    record(layer, kind.getSimpleName(), operation, startNanos,
+        measureBytes ? serializedSize(entity) : 0);
+  }
+
+  @VisibleForTesting
+  static long serializedSize(Object entity) {
+    if (!(entity instanceof Serializable)) {
+      return 0;
+    }
+    CountingOutputStream counter = new CountingOutputStream(
+        new OutputStream() {
+          @Override public void write(int b) {
+            // Only counted
+          }
+        });
+    try {
+      ObjectOutputStream out = new ObjectOutputStream(counter);
+      out.writeObject(entity);
+      out.close();
+    } catch (IOException err) {
+      return 0;
+    }
+    return counter.getCount();
+  }
+
+  /**
+   * @return all of the meters, keyed by layer, entity kind and operation
+   */
+  public static Map<String, Meter> getMeters() {
+    return ImmutableSortedMap.copyOf(meters);
+  }
+
+  /**
+   * @return the current request's operation counts, keyed like
+   * {@link #getMeters}
+   */
+  public static Map<String, Integer> getRequestCounts() {
+    return ImmutableSortedMap.copyOf(requestCounts.get());
+  }
+
+  public static void resetMeters() {
+    meters.clear();
+  }
+
+  /**
+   * Logs the request's operations if this layer went over its budgets.
+   */
+  private void checkBudgets() {
+    Map<String, Integer> counts = requestCounts.get();
+    int gets = 0;
+    int queries = 0;
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      if (!entry.getKey().startsWith(layer + " ")) {
+        continue;
+      }
+      if (entry.getKey().endsWith(" " + Operation.GET.name())) {
+        gets += entry.getValue();
+      } else if (entry.getKey().endsWith(" " + Operation.QUERY.name())) {
+        queries += entry.getValue();
+      }
+    }
+
+    PersistentConfiguration pc = Configuration.persistentConfig();
+    int getBudget = pc.datastoreGetBudget();
+    int queryBudget = pc.datastoreQueryBudget();
+    if ((getBudget > 0 && gets > getBudget) ||
+        (queryBudget > 0 && queries > queryBudget)) {
+      logger.warning("Request did " + gets + " gets (budget " + getBudget +
+          ") and " + queries + " queries (budget " + queryBudget + ") at " +
+          "the " + layer + " layer: " + counts);
+    }
+  }
+
+  @Override public PersistentConfiguration getPersistentConfig() {
+    long start = System.nanoTime();
+    PersistentConfiguration pc = wrapped.getPersistentConfig();
+    record(PersistentConfiguration.class, Operation.GET, start, null);
+    return pc;
+  }
+
+  @Override public Channel getChannelByName(String name) {
+    long start = System.nanoTime();
+    Channel channel = wrapped.getChannelByName(name);
+    record(Channel.class, Operation.GET, start, channel);
+    return channel;
+  }
+
+  @Override public User getUserByJID(String jid) {
+    long start = System.nanoTime();
+    User user = wrapped.getUserByJID(jid);
+    record(User.class, Operation.GET, start, user);
+    return user;
+  }
+
+  @Override public User getUserByPhoneNumber(String phoneNumber) {
+    long start = System.nanoTime();
+    User user = wrapped.getUserByPhoneNumber(phoneNumber);
+    record(User.class, Operation.QUERY, start, user);
+    return user;
+  }
+
+  @Override public Target getTargetByID(String key) {
+    long start = System.nanoTime();
+    Target target = wrapped.getTargetByID(key);
+    record(Target.class, Operation.GET, start, target);
+    return target;
+  }
+
+  @Override public List<Target> getTargetsByChannel(String channel) {
+    long start = System.nanoTime();
+    List<Target> targets = wrapped.getTargetsByChannel(channel);
+    record(Target.class, Operation.QUERY, start, null);
+    return targets;
+  }
+
+  @Override public List<Reason> getReasons(Target target, int limit) {
+    long start = System.nanoTime();
+    List<Reason> reasons = wrapped.getReasons(target, limit);
+    record(Reason.class, Operation.QUERY, start, null);
+    return reasons;
+  }
+
+  @Override public Stats getStats(boolean useCache) {
+    long start = System.nanoTime();
+    Stats stats = wrapped.getStats(useCache);
+    record(Stats.class, Operation.QUERY, start, stats);
+    return stats;
+  }
+
+  @Override public Iterator<String> getAllEntityKeys(
+      Class<?> entityClass, String lastKey) {
+    long start = System.nanoTime();
+    Iterator<String> keys = wrapped.getAllEntityKeys(entityClass, lastKey);
+    record(entityClass, Operation.QUERY, start, null);
+    return keys;
+  }
+
+  @Override public void put(Object o) {
+    long start = System.nanoTime();
+    wrapped.put(o);
+    record(o.getClass(), Operation.PUT, start, o);
+  }
+
+  @Override public void putAll(Collection<Object> objects) {
+    long start = System.nanoTime();
+    wrapped.putAll(objects);
+    // The batch's time is attributed to the kind of its first entity, but
+    // each entity is counted (and measured) separately.
+    boolean first = true;
+    for (Object o : objects) {
+      record(o.getClass(), Operation.PUT, first ? start : -1, o);
+      first = false;
+    }
+  }
+
+  @Override public void delete(Object o) {
+    long start = System.nanoTime();
+    wrapped.delete(o);
+    record(o.getClass(), Operation.DELETE, start, null);
+  }
+
+  @Override public void startRequest() {
+    // A new request, so all layers' counts (and cache lookups) start over.
+    requestCounts.get().clear();
+    wrapped.startRequest();
+  }
+
+  @Override public void endRequest() {
+    // Includes the write-back of entities that were put during the request.
+    wrapped.endRequest();
+    checkBudgets();
+  }
+}
@@ -0,0 +1,86 @@
+package com.imjasonh.partychapp;
+
+import com.imjasonh.partychapp.testing.FakeDatastore;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class MeteringDatastoreTest extends TestCase {
+  private FakeDatastore fakeDatastore;
+  private MeteringDatastore live;
+  private MeteringDatastore cached;
+
+  @Override
+  public void setUp() {
+    fakeDatastore = new FakeDatastore();
+    fakeDatastore.setUp();
+    live = new MeteringDatastore(fakeDatastore, "live", true);
+    cached = new MeteringDatastore(
+        new InMemoryCachingDatastore(live), "cached", false);
+    MeteringDatastore.resetMeters();
+  }
+
+  public void testCountsPerLayer() {
+    cached.startRequest();
+    assertNotNull(cached.getChannelByName("pancake"));
+    // Served from the request cache the second time.
+    assertNotNull(cached.getChannelByName("pancake"));
+    assertNull(cached.getUserByJID("nobody@example.com"));
+    cached.endRequest();
+
+    Map<String, MeteringDatastore.Meter> meters =
+        MeteringDatastore.getMeters();
+    assertEquals(2, meters.get("cached Channel GET").getCount());
+    assertEquals(1, meters.get("live Channel GET").getCount());
+    assertEquals(1, meters.get("cache Channel CACHE_HIT").getCount());
+    assertEquals(1, meters.get("cache Channel CACHE_MISS").getCount());
+    assertEquals(1, meters.get("live User GET").getCount());
+    assertEquals(
+        2, meters.get("cached Channel GET").getLatency().getCount());
+
+    // Only the live layer measures sizes.
+    assertTrue(meters.get("live Channel GET").getByteCount() > 0);
+    assertEquals(0, meters.get("cached Channel GET").getByteCount());
+  }
+
+  public void testRequestCounts() {
+    cached.startRequest();
+    cached.getChannelByName("pancake");
+    cached.getTargetsByChannel("pancake");
+    cached.getTargetsByChannel("pancake");
+
+    Map<String, Integer> counts = MeteringDatastore.getRequestCounts();
+    assertEquals(Integer.valueOf(1), counts.get("cached Channel GET"));
+    assertEquals(Integer.valueOf(2), counts.get("cached Target QUERY"));
+    assertEquals(Integer.valueOf(2), counts.get("live Target QUERY"));
+    cached.endRequest();
+
+    // The next request starts over.
+    cached.startRequest();
+    assertTrue(MeteringDatastore.getRequestCounts().isEmpty());
+    cached.endRequest();
+  }
+
+  public void testPutsAreCountedPerEntity() {
+    cached.startRequest();
+    Channel channel = cached.getChannelByName("pancake");
+    User user = cached.getOrCreateUser("neil@gmail.com");
+    cached.put(channel);
+    cached.put(user);
+    cached.endRequest();
+
+    Map<String, MeteringDatastore.Meter> meters =
+        MeteringDatastore.getMeters();
+    assertEquals(1, meters.get("cached Channel PUT").getCount());
+    // The caching datastore writes both back with one putAll.
+    assertEquals(1, meters.get("live Channel PUT").getCount());
+    assertEquals(1, meters.get("live User PUT").getCount());
+  }
+
+  public void testSerializedSize() {
+    assertEquals(0, MeteringDatastore.serializedSize(null));
+    assertEquals(0, MeteringDatastore.serializedSize(new Object()));
+    assertTrue(MeteringDatastore.serializedSize("hello") > 5);
+  }
+}
@@ -1,6 +1,16 @@
 package com.imjasonh.partychapp;
 
+import com.google.appengine.api.datastore.Entity;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+
 import javax.jdo.annotations.IdentityType;
+import javax.jdo.annotations.NotPersistent;
 import javax.jdo.annotations.PersistenceCapable;
 import javax.jdo.annotations.Persistent;
 import javax.jdo.annotations.PrimaryKey;
@@ -10,11 +20,19 @@ import javax.jdo.annotations.PrimaryKey;
  * that shouldn't be checked into source control. Can be viewed and edited at 
  * the /admin/config URL.
  *
+ * The instances that {@link Configuration} hands out are frozen snapshots
+ * shared by concurrent requests, so their setters throw; edits are made to a
+ * copy and then published.
+ *
  * @author nsanch
  */
 @PersistenceCapable(identityType = IdentityType.APPLICATION)
-public class PersistentConfiguration {
-  @SuppressWarnings("unused")
+public class PersistentConfiguration implements Serializable {
+  private static final long serialVersionUID = 6523197003915582644L;
+
+  /** The datastore kind that JDO (and {@link EntityDatastore}) uses. */
+  public static final String KIND = "PersistentConfiguration";
+
   @PrimaryKey
   @Persistent
   private String name = "config";
@@ -40,6 +58,143 @@ public class PersistentConfiguration {
   private Double fractionOfMessagesToLog;
   public Double fractionOfMessagesToLog() { return fractionOfMessagesToLog; }
 
+  /** Maximum messages per minute into a channel, 0 or null for no limit */
+  @Persistent
+  private Integer channelMessagesPerMinute;
+
+  /** Maximum messages per minute from a single sender, 0 or null for no limit */
+  @Persistent
+  private Integer senderMessagesPerMinute;
+
+  /**
+   * Channels whose messages are delivered through the XMPP proxy. Null means
+   * that this hasn't been configured yet, in which case
+   * {@link #DEFAULT_MIGRATED_CHANNELS} is used.
+   */
+  @Persistent
+  private List<String> migratedChannels;
+
+  /**
+   * Targets that PlusPlusBot should ignore, in addition to its built-in
+   * blacklist (lowercase).
+   */
+  @Persistent
+  private List<String> plusPlusBlacklist;
+
+  /**
+   * Requests that do more datastore gets (or queries) than this at a
+   * {@link MeteringDatastore} layer are logged. Null means that
+   * {@link #DEFAULT_DATASTORE_GET_BUDGET} (or
+   * {@link #DEFAULT_DATASTORE_QUERY_BUDGET}) is used, 0 means no budget.
+   */
+  @Persistent
+  private Integer datastoreGetBudget;
+
+  @Persistent
+  private Integer datastoreQueryBudget;
+
+  private static final int DEFAULT_DATASTORE_GET_BUDGET = 20;
+  private static final int DEFAULT_DATASTORE_QUERY_BUDGET = 5;
+
+  private static final Set<String> DEFAULT_MIGRATED_CHANNELS =
+      ImmutableSet.of("partychat-migrated");
+
+  /** Set on snapshots, and not stored or serialized. */
+  @NotPersistent
+  private transient boolean frozen = false;
+
+  public PersistentConfiguration() {
+    // Defaults for everything
+  }
+
+  /**
+   * Makes an unfrozen copy that isn't attached to the datastore.
+   */
+  public PersistentConfiguration(PersistentConfiguration other) {
+    this.sessionToken = other.sessionToken;
+    this.listFeedUrl = other.listFeedUrl;
+    this.areChannelStatsEnabled = other.areChannelStatsEnabled;
+    this.embedlyKey = other.embedlyKey;
+    this.fractionOfMessagesToLog = other.fractionOfMessagesToLog;
+    this.channelMessagesPerMinute = other.channelMessagesPerMinute;
+    this.senderMessagesPerMinute = other.senderMessagesPerMinute;
+    this.migratedChannels = copyOf(other.migratedChannels);
+    this.plusPlusBlacklist = copyOf(other.plusPlusBlacklist);
+    this.datastoreGetBudget = other.datastoreGetBudget;
+    this.datastoreQueryBudget = other.datastoreQueryBudget;
+  }
+
+  private static List<String> copyOf(List<String> list) {
+    return list == null ? null : Lists.newArrayList(list);
+  }
+
+  /**
+   * Reads a configuration stored by {@link #toEntity} or by JDO.
+   */
+  public static PersistentConfiguration fromEntity(Entity entity) {
+    PersistentConfiguration pc = new PersistentConfiguration();
+    pc.sessionToken = EntityDatastore.getString(entity, "sessionToken");
+    pc.listFeedUrl = EntityDatastore.getString(entity, "listFeedUrl");
+    pc.areChannelStatsEnabled =
+        EntityDatastore.getBoolean(entity, "areChannelStatsEnabled");
+    pc.embedlyKey = EntityDatastore.getString(entity, "embedlyKey");
+    pc.fractionOfMessagesToLog =
+        EntityDatastore.getDouble(entity, "fractionOfMessagesToLog");
+    pc.channelMessagesPerMinute =
+        EntityDatastore.getInteger(entity, "channelMessagesPerMinute");
+    pc.senderMessagesPerMinute =
+        EntityDatastore.getInteger(entity, "senderMessagesPerMinute");
+    pc.migratedChannels =
+        EntityDatastore.getStringList(entity, "migratedChannels");
+    pc.plusPlusBlacklist =
+        EntityDatastore.getStringList(entity, "plusPlusBlacklist");
+    pc.datastoreGetBudget =
+        EntityDatastore.getInteger(entity, "datastoreGetBudget");
+    pc.datastoreQueryBudget =
+        EntityDatastore.getInteger(entity, "datastoreQueryBudget");
+    return pc;
+  }
+
+  /**
+   * @return this configuration as an entity, with the same properties that
+   * JDO would store
+   */
+  public Entity toEntity() {
+    Entity entity = new Entity(KIND, name);
+    entity.setProperty("sessionToken", sessionToken);
+    entity.setProperty("listFeedUrl", listFeedUrl);
+    entity.setProperty("areChannelStatsEnabled", areChannelStatsEnabled);
+    entity.setProperty("embedlyKey", embedlyKey);
+    entity.setProperty("fractionOfMessagesToLog", fractionOfMessagesToLog);
+    entity.setProperty("channelMessagesPerMinute", channelMessagesPerMinute);
+    entity.setProperty("senderMessagesPerMinute", senderMessagesPerMinute);
+    entity.setProperty(
+        "migratedChannels", EntityDatastore.toProperty(migratedChannels));
+    entity.setProperty(
+        "plusPlusBlacklist", EntityDatastore.toProperty(plusPlusBlacklist));
+    entity.setProperty("datastoreGetBudget", datastoreGetBudget);
+    entity.setProperty("datastoreQueryBudget", datastoreQueryBudget);
+    return entity;
+  }
+
+  /**
+   * @return a frozen copy, which is safe to share between requests
+   */
+  public PersistentConfiguration snapshot() {
+    PersistentConfiguration snapshot = new PersistentConfiguration(this);
+    snapshot.frozen = true;
+    return snapshot;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  private void checkNotFrozen() {
+    Preconditions.checkState(!frozen,
+        "Configuration snapshots can't be changed, edit a copy instead");
+  }
+
   public String sessionToken() { return sessionToken; }
   public String listFeedUrl() { return listFeedUrl; }
   public boolean areChannelStatsEnabled() {
@@ -47,27 +202,84 @@ public class PersistentConfiguration {
         areChannelStatsEnabled.booleanValue(); 
   }
   public String embedlyKey() { return embedlyKey; }
+  public int channelMessagesPerMinute() {
+    return channelMessagesPerMinute != null ? channelMessagesPerMinute : 0;
+  }
+  public int senderMessagesPerMinute() {
+    return senderMessagesPerMinute != null ? senderMessagesPerMinute : 0;
+  }
+  public Set<String> migratedChannels() {
+    return migratedChannels != null ?
+        ImmutableSet.copyOf(migratedChannels) : DEFAULT_MIGRATED_CHANNELS;
+  }
+  public Set<String> plusPlusBlacklist() {
+    return plusPlusBlacklist != null ?
+        ImmutableSet.copyOf(plusPlusBlacklist) : ImmutableSet.<String>of();
+  }
+  public int datastoreGetBudget() {
+    return datastoreGetBudget != null ?
+        datastoreGetBudget : DEFAULT_DATASTORE_GET_BUDGET;
+  }
+  public int datastoreQueryBudget() {
+    return datastoreQueryBudget != null ?
+        datastoreQueryBudget : DEFAULT_DATASTORE_QUERY_BUDGET;
+  }
 
 
-  // Setters are meant for use by {@link ConfigEditServlet} only
+  // Setters are meant for use by {@link ConfigEditServlet} (and tests) only
 
   public void setSessionToken(String sessionToken) {
+    checkNotFrozen();
     this.sessionToken = sessionToken;
   }
 
   public void setListFeedUrl(String listFeedUrl) {
+    checkNotFrozen();
     this.listFeedUrl = listFeedUrl;
   }
 
   public void setChannelStatsEnabled(boolean areChannelStatsEnabled) {
+    checkNotFrozen();
     this.areChannelStatsEnabled = areChannelStatsEnabled;
   }
 
   public void setEmbedlyKey(String embedlyKey) {
+    checkNotFrozen();
     this.embedlyKey = embedlyKey;
   }
 
   public void setFractionOfMessagesToLog(double frac) {
+    checkNotFrozen();
     this.fractionOfMessagesToLog = frac;
   }
+
+  public void setChannelMessagesPerMinute(int channelMessagesPerMinute) {
+    checkNotFrozen();
+    this.channelMessagesPerMinute = channelMessagesPerMinute;
+  }
+
+  public void setSenderMessagesPerMinute(int senderMessagesPerMinute) {
+    checkNotFrozen();
+    this.senderMessagesPerMinute = senderMessagesPerMinute;
+  }
+
+  public void setMigratedChannels(List<String> migratedChannels) {
+    checkNotFrozen();
+    this.migratedChannels = migratedChannels;
+  }
+
+  public void setPlusPlusBlacklist(List<String> plusPlusBlacklist) {
+    checkNotFrozen();
+    this.plusPlusBlacklist = plusPlusBlacklist;
+  }
+
+  public void setDatastoreGetBudget(int datastoreGetBudget) {
+    checkNotFrozen();
+    this.datastoreGetBudget = datastoreGetBudget;
+  }
+
+  public void setDatastoreQueryBudget(int datastoreQueryBudget) {
+    checkNotFrozen();
+    this.datastoreQueryBudget = datastoreQueryBudget;
+  }
 }
@@ -1,5 +1,6 @@
 package com.imjasonh.partychapp;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
@@ -30,6 +31,9 @@ public class User implements Serializable {
   private static final long LAST_SEEN_UPDATE_INTERNAL_MS =
       12L * 60L * 60L * 1000L;
 
+  /** The datastore kind that JDO (and {@link EntityDatastore}) uses. */
+  public static final String KIND = "User";
+
   @Persistent
   @PrimaryKey
   private String jid;
@@ -97,6 +101,37 @@ public class User implements Serializable {
     this.lastSeen = other.lastSeen;
   }
 
+  /**
+   * Reads a user stored by {@link #toEntity} or by JDO.
+   */
+  public static User fromEntity(Entity entity) {
+    User user = new User(entity.getKey().getName());
+    List<String> channelNames =
+        EntityDatastore.getStringList(entity, "channelNames");
+    if (channelNames != null) {
+      // Empty lists are stored as null
+      user.channelNames = channelNames;
+    }
+    user.phoneNumber = EntityDatastore.getString(entity, "phoneNumber");
+    user.carrier = EntityDatastore.getString(entity, "carrier");
+    user.lastSeen = EntityDatastore.getDate(entity, "lastSeen");
+    return user;
+  }
+
+  /**
+   * @return this user as an entity, with the same properties that JDO would
+   * store
+   */
+  public Entity toEntity() {
+    Entity entity = new Entity(KIND, jid);
+    entity.setUnindexedProperty(
+        "channelNames", EntityDatastore.toProperty(channelNames));
+    entity.setProperty("phoneNumber", phoneNumber);
+    entity.setUnindexedProperty("carrier", carrier);
+    entity.setProperty("lastSeen", lastSeen);
+    return entity;
+  }
+
   public String getJID() {
     return jid;
   }
@@ -0,0 +1,244 @@
+package com.imjasonh.partychapp.costsim;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+import com.imjasonh.partychapp.mr.CsvMessageLogInput;
+import com.imjasonh.partychapp.outbox.Outbox;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Replays a message log export (see data_download/README.txt) through
+ * {@link DeliveryPolicy} variants to estimate what each would cost in XMPP
+ * messages, so that changes to how {@link Channel} delivers messages can be
+ * evaluated before they ship. Replaces data_download/analyse.py, and by
+ * default prints the same output: the cost for each maximum room size, as
+ * CSV or as a chart URL.
+ *
+ * Usage: CostSimulator --price_per_xmpp=PRICE [options] messages.csv
+ *
+ * Options (in the style of analyse.py):
+ *   --csv                  print CSV instead of a chart URL
+ *   --max_roomsize=N       only compute the cost for this maximum room size
+ *   --ignore_large_rooms   drop messages to larger rooms instead of capping
+ *   --compare              print the cost of each policy variant instead
+ *   --coalesce_ms=A,B,...  coalescing windows to compare
+ *   --invitee_cutoffs=A,B  room sizes below which invitees get messages
+ *   --invitees_per_room=N  assumed invitees per room
+ *   --online_fractions=A,B assumed fractions of recipients that are online
+ *   --threads=N            threads to replay policy variants on
+ *
+ * The log is read once; each chunk of records is replayed through all of the
+ * variants in parallel (each variant on one thread at a time, since policies
+ * may keep state) while the next chunk is read.
+ */
+public class CostSimulator {
+  private static final int CHUNK_SIZE = 10000;
+
+  private static final String USAGE =
+      "Usage: CostSimulator --price_per_xmpp=PRICE [--csv] [--max_roomsize=N] " +
+      "[--ignore_large_rooms] [--compare] [--coalesce_ms=A,B] " +
+      "[--invitee_cutoffs=A,B] [--invitees_per_room=N] " +
+      "[--online_fractions=A,B] [--threads=N] messages.csv";
+
+  private CostSimulator() {
+    // Not instantiable
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> flags = Maps.newTreeMap();
+    String file = null;
+    for (String arg : args) {
+      if (arg.startsWith("--")) {
+        int equals = arg.indexOf('=');
+        if (equals == -1) {
+          flags.put(arg.substring(2), "true");
+        } else {
+          flags.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+      } else {
+        file = arg;
+      }
+    }
+    if (file == null || !flags.containsKey("price_per_xmpp")) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+    double price = Double.parseDouble(flags.get("price_per_xmpp"));
+    int threads = flags.containsKey("threads") ?
+        Integer.parseInt(flags.get("threads")) :
+        Runtime.getRuntime().availableProcessors();
+
+    // Like analyse.py, which printed its arguments first.
+    flags.put("file", file);
+    System.out.println("Options(" +
+        Joiner.on(", ").withKeyValueSeparator("=").join(flags) + ")");
+
+    RoomSizeHistogram histogram = new RoomSizeHistogram();
+    List<DeliveryPolicy> policies = Lists.newArrayList();
+    policies.add(histogram);
+    if (flags.containsKey("compare")) {
+      policies.addAll(getVariants(flags));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      replay(new CsvMessageLogInput(
+          new InputStreamReader(new FileInputStream(file), "UTF-8")),
+          policies, executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    if (flags.containsKey("compare")) {
+      printComparison(System.out, policies, price);
+    } else {
+      List<Long> sizes = flags.containsKey("max_roomsize") ?
+          Lists.newArrayList(Long.parseLong(flags.get("max_roomsize"))) :
+          histogram.getRoomSizes();
+      List<double[]> points = getRoomSizeCosts(histogram, sizes,
+          flags.containsKey("ignore_large_rooms"), price);
+      if (flags.containsKey("csv")) {
+        for (double[] point : points) {
+          System.out.println((long) point[0] + "," + point[1]);
+        }
+      } else {
+        System.out.println(getChartUrl(points));
+      }
+    }
+  }
+
+  private static List<DeliveryPolicy> getVariants(Map<String, String> flags) {
+    List<DeliveryPolicy> variants = Lists.newArrayList();
+    for (String window : getList(flags, "coalesce_ms",
+        Outbox.MIN_WINDOW_MILLIS + "," + Outbox.MAX_WINDOW_MILLIS)) {
+      variants.add(DeliveryPolicy.coalescing(Long.parseLong(window)));
+    }
+    double inviteesPerRoom = flags.containsKey("invitees_per_room") ?
+        Double.parseDouble(flags.get("invitees_per_room")) : 1;
+    for (String cutoff : getList(flags, "invitee_cutoffs",
+        "0," + Channel.LARGE_CHANNEL_THRESHOLD)) {
+      variants.add(DeliveryPolicy.inviteeCutoff(
+          Long.parseLong(cutoff), inviteesPerRoom));
+    }
+    for (String fraction : getList(flags, "online_fractions", "0.5")) {
+      variants.add(DeliveryPolicy.presenceAware(Double.parseDouble(fraction)));
+    }
+    if (flags.containsKey("max_roomsize")) {
+      variants.add(DeliveryPolicy.maxRoomSize(
+          Long.parseLong(flags.get("max_roomsize")),
+          flags.containsKey("ignore_large_rooms")));
+    }
+    return variants;
+  }
+
+  private static String[] getList(Map<String, String> flags, String name,
+      String defaultValue) {
+    String value = flags.get(name);
+    return (value == null ? defaultValue : value).split(",");
+  }
+
+  /**
+   * Feeds every record to every policy. Each chunk's policies run in
+   * parallel, while the next chunk is read.
+   *
+   * @throws ExecutionException if a policy threw
+   */
+  public static void replay(Iterator<Record> records,
+      List<? extends DeliveryPolicy> policies, ExecutorService executor)
+      throws InterruptedException, ExecutionException {
+    List<Future<?>> inFlight = Lists.newArrayList();
+    while (records.hasNext()) {
+      List<Record> chunk = Lists.newArrayListWithCapacity(CHUNK_SIZE);
+      while (records.hasNext() && chunk.size() < CHUNK_SIZE) {
+        chunk.add(records.next());
+      }
+      // A policy must be done with the previous chunk before it gets this
+      // one.
+      waitFor(inFlight);
+      for (DeliveryPolicy policy : policies) {
+        inFlight.add(executor.submit(newReplayTask(policy, chunk)));
+      }
+    }
+    waitFor(inFlight);
+  }
+
+  private static Callable<Void> newReplayTask(
+      final DeliveryPolicy policy, final List<Record> chunk) {
+    return new Callable<Void>() {
+      @Override public Void call() {
+        for (Record record : chunk) {
+          policy.add(record);
+        }
+        return null;
+      }
+    };
+  }
+
+  private static void waitFor(List<Future<?>> futures)
+      throws InterruptedException, ExecutionException {
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      futures.clear();
+    }
+  }
+
+  /**
+   * @return (room size, cost) points, as analyse.py computed them
+   */
+  static List<double[]> getRoomSizeCosts(RoomSizeHistogram histogram,
+      List<Long> sizes, boolean ignoreLarger, double price) {
+    List<double[]> points = Lists.newArrayList();
+    for (long size : sizes) {
+      points.add(new double[] {
+          size, price * histogram.getDeliveries(size, ignoreLarger)});
+    }
+    return points;
+  }
+
+  static void printComparison(PrintStream out,
+      List<DeliveryPolicy> policies, double price) {
+    out.println("policy,deliveries,cost");
+    for (DeliveryPolicy policy : policies) {
+      out.println(policy.getName() + "," + Math.round(policy.getDeliveries()) +
+          "," + price * policy.getDeliveries());
+    }
+  }
+
+  /**
+   * @return a Google Chart API URL for an XY line chart of the points
+   */
+  static String getChartUrl(List<double[]> points) {
+    double maxX = 0;
+    double maxY = 0;
+    List<String> xs = Lists.newArrayList();
+    List<String> ys = Lists.newArrayList();
+    for (double[] point : points) {
+      maxX = Math.max(maxX, point[0]);
+      maxY = Math.max(maxY, point[1]);
+      xs.add(String.valueOf((long) point[0]));
+      ys.add(String.format("%.6f", point[1]));
+    }
+    return "http://chart.apis.google.com/chart?cht=lxy&chs=400x400" +
+        "&chd=t:" + Joiner.on(",").join(xs) + "|" + Joiner.on(",").join(ys) +
+        "&chds=0," + (long) maxX + ",0," + maxY +
+        "&chxt=x,y&chxr=0,0," + (long) maxX + "|1,0," + maxY;
+  }
+}
@@ -0,0 +1,104 @@
+package com.imjasonh.partychapp.costsim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class CostSimulatorTest extends TestCase {
+  private static Record record(String channel, long recipients, long time) {
+    return new Record("jason@example.com", channel, recipients, 10, time, 1);
+  }
+
+  private static double replay(DeliveryPolicy policy, Record... records) {
+    for (Record record : records) {
+      policy.add(record);
+    }
+    return policy.getDeliveries();
+  }
+
+  public void testMaxRoomSize() {
+    Record[] records = {record("a", 2, 0), record("b", 10, 0)};
+    assertEquals(12.0, replay(DeliveryPolicy.baseline(), records), 0.0001);
+    assertEquals(7.0,
+        replay(DeliveryPolicy.maxRoomSize(5, false), records), 0.0001);
+    assertEquals(2.0,
+        replay(DeliveryPolicy.maxRoomSize(5, true), records), 0.0001);
+  }
+
+  public void testCoalescing() {
+    assertEquals(3 + 1 + 2 + 3 + 4, replay(DeliveryPolicy.coalescing(1000),
+        record("a", 3, 0),
+        record("a", 3, 500),
+        // Someone joined, so one more recipient for this window's batch.
+        record("a", 4, 900),
+        // Another channel's windows are separate.
+        record("b", 2, 900),
+        record("a", 3, 1000),
+        record("b", 4, 1999)), 0.0001);
+  }
+
+  public void testInviteeCutoff() {
+    Record[] records = {record("a", 2, 0), record("b", 10, 0)};
+    assertEquals(12.0 + 1.5,
+        replay(DeliveryPolicy.inviteeCutoff(10, 1.5), records), 0.0001);
+    assertEquals(12.0,
+        replay(DeliveryPolicy.inviteeCutoff(0, 1.5), records), 0.0001);
+  }
+
+  public void testPresenceAwareAndWeights() {
+    Record weighted = new Record("jason@example.com", "a", 10, 10, 0, 0.5f);
+    assertEquals(2.5,
+        replay(DeliveryPolicy.presenceAware(0.5), weighted), 0.0001);
+  }
+
+  public void testRoomSizeCosts() {
+    RoomSizeHistogram histogram = new RoomSizeHistogram();
+    replay(histogram, record("a", 1, 0), record("a", 1, 0),
+        record("b", 3, 0), record("c", 10, 0));
+    assertEquals(ImmutableList.of(1L, 3L, 10L), histogram.getRoomSizes());
+    assertEquals(15.0, histogram.getDeliveries(), 0.0001);
+
+    List<double[]> capped = CostSimulator.getRoomSizeCosts(
+        histogram, histogram.getRoomSizes(), false, 2.0);
+    assertEquals(2 * 4.0, capped.get(0)[1], 0.0001);
+    assertEquals(2 * (2 + 3 + 3.0), capped.get(1)[1], 0.0001);
+    assertEquals(2 * 15.0, capped.get(2)[1], 0.0001);
+
+    List<double[]> ignored = CostSimulator.getRoomSizeCosts(
+        histogram, histogram.getRoomSizes(), true, 2.0);
+    assertEquals(2 * 2.0, ignored.get(0)[1], 0.0001);
+    assertEquals(2 * 5.0, ignored.get(1)[1], 0.0001);
+  }
+
+  public void testParallelReplay() throws Exception {
+    List<Record> records = Lists.newArrayList();
+    for (int i = 0; i < 25000; i++) {
+      records.add(record("channel" + (i % 13), i % 7, i * 100L));
+    }
+    List<DeliveryPolicy> policies = ImmutableList.of(
+        DeliveryPolicy.baseline(), DeliveryPolicy.coalescing(1000));
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      CostSimulator.replay(records.iterator(), policies, executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    DeliveryPolicy sequential = DeliveryPolicy.coalescing(1000);
+    for (Record record : records) {
+      sequential.add(record);
+    }
+    assertEquals(sequential.getDeliveries(),
+        policies.get(1).getDeliveries(), 0.0001);
+    // 3571 full cycles of 0 + 1 + ... + 6, then 0 + 1 + 2.
+    assertEquals(3571 * 21 + 3, policies.get(0).getDeliveries(), 0.0001);
+  }
+}
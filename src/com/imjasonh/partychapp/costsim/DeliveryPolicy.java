@@ -0,0 +1,132 @@
+package com.imjasonh.partychapp.costsim;
+
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.util.Map;
+
+/**
+ * A model of how {@link com.imjasonh.partychapp.Channel} delivers broadcasts,
+ * which {@link CostSimulator} replays logged messages through to count the
+ * XMPP messages it would send. Policies may keep state across records, but
+ * each instance is only fed by one thread at a time.
+ *
+ * Message logs only have each message's recipient count, so the policies
+ * that depend on more than that (invitees, presence) take an assumption as a
+ * parameter.
+ */
+public abstract class DeliveryPolicy {
+  private final String name;
+  private double deliveries = 0;
+
+  protected DeliveryPolicy(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return the XMPP messages sent so far
+   */
+  public double getDeliveries() {
+    return deliveries;
+  }
+
+  public void add(Record record) {
+    deliveries += getDeliveries(record) * record.getWeight();
+  }
+
+  /**
+   * @return the XMPP messages sent for one (unweighted) record
+   */
+  protected abstract double getDeliveries(Record record);
+
+  /**
+   * Current behavior: every recipient gets every message.
+   */
+  public static DeliveryPolicy baseline() {
+    return new DeliveryPolicy("baseline") {
+      @Override protected double getDeliveries(Record record) {
+        return record.getNumRecipients();
+      }
+    };
+  }
+
+  /**
+   * Rooms are capped at {@code maxRoomSize} recipients, or if
+   * {@code ignoreLarger}, messages to larger rooms aren't sent at all.
+   */
+  public static DeliveryPolicy maxRoomSize(
+      final long maxRoomSize, final boolean ignoreLarger) {
+    return new DeliveryPolicy((ignoreLarger ? "ignore-rooms-over-" :
+        "max-room-size-") + maxRoomSize) {
+      @Override protected double getDeliveries(Record record) {
+        if (ignoreLarger && record.getNumRecipients() > maxRoomSize) {
+          return 0;
+        }
+        return Math.min(record.getNumRecipients(), maxRoomSize);
+      }
+    };
+  }
+
+  /**
+   * Messages to a channel are batched (as by
+   * {@link com.imjasonh.partychapp.outbox.Outbox}) into windows of
+   * {@code windowMillis}, so each recipient gets one message per window.
+   * Windows are fixed rather than starting at each window's first message,
+   * and records are assumed to be mostly in time order per channel (as
+   * exports are); a record from an earlier window starts a new one.
+   */
+  public static DeliveryPolicy coalescing(final long windowMillis) {
+    return new DeliveryPolicy("coalesce-" + windowMillis + "ms") {
+      /** The current window and its largest recipient count, per channel. */
+      private final Map<String, long[]> windows = Maps.newHashMap();
+
+      @Override protected double getDeliveries(Record record) {
+        long window = record.getTimeMillis() / windowMillis;
+        long[] current = windows.get(record.getTo());
+        if (current == null || current[0] != window) {
+          windows.put(record.getTo(),
+              new long[] {window, record.getNumRecipients()});
+          return record.getNumRecipients();
+        }
+        // Only recipients the window's batch didn't already go to.
+        long extra = Math.max(0, record.getNumRecipients() - current[1]);
+        current[1] += extra;
+        return extra;
+      }
+    };
+  }
+
+  /**
+   * Channels with fewer than {@code cutoff} members also send every message
+   * to their invitees (see
+   * {@link com.imjasonh.partychapp.Channel#LARGE_CHANNEL_THRESHOLD}), which
+   * are assumed to number {@code inviteesPerRoom}.
+   */
+  public static DeliveryPolicy inviteeCutoff(
+      final long cutoff, final double inviteesPerRoom) {
+    return new DeliveryPolicy("invitee-cutoff-" + cutoff) {
+      @Override protected double getDeliveries(Record record) {
+        // Recipients don't include the sender.
+        boolean small = record.getNumRecipients() + 1 < cutoff;
+        return record.getNumRecipients() + (small ? inviteesPerRoom : 0);
+      }
+    };
+  }
+
+  /**
+   * Messages are only sent to recipients that are online, which are assumed
+   * to be {@code onlineFraction} of them.
+   */
+  public static DeliveryPolicy presenceAware(final double onlineFraction) {
+    return new DeliveryPolicy("presence-aware-" + onlineFraction) {
+      @Override protected double getDeliveries(Record record) {
+        return record.getNumRecipients() * onlineFraction;
+      }
+    };
+  }
+}
@@ -0,0 +1,60 @@
+package com.imjasonh.partychapp.costsim;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Baseline {@link DeliveryPolicy} that also keeps a histogram of messages by
+ * recipient count, so that the cost of capping room sizes can be computed
+ * for every possible cap (like data_download/analyse.py did) without
+ * replaying the log once per cap.
+ */
+public class RoomSizeHistogram extends DeliveryPolicy {
+  /** Weighted message count, by recipient count. */
+  private final SortedMap<Long, Double> messages = Maps.newTreeMap();
+
+  public RoomSizeHistogram() {
+    super("baseline");
+  }
+
+  @Override public void add(Record record) {
+    super.add(record);
+    Double count = messages.get(record.getNumRecipients());
+    messages.put(record.getNumRecipients(),
+        (count == null ? 0 : count) + record.getWeight());
+  }
+
+  @Override protected double getDeliveries(Record record) {
+    return record.getNumRecipients();
+  }
+
+  /**
+   * @return the recipient counts that were seen, in increasing order
+   */
+  public List<Long> getRoomSizes() {
+    return ImmutableList.copyOf(messages.keySet());
+  }
+
+  /**
+   * @return the XMPP messages that would have been sent with rooms capped at
+   * {@code maxRoomSize} recipients, or if {@code ignoreLarger}, without
+   * sending messages to larger rooms at all
+   */
+  public double getDeliveries(long maxRoomSize, boolean ignoreLarger) {
+    double deliveries = 0;
+    for (Map.Entry<Long, Double> entry : messages.entrySet()) {
+      long roomSize = entry.getKey();
+      if (ignoreLarger && roomSize > maxRoomSize) {
+        continue;
+      }
+      deliveries += Math.min(roomSize, maxRoomSize) * entry.getValue();
+    }
+    return deliveries;
+  }
+}
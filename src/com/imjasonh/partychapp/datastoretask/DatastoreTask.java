@@ -5,13 +5,17 @@ import java.util.Iterator;
 import java.util.List;
 
 import com.imjasonh.partychapp.WebRequest;
+import com.imjasonh.partychapp.mr.GenerateStatsTask;
 
 public abstract class DatastoreTask {
   public enum Action {
     MASTER_TASK(new DatastoreTaskMaster()),
     FIX_CHANNELS(new FixChannelsTask()),
     STATS_CRON_JOB(new StatsCronJob()),
-    MERGE_USERS(new MergeUsersTask());
+    MERGE_USERS(new MergeUsersTask()),
+    FLUSH_OUTBOX(new FlushOutboxTask()),
+    WAKE_SNOOZERS(new WakeSnoozersTask()),
+    GENERATE_STATS(new GenerateStatsTask());
     
     public final DatastoreTask datastoreTask;
     
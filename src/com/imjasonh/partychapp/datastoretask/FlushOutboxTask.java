@@ -0,0 +1,29 @@
+package com.imjasonh.partychapp.datastoretask;
+
+import com.google.common.collect.Iterators;
+
+import com.imjasonh.partychapp.WebRequest;
+import com.imjasonh.partychapp.outbox.Outbox;
+
+import java.util.Iterator;
+
+/**
+ * Sends the broadcasts that {@link Outbox} has been holding for the channels
+ * given as keys.
+ */
+public class FlushOutboxTask extends DatastoreTask {
+  @Override
+  public void handle(WebRequest req, TestableQueue q) {
+    for (String channelName : keys(req)) {
+      Outbox.instance().flush(channelName);
+    }
+  }
+
+  /**
+   * Flush tasks are scheduled by {@link Outbox}, not by iterating over keys.
+   */
+  @Override
+  public Iterator<String> getKeyIterator(String lastKeyHandled) {
+    return Iterators.emptyIterator();
+  }
+}
@@ -16,6 +16,8 @@ public class TestableQueue {
     private String url;
     private List<String> params = Lists.newArrayList();
     private TaskOptions opts = TaskOptions.Builder.withMethod(Method.GET);
+    private long countdownMillis = 0;
+    private long etaMillis = 0;
     
     public Options(String url) {
       this.url(url);
@@ -33,6 +35,18 @@ public class TestableQueue {
       return this;
     }
     
+    public Options countdownMillis(long countdownMillis) {
+      opts.countdownMillis(countdownMillis);
+      this.countdownMillis = countdownMillis;
+      return this;
+    }
+    
+    public Options etaMillis(long etaMillis) {
+      opts.etaMillis(etaMillis);
+      this.etaMillis = etaMillis;
+      return this;
+    }
+    
     public TaskOptions asTaskOptions() {
       return opts;
     }
@@ -45,6 +59,14 @@ public class TestableQueue {
       return url;
     }
     
+    public long countdownMillis() {
+      return countdownMillis;
+    }
+    
+    public long etaMillis() {
+      return etaMillis;
+    }
+    
     @Override
     public String toString() {
       return "[TestableQueue.Options: url = " + url + ", params = " + params + "]";
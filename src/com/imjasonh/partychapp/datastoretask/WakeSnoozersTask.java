@@ -0,0 +1,42 @@
+package com.imjasonh.partychapp.datastoretask;
+
+import com.google.common.collect.Iterators;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.WebRequest;
+
+import java.util.Iterator;
+import java.util.logging.Logger;
+
+/**
+ * Wakes up snoozing members of the channels given as keys. Scheduled by
+ * {@link com.imjasonh.partychapp.server.command.SnoozeHandler} for when the
+ * snooze ends, so that members of quiet channels don't stay snoozed until
+ * someone else happens to send a message.
+ */
+public class WakeSnoozersTask extends DatastoreTask {
+  private static final Logger logger =
+      Logger.getLogger(WakeSnoozersTask.class.getName());
+
+  @Override
+  public void handle(WebRequest req, TestableQueue q) {
+    for (String key : keys(req)) {
+      Channel c = Datastore.instance().getChannelByName(key);
+      if (c == null) {
+        logger.warning("Channel " + key + " no longer exists");
+        continue;
+      }
+      c.awakenSnoozers();
+    }
+  }
+
+  /**
+   * Wake tasks are scheduled by the snooze command, not by iterating over
+   * keys.
+   */
+  @Override
+  public Iterator<String> getKeyIterator(String lastKeyHandled) {
+    return Iterators.emptyIterator();
+  }
+}
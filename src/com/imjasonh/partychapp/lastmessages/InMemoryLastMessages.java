@@ -0,0 +1,40 @@
+package com.imjasonh.partychapp.lastmessages;
+
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of {@link LastMessages} that uses an in-memory
+ * {@code HashMap}. Meant for test use only.
+ */
+public class InMemoryLastMessages extends LastMessages {
+  private final Map<String, Object> values = Maps.newHashMap();
+
+  @Override protected synchronized Long increment(String key) {
+    Long value = (Long) values.get(key);
+    value = value == null ? 1L : value + 1;
+    values.put(key, value);
+    return value;
+  }
+
+  @Override protected synchronized void put(String key, String value) {
+    values.put(key, value);
+  }
+
+  @Override protected synchronized Map<String, Object> getAll(
+      List<String> keys) {
+    Map<String, Object> result = Maps.newHashMap();
+    for (String key : keys) {
+      if (values.containsKey(key)) {
+        result.put(key, values.get(key));
+      }
+    }
+    return result;
+  }
+
+  @Override protected synchronized void deleteAll(List<String> keys) {
+    values.keySet().removeAll(keys);
+  }
+}
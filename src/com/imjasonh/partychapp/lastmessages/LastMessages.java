@@ -0,0 +1,166 @@
+package com.imjasonh.partychapp.lastmessages;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps each member's most recent messages, for s/r and /undo (see
+ * {@link com.imjasonh.partychapp.Member#getLastMessages}). They used to be
+ * stored in the member itself, which made every channel load and put carry
+ * them for every member even though only the sender's are ever needed.
+ *
+ * Each member gets a ring buffer of {@link #MAX_MESSAGES} slots and a counter
+ * of how many messages have been added. Adding a message increments the
+ * counter and writes the slot that it picks, so adding never has to read;
+ * getting the messages reads the counter and every slot at once. Slots hold
+ * their message's index, so that slots left over from before the counter was
+ * cleared (or evicted) are ignored.
+ *
+ * Storage of the counters and slots is left to subclasses.
+ */
+public abstract class LastMessages {
+  /** Messages kept per member. */
+  public static final int MAX_MESSAGES = 10;
+
+  /**
+   * Maximum length of the message that we'll keep for s/r (the full message
+   * is still broadcast).
+   */
+  public static final int MAX_MESSAGE_LENGTH = 512;
+
+  private static final String COUNTER_SUFFIX = "n";
+
+  private static volatile LastMessages instance;
+
+  public static LastMessages instance() {
+    LastMessages result = instance;
+    if (result == null) {
+      // Lazy for the same reason as Datastore.instance(), tests don't have
+      // memcache.
+      synchronized (LastMessages.class) {
+        result = instance;
+        if (result == null) {
+          result = instance = new MemcacheLastMessages();
+        }
+      }
+    }
+    return result;
+  }
+
+  @VisibleForTesting public static void setInstance(LastMessages lastMessages) {
+    instance = lastMessages;
+  }
+
+  public void add(String channelName, String jid, String message) {
+    if (message.length() > MAX_MESSAGE_LENGTH) {
+      message = message.substring(0, MAX_MESSAGE_LENGTH);
+    }
+    String prefix = getKeyPrefix(channelName, jid);
+    Long index = increment(prefix + COUNTER_SUFFIX);
+    if (index == null) {
+      return;
+    }
+    put(prefix + (index % MAX_MESSAGES), index + " " + message);
+  }
+
+  /**
+   * @return the member's messages, most recent first
+   */
+  public List<String> get(String channelName, String jid) {
+    return getAll(channelName, ImmutableList.of(jid)).get(jid);
+  }
+
+  /**
+   * Gets several members' messages with a single read.
+   *
+   * @return each member's messages (most recent first), by JID
+   */
+  public Map<String, List<String>> getAll(
+      String channelName, Collection<String> jids) {
+    List<String> keys = Lists.newArrayList();
+    for (String jid : jids) {
+      String prefix = getKeyPrefix(channelName, jid);
+      keys.add(prefix + COUNTER_SUFFIX);
+      for (int i = 0; i < MAX_MESSAGES; i++) {
+        keys.add(prefix + i);
+      }
+    }
+    Map<String, Object> values =
+        keys.isEmpty() ? Collections.<String, Object>emptyMap() : getAll(keys);
+
+    Map<String, List<String>> messages = Maps.newLinkedHashMap();
+    for (String jid : jids) {
+      messages.put(jid, getMessages(getKeyPrefix(channelName, jid), values));
+    }
+    return messages;
+  }
+
+  private static List<String> getMessages(
+      String prefix, Map<String, Object> values) {
+    Long last = (Long) values.get(prefix + COUNTER_SUFFIX);
+    if (last == null) {
+      return Collections.emptyList();
+    }
+
+    ImmutableList.Builder<String> messages = ImmutableList.builder();
+    for (long index = last; index > 0 && index > last - MAX_MESSAGES;
+        index--) {
+      String slot = (String) values.get(prefix + (index % MAX_MESSAGES));
+      if (slot == null) {
+        continue;
+      }
+      int space = slot.indexOf(' ');
+      if (!slot.substring(0, space).equals(Long.toString(index))) {
+        continue;
+      }
+      messages.add(slot.substring(space + 1));
+    }
+    return messages.build();
+  }
+
+  public void clear(String channelName, String jid) {
+    clear(channelName, ImmutableList.of(jid));
+  }
+
+  /**
+   * Clears several members' messages with a single delete.
+   */
+  public void clear(String channelName, Collection<String> jids) {
+    if (jids.isEmpty()) {
+      return;
+    }
+    List<String> keys = Lists.newArrayListWithCapacity(jids.size());
+    for (String jid : jids) {
+      keys.add(getKeyPrefix(channelName, jid) + COUNTER_SUFFIX);
+    }
+    deleteAll(keys);
+  }
+
+  private static String getKeyPrefix(String channelName, String jid) {
+    return channelName + " " + jid + " ";
+  }
+
+  /**
+   * Increments the counter at the given key, starting at 0 if it's not set.
+   *
+   * @return the new value, or null if it couldn't be incremented
+   */
+  protected abstract Long increment(String key);
+
+  protected abstract void put(String key, String value);
+
+  /**
+   * @return the values of the keys that are set (counters as {@code Long}s,
+   * slots as {@code String}s)
+   */
+  protected abstract Map<String, Object> getAll(List<String> keys);
+
+  protected abstract void deleteAll(List<String> keys);
+}
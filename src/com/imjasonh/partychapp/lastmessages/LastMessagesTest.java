@@ -0,0 +1,100 @@
+package com.imjasonh.partychapp.lastmessages;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+public class LastMessagesTest extends TestCase {
+  InMemoryLastMessages lastMessages = new InMemoryLastMessages();
+
+  public void testEmpty() {
+    assertTrue(lastMessages.get("pancake", "neil@gmail.com").isEmpty());
+  }
+
+  public void testMostRecentFirst() {
+    lastMessages.add("pancake", "neil@gmail.com", "first");
+    lastMessages.add("pancake", "neil@gmail.com", "second");
+    assertEquals(ImmutableList.of("second", "first"),
+        lastMessages.get("pancake", "neil@gmail.com"));
+  }
+
+  public void testKeptPerMemberAndChannel() {
+    lastMessages.add("pancake", "neil@gmail.com", "neil in pancake");
+    lastMessages.add("pancake", "jason@gmail.com", "jason in pancake");
+    lastMessages.add("waffle", "neil@gmail.com", "neil in waffle");
+    assertEquals(ImmutableList.of("neil in pancake"),
+        lastMessages.get("pancake", "neil@gmail.com"));
+    assertEquals(ImmutableList.of("jason in pancake"),
+        lastMessages.get("pancake", "jason@gmail.com"));
+    assertEquals(ImmutableList.of("neil in waffle"),
+        lastMessages.get("waffle", "neil@gmail.com"));
+  }
+
+  public void testWrapsAround() {
+    for (int i = 0; i < LastMessages.MAX_MESSAGES * 2 + 3; i++) {
+      lastMessages.add("pancake", "neil@gmail.com", "message " + i);
+    }
+    List<String> messages = lastMessages.get("pancake", "neil@gmail.com");
+    assertEquals(LastMessages.MAX_MESSAGES, messages.size());
+    for (int i = 0; i < LastMessages.MAX_MESSAGES; i++) {
+      assertEquals("message " + (LastMessages.MAX_MESSAGES * 2 + 2 - i),
+          messages.get(i));
+    }
+  }
+
+  public void testTruncatesLongMessages() {
+    StringBuilder message = new StringBuilder();
+    for (int i = 0; i < LastMessages.MAX_MESSAGE_LENGTH + 10; i++) {
+      message.append('x');
+    }
+    lastMessages.add("pancake", "neil@gmail.com", message.toString());
+    assertEquals(LastMessages.MAX_MESSAGE_LENGTH,
+        lastMessages.get("pancake", "neil@gmail.com").get(0).length());
+  }
+
+  public void testClearIgnoresOldSlots() {
+    lastMessages.add("pancake", "neil@gmail.com", "first");
+    lastMessages.add("pancake", "neil@gmail.com", "second");
+    lastMessages.clear("pancake", "neil@gmail.com");
+    assertTrue(lastMessages.get("pancake", "neil@gmail.com").isEmpty());
+
+    // Reuses the first slot, the second one still has the old message.
+    lastMessages.add("pancake", "neil@gmail.com", "third");
+    assertEquals(ImmutableList.of("third"),
+        lastMessages.get("pancake", "neil@gmail.com"));
+  }
+
+  public void testGetAndClearSeveralMembers() {
+    lastMessages.add("pancake", "neil@gmail.com", "neil");
+    lastMessages.add("pancake", "jason@gmail.com", "jason");
+    lastMessages.add("pancake", "kushal@kushaldave.com", "kushal");
+    List<String> jids = ImmutableList.of(
+        "neil@gmail.com", "jason@gmail.com", "david@gmail.com");
+
+    Map<String, List<String>> messages = lastMessages.getAll("pancake", jids);
+    assertEquals(jids, Lists.newArrayList(messages.keySet()));
+    assertEquals(ImmutableList.of("neil"), messages.get("neil@gmail.com"));
+    assertEquals(ImmutableList.of("jason"), messages.get("jason@gmail.com"));
+    assertTrue(messages.get("david@gmail.com").isEmpty());
+
+    lastMessages.clear("pancake", jids);
+    assertTrue(lastMessages.get("pancake", "neil@gmail.com").isEmpty());
+    assertTrue(lastMessages.get("pancake", "jason@gmail.com").isEmpty());
+    assertEquals(ImmutableList.of("kushal"),
+        lastMessages.get("pancake", "kushal@kushaldave.com"));
+  }
+
+  public void testMissingSlotsAreSkipped() {
+    lastMessages.add("pancake", "neil@gmail.com", "first");
+    lastMessages.add("pancake", "neil@gmail.com", "second");
+    lastMessages.add("pancake", "neil@gmail.com", "third");
+    // As if memcache had evicted the second message.
+    lastMessages.deleteAll(ImmutableList.of("pancake neil@gmail.com 2"));
+    assertEquals(ImmutableList.of("third", "first"),
+        lastMessages.get("pancake", "neil@gmail.com"));
+  }
+}
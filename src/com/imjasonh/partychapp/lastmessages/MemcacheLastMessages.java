@@ -0,0 +1,89 @@
+package com.imjasonh.partychapp.lastmessages;
+
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of {@link LastMessages} that keeps the counters and slots in
+ * memcache. Messages are only kept as long as memcache keeps them, which is
+ * fine for s/r and /undo, since they're about what was just said. Failures
+ * are logged and otherwise ignored, like the other memcache-backed stores.
+ *
+ * Slots are written asynchronously, since nothing in the request that adds a
+ * message reads it back.
+ */
+public class MemcacheLastMessages extends LastMessages {
+  private static final Logger logger =
+      Logger.getLogger(MemcacheLastMessages.class.getName());
+
+  private static final String KEY_PREFIX = "lastmessages.";
+
+  private static final Expiration EXPIRATION =
+      Expiration.byDeltaSeconds(7 * 24 * 60 * 60);
+
+  private final MemcacheService memcache =
+      MemcacheServiceFactory.getMemcacheService();
+
+  private final AsyncMemcacheService asyncMemcache =
+      MemcacheServiceFactory.getAsyncMemcacheService();
+
+  @Override protected Long increment(String key) {
+    try {
+      return memcache.increment(KEY_PREFIX + key, 1, 0L);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not increment " + key, err);
+      return null;
+    }
+  }
+
+  @Override protected void put(String key, String value) {
+    try {
+      asyncMemcache.put(KEY_PREFIX + key, value, EXPIRATION);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not put " + key, err);
+    }
+  }
+
+  @Override protected Map<String, Object> getAll(List<String> keys) {
+    List<String> prefixedKeys = Lists.newArrayList();
+    for (String key : keys) {
+      prefixedKeys.add(KEY_PREFIX + key);
+    }
+    Map<String, Object> prefixedValues;
+    try {
+      prefixedValues = memcache.getAll(prefixedKeys);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not get " + keys.get(0), err);
+      return Collections.emptyMap();
+    }
+
+    Map<String, Object> values = Maps.newHashMap();
+    for (Map.Entry<String, Object> entry : prefixedValues.entrySet()) {
+      values.put(
+          entry.getKey().substring(KEY_PREFIX.length()), entry.getValue());
+    }
+    return values;
+  }
+
+  @Override protected void deleteAll(List<String> keys) {
+    List<String> prefixedKeys = Lists.newArrayList();
+    for (String key : keys) {
+      prefixedKeys.add(KEY_PREFIX + key);
+    }
+    try {
+      memcache.deleteAll(prefixedKeys);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not delete " + keys.get(0), err);
+    }
+  }
+}
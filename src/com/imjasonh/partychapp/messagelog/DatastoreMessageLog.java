@@ -0,0 +1,80 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.google.appengine.api.datastore.AsyncDatastoreService;
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Implementation of {@link MessageLog} that writes each batch of records as
+ * a single {@link #BATCH_KIND} entity (with an async put, so that the request
+ * that triggers the flush doesn't wait for it).
+ */
+public class DatastoreMessageLog extends MessageLog {
+  /** Kind of the entities that hold one record each (no longer written). */
+  public static final String LEGACY_KIND = "messageLog";
+
+  /** Kind of the entities that hold an encoded {@link MessageLogBatch}. */
+  public static final String BATCH_KIND = "messageLogBatch";
+
+  /**
+   * Time of the batch's last record, indexed so that readers can pick the
+   * batches with records in a time range.
+   */
+  public static final String END_MS_PROPERTY = "end_ms";
+
+  /**
+   * When the batch was written, indexed so that readers can pick up only the
+   * batches written since they last looked. Buffered records can be written
+   * well after their time, so {@link #END_MS_PROPERTY} can't be used for
+   * that. Batches written before this was added don't have it.
+   */
+  public static final String WRITTEN_MS_PROPERTY = "written_ms";
+
+  private static final String RECORDS_PROPERTY = "records";
+
+  public DatastoreMessageLog() {
+    super(new Random());
+  }
+
+  @Override protected void write(List<Record> records) {
+    Entity entity = new Entity(BATCH_KIND);
+    entity.setUnindexedProperty("count", records.size());
+    entity.setUnindexedProperty(
+        "start_ms", records.get(0).getTimeMillis());
+    entity.setProperty(
+        END_MS_PROPERTY, records.get(records.size() - 1).getTimeMillis());
+    entity.setUnindexedProperty(
+        RECORDS_PROPERTY, new Blob(MessageLogBatch.encode(records)));
+    entity.setProperty(WRITTEN_MS_PROPERTY, System.currentTimeMillis());
+
+    AsyncDatastoreService asyncDS =
+        DatastoreServiceFactory.getAsyncDatastoreService();
+    asyncDS.put(entity);
+  }
+
+  /**
+   * @return the records in an entity of either {@link #LEGACY_KIND} (which
+   * have a weight of 1) or {@link #BATCH_KIND}
+   */
+  public static List<Record> getRecords(Entity entity) throws IOException {
+    if (entity.getKind().equals(BATCH_KIND)) {
+      Blob blob = (Blob) entity.getProperty(RECORDS_PROPERTY);
+      return MessageLogBatch.decode(blob.getBytes());
+    }
+
+    Record record = new Record(
+        (String) entity.getProperty("from"),
+        (String) entity.getProperty("to"),
+        ((Long) entity.getProperty("num_recipients")).longValue(),
+        ((Long) entity.getProperty("payload_size")).longValue(),
+        ((Long) entity.getProperty("time_ms")).longValue(),
+        1);
+    return Collections.singletonList(record);
+  }
+}
@@ -0,0 +1,26 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Implementation of {@link MessageLog} that keeps written batches in memory.
+ * Meant for test use only.
+ */
+public class InMemoryMessageLog extends MessageLog {
+  private final List<List<Record>> batches = Lists.newArrayList();
+
+  public InMemoryMessageLog(Random random) {
+    super(random);
+  }
+
+  @Override protected void write(List<Record> records) {
+    batches.add(records);
+  }
+
+  public List<List<Record>> getBatches() {
+    return batches;
+  }
+}
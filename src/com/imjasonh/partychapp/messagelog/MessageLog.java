@@ -0,0 +1,265 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.Configuration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Samples broadcasts (at the rate given by
+ * {@link com.imjasonh.partychapp.PersistentConfiguration#fractionOfMessagesToLog})
+ * into records that {@link com.imjasonh.partychapp.mr.GenerateStatsServlet}
+ * aggregates. Records are buffered per instance and written out in batches
+ * (see {@link MessageLogBatch}) instead of one entity per message.
+ *
+ * Sampling is stratified by channel: within each flush window, the first
+ * {@link #GUARANTEED_PER_CHANNEL} messages of every channel are always
+ * sampled (with a correspondingly lower {@link Record#getWeight}), so that
+ * small rooms show up even when big ones dominate the traffic. Weights are
+ * relative to the configured fraction, so weighted counts can be added to
+ * those of legacy (unweighted) records.
+ *
+ * Buffered records are written out by the first broadcast or request (see
+ * {@link MessageLogFilter}) after their window ends, so an instance that
+ * stops getting requests holds on to them until it gets another one, and
+ * loses them if it's shut down first. Storage of batches is left to
+ * subclasses.
+ */
+public abstract class MessageLog {
+  private static final Logger logger =
+      Logger.getLogger(MessageLog.class.getName());
+
+  /**
+   * Length of a flush window. Buffered records are written out by the first
+   * request to end after their window does...
+   */
+  public static final long FLUSH_INTERVAL_MSEC = 60 * 1000L;
+
+  /** ...or when there are this many of them. */
+  static final int MAX_BUFFERED_RECORDS = 500;
+
+  /** Messages per channel per flush window that are always sampled. */
+  static final int GUARANTEED_PER_CHANNEL = 2;
+
+  private static volatile MessageLog instance;
+
+  public static MessageLog instance() {
+    MessageLog result = instance;
+    if (result == null) {
+      // Lazy for the same reason as Datastore.instance(), tests don't have
+      // the datastore.
+      synchronized (MessageLog.class) {
+        result = instance;
+        if (result == null) {
+          result = instance = new DatastoreMessageLog();
+        }
+      }
+    }
+    return result;
+  }
+
+  @VisibleForTesting public static void setInstance(MessageLog messageLog) {
+    instance = messageLog;
+  }
+
+  /**
+   * A single sampled broadcast.
+   */
+  public static class Record {
+    private final String from;
+    private final String to;
+    private final long numRecipients;
+    private final long payloadSize;
+    private final long timeMillis;
+    private final float weight;
+
+    public Record(String from, String to, long numRecipients,
+        long payloadSize, long timeMillis, float weight) {
+      this.from = from;
+      this.to = to;
+      this.numRecipients = numRecipients;
+      this.payloadSize = payloadSize;
+      this.timeMillis = timeMillis;
+      this.weight = weight;
+    }
+
+    /** The sender's JID. */
+    public String getFrom() {
+      return from;
+    }
+
+    /** The channel name. */
+    public String getTo() {
+      return to;
+    }
+
+    public long getNumRecipients() {
+      return numRecipients;
+    }
+
+    public long getPayloadSize() {
+      return payloadSize;
+    }
+
+    public long getTimeMillis() {
+      return timeMillis;
+    }
+
+    /**
+     * How many messages sampled at the configured fraction this record
+     * stands for (1 for records that were sampled at that fraction).
+     */
+    public float getWeight() {
+      return weight;
+    }
+
+    @Override public String toString() {
+      return "[Record: from = " + from + ", to = " + to + ", recipients = " +
+          numRecipients + ", size = " + payloadSize + ", time = " +
+          timeMillis + ", weight = " + weight + "]";
+    }
+  }
+
+  private final Random random;
+
+  /** Guarded by this. */
+  private List<Record> buffered = Lists.newArrayList();
+  private final Map<String, Integer> channelCounts = Maps.newHashMap();
+  private long windowStartMillis;
+
+  protected MessageLog(Random random) {
+    this.random = random;
+    this.windowStartMillis = System.currentTimeMillis();
+  }
+
+  /**
+   * Writes out a batch of records.
+   */
+  protected abstract void write(List<Record> records);
+
+  /**
+   * Possibly samples a broadcast, using the configured fraction.
+   */
+  public void log(String channelName, String from, int numRecipients,
+      int payloadSize) {
+    Double fraction =
+        Configuration.persistentConfig().fractionOfMessagesToLog();
+    if (fraction == null || fraction <= 0.0 || fraction > 1.0) {
+      return;
+    }
+    log(channelName, from, numRecipients, payloadSize, fraction,
+        System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  void log(String channelName, String from, int numRecipients,
+      int payloadSize, double fraction, long nowMillis) {
+    List<Record> toWrite;
+    synchronized (this) {
+      // Starting a new window writes out the previous window's records.
+      toWrite = maybeStartWindow(nowMillis);
+
+      Integer count = channelCounts.get(channelName);
+      count = count == null ? 1 : count + 1;
+      channelCounts.put(channelName, count);
+
+      // Each message counts for `fraction` in expectation either way.
+      float weight;
+      if (count <= GUARANTEED_PER_CHANNEL) {
+        weight = (float) fraction;
+      } else if (random.nextDouble() < fraction) {
+        weight = 1;
+      } else {
+        weight = 0;
+      }
+      if (weight > 0) {
+        buffered.add(new Record(from, channelName, numRecipients,
+            payloadSize, nowMillis, weight));
+      }
+
+      if (buffered.size() >= MAX_BUFFERED_RECORDS) {
+        // Can't also have rolled the window, since that emptied the buffer.
+        toWrite = takeBuffered();
+      }
+    }
+
+    if (toWrite != null) {
+      writeSafely(toWrite);
+    }
+  }
+
+  /**
+   * Writes out all buffered records, regardless of how long they've been
+   * buffered.
+   */
+  public void flush() {
+    List<Record> toWrite;
+    synchronized (this) {
+      toWrite = takeBuffered();
+    }
+    if (toWrite != null) {
+      writeSafely(toWrite);
+    }
+  }
+
+  /**
+   * Writes out the buffered records if their window has ended. Meant to be
+   * called at the end of every request, so that it's cheap otherwise.
+   */
+  public void flushIfDue() {
+    flushIfDue(System.currentTimeMillis());
+  }
+
+  @VisibleForTesting void flushIfDue(long nowMillis) {
+    List<Record> toWrite;
+    synchronized (this) {
+      toWrite = maybeStartWindow(nowMillis);
+    }
+    if (toWrite != null) {
+      writeSafely(toWrite);
+    }
+  }
+
+  /**
+   * Starts a new window if the current one has ended.
+   *
+   * @return the previous window's records, or null if there are none or the
+   *     window hasn't ended
+   */
+  private List<Record> maybeStartWindow(long nowMillis) {
+    if (nowMillis - windowStartMillis < FLUSH_INTERVAL_MSEC) {
+      return null;
+    }
+    channelCounts.clear();
+    windowStartMillis = nowMillis;
+    return takeBuffered();
+  }
+
+  /**
+   * @return the buffered records, or null if there are none
+   */
+  private List<Record> takeBuffered() {
+    if (buffered.isEmpty()) {
+      return null;
+    }
+    List<Record> toWrite = buffered;
+    buffered = Lists.newArrayList();
+    return toWrite;
+  }
+
+  private void writeSafely(List<Record> records) {
+    try {
+      write(records);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING,
+          "Could not write " + records.size() + " message log records", err);
+    }
+  }
+}
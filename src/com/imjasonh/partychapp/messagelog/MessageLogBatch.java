@@ -0,0 +1,164 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact columnar encoding of many {@link Record}s, so that a whole flush
+ * of the {@link MessageLog} fits in a single entity. Sender JIDs and channel
+ * names are stored once in a dictionary and referred to by index, numbers
+ * are variable-length, times are deltas from the previous record, and the
+ * whole thing is deflated.
+ */
+public class MessageLogBatch {
+  private static final int VERSION = 1;
+
+  private MessageLogBatch() {
+    // Not instantiable
+  }
+
+  public static byte[] encode(List<Record> records) {
+    Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+    for (Record record : records) {
+      addToDictionary(dictionary, record.getFrom());
+      addToDictionary(dictionary, record.getTo());
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new DeflaterOutputStream(bytes));
+      out.writeByte(VERSION);
+      writeVarLong(out, records.size());
+
+      writeVarLong(out, dictionary.size());
+      for (String value : dictionary.keySet()) {
+        out.writeUTF(value);
+      }
+
+      for (Record record : records) {
+        writeVarLong(out, dictionary.get(record.getFrom()));
+      }
+      for (Record record : records) {
+        writeVarLong(out, dictionary.get(record.getTo()));
+      }
+      for (Record record : records) {
+        writeVarLong(out, record.getNumRecipients());
+      }
+      for (Record record : records) {
+        writeVarLong(out, record.getPayloadSize());
+      }
+      long previousTime = 0;
+      for (Record record : records) {
+        writeVarLong(out, zigZag(record.getTimeMillis() - previousTime));
+        previousTime = record.getTimeMillis();
+      }
+      for (Record record : records) {
+        out.writeFloat(record.getWeight());
+      }
+      out.close();
+    } catch (IOException err) {
+      // Can't happen with in-memory streams
+      throw new RuntimeException(err);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @throws IOException if {@code encoded} is corrupt or from an unknown
+   * version
+   */
+  public static List<Record> decode(byte[] encoded) throws IOException {
+    DataInputStream in = new DataInputStream(
+        new InflaterInputStream(new ByteArrayInputStream(encoded)));
+    int version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unknown message log batch version " + version);
+    }
+    int count = (int) readVarLong(in);
+
+    int dictionarySize = (int) readVarLong(in);
+    String[] dictionary = new String[dictionarySize];
+    for (int i = 0; i < dictionarySize; i++) {
+      dictionary[i] = in.readUTF();
+    }
+
+    String[] froms = new String[count];
+    for (int i = 0; i < count; i++) {
+      froms[i] = dictionary[(int) readVarLong(in)];
+    }
+    String[] tos = new String[count];
+    for (int i = 0; i < count; i++) {
+      tos[i] = dictionary[(int) readVarLong(in)];
+    }
+    long[] numRecipients = new long[count];
+    for (int i = 0; i < count; i++) {
+      numRecipients[i] = readVarLong(in);
+    }
+    long[] payloadSizes = new long[count];
+    for (int i = 0; i < count; i++) {
+      payloadSizes[i] = readVarLong(in);
+    }
+    long[] times = new long[count];
+    long previousTime = 0;
+    for (int i = 0; i < count; i++) {
+      times[i] = previousTime + unZigZag(readVarLong(in));
+      previousTime = times[i];
+    }
+
+    List<Record> records = Lists.newArrayListWithCapacity(count);
+    for (int i = 0; i < count; i++) {
+      records.add(new Record(froms[i], tos[i], numRecipients[i],
+          payloadSizes[i], times[i], in.readFloat()));
+    }
+    return records;
+  }
+
+  private static void addToDictionary(
+      Map<String, Integer> dictionary, String value) {
+    if (!dictionary.containsKey(value)) {
+      dictionary.put(value, dictionary.size());
+    }
+  }
+
+  private static void writeVarLong(DataOutputStream out, long value)
+      throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length number");
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,49 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+
+public class MessageLogBatchTest extends TestCase {
+  public void testRoundTrip() throws IOException {
+    List<Record> records = ImmutableList.of(
+        new Record("jason@example.com", "pancake", 3, 10, 1000000000L, 1),
+        new Record("neil@example.com", "pancake", 300, 100000, 1000005000L,
+            0.25f),
+        // Out of order times are allowed.
+        new Record("jason@example.com", "waffle", 0, 0, 999999000L, 1));
+
+    List<Record> decoded =
+        MessageLogBatch.decode(MessageLogBatch.encode(records));
+    assertEquals(records.size(), decoded.size());
+    for (int i = 0; i < records.size(); i++) {
+      Record expected = records.get(i);
+      Record actual = decoded.get(i);
+      assertEquals(expected.getFrom(), actual.getFrom());
+      assertEquals(expected.getTo(), actual.getTo());
+      assertEquals(expected.getNumRecipients(), actual.getNumRecipients());
+      assertEquals(expected.getPayloadSize(), actual.getPayloadSize());
+      assertEquals(expected.getTimeMillis(), actual.getTimeMillis());
+      assertEquals(expected.getWeight(), actual.getWeight());
+    }
+  }
+
+  public void testEmpty() throws IOException {
+    assertTrue(MessageLogBatch.decode(
+        MessageLogBatch.encode(ImmutableList.<Record>of())).isEmpty());
+  }
+
+  public void testCorrupt() {
+    try {
+      MessageLogBatch.decode(new byte[] {1, 2, 3});
+      fail("Corrupt batch should not decode");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.google.appengine.api.LifecycleManager;
+import com.google.appengine.api.LifecycleManager.ShutdownHook;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Servlet filter that writes out {@link MessageLog} records once their flush
+ * window has passed, so that they don't wait for the next sampled broadcast
+ * on the same instance.
+ */
+public class MessageLogFilter implements Filter {
+  @Override
+  public void doFilter(
+      ServletRequest request,
+      ServletResponse response,
+      FilterChain chain)
+      throws IOException, ServletException {
+    try {
+      chain.doFilter(request, response);
+    } finally {
+      MessageLog.instance().flushIfDue();
+    }
+  }
+
+  @Override public void init(FilterConfig config) {
+    // Only backends are told when they're about to be shut down, but there's
+    // no harm in asking.
+    LifecycleManager.getInstance().setShutdownHook(new ShutdownHook() {
+      @Override public void shutdown() {
+        MessageLog.instance().flush();
+      }
+    });
+  }
+
+  // Unused {@link Filter} methods
+  @Override public void destroy() {}
+}
@@ -0,0 +1,107 @@
+package com.imjasonh.partychapp.messagelog;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Random;
+
+public class MessageLogTest extends TestCase {
+  private InMemoryMessageLog messageLog;
+
+  /** No earlier than when the log's first window started. */
+  private long start;
+
+  @Override public void setUp() {
+    messageLog = new InMemoryMessageLog(new Random(42));
+    start = System.currentTimeMillis();
+  }
+
+  public void testBufferedUntilWindowIsOver() {
+    messageLog.log("pancake", "jason@example.com", 3, 10, 1.0, start);
+    messageLog.log("pancake", "neil@example.com", 3, 20, 1.0, start + 1000);
+    assertTrue(messageLog.getBatches().isEmpty());
+
+    // The first message of the next window flushes the previous one.
+    messageLog.log("pancake", "jason@example.com", 3, 30, 1.0,
+        start + MessageLog.FLUSH_INTERVAL_MSEC);
+    assertEquals(1, messageLog.getBatches().size());
+    List<Record> batch = messageLog.getBatches().get(0);
+    assertEquals(2, batch.size());
+    assertEquals("neil@example.com", batch.get(1).getFrom());
+    assertEquals("pancake", batch.get(1).getTo());
+    assertEquals(3, batch.get(1).getNumRecipients());
+    assertEquals(20, batch.get(1).getPayloadSize());
+    assertEquals(start + 1000, batch.get(1).getTimeMillis());
+
+    messageLog.flush();
+    assertEquals(2, messageLog.getBatches().size());
+    assertEquals(1, messageLog.getBatches().get(1).size());
+    messageLog.flush();
+    assertEquals(2, messageLog.getBatches().size());
+  }
+
+  public void testIdleWindowFlushedAtRequestEnd() {
+    messageLog.log("pancake", "jason@example.com", 3, 10, 1.0, start);
+    messageLog.flushIfDue(start + 1000);
+    assertTrue(messageLog.getBatches().isEmpty());
+
+    // No more broadcasts, but a request ending after the window does.
+    messageLog.flushIfDue(start + MessageLog.FLUSH_INTERVAL_MSEC);
+    assertEquals(1, messageLog.getBatches().size());
+    assertEquals(1, messageLog.getBatches().get(0).size());
+    messageLog.flushIfDue(start + 2 * MessageLog.FLUSH_INTERVAL_MSEC);
+    assertEquals(1, messageLog.getBatches().size());
+  }
+
+  public void testFlushedWhenFull() {
+    for (int i = 0; i < MessageLog.MAX_BUFFERED_RECORDS; i++) {
+      messageLog.log("pancake", "jason@example.com", 3, 10, 1.0, start);
+    }
+    assertEquals(1, messageLog.getBatches().size());
+    assertEquals(MessageLog.MAX_BUFFERED_RECORDS,
+        messageLog.getBatches().get(0).size());
+  }
+
+  public void testFirstMessagesPerChannelAlwaysSampled() {
+    double fraction = 0.01;
+    for (int i = 0; i < 1000; i++) {
+      messageLog.log("big", "jason@example.com", 100, 10, fraction, start);
+    }
+    messageLog.log("small", "neil@example.com", 2, 10, fraction, start);
+    messageLog.flush();
+
+    double bigWeight = 0;
+    int smallCount = 0;
+    for (Record record : messageLog.getBatches().get(0)) {
+      if (record.getTo().equals("small")) {
+        smallCount++;
+        assertEquals(fraction, record.getWeight(), 0.0001);
+      } else {
+        bigWeight += record.getWeight();
+      }
+    }
+    assertEquals(1, smallCount);
+    // 1000 messages at 1% should have a total weight of about 10.
+    assertTrue("weight " + bigWeight, bigWeight > 2 && bigWeight < 25);
+  }
+
+  public void testGuaranteeResetsEachWindow() {
+    // With a fraction this small, only the guaranteed messages are sampled.
+    double fraction = 0.000001;
+    for (int i = 0; i < 5; i++) {
+      messageLog.log("pancake", "jason@example.com", 3, 10, fraction, start);
+    }
+    for (int i = 0; i < 5; i++) {
+      messageLog.log("pancake", "jason@example.com", 3, 10, fraction,
+          start + MessageLog.FLUSH_INTERVAL_MSEC);
+    }
+    messageLog.flush();
+    assertEquals(2, messageLog.getBatches().size());
+    assertEquals(MessageLog.GUARANTEED_PER_CHANNEL,
+        messageLog.getBatches().get(0).size());
+    assertEquals(MessageLog.GUARANTEED_PER_CHANNEL,
+        messageLog.getBatches().get(1).size());
+  }
+}
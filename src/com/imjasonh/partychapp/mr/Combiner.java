@@ -0,0 +1,26 @@
+package com.imjasonh.partychapp.mr;
+
+/**
+ * How values emitted for the same key are combined, both while mapping and
+ * when merging partial results. Specialized to doubles so that the counters
+ * in {@link StatsCounters} never need to be boxed.
+ */
+public enum Combiner {
+  SUM {
+    @Override public double combine(double a, double b) {
+      return a + b;
+    }
+  },
+  MAX {
+    @Override public double combine(double a, double b) {
+      return Math.max(a, b);
+    }
+  },
+  MIN {
+    @Override public double combine(double a, double b) {
+      return Math.min(a, b);
+    }
+  };
+
+  public abstract double combine(double a, double b);
+}
@@ -0,0 +1,120 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+/**
+ * Reads message log records from a CSV export (made by /admin/export, or for
+ * the legacy messageLog kind by the bulkloader with
+ * data_download/logMessage.yaml), so that {@link MapReduce}s can be run
+ * locally. The header line says which column is which; an optional "weight"
+ * column is also understood, and records without one have a weight of 1.
+ * Lines starting with "#", like the next_cursor line that ends a partial
+ * export, are skipped.
+ *
+ * I/O errors and malformed lines surface as {@link IllegalStateException}s.
+ */
+public class CsvMessageLogInput extends AbstractIterator<Record> {
+  private final BufferedReader reader;
+  private final int fromColumn;
+  private final int toColumn;
+  private final int numRecipientsColumn;
+  private final int payloadSizeColumn;
+  private final int timeColumn;
+  private final int weightColumn;
+  private int lineNumber = 1;
+
+  public CsvMessageLogInput(Reader reader) throws IOException {
+    this.reader = new BufferedReader(reader);
+    String header = this.reader.readLine();
+    if (header == null) {
+      throw new IOException("Missing header line");
+    }
+    List<String> columns = parseLine(header);
+    fromColumn = getColumn(columns, "from");
+    toColumn = getColumn(columns, "to");
+    numRecipientsColumn = getColumn(columns, "num_recipients");
+    payloadSizeColumn = getColumn(columns, "payload_size");
+    timeColumn = getColumn(columns, "time_ms");
+    weightColumn = columns.indexOf("weight");
+  }
+
+  private static int getColumn(List<String> columns, String name)
+      throws IOException {
+    int column = columns.indexOf(name);
+    if (column == -1) {
+      throw new IOException("Missing column " + name + " in " + columns);
+    }
+    return column;
+  }
+
+  @Override protected Record computeNext() {
+    String line;
+    try {
+      do {
+        line = reader.readLine();
+        lineNumber++;
+        if (line == null) {
+          reader.close();
+          return endOfData();
+        }
+      } while (line.length() == 0 || line.startsWith("#"));
+    } catch (IOException err) {
+      throw new IllegalStateException(err);
+    }
+
+    List<String> values = parseLine(line);
+    try {
+      return new Record(
+          values.get(fromColumn),
+          values.get(toColumn),
+          Long.parseLong(values.get(numRecipientsColumn)),
+          Long.parseLong(values.get(payloadSizeColumn)),
+          Long.parseLong(values.get(timeColumn)),
+          weightColumn == -1 ? 1 : Float.parseFloat(values.get(weightColumn)));
+    } catch (NumberFormatException err) {
+      throw new IllegalStateException("Bad number on line " + lineNumber, err);
+    } catch (IndexOutOfBoundsException err) {
+      throw new IllegalStateException("Missing value on line " + lineNumber);
+    }
+  }
+
+  /**
+   * Splits a line at commas, except inside double quotes (where two double
+   * quotes stand for one).
+   */
+  static List<String> parseLine(String line) {
+    List<String> values = Lists.newArrayList();
+    StringBuilder value = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c != '"') {
+          value.append(c);
+        } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          value.append('"');
+          i++;
+        } else {
+          quoted = false;
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        values.add(value.toString());
+        value.setLength(0);
+      } else {
+        value.append(c);
+      }
+    }
+    values.add(value.toString());
+    return values;
+  }
+}
@@ -0,0 +1,56 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+public class CsvMessageLogInputTest extends TestCase {
+  public void testRead() throws IOException {
+    String csv =
+        "from,key,num_recipients,payload_size,time_ms,to\n" +
+        "jason@example.com,agpwYXJ0eWNoYXBwcg8LEgptZXNzYWdlTG9nGAEM,3,10,1000,pancake\n" +
+        "\n" +
+        "\"neil, the \"\"great\"\"@example.com\",2,30,20,2000,waffle\n";
+    List<Record> records =
+        Lists.newArrayList(new CsvMessageLogInput(new StringReader(csv)));
+
+    assertEquals(2, records.size());
+    assertEquals("jason@example.com", records.get(0).getFrom());
+    assertEquals("pancake", records.get(0).getTo());
+    assertEquals(3, records.get(0).getNumRecipients());
+    assertEquals(10, records.get(0).getPayloadSize());
+    assertEquals(1000, records.get(0).getTimeMillis());
+    assertEquals(1.0f, records.get(0).getWeight());
+    assertEquals("neil, the \"great\"@example.com", records.get(1).getFrom());
+    assertEquals(30, records.get(1).getNumRecipients());
+  }
+
+  public void testWeightColumn() throws IOException {
+    String csv = "from,to,num_recipients,payload_size,time_ms,weight\n" +
+        "jason@example.com,pancake,3,10,1000,0.25\n";
+    Record record =
+        new CsvMessageLogInput(new StringReader(csv)).next();
+    assertEquals(0.25f, record.getWeight());
+  }
+
+  public void testMissingColumn() {
+    try {
+      new CsvMessageLogInput(new StringReader("from,to,time_ms\n"));
+      fail("Should have complained about the missing columns");
+    } catch (IOException expected) {
+      // Expected
+    }
+  }
+
+  public void testParseLine() {
+    assertEquals(ImmutableList.of("a", "", "b,c"),
+        CsvMessageLogInput.parseLine("a,,\"b,c\""));
+  }
+}
@@ -0,0 +1,12 @@
+package com.imjasonh.partychapp.mr;
+
+/**
+ * Where a {@link Mapper} sends its output.
+ */
+public interface Emitter {
+  /**
+   * Emits a value for {@code key} in {@code table}, to be combined with the
+   * other values emitted for it.
+   */
+  void emit(String table, String key, double value);
+}
@@ -0,0 +1,643 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.Text;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.imjasonh.partychapp.WebRequest;
+import com.imjasonh.partychapp.datastoretask.DatastoreTask;
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
+import com.imjasonh.partychapp.messagelog.DatastoreMessageLog;
+import com.imjasonh.partychapp.messagelog.MessageLog;
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates the admin stats tables as a chain of tasks, each of which handles
+ * a bounded slice of entities and then enqueues the next one.
+ *
+ * A single checkpoint entity records the current phase and the query cursor
+ * to resume from. Each slice aggregates its entities with a {@link MapReduce}
+ * and merges the resulting {@link StatsCounters} into the persisted shards
+ * (children of the checkpoint) in the same transaction that advances the
+ * checkpoint, so a slice that is retried, or a duplicate task, never counts
+ * anything twice. Each table is kept in one shard until it outgrows
+ * {@link #MAX_SHARD_BYTES}, and is then split by key across several. Shards
+ * that a run changes are marked as dirty, and only their tables are rendered
+ * at the end of the run.
+ *
+ * Message log totals are cumulative across runs: a run only reads batches
+ * written since the previous run's watermark (by when they were written, not
+ * by the time of their records). The per-message legacy entities, and the
+ * batches from before batches had a write time, are read once, by the first
+ * run that has them. The "mia-" tables describe
+ * current users, so they're recomputed from scratch every run.
+ */
+public class GenerateStatsTask extends DatastoreTask {
+  private static final Logger logger =
+      Logger.getLogger(GenerateStatsTask.class.getName());
+
+  enum Phase {
+    // A legacy entity is a single record, a batch up to 500.
+    LEGACY_LOG(10000),
+    UNSTAMPED_LOG(20),
+    MESSAGE_LOG(20),
+    USERS(1000),
+    RENDER(20);
+
+    /**
+     * Most entities a slice reads (about 10000 records for both log phases).
+     * Slices that would write too many shards read fewer, see
+     * {@link #MAX_SHARDS_PER_SLICE}.
+     */
+    final int sliceEntities;
+
+    private Phase(int sliceEntities) {
+      this.sliceEntities = sliceEntities;
+    }
+  }
+
+  static final String CHECKPOINT_KIND = "statsCheckpoint";
+  static final String SHARD_KIND = "statsShard";
+
+  /**
+   * Batches written this recently are left for the next run, since
+   * {@link DatastoreMessageLog} writes them asynchronously and they may not
+   * all be visible to queries yet.
+   */
+  static final long WATERMARK_LAG_MSEC = 2 * MessageLog.FLUSH_INTERVAL_MSEC;
+
+  /**
+   * Most shards a slice may write. Shards are in the checkpoint's entity
+   * group, and a transaction can write at most 500 entities, so a slice whose
+   * records span too many days (e.g. one of legacy entities, which are read
+   * in key order, not by time) is retried with half as many entities, until
+   * it fits.
+   */
+  static final int MAX_SHARDS_PER_SLICE = 250;
+
+  /** Transactions are also limited to 10MB. */
+  private static final int MAX_SLICE_BYTES = 5 * 1024 * 1024;
+
+  /**
+   * Most bytes of counts a shard may hold, leaving room under the 1MB entity
+   * limit. The cumulative user/channel tables in particular grow past this,
+   * so a table whose shard would be larger is split across twice as many
+   * shards, by {@link StatsCounters#getPart}.
+   */
+  static final int MAX_SHARD_BYTES = 900 * 1024;
+
+  /**
+   * Separates a table's name from the part number in the names of all but
+   * its first shard.
+   */
+  private static final String PART_SEPARATOR = "#";
+
+  /**
+   * A run whose checkpoint hasn't moved for this long has stalled (e.g. its
+   * task ran out of retries), so starting a run resumes it instead.
+   */
+  static final long STALE_RUN_MSEC = 60 * 60 * 1000L;
+
+  // Checkpoint properties
+  private static final String PHASE = "phase";
+  private static final String CURSOR = "cursor";
+  private static final String SLICE = "slice";
+  private static final String WATERMARK_MS = "watermark_ms";
+  private static final String RUN_TO_MS = "run_to_ms";
+  private static final String LEGACY_DONE = "legacy_done";
+  private static final String UNSTAMPED_DONE = "unstamped_done";
+  /** Set while the current phase's slices read fewer entities than usual. */
+  private static final String SLICE_LIMIT = "slice_limit";
+  private static final String UPDATED_MS = "updated_ms";
+
+  // Shard properties
+  private static final String COUNTS = "counts";
+  /** Set on a table's first shard, how many shards the table is split in. */
+  private static final String PARTS = "parts";
+  /** Indexed, set on shards that have changed since they were rendered. */
+  private static final String DIRTY = "dirty";
+
+  /**
+   * Tasks are either the start of a run (with a "start" parameter), or the
+   * continuation of the run in progress.
+   */
+  @Override
+  public void handle(WebRequest req, TestableQueue q) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity checkpoint = getCheckpoint(datastore);
+
+    if (req.getParameter("start") != null) {
+      if (checkpoint.hasProperty(PHASE)) {
+        Long updatedMillis = (Long) checkpoint.getProperty(UPDATED_MS);
+        if (updatedMillis != null && System.currentTimeMillis() -
+            updatedMillis < STALE_RUN_MSEC) {
+          logger.info("Stats generation is already in progress");
+          return;
+        }
+        // Resumed rather than restarted, since restarting would count the
+        // slices that it already committed again.
+        logger.warning("Resuming stalled stats generation at phase " +
+            checkpoint.getProperty(PHASE) + ", slice " +
+            checkpoint.getProperty(SLICE));
+      } else {
+        startRun(datastore, checkpoint);
+      }
+    } else if (!checkpoint.hasProperty(PHASE)) {
+      // A duplicate of the task that finished the last run.
+      return;
+    }
+
+    if (handleSlice(datastore, checkpoint)) {
+      q.add(newTaskOptions());
+    }
+  }
+
+  public static TestableQueue.Options newTaskOptions() {
+    return new TestableQueue.Options("/tasks/" + Action.GENERATE_STATS.name());
+  }
+
+  /**
+   * @return a description of the run in progress, or null if there isn't one
+   */
+  public static String getProgress() {
+    Entity checkpoint =
+        getCheckpoint(DatastoreServiceFactory.getDatastoreService());
+    if (!checkpoint.hasProperty(PHASE)) {
+      return null;
+    }
+    return "phase " + checkpoint.getProperty(PHASE) + ", slice " +
+        checkpoint.getProperty(SLICE);
+  }
+
+  private static Key getCheckpointKey() {
+    return KeyFactory.createKey(CHECKPOINT_KIND, "messageLog");
+  }
+
+  private static Entity getCheckpoint(DatastoreService datastore) {
+    try {
+      return datastore.get(getCheckpointKey());
+    } catch (EntityNotFoundException err) {
+      Entity checkpoint = new Entity(getCheckpointKey());
+      checkpoint.setUnindexedProperty(WATERMARK_MS, 0L);
+      checkpoint.setUnindexedProperty(SLICE, 0L);
+      return checkpoint;
+    }
+  }
+
+  /**
+   * @return the key of one of a table's shards (the first one is named after
+   * the table, so tables from before they could be split are still found)
+   */
+  private static Key getShardKey(String table, int part) {
+    return KeyFactory.createKey(getCheckpointKey(), SHARD_KIND,
+        part == 0 ? table : table + PART_SEPARATOR + part);
+  }
+
+  private static String getTableName(Key shardKey) {
+    String name = shardKey.getName();
+    int separator = name.indexOf(PART_SEPARATOR);
+    return separator == -1 ? name : name.substring(0, separator);
+  }
+
+  private static List<Key> getShardKeys(String table, int parts) {
+    List<Key> keys = Lists.newArrayList();
+    for (int part = 0; part < parts; part++) {
+      keys.add(getShardKey(table, part));
+    }
+    return keys;
+  }
+
+  /**
+   * @return how many shards a table is split in, given its first shard (or
+   * null if it has none yet)
+   */
+  private static int getPartCount(Entity firstShard) {
+    if (firstShard == null) {
+      return 1;
+    }
+    Long parts = (Long) firstShard.getProperty(PARTS);
+    return parts == null ? 1 : parts.intValue();
+  }
+
+  private static Map<String, Double> getCounts(Entity shard) {
+    try {
+      return StatsCounters.decodeGroup(
+          ((Blob) shard.getProperty(COUNTS)).getBytes());
+    } catch (IOException err) {
+      logger.log(Level.WARNING,
+          "Discarding unreadable shard " + shard.getKey().getName(), err);
+      return Maps.newHashMap();
+    }
+  }
+
+  private void startRun(DatastoreService datastore, Entity checkpoint) {
+    // The user tables are recomputed from scratch (the names of all of a
+    // table's shards start with the table's).
+    Query shardQuery = new Query(SHARD_KIND, getCheckpointKey()).setKeysOnly();
+    List<Key> snapshotShards = Lists.newArrayList();
+    for (Entity shard : datastore.prepare(shardQuery).asIterable()) {
+      if (shard.getKey().getName().startsWith(UserMapper.MIA_PREFIX)) {
+        snapshotShards.add(shard.getKey());
+      }
+    }
+    datastore.delete(snapshotShards);
+
+    Phase phase;
+    if (!Boolean.TRUE.equals(checkpoint.getProperty(LEGACY_DONE))) {
+      phase = Phase.LEGACY_LOG;
+    } else if (!Boolean.TRUE.equals(checkpoint.getProperty(UNSTAMPED_DONE))) {
+      phase = Phase.UNSTAMPED_LOG;
+    } else {
+      phase = Phase.MESSAGE_LOG;
+    }
+    checkpoint.setUnindexedProperty(PHASE, phase.name());
+    checkpoint.removeProperty(CURSOR);
+    checkpoint.setUnindexedProperty(
+        RUN_TO_MS, System.currentTimeMillis() - WATERMARK_LAG_MSEC);
+    checkpoint.setUnindexedProperty(UPDATED_MS, System.currentTimeMillis());
+    datastore.put(checkpoint);
+    logger.info("Starting stats generation with " + phase);
+  }
+
+  /**
+   * @return whether there is more to do
+   */
+  private boolean handleSlice(DatastoreService datastore, Entity checkpoint) {
+    Phase phase = Phase.valueOf((String) checkpoint.getProperty(PHASE));
+    FetchOptions fetchOptions = FetchOptions.Builder.withChunkSize(100);
+    Text cursor = (Text) checkpoint.getProperty(CURSOR);
+    if (cursor != null) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor.getValue()));
+    }
+
+    int sliceLimit = getSliceLimit(checkpoint, phase);
+    QueryInput input = new QueryInput(
+        datastore.prepare(getQuery(phase, checkpoint))
+            .asQueryResultIterator(fetchOptions),
+        sliceLimit);
+    StatsCounters counters = new StatsCounters();
+    switch (phase) {
+      case LEGACY_LOG:
+      case UNSTAMPED_LOG:
+      case MESSAGE_LOG:
+        counters = new MapReduce<Record>(
+            new Supplier<MessageLogMapper>() {
+              @Override public MessageLogMapper get() {
+                return new MessageLogMapper();
+              }
+            }, Combiner.SUM).run(getRecords(
+                phase == Phase.UNSTAMPED_LOG ? skipStamped(input) : input));
+        break;
+      case USERS:
+        final long now = System.currentTimeMillis();
+        counters = new MapReduce<Entity>(
+            new Supplier<UserMapper>() {
+              @Override public UserMapper get() {
+                return new UserMapper(now);
+              }
+            }, Combiner.SUM).run(input);
+        break;
+      case RENDER:
+        // Tables are derived from the shards, so they can be (re)written
+        // outside of the checkpoint's transaction. Rendered shards drop out
+        // of the query, so each slice starts from the beginning of it.
+        Set<String> rendered = Sets.newHashSet();
+        while (input.hasNext()) {
+          Key shardKey = input.next().getKey();
+          if (rendered.add(getTableName(shardKey)) &&
+              !renderTable(datastore, getTableName(shardKey))) {
+            // Can't tell how the table is split without its first shard.
+            logger.warning("Deleting orphaned stats shard " + shardKey);
+            datastore.delete(shardKey);
+          }
+        }
+        boolean done = !input.hasMoreResults();
+        if (done) {
+          datastore.put(StatsTable.renderTimestamp());
+        }
+        return commitSlice(
+            datastore, checkpoint, counters, sliceLimit, null, done);
+    }
+
+    boolean done = !input.hasMoreResults();
+    return commitSlice(datastore, checkpoint, counters, sliceLimit,
+        done ? null : input.getCursor(), done);
+  }
+
+  private static int getSliceLimit(Entity checkpoint, Phase phase) {
+    Long limit = (Long) checkpoint.getProperty(SLICE_LIMIT);
+    return limit == null ? phase.sliceEntities : limit.intValue();
+  }
+
+  private static Query getQuery(Phase phase, Entity checkpoint) {
+    switch (phase) {
+      case LEGACY_LOG:
+        return new Query(DatastoreMessageLog.LEGACY_KIND);
+      case UNSTAMPED_LOG:
+        // Runs before batches had a write time used their end time as the
+        // watermark (so this may miss batches that were written after the
+        // watermark passed their end time, as that did).
+        return new Query(DatastoreMessageLog.BATCH_KIND)
+            .addFilter(DatastoreMessageLog.END_MS_PROPERTY,
+                FilterOperator.GREATER_THAN, checkpoint.getProperty(WATERMARK_MS))
+            .addSort(DatastoreMessageLog.END_MS_PROPERTY);
+      case MESSAGE_LOG:
+        return new Query(DatastoreMessageLog.BATCH_KIND)
+            .addFilter(DatastoreMessageLog.WRITTEN_MS_PROPERTY,
+                FilterOperator.GREATER_THAN, checkpoint.getProperty(WATERMARK_MS))
+            .addFilter(DatastoreMessageLog.WRITTEN_MS_PROPERTY,
+                FilterOperator.LESS_THAN_OR_EQUAL, checkpoint.getProperty(RUN_TO_MS))
+            .addSort(DatastoreMessageLog.WRITTEN_MS_PROPERTY);
+      case USERS:
+        return new Query("User");
+      case RENDER:
+        return new Query(SHARD_KIND, getCheckpointKey())
+            .addFilter(DIRTY, FilterOperator.EQUAL, true);
+    }
+    throw new IllegalArgumentException("Unknown phase " + phase);
+  }
+
+  /**
+   * @return the batches that don't have a write time (the ones that do are
+   * read by {@link Phase#MESSAGE_LOG})
+   */
+  private static Iterator<Entity> skipStamped(Iterator<Entity> batches) {
+    return Iterators.filter(batches, new Predicate<Entity>() {
+      @Override public boolean apply(Entity batch) {
+        return !batch.hasProperty(DatastoreMessageLog.WRITTEN_MS_PROPERTY);
+      }
+    });
+  }
+
+  /**
+   * @return the records in message log entities of either kind
+   */
+  private static Iterator<Record> getRecords(Iterator<Entity> entities) {
+    return Iterators.concat(Iterators.transform(entities,
+        new Function<Entity, Iterator<Record>>() {
+          @Override public Iterator<Record> apply(Entity entity) {
+            try {
+              return DatastoreMessageLog.getRecords(entity).iterator();
+            } catch (IOException err) {
+              logger.log(Level.WARNING, "Could not read " + entity.getKey(), err);
+              return Iterators.emptyIterator();
+            }
+          }
+        }));
+  }
+
+  /**
+   * Merges the slice's counters into the shards and moves the checkpoint to
+   * {@code nextCursor}, or to the next phase if {@code phaseDone}. If the
+   * slice
+   * would write too much for one transaction, only its limit is halved, so
+   * that the next task reads the same entities in smaller slices.
+   *
+   * @return whether there is more to do
+   */
+  private boolean commitSlice(DatastoreService datastore, Entity checkpoint,
+      StatsCounters counters, int sliceLimit, Cursor nextCursor,
+      boolean phaseDone) {
+    Transaction txn = datastore.beginTransaction();
+    try {
+      Entity current;
+      try {
+        current = datastore.get(txn, checkpoint.getKey());
+      } catch (EntityNotFoundException err) {
+        current = checkpoint;
+      }
+      if (!current.getProperty(SLICE).equals(checkpoint.getProperty(SLICE))) {
+        logger.info("Slice " + checkpoint.getProperty(SLICE) +
+            " was already committed");
+        return current.hasProperty(PHASE);
+      }
+
+      List<Entity> toPut = Lists.newArrayList();
+      long bytes = 0;
+      for (String group : counters.getGroupNames()) {
+        bytes += mergeTable(
+            datastore, txn, group, counters.getGroup(group), toPut);
+      }
+
+      Phase phase = Phase.valueOf((String) current.getProperty(PHASE));
+      if ((toPut.size() > MAX_SHARDS_PER_SLICE || bytes > MAX_SLICE_BYTES) &&
+          sliceLimit > 1) {
+        logger.info("Slice " + current.getProperty(SLICE) + " would write " +
+            toPut.size() + " shards (" + bytes + " bytes), retrying it with " +
+            sliceLimit / 2 + " entities");
+        current.setUnindexedProperty(SLICE_LIMIT, (long) sliceLimit / 2);
+        current.setUnindexedProperty(UPDATED_MS, System.currentTimeMillis());
+        datastore.put(txn, current);
+        txn.commit();
+        return true;
+      }
+      if (sliceLimit < phase.sliceEntities) {
+        current.setUnindexedProperty(SLICE_LIMIT,
+            (long) Math.min(sliceLimit * 2, phase.sliceEntities));
+      }
+
+      boolean more = true;
+      current.setUnindexedProperty(SLICE, (Long) current.getProperty(SLICE) + 1);
+      current.setUnindexedProperty(UPDATED_MS, System.currentTimeMillis());
+      if (nextCursor != null) {
+        current.setUnindexedProperty(CURSOR, new Text(nextCursor.toWebSafeString()));
+      } else {
+        current.removeProperty(CURSOR);
+      }
+      if (phaseDone) {
+        current.removeProperty(SLICE_LIMIT);
+        if (phase == Phase.LEGACY_LOG) {
+          current.setUnindexedProperty(LEGACY_DONE, true);
+        }
+        if (phase == Phase.UNSTAMPED_LOG) {
+          current.setUnindexedProperty(UNSTAMPED_DONE, true);
+        }
+        if (phase == Phase.RENDER) {
+          finishRun(current);
+          more = false;
+        } else {
+          Phase nextPhase = Phase.values()[phase.ordinal() + 1];
+          current.setUnindexedProperty(PHASE, nextPhase.name());
+          logger.info("Stats generation moving on to " + nextPhase);
+        }
+      }
+      toPut.add(current);
+
+      datastore.put(txn, toPut);
+      txn.commit();
+      return more;
+    } finally {
+      if (txn.isActive()) {
+        txn.rollback();
+      }
+    }
+  }
+
+  /**
+   * Merges a slice's counts for one table into its shards, adding the shards
+   * that change to {@code toPut}. Only the shards that the counts fall in are
+   * read, unless one of them would outgrow {@link #MAX_SHARD_BYTES}, in which
+   * case the whole table is read and split across more shards.
+   *
+   * @return how many bytes of counts were added to {@code toPut}
+   */
+  private static long mergeTable(DatastoreService datastore, Transaction txn,
+      String table, Map<String, Double> counts, List<Entity> toPut) {
+    Entity firstShard;
+    try {
+      firstShard = datastore.get(txn, getShardKey(table, 0));
+    } catch (EntityNotFoundException err) {
+      // First time this table has any counts
+      firstShard = null;
+    }
+    int parts = getPartCount(firstShard);
+
+    List<Map<String, Double>> partitions =
+        StatsCounters.partitionGroup(counts, parts);
+    List<Key> touched = Lists.newArrayList();
+    for (int part = 0; part < parts; part++) {
+      if (!partitions.get(part).isEmpty()) {
+        touched.add(getShardKey(table, part));
+      }
+    }
+    Map<Key, Entity> existing = datastore.get(txn, touched);
+
+    List<Entity> shards = Lists.newArrayList();
+    long bytes = 0;
+    for (int part = 0; part < parts; part++) {
+      if (partitions.get(part).isEmpty()) {
+        continue;
+      }
+      StatsCounters merged = new StatsCounters();
+      merged.mergeGroup(table, partitions.get(part));
+      Entity shard = existing.get(getShardKey(table, part));
+      if (shard != null) {
+        merged.mergeGroup(table, getCounts(shard));
+      }
+      byte[] encoded = StatsCounters.encodeGroup(merged.getGroup(table));
+      if (encoded.length > MAX_SHARD_BYTES) {
+        return splitTable(datastore, txn, table, counts, parts, toPut);
+      }
+      bytes += encoded.length;
+      shards.add(newShard(table, part, parts, encoded));
+    }
+    toPut.addAll(shards);
+    return bytes;
+  }
+
+  /**
+   * Merges a slice's counts for a table that has outgrown its {@code parts}
+   * shards into all of them, and splits the result across enough shards.
+   *
+   * @return how many bytes of counts were added to {@code toPut}
+   */
+  private static long splitTable(DatastoreService datastore, Transaction txn,
+      String table, Map<String, Double> counts, int parts, List<Entity> toPut) {
+    StatsCounters merged = new StatsCounters();
+    merged.mergeGroup(table, counts);
+    for (Entity shard :
+        datastore.get(txn, getShardKeys(table, parts)).values()) {
+      merged.mergeGroup(table, getCounts(shard));
+    }
+
+    List<byte[]> encoded = StatsCounters.encodeGroupParts(
+        merged.getGroup(table), parts * 2, MAX_SHARD_BYTES);
+    logger.info("Splitting stats table " + table + " across " +
+        encoded.size() + " shards");
+    long bytes = 0;
+    for (int part = 0; part < encoded.size(); part++) {
+      bytes += encoded.get(part).length;
+      toPut.add(newShard(table, part, encoded.size(), encoded.get(part)));
+    }
+    return bytes;
+  }
+
+  private static Entity newShard(
+      String table, int part, int parts, byte[] encoded) {
+    Entity shard = new Entity(getShardKey(table, part));
+    shard.setUnindexedProperty(COUNTS, new Blob(encoded));
+    shard.setProperty(DIRTY, true);
+    if (part == 0) {
+      shard.setUnindexedProperty(PARTS, (long) parts);
+    }
+    return shard;
+  }
+
+  /**
+   * Advances the watermark and clears the run's state, so that the next
+   * "start" task starts a new run.
+   */
+  private static void finishRun(Entity checkpoint) {
+    checkpoint.setUnindexedProperty(
+        WATERMARK_MS, checkpoint.getProperty(RUN_TO_MS));
+    checkpoint.removeProperty(RUN_TO_MS);
+    checkpoint.removeProperty(PHASE);
+    checkpoint.removeProperty(CURSOR);
+    checkpoint.removeProperty(SLICE_LIMIT);
+    logger.info("Finished stats generation");
+  }
+
+  /**
+   * Renders a table from all of its shards, and marks them as rendered.
+   *
+   * @return false if the table has no first shard
+   */
+  private static boolean renderTable(DatastoreService datastore, String title) {
+    Entity firstShard;
+    try {
+      firstShard = datastore.get(getShardKey(title, 0));
+    } catch (EntityNotFoundException err) {
+      return false;
+    }
+    Map<Key, Entity> shards = datastore.get(
+        getShardKeys(title, getPartCount(firstShard)));
+    StatsCounters counts = new StatsCounters();
+    for (Entity shard : shards.values()) {
+      counts.mergeGroup(title, getCounts(shard));
+    }
+
+    List<Entity> entities = StatsTable.render(title, counts.getGroup(title));
+    datastore.put(entities);
+    // All but the summary are chunks.
+    StatsTable.deleteStaleChunks(datastore, title, entities.size() - 1);
+
+    for (Entity shard : shards.values()) {
+      shard.setProperty(DIRTY, false);
+    }
+    datastore.put(shards.values());
+    return true;
+  }
+
+  /**
+   * Slices are driven by the checkpoint, not by iterating over keys.
+   */
+  @Override
+  public Iterator<String> getKeyIterator(String lastKeyHandled) {
+    return Iterators.emptyIterator();
+  }
+}
@@ -0,0 +1,81 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the message log aggregations locally, on a CSV export (see
+ * data_download/README.txt), and prints the top entries of each table.
+ *
+ * Usage: LocalMapReduce messages.csv [threads] [top entries per table]
+ */
+public class LocalMapReduce {
+  private static final int CHUNK_SIZE = 10000;
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.err.println(
+          "Usage: LocalMapReduce messages.csv [threads] [top entries per table]");
+      System.exit(1);
+    }
+    int threads = args.length > 1 ?
+        Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int top = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    CsvMessageLogInput input = new CsvMessageLogInput(
+        new InputStreamReader(new FileInputStream(args[0]), "UTF-8"));
+    MapReduce<Record> mapReduce = new MapReduce<Record>(
+        new Supplier<MessageLogMapper>() {
+          @Override public MessageLogMapper get() {
+            return new MessageLogMapper();
+          }
+        }, Combiner.SUM);
+
+    long start = System.currentTimeMillis();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    StatsCounters counters;
+    try {
+      counters = mapReduce.run(input, executor, threads * 2, CHUNK_SIZE);
+    } finally {
+      executor.shutdown();
+    }
+    System.err.println("Aggregated in " +
+        (System.currentTimeMillis() - start) + " ms with " + threads +
+        " threads");
+
+    for (String group : counters.getGroupNames()) {
+      if (!group.startsWith("total-")) {
+        continue;
+      }
+      System.out.println(group);
+      for (Map.Entry<String, Double> entry : getTop(counters.getGroup(group), top)) {
+        System.out.println(String.format("  %15.1f  %s",
+            entry.getValue(), entry.getKey()));
+      }
+    }
+  }
+
+  private static List<Map.Entry<String, Double>> getTop(
+      Map<String, Double> counts, int n) {
+    List<Map.Entry<String, Double>> entries =
+        Lists.newArrayList(counts.entrySet());
+    Collections.sort(entries, new Comparator<Map.Entry<String, Double>>() {
+      @Override public int compare(
+          Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+        return b.getValue().compareTo(a.getValue());
+      }
+    });
+    return entries.subList(0, Math.min(n, entries.size()));
+  }
+}
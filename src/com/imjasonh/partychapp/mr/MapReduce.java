@@ -0,0 +1,117 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A small map/combine/reduce engine. Input items are read sequentially (so
+ * that any iterator, e.g. over a datastore query or a CSV export, can be
+ * used) and mapped into {@link StatsCounters}, where emitted values are
+ * combined as they're emitted.
+ *
+ * On App Engine requests can't start threads, so {@link #run(Iterator)}
+ * maps everything on the calling thread with a single {@link Mapper}.
+ * Offline tools can pass an {@link ExecutorService} instead, in which case
+ * the input is cut into chunks and each chunk is mapped by a fresh mapper
+ * into its own counters, which are then merged into the output with the
+ * same {@link Combiner}.
+ *
+ * @param <I> the type of the input items
+ */
+public class MapReduce<I> {
+  private final Supplier<? extends Mapper<? super I>> mappers;
+  private final Combiner combiner;
+
+  /**
+   * @param mappers supplies a mapper per chunk, so mappers don't need to be
+   * thread-safe
+   */
+  public MapReduce(
+      Supplier<? extends Mapper<? super I>> mappers, Combiner combiner) {
+    this.mappers = mappers;
+    this.combiner = combiner;
+  }
+
+  /**
+   * Maps and reduces everything on the calling thread.
+   */
+  public StatsCounters run(Iterator<? extends I> input) {
+    StatsCounters output = new StatsCounters(combiner);
+    Mapper<? super I> mapper = mappers.get();
+    while (input.hasNext()) {
+      mapper.map(input.next(), output);
+    }
+    return output;
+  }
+
+  /**
+   * Maps chunks of {@code chunkSize} input items on {@code executor}, with at
+   * most {@code parallelism} chunks in flight (which also bounds how far
+   * reading the input can get ahead of mapping it).
+   *
+   * @throws ExecutionException if a mapper threw
+   */
+  public StatsCounters run(Iterator<? extends I> input,
+      ExecutorService executor, int parallelism, int chunkSize)
+      throws InterruptedException, ExecutionException {
+    CompletionService<StatsCounters> completionService =
+        new ExecutorCompletionService<StatsCounters>(executor);
+    List<Future<StatsCounters>> inFlight = Lists.newArrayList();
+    StatsCounters output = new StatsCounters(combiner);
+    try {
+      while (input.hasNext()) {
+        if (inFlight.size() >= parallelism) {
+          reduce(completionService, inFlight, output);
+        }
+        List<I> chunk = Lists.newArrayListWithCapacity(chunkSize);
+        while (input.hasNext() && chunk.size() < chunkSize) {
+          chunk.add(input.next());
+        }
+        inFlight.add(completionService.submit(newMapTask(chunk)));
+      }
+      while (!inFlight.isEmpty()) {
+        reduce(completionService, inFlight, output);
+      }
+    } finally {
+      // Only still in flight if something failed.
+      for (Future<StatsCounters> future : inFlight) {
+        future.cancel(true);
+      }
+    }
+    return output;
+  }
+
+  private Callable<StatsCounters> newMapTask(final List<I> chunk) {
+    return new Callable<StatsCounters>() {
+      @Override public StatsCounters call() {
+        StatsCounters counters = new StatsCounters(combiner);
+        Mapper<? super I> mapper = mappers.get();
+        for (I item : chunk) {
+          mapper.map(item, counters);
+        }
+        return counters;
+      }
+    };
+  }
+
+  /**
+   * Waits for the next chunk to finish mapping and merges its result.
+   */
+  private static void reduce(
+      CompletionService<StatsCounters> completionService,
+      List<Future<StatsCounters>> inFlight, StatsCounters output)
+      throws InterruptedException, ExecutionException {
+    Future<StatsCounters> done = completionService.take();
+    inFlight.remove(done);
+    output.mergeFrom(done.get());
+  }
+}
@@ -0,0 +1,77 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MapReduceTest extends TestCase {
+  /** Emits each word, and its length under "length". */
+  private static class WordMapper implements Mapper<String> {
+    @Override public void map(String word, Emitter emitter) {
+      if (word.equals("boom")) {
+        throw new IllegalArgumentException(word);
+      }
+      emitter.emit("count", word, 1);
+      emitter.emit("length", "all", word.length());
+    }
+  }
+
+  private static final Supplier<WordMapper> WORD_MAPPERS =
+      new Supplier<WordMapper>() {
+        @Override public WordMapper get() {
+          return new WordMapper();
+        }
+      };
+
+  private ExecutorService executor;
+  private List<String> words;
+
+  @Override public void setUp() {
+    executor = Executors.newFixedThreadPool(4);
+    words = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      words.add("word" + (i % 7));
+    }
+  }
+
+  @Override public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  public void testParallelMatchesSequential() throws Exception {
+    MapReduce<String> mapReduce =
+        new MapReduce<String>(WORD_MAPPERS, Combiner.SUM);
+    StatsCounters sequential = mapReduce.run(words.iterator());
+    StatsCounters parallel = mapReduce.run(words.iterator(), executor, 4, 64);
+
+    assertEquals(sequential.getGroup("count"), parallel.getGroup("count"));
+    assertEquals(143.0, parallel.getGroup("count").get("word0"), 0.0001);
+    assertEquals(5000.0, parallel.getGroup("length").get("all"), 0.0001);
+  }
+
+  public void testCombinerUsedForReduce() throws Exception {
+    MapReduce<String> mapReduce =
+        new MapReduce<String>(WORD_MAPPERS, Combiner.MAX);
+    StatsCounters counters = mapReduce.run(words.iterator(), executor, 4, 10);
+    assertEquals(1.0, counters.getGroup("count").get("word3"), 0.0001);
+    assertEquals(5.0, counters.getGroup("length").get("all"), 0.0001);
+  }
+
+  public void testMapperFailure() throws Exception {
+    words.add(500, "boom");
+    MapReduce<String> mapReduce =
+        new MapReduce<String>(WORD_MAPPERS, Combiner.SUM);
+    try {
+      mapReduce.run(words.iterator(), executor, 2, 64);
+      fail("Mapper failure should have been propagated");
+    } catch (ExecutionException expected) {
+      assertTrue(expected.getCause() instanceof IllegalArgumentException);
+    }
+  }
+}
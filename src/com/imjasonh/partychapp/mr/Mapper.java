@@ -0,0 +1,11 @@
+package com.imjasonh.partychapp.mr;
+
+/**
+ * The map step of a {@link MapReduce}. A mapper instance is only ever used by
+ * one thread at a time, so it may keep caches that aren't thread-safe.
+ *
+ * @param <I> the type of the input items
+ */
+public interface Mapper<I> {
+  void map(I input, Emitter emitter);
+}
@@ -0,0 +1,61 @@
+package com.imjasonh.partychapp.mr;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+
+/**
+ * Maps message log records to the fan-out, message and byte counts per
+ * channel, user and user/channel pair, both in total and per day. Meant to be
+ * used with {@link Combiner#SUM}.
+ */
+public class MessageLogMapper implements Mapper<Record> {
+  // Records tend to come in time order, so the day's prefix is formatted
+  // once per day rather than once per record.
+  private final DateFormat dayFormat = new SimpleDateFormat("yyyyMMdd");
+  private long dayStartMillis = Long.MAX_VALUE;
+  private long dayEndMillis = Long.MIN_VALUE;
+  private String dayPrefix;
+
+  @Override public void map(Record record, Emitter emitter) {
+    String from = record.getFrom();
+    String to = record.getTo();
+    String fromTo = from + " :: " + to;
+    double weight = record.getWeight();
+    double fanoutMessages = record.getNumRecipients() * weight;
+    double fanoutBytes = fanoutMessages * record.getPayloadSize();
+
+    String[] prefixes = {"total-", getDayPrefix(record.getTimeMillis())};
+    for (String prefix : prefixes) {
+      emitter.emit(prefix + "fanout-messages-channel", to, fanoutMessages);
+      emitter.emit(prefix + "fanout-messages-user", from, fanoutMessages);
+      emitter.emit(prefix + "fanout-messages-user-channel", fromTo, fanoutMessages);
+
+      emitter.emit(prefix + "messages-channel", to, weight);
+      emitter.emit(prefix + "messages-user", from, weight);
+      emitter.emit(prefix + "messages-user-channel", fromTo, weight);
+
+      emitter.emit(prefix + "fanout-bytes-channel", to, fanoutBytes);
+      emitter.emit(prefix + "fanout-bytes-user", from, fanoutBytes);
+      emitter.emit(prefix + "fanout-bytes-user-channel", fromTo, fanoutBytes);
+    }
+  }
+
+  private String getDayPrefix(long timeMillis) {
+    if (timeMillis < dayStartMillis || timeMillis >= dayEndMillis) {
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(timeMillis);
+      calendar.set(Calendar.HOUR_OF_DAY, 0);
+      calendar.set(Calendar.MINUTE, 0);
+      calendar.set(Calendar.SECOND, 0);
+      calendar.set(Calendar.MILLISECOND, 0);
+      dayStartMillis = calendar.getTimeInMillis();
+      dayPrefix = dayFormat.format(calendar.getTime()) + "-";
+      calendar.add(Calendar.DATE, 1);
+      dayEndMillis = calendar.getTimeInMillis();
+    }
+    return dayPrefix;
+  }
+}
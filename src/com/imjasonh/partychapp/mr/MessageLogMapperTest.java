@@ -0,0 +1,77 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import junit.framework.TestCase;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+
+public class MessageLogMapperTest extends TestCase {
+  private static long timeOn(int year, int month, int day, int hour) {
+    Calendar calendar = Calendar.getInstance();
+    calendar.clear();
+    calendar.set(year, month, day, hour, 0);
+    return calendar.getTimeInMillis();
+  }
+
+  public void testMap() {
+    MessageLogMapper mapper = new MessageLogMapper();
+    StatsCounters counters = new StatsCounters();
+    long time = timeOn(2011, Calendar.OCTOBER, 18, 12);
+    mapper.map(new Record("jason@example.com", "pancake", 3, 10, time, 1),
+        counters);
+    mapper.map(
+        new Record("neil@example.com", "pancake", 3, 20, time + 1000, 0.5f),
+        counters);
+
+    Map<String, Double> messages = counters.getGroup("total-messages-channel");
+    assertEquals(1.5, messages.get("pancake"), 0.0001);
+    assertEquals(4.5,
+        counters.getGroup("total-fanout-messages-channel").get("pancake"),
+        0.0001);
+    assertEquals(30.0,
+        counters.getGroup("20111018-fanout-bytes-user").get(
+            "neil@example.com"),
+        0.0001);
+    assertEquals(1.0,
+        counters.getGroup("total-messages-user-channel").get(
+            "jason@example.com :: pancake"),
+        0.0001);
+    assertEquals(18, counters.getGroupNames().size());
+  }
+
+  public void testDayBoundaries() {
+    MessageLogMapper mapper = new MessageLogMapper();
+    StatsCounters counters = new StatsCounters();
+    mapper.map(new Record("jason@example.com", "pancake", 1, 1,
+        timeOn(2011, Calendar.OCTOBER, 18, 23), 1), counters);
+    mapper.map(new Record("jason@example.com", "pancake", 1, 1,
+        timeOn(2011, Calendar.OCTOBER, 19, 0), 1), counters);
+    // Out of order, back to the first day.
+    mapper.map(new Record("jason@example.com", "pancake", 1, 1,
+        timeOn(2011, Calendar.OCTOBER, 18, 0), 1), counters);
+
+    assertEquals(2.0,
+        counters.getGroup("20111018-messages-channel").get("pancake"), 0.0001);
+    assertEquals(1.0,
+        counters.getGroup("20111019-messages-channel").get("pancake"), 0.0001);
+  }
+
+  public void testUserMapper() {
+    long now = timeOn(2011, Calendar.OCTOBER, 18, 12);
+    StatsCounters counters = new StatsCounters();
+    new UserMapper(now).map(ImmutableList.of("pancake", "waffle"),
+        new Date(now - 10 * 24 * 60 * 60 * 1000L), counters);
+
+    // Seen 10 days ago, so missing since 1 and 7 days ago but not 15.
+    assertEquals(1.0,
+        counters.getGroup("mia-user-channel1").get("waffle"), 0.0001);
+    assertEquals(1.0,
+        counters.getGroup("mia-user-channel-7").get("pancake"), 0.0001);
+    assertTrue(counters.getGroup("mia-user-channel-15").isEmpty());
+  }
+}
@@ -0,0 +1,44 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Reads at most a given number of entities from a datastore query, and
+ * remembers where it stopped, so that a {@link MapReduce} over a large kind
+ * can be split into slices that each resume from the previous one's cursor.
+ */
+public class QueryInput extends AbstractIterator<Entity> {
+  private final QueryResultIterator<Entity> entities;
+  private final int maxEntities;
+  private int count = 0;
+
+  public QueryInput(QueryResultIterator<Entity> entities, int maxEntities) {
+    this.entities = entities;
+    this.maxEntities = maxEntities;
+  }
+
+  @Override protected Entity computeNext() {
+    if (count >= maxEntities || !entities.hasNext()) {
+      return endOfData();
+    }
+    count++;
+    return entities.next();
+  }
+
+  /**
+   * @return whether the query has results past the ones that were read
+   */
+  public boolean hasMoreResults() {
+    return entities.hasNext();
+  }
+
+  /**
+   * @return where to resume the query from
+   */
+  public Cursor getCursor() {
+    return entities.getCursor();
+  }
+}
@@ -0,0 +1,188 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Tables of counts, keyed by table name (e.g. "total-messages-channel" or
+ * "20111018-fanout-bytes-user") and then by channel, user or user/channel
+ * pair. This is both where a {@link MapReduce} combines emitted values and
+ * its output, and {@link GenerateStatsTask} persists each table in one or
+ * more shards.
+ */
+public class StatsCounters implements Emitter {
+  private static final int ENCODING_VERSION = 1;
+
+  /** Mutable, so that combining doesn't box a new value every time. */
+  private static class Counter {
+    double value;
+  }
+
+  private final Combiner combiner;
+  private final Map<String, Map<String, Counter>> groups = Maps.newTreeMap();
+
+  public StatsCounters() {
+    this(Combiner.SUM);
+  }
+
+  public StatsCounters(Combiner combiner) {
+    this.combiner = combiner;
+  }
+
+  public Combiner getCombiner() {
+    return combiner;
+  }
+
+  @Override public void emit(String group, String key, double value) {
+    Map<String, Counter> counters = groups.get(group);
+    if (counters == null) {
+      counters = Maps.newHashMap();
+      groups.put(group, counters);
+    }
+    Counter counter = counters.get(key);
+    if (counter == null) {
+      counter = new Counter();
+      counter.value = value;
+      counters.put(key, counter);
+    } else {
+      counter.value = combiner.combine(counter.value, value);
+    }
+  }
+
+  public Set<String> getGroupNames() {
+    return ImmutableSortedSet.copyOf(groups.keySet());
+  }
+
+  /**
+   * @return a copy of a group's counts (empty if there are none)
+   */
+  public Map<String, Double> getGroup(String group) {
+    Map<String, Double> copy = Maps.newHashMap();
+    Map<String, Counter> counters = groups.get(group);
+    if (counters != null) {
+      for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+        copy.put(entry.getKey(), entry.getValue().value);
+      }
+    }
+    return copy;
+  }
+
+  public void mergeGroup(String group, Map<String, Double> counts) {
+    for (Map.Entry<String, Double> entry : counts.entrySet()) {
+      emit(group, entry.getKey(), entry.getValue());
+    }
+  }
+
+  public void mergeFrom(StatsCounters other) {
+    for (String group : other.getGroupNames()) {
+      mergeGroup(group, other.getGroup(group));
+    }
+  }
+
+  /**
+   * Encodes a group's counts compactly enough to be persisted as a blob.
+   */
+  public static byte[] encodeGroup(Map<String, Double> counts) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      DataOutputStream out =
+          new DataOutputStream(new DeflaterOutputStream(bytes));
+      out.writeByte(ENCODING_VERSION);
+      out.writeInt(counts.size());
+      for (Map.Entry<String, Double> entry : counts.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeDouble(entry.getValue());
+      }
+      out.close();
+    } catch (IOException err) {
+      // Can't happen with in-memory streams
+      throw new RuntimeException(err);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @return which of {@code parts} a key's counts are kept in when a group is
+   * split, such that doubling {@code parts} only ever moves a key from part
+   * {@code i} to part {@code i + parts}
+   */
+  public static int getPart(String key, int parts) {
+    return (key.hashCode() & Integer.MAX_VALUE) % parts;
+  }
+
+  /**
+   * @return a group's counts split into {@code parts} by {@link #getPart}
+   */
+  public static List<Map<String, Double>> partitionGroup(
+      Map<String, Double> counts, int parts) {
+    List<Map<String, Double>> partitions = Lists.newArrayList();
+    for (int i = 0; i < parts; i++) {
+      partitions.add(Maps.<String, Double>newHashMap());
+    }
+    for (Map.Entry<String, Double> entry : counts.entrySet()) {
+      partitions.get(getPart(entry.getKey(), parts))
+          .put(entry.getKey(), entry.getValue());
+    }
+    return partitions;
+  }
+
+  /**
+   * Encodes a group's counts split into at least {@code minParts}, doubling
+   * the number of parts until each one encodes to at most {@code maxBytes}.
+   *
+   * @return the encoded parts, where part {@code i} holds the keys for which
+   * {@link #getPart} is {@code i}
+   */
+  public static List<byte[]> encodeGroupParts(Map<String, Double> counts,
+      int minParts, int maxBytes) {
+    for (int parts = minParts; ; parts *= 2) {
+      List<byte[]> encoded = Lists.newArrayList();
+      for (Map<String, Double> partition : partitionGroup(counts, parts)) {
+        byte[] part = encodeGroup(partition);
+        if (part.length > maxBytes) {
+          if (partition.size() == 1) {
+            throw new IllegalArgumentException(
+                "A single count encodes to more than " + maxBytes + " bytes");
+          }
+          break;
+        }
+        encoded.add(part);
+      }
+      if (encoded.size() == parts) {
+        return encoded;
+      }
+    }
+  }
+
+  /**
+   * @throws IOException if {@code encoded} is corrupt or from an unknown
+   * version
+   */
+  public static Map<String, Double> decodeGroup(byte[] encoded)
+      throws IOException {
+    DataInputStream in = new DataInputStream(
+        new InflaterInputStream(new ByteArrayInputStream(encoded)));
+    int version = in.readByte();
+    if (version != ENCODING_VERSION) {
+      throw new IOException("Unknown stats group version " + version);
+    }
+    int size = in.readInt();
+    Map<String, Double> counts = Maps.newHashMapWithExpectedSize(size);
+    for (int i = 0; i < size; i++) {
+      counts.put(in.readUTF(), in.readDouble());
+    }
+    return counts;
+  }
+}
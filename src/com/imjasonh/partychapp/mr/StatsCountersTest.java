@@ -0,0 +1,90 @@
+package com.imjasonh.partychapp.mr;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class StatsCountersTest extends TestCase {
+  public void testCombiners() {
+    StatsCounters sum = new StatsCounters();
+    StatsCounters max = new StatsCounters(Combiner.MAX);
+    StatsCounters min = new StatsCounters(Combiner.MIN);
+    for (double value : new double[] {3, -1, 2}) {
+      sum.emit("table", "pancake", value);
+      max.emit("table", "pancake", value);
+      min.emit("table", "pancake", value);
+    }
+    assertEquals(4.0, sum.getGroup("table").get("pancake"), 0.0001);
+    assertEquals(3.0, max.getGroup("table").get("pancake"), 0.0001);
+    assertEquals(-1.0, min.getGroup("table").get("pancake"), 0.0001);
+    assertTrue(sum.getGroup("other").isEmpty());
+  }
+
+  public void testMergeAndEncode() throws IOException {
+    StatsCounters first = new StatsCounters();
+    first.emit("total-messages-channel", "pancake", 2);
+    StatsCounters second = new StatsCounters();
+    second.emit("total-messages-channel", "pancake", 0.5);
+    second.emit("total-messages-channel", "waffle", 1);
+    first.mergeFrom(second);
+
+    Map<String, Double> decoded = StatsCounters.decodeGroup(
+        StatsCounters.encodeGroup(first.getGroup("total-messages-channel")));
+    assertEquals(2, decoded.size());
+    assertEquals(2.5, decoded.get("pancake"), 0.0001);
+    assertEquals(1.0, decoded.get("waffle"), 0.0001);
+  }
+
+  public void testSmallGroupIsOnePart() throws IOException {
+    StatsCounters counters = new StatsCounters();
+    counters.emit("total-messages-channel", "pancake", 2);
+    counters.emit("total-messages-channel", "waffle", 1);
+
+    List<byte[]> parts = StatsCounters.encodeGroupParts(
+        counters.getGroup("total-messages-channel"), 1,
+        GenerateStatsTask.MAX_SHARD_BYTES);
+    assertEquals(1, parts.size());
+    assertEquals(counters.getGroup("total-messages-channel"),
+        StatsCounters.decodeGroup(parts.get(0)));
+  }
+
+  public void testGroupLargerThanShardIsSplit() throws IOException {
+    // Random keys don't compress, so this encodes to well over one shard.
+    Random random = new Random(42);
+    StatsCounters counters = new StatsCounters();
+    for (int i = 0; i < 60000; i++) {
+      counters.emit("total-messages-user-channel",
+          Long.toHexString(random.nextLong()) + "@gmail.com :: " +
+              Long.toHexString(random.nextLong()),
+          random.nextInt(1000));
+    }
+    Map<String, Double> group = counters.getGroup("total-messages-user-channel");
+    assertTrue(StatsCounters.encodeGroup(group).length >
+        GenerateStatsTask.MAX_SHARD_BYTES);
+
+    List<byte[]> parts = StatsCounters.encodeGroupParts(
+        group, 1, GenerateStatsTask.MAX_SHARD_BYTES);
+    assertTrue(parts.size() > 1);
+    StatsCounters merged = new StatsCounters();
+    for (int i = 0; i < parts.size(); i++) {
+      assertTrue(parts.get(i).length <= GenerateStatsTask.MAX_SHARD_BYTES);
+      Map<String, Double> part = StatsCounters.decodeGroup(parts.get(i));
+      for (String key : part.keySet()) {
+        assertEquals(i, StatsCounters.getPart(key, parts.size()));
+      }
+      merged.mergeGroup("total-messages-user-channel", part);
+    }
+    assertEquals(group, merged.getGroup("total-messages-user-channel"));
+  }
+
+  public void testDoublingPartsOnlyMovesKeysUp() {
+    for (String key : new String[] {"pancake", "waffle", "neil@gmail.com"}) {
+      int part = StatsCounters.getPart(key, 4);
+      int doubled = StatsCounters.getPart(key, 8);
+      assertTrue(doubled == part || doubled == part + 4);
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package com.imjasonh.partychapp.mr;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.net.URLEncoder;
+
+import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.Text;
 
 import javax.servlet.http.HttpServlet;
@@ -12,63 +16,108 @@ import org.apache.commons.lang.StringEscapeUtils;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
 import com.google.appengine.api.datastore.Query.FilterOperator;
 
-import com.imjasonh.partychapp.Datastore;
-
+/**
+ * Lists the {@link StatsTable}s, or shows one table's summary followed by a
+ * page of its full rows (with a cursor link to the next page).
+ */
 public class StatsHandler extends HttpServlet {
   /**
-   * 
+   *
    */
   private static final long serialVersionUID = 1L;
 
   protected void doGet(HttpServletRequest req, HttpServletResponse resp)
       throws IOException {
     DatastoreService ds = DatastoreServiceFactory.getDatastoreService();
-    Query qu = new Query("stats_table");
-    resp.getWriter().print("<B><U><a href='/admin/generate_stats'> REGENERATE STATS </a> </u></b><br/><br/><hr>");
-    if (null == req.getParameter("table")) {
-      resp.setContentType("text/html");
+    Query qu = new Query(StatsTable.KIND);
+    resp.setContentType("text/html");
+    Writer writer = resp.getWriter();
+    writer.write("<B><U><a href='/admin/generate_stats'> REGENERATE STATS </a> </u></b><br/><br/>");
+    String progress = GenerateStatsTask.getProgress();
+    if (null != progress) {
+      writer.write("Regenerating stats: " + progress + "<br/><br/>");
+    }
+    writer.write("<hr>");
+    String table = req.getParameter("table");
+    if (null == table) {
       PreparedQuery pq = ds.prepare(qu);
       for (Entity result: pq.asIterable()) {
-        if (result.hasProperty("title") && result.hasProperty("csv")) {
-          resp.getWriter().print(
-              "<a href='/admin/stats?table=" 
-          // TODO ESCAPE THIS! THIS IS DANGEROUS
-          + StringEscapeUtils.escapeHtml(result.getProperty("title").toString()) 
-          + "'>" 
-          + result.getProperty("title").toString()
-          + "<br/>");
+        if (result.hasProperty(StatsTable.TITLE)) {
+          String title = result.getProperty(StatsTable.TITLE).toString();
+          writer.write("<a href='/admin/stats?table="
+              + StringEscapeUtils.escapeHtml(URLEncoder.encode(title, "UTF-8"))
+              + "'>"
+              + StringEscapeUtils.escapeHtml(title)
+              + "</a><br/>");
         }
       }
       return;
     }
-    qu.addFilter("title", FilterOperator.EQUAL, req.getParameter("table"));
-    resp.setContentType("text/html");
-    PreparedQuery pq = ds.prepare(qu);
-    for (Entity result: pq.asIterable()) {
-      if (result.hasProperty("title") && result.hasProperty("csv")) {
-        resp.getWriter().write("<b>" + (String)result.getProperty("title") + "</b><br />");
-        Object img1 = result.getProperty("image_url1");
-        Object img2 = result.getProperty("image_url2");
-        if (null != img1) {
-          // this should already have been escaped .... I hope.
-          resp.getWriter().write("<img src='"+(((Text)img1).getValue()) + "' /> <br/>");
-        }
-        if (null != img2) {
-          // this should already have been escaped .... I hope.
-          resp.getWriter().write("<img src='"+(((Text)img2).getValue()) + "' /> <br/><hr><br/>");
-        }
-        
-        String csv = StringEscapeUtils.escapeHtml(((Text)result.getProperty("csv")).getValue());
-        csv = csv.replace("\n", "<br/>");
-        resp.getWriter().write("<br/>");
-        resp.getWriter().write(csv);
-        resp.getWriter().write("<br/>");
-        resp.getWriter().write("<br/>");
+
+    qu.addFilter(StatsTable.TITLE, FilterOperator.EQUAL, table);
+    Entity summary = ds.prepare(qu).asSingleEntity();
+    if (null == summary) {
+      resp.sendError(HttpServletResponse.SC_NOT_FOUND, "No such table");
+      return;
+    }
+
+    String cursor = req.getParameter("cursor");
+    writer.write("<b>" + StringEscapeUtils.escapeHtml(table) + "</b><br />");
+    if (null == cursor) {
+      // Summary only on the first page
+      Object img1 = summary.getProperty(StatsTable.IMAGE_URL);
+      if (null != img1) {
+        // this should already have been escaped .... I hope.
+        writer.write("<img src='"+(((Text)img1).getValue()) + "' /> <br/><hr><br/>");
       }
+      Object rowCount = summary.getProperty(StatsTable.ROW_COUNT);
+      if (null != rowCount) {
+        writer.write("Top " + StatsTable.TOP_N + " of " + rowCount + ":<br/>");
+      }
+      writeCsv(writer, (Text) summary.getProperty(StatsTable.CSV));
+      writer.write("<hr>All, by name:<br/>");
+    }
+
+    FetchOptions options = FetchOptions.Builder.withLimit(1);
+    if (null != cursor) {
+      options.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    Query chunkQuery = new Query(StatsTable.CHUNK_KIND, summary.getKey())
+        .addSort(Entity.KEY_RESERVED_PROPERTY);
+    QueryResultList<Entity> chunks =
+        ds.prepare(chunkQuery).asQueryResultList(options);
+    if (chunks.isEmpty()) {
+      return;
+    }
+    Entity chunk = chunks.get(0);
+    writer.write("Page " + chunk.getKey().getId() + " of " +
+        summary.getProperty(StatsTable.CHUNK_COUNT) + "<br/>");
+    writeCsv(writer, (Text) chunk.getProperty(StatsTable.CSV));
+    if (chunk.getKey().getId() <
+        ((Long) summary.getProperty(StatsTable.CHUNK_COUNT))) {
+      writer.write("<a href='/admin/stats?table="
+          + StringEscapeUtils.escapeHtml(URLEncoder.encode(table, "UTF-8"))
+          + "&amp;cursor="
+          + URLEncoder.encode(chunks.getCursor().toWebSafeString(), "UTF-8")
+          + "'>next page</a><br/>");
+    }
+  }
+
+  private static void writeCsv(Writer writer, Text csvText) throws IOException {
+    if (null == csvText) {
+      return;
     }
+    String csv = StringEscapeUtils.escapeHtml(csvText.getValue());
+    csv = csv.replace("\n", "<br/>");
+    writer.write("<br/>");
+    writer.write(csv);
+    writer.write("<br/>");
+    writer.write("<br/>");
   }
 }
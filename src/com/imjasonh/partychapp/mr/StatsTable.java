@@ -0,0 +1,168 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Text;
+import com.google.common.collect.Lists;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import de.toolforge.googlechartwrapper.Dimension;
+import de.toolforge.googlechartwrapper.PieChart;
+import de.toolforge.googlechartwrapper.data.PieChartSlice;
+import de.toolforge.googlechartwrapper.label.ChartLegend;
+
+/**
+ * The rendered form of a {@link StatsCounters} group, as shown by
+ * {@link StatsHandler}: a summary entity with the top {@link #TOP_N} rows, the
+ * total of the rest and a pie chart, plus the full table (sorted by key) split
+ * into chunk entities of {@link #CHUNK_ROWS} rows that are paged through.
+ * Rows are "count, key" lines.
+ */
+public class StatsTable {
+  public static final String KIND = "stats_table";
+  public static final String CHUNK_KIND = "stats_table_chunk";
+
+  /** Rows in the summary. */
+  static final int TOP_N = 100;
+
+  /** Slices in the pie chart, not counting the leftover one. */
+  static final int CHART_SLICES = 15;
+
+  /** Rows per chunk. */
+  static final int CHUNK_ROWS = 1000;
+
+  // Summary properties
+  public static final String TITLE = "title";
+  public static final String CSV = "csv";
+  public static final String IMAGE_URL = "image_url1";
+  public static final String ROW_COUNT = "row_count";
+  public static final String CHUNK_COUNT = "chunk_count";
+
+  private StatsTable() {
+    // Not instantiable
+  }
+
+  public static Key getKey(String title) {
+    return KeyFactory.createKey(KIND, title);
+  }
+
+  /**
+   * @return the summary entity followed by the chunk entities
+   */
+  public static List<Entity> render(String title, Map<String, Double> counts) {
+    TopN top = new TopN(TOP_N);
+    top.addAll(counts);
+    TopN chartTop = new TopN(CHART_SLICES);
+    chartTop.addAll(counts);
+
+    StringBuilder csv = new StringBuilder();
+    appendRows(csv, top.getTop());
+    if (top.getLeftoverCount() > 0) {
+      appendRow(csv, "leftover (" + top.getLeftoverCount() + " more)",
+          top.getLeftover());
+    }
+
+    List<String> pages = paginate(counts);
+    List<Entity> entities = Lists.newArrayListWithCapacity(pages.size() + 1);
+    Entity summary = new Entity(getKey(title));
+    summary.setProperty(TITLE, title);
+    summary.setUnindexedProperty(CSV, new Text(csv.toString()));
+    summary.setUnindexedProperty(IMAGE_URL,
+        new Text(renderChart(chartTop.getTop(), chartTop.getLeftover())));
+    summary.setUnindexedProperty(ROW_COUNT, counts.size());
+    summary.setUnindexedProperty(CHUNK_COUNT, pages.size());
+    entities.add(summary);
+
+    for (int i = 0; i < pages.size(); i++) {
+      // Ids start at 1, since 0 isn't a valid one.
+      Entity chunk = new Entity(CHUNK_KIND, i + 1, summary.getKey());
+      chunk.setUnindexedProperty(CSV, new Text(pages.get(i)));
+      entities.add(chunk);
+    }
+    return entities;
+  }
+
+  /**
+   * @return the table's rows, sorted by key, in pages of {@link #CHUNK_ROWS}
+   */
+  static List<String> paginate(Map<String, Double> counts) {
+    List<String> keys = Lists.newArrayList(counts.keySet());
+    Collections.sort(keys);
+    List<String> pages = Lists.newArrayList();
+    StringBuilder page = new StringBuilder();
+    for (int i = 0; i < keys.size(); i++) {
+      appendRow(page, keys.get(i), counts.get(keys.get(i)));
+      if ((i + 1) % CHUNK_ROWS == 0 || i == keys.size() - 1) {
+        pages.add(page.toString());
+        page.setLength(0);
+      }
+    }
+    return pages;
+  }
+
+  private static void appendRows(StringBuilder csv,
+      List<Map.Entry<String, Double>> rows) {
+    for (Map.Entry<String, Double> row : rows) {
+      appendRow(csv, row.getKey(), row.getValue());
+    }
+  }
+
+  private static void appendRow(StringBuilder csv, String key, double count) {
+    csv.append(Math.round(count)).append(", ").append(key).append('\n');
+  }
+
+  private static String renderChart(List<Map.Entry<String, Double>> top,
+      double leftover) {
+    PieChart pieChart = new PieChart(new Dimension(700, 399));
+    List<String> legend = Lists.newArrayList();
+    for (Map.Entry<String, Double> entry : top) {
+      pieChart.addPieChartSlice(new PieChartSlice.PieChartSliceBuilder(
+          (int) Math.round(entry.getValue())).build());
+      legend.add(entry.getKey());
+    }
+    if (leftover > 0) {
+      pieChart.addPieChartSlice(new PieChartSlice.PieChartSliceBuilder(
+          (int) Math.round(leftover)).label("leftover").build());
+      legend.add("leftover");
+    }
+    pieChart.setChartLegend(new ChartLegend(legend));
+    return pieChart.getUrl();
+  }
+
+  /**
+   * Deletes the chunks that a previous, larger version of a table had.
+   */
+  public static void deleteStaleChunks(DatastoreService datastore,
+      String title, int chunkCount) {
+    Query query = new Query(CHUNK_KIND, getKey(title)).setKeysOnly();
+    List<Key> stale = Lists.newArrayList();
+    for (Entity chunk : datastore.prepare(query).asIterable()) {
+      if (chunk.getKey().getId() > chunkCount) {
+        stale.add(chunk.getKey());
+      }
+    }
+    if (!stale.isEmpty()) {
+      datastore.delete(stale);
+    }
+  }
+
+  /**
+   * @return the entity that records when the tables were last generated
+   */
+  public static Entity renderTimestamp() {
+    Entity ts = new Entity(KIND, "  Timestamp  ");
+    DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
+    ts.setProperty(TITLE, "last generated on " + formatter.format(new Date()));
+    ts.setUnindexedProperty(CSV, new Text(""));
+    return ts;
+  }
+}
@@ -0,0 +1,23 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+public class StatsTableTest extends TestCase {
+  public void testPaginate() {
+    Map<String, Double> counts = Maps.newHashMap();
+    for (int i = 0; i < StatsTable.CHUNK_ROWS * 2 + 1; i++) {
+      counts.put(String.format("user%05d", i), (double) i);
+    }
+    List<String> pages = StatsTable.paginate(counts);
+    assertEquals(3, pages.size());
+    assertTrue(pages.get(0).startsWith("0, user00000\n"));
+    assertEquals(StatsTable.CHUNK_ROWS, pages.get(1).split("\n").length);
+    assertEquals("2000, user02000\n", pages.get(2));
+    assertTrue(StatsTable.paginate(Maps.<String, Double>newHashMap()).isEmpty());
+  }
+}
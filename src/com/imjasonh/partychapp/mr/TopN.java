@@ -0,0 +1,77 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the {@code n} largest values added to it (in a bounded min-heap, so
+ * it takes O(n) space however many values are added), and the total of the
+ * rest. Unlike a map keyed by value, keys with equal values are all kept;
+ * ties are broken by key.
+ *
+ * Not thread-safe.
+ */
+public class TopN {
+  /** Smallest value first, then last key first. */
+  private static final Comparator<Map.Entry<String, Double>> ASCENDING =
+      new Comparator<Map.Entry<String, Double>>() {
+        @Override public int compare(
+            Map.Entry<String, Double> a, Map.Entry<String, Double> b) {
+          int byValue = a.getValue().compareTo(b.getValue());
+          return byValue != 0 ? byValue : b.getKey().compareTo(a.getKey());
+        }
+      };
+
+  private final int n;
+  private final PriorityQueue<Map.Entry<String, Double>> heap;
+  private double leftover = 0;
+  private int leftoverCount = 0;
+
+  public TopN(int n) {
+    this.n = n;
+    heap = new PriorityQueue<Map.Entry<String, Double>>(n + 1, ASCENDING);
+  }
+
+  public void add(String key, double value) {
+    heap.add(Maps.immutableEntry(key, value));
+    if (heap.size() > n) {
+      leftover += heap.poll().getValue();
+      leftoverCount++;
+    }
+  }
+
+  public void addAll(Map<String, Double> counts) {
+    for (Map.Entry<String, Double> entry : counts.entrySet()) {
+      add(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * @return the largest values, largest first
+   */
+  public List<Map.Entry<String, Double>> getTop() {
+    List<Map.Entry<String, Double>> top = Lists.newArrayList(heap);
+    Collections.sort(top, Collections.reverseOrder(ASCENDING));
+    return top;
+  }
+
+  /**
+   * @return the total of the values that aren't in {@link #getTop}
+   */
+  public double getLeftover() {
+    return leftover;
+  }
+
+  /**
+   * @return how many values aren't in {@link #getTop}
+   */
+  public int getLeftoverCount() {
+    return leftoverCount;
+  }
+}
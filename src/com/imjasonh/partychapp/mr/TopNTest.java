@@ -0,0 +1,52 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.Map;
+
+public class TopNTest extends TestCase {
+  private static List<String> keys(List<Map.Entry<String, Double>> entries) {
+    List<String> keys = Lists.newArrayList();
+    for (Map.Entry<String, Double> entry : entries) {
+      keys.add(entry.getKey());
+    }
+    return keys;
+  }
+
+  public void testKeepsLargest() {
+    TopN top = new TopN(3);
+    top.add("a", 1);
+    top.add("b", 5);
+    top.add("c", 3);
+    top.add("d", 4);
+    top.add("e", 2);
+
+    assertEquals(ImmutableList.of("b", "d", "c"), keys(top.getTop()));
+    assertEquals(3.0, top.getLeftover(), 0.0001);
+    assertEquals(2, top.getLeftoverCount());
+  }
+
+  public void testTiesAreKept() {
+    TopN top = new TopN(3);
+    top.add("waffle", 2);
+    top.add("pancake", 2);
+    top.add("crepe", 2);
+    top.add("toast", 1);
+
+    // A map keyed by count would have kept only one of these.
+    assertEquals(ImmutableList.of("crepe", "pancake", "waffle"),
+        keys(top.getTop()));
+    assertEquals(1.0, top.getLeftover(), 0.0001);
+  }
+
+  public void testFewerThanN() {
+    TopN top = new TopN(10);
+    top.add("a", 1);
+    assertEquals(ImmutableList.of("a"), keys(top.getTop()));
+    assertEquals(0, top.getLeftoverCount());
+  }
+}
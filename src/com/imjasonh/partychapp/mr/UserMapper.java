@@ -0,0 +1,52 @@
+package com.imjasonh.partychapp.mr;
+
+import com.google.appengine.api.datastore.Entity;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Maps User entities to "mia-user-channel" counts: for each of
+ * {@link #MIA_CUTOFF_DAYS}, how many members of each channel haven't been
+ * seen since then. Meant to be used with {@link Combiner#SUM}.
+ */
+public class UserMapper implements Mapper<Entity> {
+  /** Days relative to now that tables are computed for. */
+  static final int[] MIA_CUTOFF_DAYS = {1, -7, -15, -30, -90};
+
+  /** Prefix of this mapper's tables. */
+  public static final String MIA_PREFIX = "mia-";
+
+  private final Date[] thresholds;
+
+  public UserMapper(long nowMillis) {
+    thresholds = new Date[MIA_CUTOFF_DAYS.length];
+    for (int i = 0; i < MIA_CUTOFF_DAYS.length; i++) {
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(nowMillis);
+      calendar.add(Calendar.DATE, MIA_CUTOFF_DAYS[i]);
+      thresholds[i] = calendar.getTime();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override public void map(Entity user, Emitter emitter) {
+    List<String> channelNames = (List<String>) user.getProperty("channelNames");
+    Date lastSeen = (Date) user.getProperty("lastSeen");
+    if (channelNames != null && lastSeen != null) {
+      map(channelNames, lastSeen, emitter);
+    }
+  }
+
+  void map(List<String> channelNames, Date lastSeen, Emitter emitter) {
+    for (int i = 0; i < MIA_CUTOFF_DAYS.length; i++) {
+      if (lastSeen.before(thresholds[i])) {
+        for (String channelName : channelNames) {
+          emitter.emit(MIA_PREFIX + "user-channel" + MIA_CUTOFF_DAYS[i],
+              channelName, 1);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.imjasonh.partychapp.outbox;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Implementation of {@link Outbox} that uses an in-memory {@code HashMap}.
+ * Meant for test use only.
+ */
+public class InMemoryOutbox extends Outbox {
+  private final Map<String, List<PendingBroadcast>> pending = Maps.newHashMap();
+  private final Map<String, Long> flushScheduledMillis = Maps.newHashMap();
+
+  public InMemoryOutbox(TestableQueue queue) {
+    super(queue);
+  }
+
+  @Override protected boolean append(String channelName, PendingBroadcast p,
+      long nowMillis, long rescheduleBeforeMillis) {
+    List<PendingBroadcast> list = pending.get(channelName);
+    if (list == null) {
+      list = Lists.newArrayList();
+      pending.put(channelName, list);
+    }
+    list.add(p);
+    Long scheduled = flushScheduledMillis.get(channelName);
+    if (list.size() == 1 || scheduled < rescheduleBeforeMillis) {
+      flushScheduledMillis.put(channelName, nowMillis);
+      return true;
+    }
+    return false;
+  }
+
+  @Override protected boolean remove(String channelName, PendingBroadcast p) {
+    List<PendingBroadcast> list = pending.get(channelName);
+    if (list == null) {
+      return false;
+    }
+    int index = list.lastIndexOf(p);
+    if (index == -1) {
+      return false;
+    }
+    list.remove(index);
+    return true;
+  }
+
+  @Override protected List<PendingBroadcast> drain(String channelName) {
+    List<PendingBroadcast> list = pending.remove(channelName);
+    if (list == null) {
+      return Collections.emptyList();
+    }
+    return list;
+  }
+
+  @Override protected void requeue(
+      String channelName, List<PendingBroadcast> unsent) {
+    List<PendingBroadcast> list = Lists.newArrayList(unsent);
+    List<PendingBroadcast> existing = pending.get(channelName);
+    if (existing != null) {
+      list.addAll(existing);
+    }
+    pending.put(channelName, list);
+    flushScheduledMillis.put(channelName, currentTimeMillis());
+  }
+}
@@ -0,0 +1,190 @@
+package com.imjasonh.partychapp.outbox;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of {@link Outbox} that keeps each channel's pending
+ * broadcasts as a list in memcache, along with when their flush was
+ * scheduled. Updates are done with compare-and-set so that concurrent
+ * requests for the same channel don't lose messages. An empty list means that
+ * the channel has no flush task outstanding.
+ */
+public class MemcacheOutbox extends Outbox {
+  private static final Logger logger =
+      Logger.getLogger(MemcacheOutbox.class.getName());
+
+  private static final String KEY_PREFIX = "outbox2.";
+
+  /**
+   * Generous compared to the coalescing windows, so that pending broadcasts
+   * survive task retries.
+   */
+  private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(10 * 60);
+
+  private static final int MAX_CAS_ATTEMPTS = 10;
+
+  /**
+   * A channel's pending broadcasts, and when their flush was scheduled.
+   */
+  private static class Pending implements Serializable {
+    private static final long serialVersionUID = 6204813979137463109L;
+
+    final List<PendingBroadcast> broadcasts;
+    final long flushScheduledMillis;
+
+    Pending(List<PendingBroadcast> broadcasts, long flushScheduledMillis) {
+      this.broadcasts = ImmutableList.copyOf(broadcasts);
+      this.flushScheduledMillis = flushScheduledMillis;
+    }
+  }
+
+  private final MemcacheService memcache =
+      MemcacheServiceFactory.getMemcacheService();
+
+  public MemcacheOutbox() {
+    super(new TestableQueue(QueueFactory.getDefaultQueue()));
+  }
+
+  @Override protected boolean append(String channelName,
+      PendingBroadcast pending, long nowMillis, long rescheduleBeforeMillis)
+      throws OutboxUnavailableException {
+    String key = KEY_PREFIX + channelName;
+    try {
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          if (memcache.put(key,
+                new Pending(ImmutableList.of(pending), nowMillis),
+                EXPIRATION, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return true;
+          }
+          continue;
+        }
+
+        Pending existing = (Pending) current.getValue();
+        List<PendingBroadcast> list =
+            Lists.newArrayList(existing.broadcasts);
+        list.add(pending);
+        boolean schedule = existing.broadcasts.isEmpty() ||
+            existing.flushScheduledMillis < rescheduleBeforeMillis;
+        if (memcache.putIfUntouched(key, current,
+              new Pending(list,
+                  schedule ? nowMillis : existing.flushScheduledMillis),
+              EXPIRATION)) {
+          if (schedule && !existing.broadcasts.isEmpty()) {
+            logger.warning("Flush for " + key + " is overdue, rescheduling");
+          }
+          return schedule;
+        }
+      }
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not append to " + key, err);
+      throw new OutboxUnavailableException(err.getMessage());
+    }
+    throw new OutboxUnavailableException("Too much contention for " + key);
+  }
+
+  @Override protected boolean remove(
+      String channelName, PendingBroadcast pending) {
+    String key = KEY_PREFIX + channelName;
+    try {
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          return false;
+        }
+        Pending existing = (Pending) current.getValue();
+        List<PendingBroadcast> list =
+            Lists.newArrayList(existing.broadcasts);
+        int index = list.lastIndexOf(pending);
+        if (index == -1) {
+          return false;
+        }
+        list.remove(index);
+        if (memcache.putIfUntouched(key, current,
+              new Pending(list, existing.flushScheduledMillis), EXPIRATION)) {
+          return true;
+        }
+      }
+      logger.warning("Too much contention removing from " + key);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not remove from " + key, err);
+    }
+    return false;
+  }
+
+  @Override protected List<PendingBroadcast> drain(String channelName) {
+    String key = KEY_PREFIX + channelName;
+    try {
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          return Collections.emptyList();
+        }
+        Pending existing = (Pending) current.getValue();
+        if (existing.broadcasts.isEmpty()) {
+          return existing.broadcasts;
+        }
+        if (memcache.putIfUntouched(key, current,
+              new Pending(ImmutableList.<PendingBroadcast>of(),
+                  existing.flushScheduledMillis),
+              EXPIRATION)) {
+          return existing.broadcasts;
+        }
+      }
+    } catch (RuntimeException err) {
+      // Rethrown so that the flush task is retried.
+      logger.log(Level.SEVERE, "Could not drain " + key, err);
+      throw err;
+    }
+    throw new IllegalStateException("Too much contention draining " + key);
+  }
+
+  @Override protected void requeue(
+      String channelName, List<PendingBroadcast> unsent) {
+    String key = KEY_PREFIX + channelName;
+    long now = System.currentTimeMillis();
+    try {
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          if (memcache.put(key, new Pending(unsent, now), EXPIRATION,
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return;
+          }
+          continue;
+        }
+
+        // The failed flush will be retried, which counts as scheduled.
+        Pending existing = (Pending) current.getValue();
+        List<PendingBroadcast> list = Lists.newArrayList(unsent);
+        list.addAll(existing.broadcasts);
+        if (memcache.putIfUntouched(
+              key, current, new Pending(list, now), EXPIRATION)) {
+          return;
+        }
+      }
+    } catch (RuntimeException err) {
+      logger.log(Level.SEVERE, "Could not requeue " + unsent.size() +
+          " broadcasts to " + key, err);
+      return;
+    }
+    logger.severe("Too much contention requeueing " + unsent.size() +
+        " broadcasts to " + key);
+  }
+}
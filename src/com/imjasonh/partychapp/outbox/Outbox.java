@@ -0,0 +1,326 @@
+package com.imjasonh.partychapp.outbox;
+
+import com.google.appengine.api.xmpp.JID;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.DebuggingOptions.Option;
+import com.imjasonh.partychapp.datastoretask.DatastoreTask;
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
+import com.imjasonh.partychapp.server.SendUtil;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Holds broadcasts for channels that have a coalescing window set (see
+ * {@link Channel#getCoalescingWindowMillis}), so that a burst of messages
+ * (e.g. a line of text followed by its ++ reply and a snooze wake notice) goes
+ * out as a single multi-line stanza per recipient set instead of one stanza
+ * per broadcast. The first broadcast in a window schedules a
+ * {@link DatastoreTask.Action#FLUSH_OUTBOX} task; that task drains the
+ * channel's pending broadcasts and sends them. Broadcasts that could not be
+ * sent are put back, and the task fails so that it's retried. In case a flush
+ * task is lost anyway, a broadcast that finds a flush scheduled more than
+ * {@link #RESCHEDULE_SLACK_MILLIS} past its window schedules another one.
+ *
+ * Storage of the pending broadcasts is left to subclasses.
+ */
+public abstract class Outbox {
+  private static final Logger logger = Logger.getLogger(Outbox.class.getName());
+
+  /** Bounds for per-channel coalescing windows. */
+  public static final int MIN_WINDOW_MILLIS = 250;
+  public static final int MAX_WINDOW_MILLIS = 2000;
+
+  /**
+   * Coalesced stanzas are kept below this length, longer bursts are split
+   * into several stanzas.
+   */
+  static final int MAX_COALESCED_LENGTH = 4000;
+
+  /**
+   * How long after its window a flush may still be pending (e.g. because its
+   * task is being retried) before another one is scheduled.
+   */
+  static final long RESCHEDULE_SLACK_MILLIS = 60 * 1000L;
+
+  private static volatile Outbox instance;
+
+  public static Outbox instance() {
+    Outbox result = instance;
+    if (result == null) {
+      // Lazy for the same reason as Datastore.instance(), tests don't have
+      // memcache or task queues.
+      synchronized (Outbox.class) {
+        result = instance;
+        if (result == null) {
+          result = instance = new MemcacheOutbox();
+        }
+      }
+    }
+    return result;
+  }
+
+  @VisibleForTesting public static void setInstance(Outbox outbox) {
+    instance = outbox;
+  }
+
+  /**
+   * A single broadcast that is waiting to be sent.
+   */
+  public static class PendingBroadcast implements Serializable {
+    private static final long serialVersionUID = 4210938477019823301L;
+
+    private final String message;
+    private final List<String> recipientJIDs;
+
+    public PendingBroadcast(String message, List<String> recipientJIDs) {
+      this.message = message;
+      this.recipientJIDs = ImmutableList.copyOf(recipientJIDs);
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    public List<String> getRecipientJIDs() {
+      return recipientJIDs;
+    }
+
+    @Override public boolean equals(Object obj) {
+      if (!(obj instanceof PendingBroadcast)) {
+        return false;
+      }
+      PendingBroadcast other = (PendingBroadcast) obj;
+      return message.equals(other.message) &&
+          recipientJIDs.equals(other.recipientJIDs);
+    }
+
+    @Override public int hashCode() {
+      return Objects.hashCode(message, recipientJIDs);
+    }
+
+    boolean hasSameRecipients(PendingBroadcast other) {
+      return Sets.newHashSet(recipientJIDs).equals(
+          Sets.newHashSet(other.recipientJIDs));
+    }
+
+    @Override public String toString() {
+      return "[PendingBroadcast: message = '" + message + "', recipients = " +
+          recipientJIDs + "]";
+    }
+  }
+
+  private final TestableQueue queue;
+
+  protected Outbox(TestableQueue queue) {
+    this.queue = queue;
+  }
+
+  /**
+   * Appends a broadcast to the channel's pending list. If the list was empty,
+   * or its flush was scheduled before {@code rescheduleBeforeMillis}, the
+   * flush is recorded as scheduled at {@code nowMillis}.
+   *
+   * @return true if a flush needs to be scheduled
+   * @throws OutboxUnavailableException if the broadcast could not be stored
+   */
+  protected abstract boolean append(String channelName,
+      PendingBroadcast pending, long nowMillis, long rescheduleBeforeMillis)
+      throws OutboxUnavailableException;
+
+  /**
+   * Takes back a broadcast that was just appended, because its flush could
+   * not be scheduled. If that leaves the list empty, no flush is considered
+   * scheduled.
+   *
+   * @return true if the broadcast was removed, false if it wasn't there
+   * anymore (e.g. another flush sent it) or could not be removed
+   */
+  protected abstract boolean remove(
+      String channelName, PendingBroadcast pending);
+
+  /**
+   * Removes and returns all of the channel's pending broadcasts, in the order
+   * in which they were appended.
+   *
+   * @throws RuntimeException if the pending list could not be read, so that
+   * the flush task is retried
+   */
+  protected abstract List<PendingBroadcast> drain(String channelName);
+
+  /**
+   * Puts broadcasts that were drained but could not be sent back at the front
+   * of the channel's pending list. Failures are logged (and the broadcasts
+   * lost).
+   */
+  protected abstract void requeue(
+      String channelName, List<PendingBroadcast> unsent);
+
+  /**
+   * Queues {@code message} for later delivery to {@code recipients}.
+   *
+   * @return false if the message could not be queued, in which case the
+   * caller should send it immediately
+   */
+  public boolean enqueue(Channel channel, String message, List<JID> recipients) {
+    if (recipients.isEmpty()) {
+      return true;
+    }
+    List<String> recipientJIDs =
+        Lists.newArrayListWithExpectedSize(recipients.size());
+    for (JID recipient : recipients) {
+      recipientJIDs.add(recipient.getId());
+    }
+
+    PendingBroadcast pending = new PendingBroadcast(message, recipientJIDs);
+    int windowMillis = channel.getCoalescingWindowMillis();
+    long now = currentTimeMillis();
+    try {
+      if (!append(channel.getName(), pending, now,
+              now - windowMillis - RESCHEDULE_SLACK_MILLIS)) {
+        return true;
+      }
+    } catch (OutboxUnavailableException err) {
+      logger.warning("Could not queue message for " + channel.getName() +
+          ", sending immediately: " + err.getMessage());
+      return false;
+    }
+
+    try {
+      queue.add(new TestableQueue.Options(
+              "/tasks/" + DatastoreTask.Action.FLUSH_OUTBOX.name())
+          .param("key", channel.getName())
+          .countdownMillis(windowMillis));
+      return true;
+    } catch (RuntimeException err) {
+      if (remove(channel.getName(), pending)) {
+        logger.warning("Could not schedule flush for " + channel.getName() +
+            ", sending immediately: " + err);
+        return false;
+      }
+      // Either it's been sent already, or a later broadcast will schedule
+      // another flush once this one is overdue.
+      logger.warning("Could not schedule flush for " + channel.getName() +
+          ", leaving message queued: " + err);
+      return true;
+    }
+  }
+
+  @VisibleForTesting long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Sends all of the pending broadcasts for the given channel. Members that
+   * asked for {@link Option#ERROR_NOTIFICATIONS} are told about recipients
+   * that the stanzas could not be delivered to.
+   *
+   * @return the number of stanzas that were sent
+   * @throws RuntimeException if the pending broadcasts could not be read, or
+   * if a stanza could not be sent at all (after putting it and the ones after
+   * it back), so that the flush task is retried
+   */
+  public int flush(String channelName) {
+    List<PendingBroadcast> pending = drain(channelName);
+    if (pending.isEmpty()) {
+      return 0;
+    }
+
+    List<PendingBroadcast> coalesced = coalesce(pending);
+    JID serverJID = new JID(channelName + "@" + Configuration.chatDomain);
+    Channel channel = null;
+    for (int i = 0; i < coalesced.size(); i++) {
+      PendingBroadcast broadcast = coalesced.get(i);
+      List<JID> recipients = Lists.newArrayListWithExpectedSize(
+          broadcast.getRecipientJIDs().size());
+      for (String jid : broadcast.getRecipientJIDs()) {
+        recipients.add(new JID(jid));
+      }
+
+      Set<JID> errorJIDs;
+      try {
+        errorJIDs = SendUtil.sendMessageOrThrow(
+            broadcast.getMessage(), serverJID, recipients);
+      } catch (RuntimeException err) {
+        logger.warning("Could not send " + (coalesced.size() - i) +
+            " stanzas for " + channelName + ", putting them back: " + err);
+        requeue(channelName,
+            Lists.newArrayList(coalesced.subList(i, coalesced.size())));
+        throw err;
+      }
+
+      if (!errorJIDs.isEmpty()) {
+        if (channel == null) {
+          channel = Datastore.instance().getChannelByName(channelName);
+        }
+        if (channel != null) {
+          channel.notifyOfSendErrors(broadcast.getMessage(), errorJIDs);
+        } else {
+          logger.warning("Could not find channel " + channelName +
+              " to report errors for " + errorJIDs);
+        }
+      }
+    }
+
+    logger.info("Flushed " + pending.size() + " broadcasts for " +
+        channelName + " as " + coalesced.size() + " stanzas");
+    return coalesced.size();
+  }
+
+  /**
+   * Merges consecutive broadcasts that are addressed to the same set of
+   * recipients into a single multi-line broadcast.
+   */
+  @VisibleForTesting
+  static List<PendingBroadcast> coalesce(List<PendingBroadcast> pending) {
+    if (pending.size() < 2) {
+      return Collections.unmodifiableList(pending);
+    }
+
+    List<PendingBroadcast> coalesced = Lists.newArrayList();
+    PendingBroadcast current = null;
+    StringBuilder currentMessage = new StringBuilder();
+    for (PendingBroadcast broadcast : pending) {
+      if (current != null &&
+          current.hasSameRecipients(broadcast) &&
+          currentMessage.length() + 1 + broadcast.getMessage().length() <=
+              MAX_COALESCED_LENGTH) {
+        currentMessage.append('\n').append(broadcast.getMessage());
+        continue;
+      }
+      if (current != null) {
+        coalesced.add(new PendingBroadcast(
+            currentMessage.toString(), current.getRecipientJIDs()));
+      }
+      current = broadcast;
+      currentMessage.setLength(0);
+      currentMessage.append(broadcast.getMessage());
+    }
+    coalesced.add(new PendingBroadcast(
+        currentMessage.toString(), current.getRecipientJIDs()));
+
+    return coalesced;
+  }
+
+  /**
+   * Thrown by {@link Outbox#append} if the backing store could not be used.
+   */
+  protected static class OutboxUnavailableException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public OutboxUnavailableException(String message) {
+      super(message);
+    }
+  }
+}
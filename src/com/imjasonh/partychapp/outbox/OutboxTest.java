@@ -0,0 +1,227 @@
+package com.imjasonh.partychapp.outbox;
+
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TransientFailureException;
+import com.google.appengine.api.xmpp.JID;
+import com.google.appengine.api.xmpp.Message;
+import com.google.appengine.api.xmpp.SendResponse;
+import com.google.appengine.api.xmpp.SendResponse.Status;
+import com.google.appengine.api.xmpp.XMPPFailureException;
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.DebuggingOptions.Option;
+import com.imjasonh.partychapp.Member;
+import com.imjasonh.partychapp.datastoretask.FakeQueue;
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
+import com.imjasonh.partychapp.outbox.Outbox.PendingBroadcast;
+import com.imjasonh.partychapp.server.SendUtil;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+import com.imjasonh.partychapp.testing.MockXMPPService;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class OutboxTest extends TestCase {
+  MockXMPPService xmpp = new MockXMPPService();
+  FakeQueue queue = new FakeQueue();
+  TestOutbox outbox = new TestOutbox(queue);
+
+  /** Has a settable clock, and can be made to fail the next drain. */
+  static class TestOutbox extends InMemoryOutbox {
+    long nowMillis = 1000;
+    boolean failNextDrain = false;
+
+    TestOutbox(TestableQueue queue) {
+      super(queue);
+    }
+
+    @Override long currentTimeMillis() {
+      return nowMillis;
+    }
+
+    @Override protected List<PendingBroadcast> drain(String channelName) {
+      if (failNextDrain) {
+        failNextDrain = false;
+        throw new RuntimeException("memcache is down");
+      }
+      return super.drain(channelName);
+    }
+  }
+
+  @Override
+  public void setUp() {
+    FakeDatastore datastore = new FakeDatastore();
+    Datastore.setInstance(datastore);
+    datastore.setUp();
+    SendUtil.setXMPP(xmpp);
+    Outbox.setInstance(outbox);
+  }
+
+  @Override
+  public void tearDown() {
+    Outbox.setInstance(null);
+  }
+
+  public void testCoalesceSameRecipients() {
+    List<PendingBroadcast> coalesced = Outbox.coalesce(ImmutableList.of(
+        new PendingBroadcast("a", ImmutableList.of("x@a.com", "y@a.com")),
+        new PendingBroadcast("b", ImmutableList.of("y@a.com", "x@a.com")),
+        new PendingBroadcast("c", ImmutableList.of("x@a.com")),
+        new PendingBroadcast("d", ImmutableList.of("x@a.com", "y@a.com"))));
+    assertEquals(3, coalesced.size());
+    assertEquals("a\nb", coalesced.get(0).getMessage());
+    assertEquals("c", coalesced.get(1).getMessage());
+    assertEquals("d", coalesced.get(2).getMessage());
+  }
+
+  public void testCoalesceSplitsLongBursts() {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < Outbox.MAX_COALESCED_LENGTH / 2; i++) {
+      line.append('x');
+    }
+    List<String> recipients = ImmutableList.of("x@a.com");
+    List<PendingBroadcast> coalesced = Outbox.coalesce(ImmutableList.of(
+        new PendingBroadcast(line.toString(), recipients),
+        new PendingBroadcast(line.toString(), recipients),
+        new PendingBroadcast("short", recipients)));
+    assertEquals(2, coalesced.size());
+    assertEquals(line + "\nshort", coalesced.get(1).getMessage());
+  }
+
+  public void testBroadcastsAreHeldUntilFlush() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.setCoalescingWindowMillis(500);
+
+    channel.broadcastIncludingSender("one");
+    channel.broadcastIncludingSender("two");
+    assertTrue(xmpp.messages.isEmpty());
+
+    // Only the first broadcast in the window schedules a flush.
+    assertEquals(1, queue.getTasks().size());
+    assertEquals(500, queue.getTasks().get(0).countdownMillis());
+    assertEquals("/tasks/FLUSH_OUTBOX", queue.getTasks().get(0).url());
+
+    assertEquals(1, outbox.flush(channel.getName()));
+    assertEquals(1, xmpp.messages.size());
+    assertEquals("one\ntwo", xmpp.messages.get(0).getBody());
+    assertEquals(5, xmpp.messages.get(0).getRecipientJids().length);
+
+    assertEquals(0, outbox.flush(channel.getName()));
+  }
+
+  public void testSendErrorsAreReported() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.setCoalescingWindowMillis(500);
+    Member jason = channel.getMemberByAlias("jason");
+    jason.enableDebugOption(Option.ERROR_NOTIFICATIONS);
+    final JID jasonJID = new JID(jason.getJID());
+    MockXMPPService failing = new MockXMPPService() {
+      @Override public SendResponse sendMessage(Message message) {
+        SendResponse response = super.sendMessage(message);
+        // Only the broadcast fails, not the notice.
+        for (JID jid : message.getRecipientJids()) {
+          if (jid.getId().equals(jasonJID.getId()) &&
+              message.getRecipientJids().length > 1) {
+            response.addStatus(jid, Status.OTHER_ERROR);
+          }
+        }
+        return response;
+      }
+    };
+    SendUtil.setXMPP(failing);
+
+    channel.broadcastIncludingSender("one");
+    assertEquals(1, outbox.flush(channel.getName()));
+    assertEquals(2, failing.messages.size());
+    Message notice = failing.messages.get(1);
+    assertEquals(jasonJID.getId(), notice.getRecipientJids()[0].getId());
+    assertEquals(1, notice.getRecipientJids().length);
+    assertTrue(notice.getBody(), notice.getBody().contains("\"one\""));
+  }
+
+  public void testUnsentBroadcastsArePutBack() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.setCoalescingWindowMillis(500);
+    SendUtil.setXMPP(new MockXMPPService() {
+      @Override public SendResponse sendMessage(Message message) {
+        throw new XMPPFailureException("down");
+      }
+    });
+
+    channel.broadcastIncludingSender("one");
+    try {
+      outbox.flush(channel.getName());
+      fail("Expected the failure to be rethrown");
+    } catch (XMPPFailureException expected) {
+      // The task will be retried.
+    }
+
+    SendUtil.setXMPP(xmpp);
+    channel.broadcastIncludingSender("two");
+    assertEquals(1, outbox.flush(channel.getName()));
+    assertEquals(1, xmpp.messages.size());
+    assertEquals("one\ntwo", xmpp.messages.get(0).getBody());
+  }
+
+  public void testLostFlushIsRescheduled() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.setCoalescingWindowMillis(500);
+
+    channel.broadcastIncludingSender("one");
+    assertEquals(1, queue.getTasks().size());
+    outbox.failNextDrain = true;
+    try {
+      outbox.flush(channel.getName());
+      fail("Expected the drain failure to be rethrown");
+    } catch (RuntimeException expected) {
+      // The task will be retried, but suppose that it's lost anyway.
+    }
+
+    // While the flush might still be retried, no new one is scheduled...
+    channel.broadcastIncludingSender("two");
+    assertEquals(1, queue.getTasks().size());
+
+    // ...but once it's overdue, one is.
+    outbox.nowMillis += 500 + Outbox.RESCHEDULE_SLACK_MILLIS + 1;
+    channel.broadcastIncludingSender("three");
+    assertEquals(2, queue.getTasks().size());
+    assertEquals(1, outbox.flush(channel.getName()));
+    assertEquals("one\ntwo\nthree", xmpp.messages.get(0).getBody());
+
+    // Back to normal after that.
+    channel.broadcastIncludingSender("four");
+    assertEquals(3, queue.getTasks().size());
+  }
+
+  public void testSendsImmediatelyIfFlushCantBeScheduled() {
+    FakeQueue failingQueue = new FakeQueue() {
+      @Override public TaskHandle add(Options opts) {
+        throw new TransientFailureException("try again");
+      }
+    };
+    outbox = new TestOutbox(failingQueue);
+    Outbox.setInstance(outbox);
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.setCoalescingWindowMillis(500);
+
+    channel.broadcastIncludingSender("one");
+    assertEquals(1, xmpp.messages.size());
+    assertEquals("one", xmpp.messages.get(0).getBody());
+
+    // The message was taken back, so it isn't sent twice, and the next
+    // broadcast tries to schedule a flush again.
+    assertEquals(0, outbox.flush(channel.getName()));
+    channel.broadcastIncludingSender("two");
+    assertEquals(2, xmpp.messages.size());
+  }
+
+  public void testDisabledSendsImmediately() {
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.broadcastIncludingSender("one");
+    assertEquals(1, xmpp.messages.size());
+    assertTrue(queue.getTasks().isEmpty());
+  }
+}
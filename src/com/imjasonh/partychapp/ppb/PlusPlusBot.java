@@ -1,38 +1,78 @@
 package com.imjasonh.partychapp.ppb;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Configuration;
 import com.imjasonh.partychapp.Datastore;
 import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.PersistentConfiguration;
 
 public class PlusPlusBot {
-  private static Set<Pattern> blacklist = Sets.newHashSet();
+  /**
+   * Targets that are never scored (compared after lowercasing), in addition
+   * to any that are configured in {@link PersistentConfiguration} and to
+   * targets that are all dashes (e.g. "<----").
+   */
+  private static final Set<String> DEFAULT_BLACKLIST = ImmutableSet.of(
+      "c", // c++
+      "g", // g++
+      "lgtm"); // lgtm++
+
+  /**
+   * Regular expression equivalent of what {@link #tokenize} accepts as a
+   * target, for use in other commands (e.g. /score).
+   */
   public static final String targetPattern = "[\\w-\\.\\+]+";
-  private static final Pattern pattern =
-    Pattern.compile("(" + targetPattern + ")(\\+\\+|--)($|\\s+)");
 
   @SuppressWarnings("unused")
   private static final Logger logger = Logger.getLogger(PlusPlusBot.class.getName());
 
+  /**
+   * A "target++" or "target--" in a message.
+   */
+  public static class Token {
+    private final String target;
+    private final Action action;
+    private final int start;
+
+    Token(String target, Action action, int start) {
+      this.target = target;
+      this.action = action;
+      this.start = start;
+    }
+
+    public String target() {
+      return target;
+    }
+
+    public Action action() {
+      return action;
+    }
+
+    /** Offset of the start of the target in the message. */
+    public int start() {
+      return start;
+    }
+
+    /** Offset just past the ++ or --. */
+    public int end() {
+      return start + target.length() + 2;
+    }
 
-  static {
-    // c++
-    blacklist.add(Pattern.compile("c"));
-    // <----
-    blacklist.add(Pattern.compile("-*"));
-    // g++
-    blacklist.add(Pattern.compile("g"));
-    // lgtm++
-    blacklist.add(Pattern.compile("lgtm"));
+    @Override public String toString() {
+      return "[Token: " + target + action + " at " + start + "]";
+    }
   }
 
   public enum Action {
@@ -58,10 +98,109 @@ public class PlusPlusBot {
     }
   }
 
+  /**
+   * @return true if {@code content} has any ++ or -- tokens, even if they are
+   * all for blacklisted targets
+   */
   public boolean matches(String content) {
-    // use find() instead of matches() because matches() looks for the whole
-    // string to match and we're okay with substring matches.
-    return pattern.matcher(content.trim()).find();
+    return !scan(content, true).isEmpty();
+  }
+
+  /**
+   * Finds the ++ and -- tokens in {@code content} that should be scored, i.e.
+   * those whose targets aren't blacklisted, in a single pass.
+   */
+  public static List<Token> tokenize(String content) {
+    List<Token> tokens = scan(content, false);
+    if (tokens.isEmpty()) {
+      return tokens;
+    }
+    List<Token> scored = Lists.newArrayListWithCapacity(tokens.size());
+    for (Token token : tokens) {
+      if (!isBlacklisted(token.target().toLowerCase())) {
+        scored.add(token);
+      }
+    }
+    return scored;
+  }
+
+  /**
+   * A token is a run of target characters (word characters, '-', '.' and
+   * '+') that is at least 3 characters long, ends in "++" or "--" and is
+   * followed by whitespace or the end of the message. This is what matching
+   * {@code (targetPattern)(\+\+|--)($|\s+)} repeatedly finds.
+   */
+  private static List<Token> scan(String content, boolean firstOnly) {
+    List<Token> tokens = null;
+    int length = content.length();
+    int i = 0;
+    while (i < length) {
+      if (!isTargetChar(content.charAt(i))) {
+        i++;
+        continue;
+      }
+      int start = i;
+      while (i < length && isTargetChar(content.charAt(i))) {
+        i++;
+      }
+      int end = i;
+      if (end - start < 3 || !isTokenEnd(content, end)) {
+        continue;
+      }
+      char last = content.charAt(end - 1);
+      if ((last != '+' && last != '-') || content.charAt(end - 2) != last) {
+        continue;
+      }
+
+      Token token = new Token(content.substring(start, end - 2),
+          last == '+' ? Action.PLUSPLUS : Action.MINUSMINUS, start);
+      if (firstOnly) {
+        return ImmutableList.of(token);
+      }
+      if (tokens == null) {
+        tokens = Lists.newArrayList();
+      }
+      tokens.add(token);
+    }
+    return tokens != null ? tokens : Collections.<Token>emptyList();
+  }
+
+  private static boolean isTargetChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+        (c >= '0' && c <= '9') || c == '_' || c == '-' || c == '.' ||
+        c == '+';
+  }
+
+  /**
+   * @return true if {@code index} is at the end of the content, at
+   * whitespace (as matched by \s), or at a line terminator that ends the
+   * content (as matched by $)
+   */
+  private static boolean isTokenEnd(String content, int index) {
+    if (index == content.length()) {
+      return true;
+    }
+    char c = content.charAt(index);
+    if (c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' ||
+        c == '\r') {
+      return true;
+    }
+    if (index == content.length() - 1) {
+      return c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+    return false;
+  }
+
+  /**
+   * @param target lowercased target
+   */
+  static boolean isBlacklisted(String target) {
+    if (DEFAULT_BLACKLIST.contains(target) ||
+        CharMatcher.is('-').matchesAllOf(target)) {
+      return true;
+    }
+    return Configuration.persistentConfig().plusPlusBlacklist().contains(
+        target);
   }
 
   public List<Reason> extractReasonsNoCommit(Message msg) {
@@ -82,29 +221,33 @@ public class PlusPlusBot {
   }
 
   public List<Reason> extractReasonsHelper(Message msg, boolean mutateObjects) {
+    return extractReasonsHelper(msg, tokenize(msg.content), mutateObjects);
+  }
+
+  /**
+   * Variant of {@link #extractReasons(Message)} for callers that already
+   * called {@link #tokenize}. Reasons are in the same order as
+   * {@code tokens}.
+   */
+  public List<Reason> extractReasons(Message msg, List<Token> tokens) {
+    return extractReasonsHelper(msg, tokens, true);
+  }
+
+  private List<Reason> extractReasonsHelper(
+      Message msg, List<Token> tokens, boolean mutateObjects) {
     List<Reason> reasons = Lists.newArrayList();
     Set<Target> targets = Sets.newHashSet();
  
     Map<String, Target> alreadyFetched = Maps.newTreeMap();
-    Matcher m = pattern.matcher(msg.content);
     
-    tokenLoop:
-    while (m.find()) {
-      final String target = m.group(1);
-      final String action = m.group(2);
-      for (Pattern p : blacklist) {
-        if (p.matcher(target.toLowerCase()).matches()) {
-          // blacklisted
-          continue tokenLoop;
-        }
-      }
-      
+    for (Token token : tokens) {
+      final String target = token.target();
       Target t = alreadyFetched.get(target);
       if (null == t) {
         t = getTargetForEntity(msg.channel, target);
         alreadyFetched.put(target, t);
       }
-      Action a = action.equals("--") ? Action.MINUSMINUS : Action.PLUSPLUS;
+      Action a = token.action();
       targets.add(t);
       if (mutateObjects) {
         reasons.add(t.takeAction(msg.member, a, msg.content));
@@ -1,18 +1,31 @@
 package com.imjasonh.partychapp.ppb;
 
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
 import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Configuration;
 import com.imjasonh.partychapp.Datastore;
 import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.PersistentConfiguration;
 import com.imjasonh.partychapp.ppb.PlusPlusBot.Action;
+import com.imjasonh.partychapp.ppb.PlusPlusBot.Token;
 import com.imjasonh.partychapp.testing.FakeDatastore;
 
 public class PlusPlusBotTest extends TestCase {
   private PlusPlusBot ppb = new PlusPlusBot();
 
+  @Override
+  public void tearDown() {
+    Configuration.setPersistentConfigForTesting(new PersistentConfiguration());
+  }
+
   @Override
   public void setUp() {
 	FakeDatastore datastore = new FakeDatastore();
@@ -173,4 +186,61 @@ public class PlusPlusBotTest extends TestCase {
   public void testNoMatch() {
     assertFalse(ppb.matches("x++y"));
   }
-}
\ No newline at end of file
+
+  public void testTokenOffsets() {
+    String content = "whee x++ and y.z-- (a++)";
+    List<Token> tokens = PlusPlusBot.tokenize(content);
+    assertEquals(2, tokens.size());
+    assertEquals("x", tokens.get(0).target());
+    assertEquals(Action.PLUSPLUS, tokens.get(0).action());
+    assertEquals("x++", content.substring(
+        tokens.get(0).start(), tokens.get(0).end()));
+    assertEquals("y.z", tokens.get(1).target());
+    assertEquals(Action.MINUSMINUS, tokens.get(1).action());
+    assertEquals("y.z--", content.substring(
+        tokens.get(1).start(), tokens.get(1).end()));
+  }
+
+  /**
+   * The tokenizer replaced a regular expression, make sure that they agree.
+   */
+  public void testTokenizerMatchesRegex() {
+    Pattern pattern = Pattern.compile(
+        "(" + PlusPlusBot.targetPattern + ")(\\+\\+|--)($|\\s+)");
+    List<String> contents = ImmutableList.of(
+        "x++", "x--", "x++y", "x+++", "x+++ y---", "++", "--", "+++", "----",
+        "<----", "a:b++", "\u00e9++", "\u00e9+++", "x++\u2028",
+        "x++\u2028 ", "x++\u00a0", "x++\n", "  x++\ty--\r\n", "c++++",
+        "foo.bar++ foo-bar-- foo_bar++", "x++, y++", "(x++)");
+    for (String content : contents) {
+      List<String> expected = Lists.newArrayList();
+      Matcher m = pattern.matcher(content);
+      while (m.find()) {
+        expected.add(m.group(1) + m.group(2) + "@" + m.start());
+      }
+      List<String> actual = Lists.newArrayList();
+      for (Token token : PlusPlusBot.tokenize(content)) {
+        actual.add(token.target() + token.action() + "@" + token.start());
+      }
+      // tokenize() skips blacklisted targets, so only compare those.
+      List<String> expectedScored = Lists.newArrayList();
+      for (String e : expected) {
+        String target = e.substring(0, e.lastIndexOf('@') - 2);
+        if (!PlusPlusBot.isBlacklisted(target.toLowerCase())) {
+          expectedScored.add(e);
+        }
+      }
+      assertEquals(content, expectedScored, actual);
+      assertEquals(content, !expected.isEmpty(), ppb.matches(content));
+    }
+  }
+
+  public void testConfiguredBlacklist() {
+    PersistentConfiguration pc = new PersistentConfiguration();
+    pc.setPlusPlusBlacklist(ImmutableList.of("lol"));
+    Configuration.setPersistentConfigForTesting(pc);
+    assertTrue(ppb.matches("LOL++"));
+    assertTrue(ppb.extractReasons(Message.createForTests("LOL++")).isEmpty());
+    assertEquals(1, ppb.extractReasons(Message.createForTests("x++")).size());
+  }
+}
@@ -3,11 +3,13 @@
  */
 package com.imjasonh.partychapp.ppb;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.xmpp.JID;
 import com.google.common.annotations.VisibleForTesting;
 
 import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.EntityDatastore;
 import com.imjasonh.partychapp.Member;
 import com.imjasonh.partychapp.ppb.PlusPlusBot.Action;
 
@@ -26,7 +28,9 @@ public class Reason {
   /** 500 is the maximum length of text fields in AppEngine */
   private static final int MAX_REASON_LENGTH = 500;
 
-  @SuppressWarnings("unused")
+  /** The datastore kind that JDO (and {@link EntityDatastore}) uses. */
+  public static final String KIND = "Reason";
+
   @Persistent(valueStrategy = IdGeneratorStrategy.IDENTITY)
   @PrimaryKey
   private Key key;
@@ -75,6 +79,48 @@ public class Reason {
     this.scoreAfter = scoreAfter;
   }
 
+  private Reason() {
+    // For fromEntity
+  }
+
+  /**
+   * Reads a reason stored by {@link #toEntity} or by JDO.
+   */
+  public static Reason fromEntity(Entity entity) {
+    Reason reason = new Reason();
+    reason.key = entity.getKey();
+    reason.targetId = EntityDatastore.getString(entity, "targetId");
+    reason.senderJID = EntityDatastore.getString(entity, "senderJID");
+    reason.reason = EntityDatastore.getString(entity, "reason");
+    reason.action = EntityDatastore.getString(entity, "action");
+    reason.timestamp = EntityDatastore.getDate(entity, "timestamp");
+    reason.scoreAfter = EntityDatastore.getInt(entity, "scoreAfter");
+    return reason;
+  }
+
+  /**
+   * @return this reason as an entity, with the same properties that JDO
+   * would store. New reasons get an ID when they are put.
+   */
+  public Entity toEntity() {
+    Entity entity = key == null ? new Entity(KIND) : new Entity(key);
+    entity.setProperty("targetId", targetId);
+    entity.setUnindexedProperty("senderJID", senderJID);
+    entity.setUnindexedProperty("reason", reason);
+    entity.setUnindexedProperty("action", action);
+    entity.setProperty("timestamp", timestamp);
+    entity.setUnindexedProperty("scoreAfter", scoreAfter);
+    return entity;
+  }
+
+  /**
+   * Called by {@link EntityDatastore} once a new reason has been put, like
+   * JDO fills in generated keys.
+   */
+  public void setKey(Key key) {
+    this.key = key;
+  }
+
   public Action action() {
     return Action.valueOf(action);
   }
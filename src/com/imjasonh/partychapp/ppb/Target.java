@@ -3,10 +3,12 @@
  */
 package com.imjasonh.partychapp.ppb;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.common.collect.Lists;
 
 import com.imjasonh.partychapp.Channel;
 import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.EntityDatastore;
 import com.imjasonh.partychapp.Member;
 import com.imjasonh.partychapp.ppb.PlusPlusBot.Action;
 
@@ -22,6 +24,9 @@ import javax.jdo.annotations.PrimaryKey;
 
 @PersistenceCapable(identityType = IdentityType.APPLICATION)
 public class Target {
+  /** The datastore kind that JDO (and {@link EntityDatastore}) uses. */
+  public static final String KIND = "Target";
+
   @Persistent
   @PrimaryKey
   private String key; 
@@ -63,6 +68,34 @@ public class Target {
     this.channelName = other.channelName;
     this.score = other.score;
   }
+
+  private Target() {
+    // For fromEntity
+  }
+
+  /**
+   * Reads a target stored by {@link #toEntity} or by JDO.
+   */
+  public static Target fromEntity(Entity entity) {
+    Target target = new Target();
+    target.key = entity.getKey().getName();
+    target.channelName = EntityDatastore.getString(entity, "channelName");
+    target.name = EntityDatastore.getString(entity, "name");
+    target.score = EntityDatastore.getInt(entity, "score");
+    return target;
+  }
+
+  /**
+   * @return this target as an entity, with the same properties that JDO
+   * would store
+   */
+  public Entity toEntity() {
+    Entity entity = new Entity(KIND, key);
+    entity.setProperty("channelName", channelName);
+    entity.setUnindexedProperty("name", name);
+    entity.setUnindexedProperty("score", score);
+    return entity;
+  }
   
   public String key() {
     return key;
@@ -0,0 +1,29 @@
+package com.imjasonh.partychapp.proxy;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Implementation of {@link ProxyControl} that uses an in-memory
+ * {@code HashMap}. Meant for test use only.
+ */
+public class InMemoryProxyControl extends ProxyControl {
+  private final Map<String, String> rosterHashes = Maps.newHashMap();
+
+  @Override protected boolean isRosterKnown(
+      String channelName, String rosterHash) {
+    return rosterHash.equals(rosterHashes.get(channelName));
+  }
+
+  @Override protected void setRosterKnown(
+      String channelName, String rosterHash) {
+    rosterHashes.put(channelName, rosterHash);
+  }
+
+  @Override public void forgetRosters(Iterable<String> channelNames) {
+    for (String channelName : channelNames) {
+      rosterHashes.remove(channelName);
+    }
+  }
+}
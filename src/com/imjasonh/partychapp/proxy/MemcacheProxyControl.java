@@ -0,0 +1,58 @@
+package com.imjasonh.partychapp.proxy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation of {@link ProxyControl} that remembers which roster hash was
+ * last sent for each channel in memcache. Entries expire so that the full
+ * roster is re-sent periodically, in case the proxy lost track of it.
+ */
+public class MemcacheProxyControl extends ProxyControl {
+  private static final Logger logger =
+      Logger.getLogger(MemcacheProxyControl.class.getName());
+
+  private static final String KEY_PREFIX = "proxy.roster.";
+
+  private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(60 * 60);
+
+  private final MemcacheService memcache =
+      MemcacheServiceFactory.getMemcacheService();
+
+  @Override protected boolean isRosterKnown(
+      String channelName, String rosterHash) {
+    try {
+      return rosterHash.equals(memcache.get(KEY_PREFIX + channelName));
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not get roster hash", err);
+      return false;
+    }
+  }
+
+  @Override protected void setRosterKnown(
+      String channelName, String rosterHash) {
+    try {
+      memcache.put(KEY_PREFIX + channelName, rosterHash, EXPIRATION);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not set roster hash", err);
+    }
+  }
+
+  @Override public void forgetRosters(Iterable<String> channelNames) {
+    List<String> keys = Lists.newArrayList();
+    for (String channelName : channelNames) {
+      keys.add(KEY_PREFIX + channelName);
+    }
+    try {
+      memcache.deleteAll(keys);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not delete roster hashes", err);
+    }
+  }
+}
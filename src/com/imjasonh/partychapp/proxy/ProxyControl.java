@@ -0,0 +1,284 @@
+package com.imjasonh.partychapp.proxy;
+
+import com.google.appengine.api.xmpp.JID;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import com.imjasonh.partychapp.Base64;
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Member;
+import com.imjasonh.partychapp.server.PartychappServlet;
+import com.imjasonh.partychapp.server.SendUtil;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Sends outgoing messages for migrated channels (see
+ * {@link Channel#isMigrated}) to the XMPP proxy as control envelopes.
+ *
+ * To keep envelopes small:
+ * <ul>
+ * <li>The channel's roster (the JIDs of all of its members) is identified by
+ * a hash, and is only included when the proxy may not have seen that version
+ * yet. Each message then only lists the roster members that should not get
+ * it (usually the sender and any snoozers).
+ * <li>Between {@link #startBatch} and {@link #endBatch}, messages are held
+ * and sent as one envelope per channel.
+ * <li>Large envelopes are zlib-compressed and base64-encoded, with a
+ * {@link #COMPRESSED_PREFIX} prefix.
+ * </ul>
+ *
+ * Keeping track of which roster versions the proxy has seen is left to
+ * subclasses.
+ */
+public abstract class ProxyControl {
+  private static final Logger logger =
+      Logger.getLogger(ProxyControl.class.getName());
+
+  static final String COMPRESSED_PREFIX = "gzip:";
+
+  /** Envelopes shorter than this aren't worth compressing. */
+  static final int COMPRESSION_THRESHOLD = 512;
+
+  /** A batch is sent early once it has this many messages. */
+  static final int MAX_BATCH_MESSAGES = 25;
+
+  private static volatile ProxyControl instance;
+
+  public static ProxyControl instance() {
+    ProxyControl result = instance;
+    if (result == null) {
+      synchronized (ProxyControl.class) {
+        result = instance;
+        if (result == null) {
+          result = instance = new MemcacheProxyControl();
+        }
+      }
+    }
+    return result;
+  }
+
+  @VisibleForTesting public static void setInstance(ProxyControl proxyControl) {
+    instance = proxyControl;
+  }
+
+  /**
+   * Messages for a single channel that share the same roster.
+   */
+  private static class Batch {
+    final String channelName;
+    final String rosterHash;
+    final List<String> roster;
+    final JSONArray messages = new JSONArray();
+
+    Batch(String channelName, String rosterHash, List<String> roster) {
+      this.channelName = channelName;
+      this.rosterHash = rosterHash;
+      this.roster = roster;
+    }
+  }
+
+  /**
+   * Pending batches, by channel name. Null when not batching.
+   */
+  private final ThreadLocal<Map<String, Batch>> batches =
+      new ThreadLocal<Map<String, Batch>>();
+
+  /**
+   * @return true if the proxy has been sent the roster with the given hash
+   * for this channel (and still remembers it)
+   */
+  protected abstract boolean isRosterKnown(String channelName, String rosterHash);
+
+  protected abstract void setRosterKnown(String channelName, String rosterHash);
+
+  /**
+   * Makes sure that full rosters are sent with the next envelope for each of
+   * the given channels, e.g. because the proxy restarted.
+   */
+  public abstract void forgetRosters(Iterable<String> channelNames);
+
+  /**
+   * Holds messages until {@link #endBatch} is called.
+   */
+  public void startBatch() {
+    if (batches.get() == null) {
+      batches.set(Maps.<String, Batch>newLinkedHashMap());
+    }
+  }
+
+  /**
+   * Sends all messages held since {@link #startBatch}.
+   */
+  public void endBatch() {
+    Map<String, Batch> pending = batches.get();
+    batches.remove();
+    if (pending == null) {
+      return;
+    }
+    for (Batch batch : pending.values()) {
+      sendBatch(batch);
+    }
+  }
+
+  /**
+   * Sends (or, when batching, queues) {@code message} for delivery by the
+   * proxy to {@code recipients}, who should be members of {@code channel}.
+   */
+  public void send(
+      Channel channel, String message, Collection<Member> recipients) {
+    List<String> roster = Lists.newArrayList();
+    for (Member member : channel.getMembers()) {
+      roster.add(member.getJID());
+    }
+    Collections.sort(roster);
+    String rosterHash = hashRoster(roster);
+
+    Map<String, Batch> pending = batches.get();
+    Batch batch = pending != null ? pending.get(channel.getName()) : null;
+    if (batch != null && !batch.rosterHash.equals(rosterHash)) {
+      // The roster changed mid-batch (e.g. someone left), so the exclusions
+      // in the pending messages would be relative to the wrong roster.
+      sendBatch(batch);
+      batch = null;
+    }
+    if (batch == null) {
+      batch = new Batch(channel.getName(), rosterHash, roster);
+    }
+
+    try {
+      batch.messages.put(createMessage(message, roster, recipients));
+    } catch (JSONException err) {
+      logger.log(Level.SEVERE, "Could not encode message for proxy", err);
+      return;
+    }
+
+    if (pending == null) {
+      sendBatch(batch);
+    } else if (batch.messages.length() >= MAX_BATCH_MESSAGES) {
+      sendBatch(batch);
+      pending.remove(channel.getName());
+    } else {
+      pending.put(channel.getName(), batch);
+    }
+  }
+
+  private static JSONObject createMessage(
+      String message, List<String> roster, Collection<Member> recipients)
+      throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("outmsg", message);
+
+    Set<String> recipientJIDs = Sets.newHashSet();
+    for (Member recipient : recipients) {
+      recipientJIDs.add(recipient.getJID());
+    }
+    if (roster.containsAll(recipientJIDs)) {
+      List<String> exclude = Lists.newArrayList();
+      for (String jid : roster) {
+        if (!recipientJIDs.contains(jid)) {
+          exclude.add(jid);
+        }
+      }
+      json.put("exclude", exclude);
+    } else {
+      // Shouldn't happen, but the proxy also accepts explicit recipients.
+      json.put("recipients", recipientJIDs);
+    }
+    return json;
+  }
+
+  private void sendBatch(Batch batch) {
+    boolean includeRoster = !isRosterKnown(batch.channelName, batch.rosterHash);
+    String envelope;
+    try {
+      envelope = encode(createEnvelope(batch, includeRoster).toString());
+    } catch (JSONException err) {
+      logger.log(Level.SEVERE, "Could not encode envelope for proxy", err);
+      return;
+    }
+
+    Set<JID> errorJIDs = SendUtil.sendMessage(
+        envelope,
+        new JID(PartychappServlet.PARTYCHAPP_CONTROL),
+        ImmutableList.of(new JID(PartychappServlet.PROXY_CONTROL)));
+    logger.info("Sent " + batch.messages.length() + " messages for " +
+        batch.channelName + " to proxy control (" + envelope.length() +
+        " chars, roster " + (includeRoster ? "included" : "omitted") + ")");
+    if (errorJIDs.isEmpty() && includeRoster) {
+      setRosterKnown(batch.channelName, batch.rosterHash);
+    }
+  }
+
+  private static JSONObject createEnvelope(Batch batch, boolean includeRoster)
+      throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("from_channel", batch.channelName);
+    json.put("roster_hash", batch.rosterHash);
+    if (includeRoster) {
+      json.put("roster", batch.roster);
+    }
+    json.put("messages", batch.messages);
+    return json;
+  }
+
+  /**
+   * Compresses envelopes that are long enough for it to be worthwhile.
+   */
+  @VisibleForTesting
+  static String encode(String envelope) {
+    if (envelope.length() < COMPRESSION_THRESHOLD) {
+      return envelope;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DeflaterOutputStream deflater = new DeflaterOutputStream(bytes);
+      deflater.write(envelope.getBytes("UTF-8"));
+      deflater.close();
+      String compressed = COMPRESSED_PREFIX + Base64.encode(bytes.toByteArray());
+      return compressed.length() < envelope.length() ? compressed : envelope;
+    } catch (IOException err) {
+      logger.log(Level.WARNING, "Could not compress envelope", err);
+      return envelope;
+    }
+  }
+
+  @VisibleForTesting
+  static String hashRoster(List<String> sortedRoster) {
+    try {
+      MessageDigest md5 = MessageDigest.getInstance("MD5");
+      for (String jid : sortedRoster) {
+        md5.update(jid.getBytes("UTF-8"));
+        md5.update((byte) '\n');
+      }
+      StringBuilder hash = new StringBuilder();
+      for (byte b : md5.digest()) {
+        hash.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+      }
+      return hash.toString();
+    } catch (NoSuchAlgorithmException err) {
+      throw new RuntimeException(err);
+    } catch (UnsupportedEncodingException err) {
+      throw new RuntimeException(err);
+    }
+  }
+}
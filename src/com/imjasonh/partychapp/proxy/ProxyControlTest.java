@@ -0,0 +1,162 @@
+package com.imjasonh.partychapp.proxy;
+
+import com.google.appengine.api.xmpp.Message;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.Base64;
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.Member;
+import com.imjasonh.partychapp.server.PartychappServlet;
+import com.imjasonh.partychapp.server.SendUtil;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+import com.imjasonh.partychapp.testing.MockXMPPService;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+public class ProxyControlTest extends TestCase {
+  MockXMPPService xmpp = new MockXMPPService();
+  InMemoryProxyControl proxyControl = new InMemoryProxyControl();
+  Channel channel;
+
+  @Override
+  public void setUp() {
+    FakeDatastore datastore = new FakeDatastore();
+    Datastore.setInstance(datastore);
+    datastore.setUp();
+    SendUtil.setXMPP(xmpp);
+    channel = FakeDatastore.fakeChannel();
+  }
+
+  public void testRosterOnlySentWhenUnknown() throws Exception {
+    Member neil = channel.getMemberByAlias("neil");
+    proxyControl.send(channel, "hello", recipientsExcept(neil));
+    proxyControl.send(channel, "again", recipientsExcept(neil));
+
+    assertEquals(2, xmpp.messages.size());
+    Message first = xmpp.messages.get(0);
+    assertEquals(PartychappServlet.PROXY_CONTROL,
+        first.getRecipientJids()[0].getId());
+    JSONObject envelope = decode(first);
+    assertEquals("pancake", envelope.getString("from_channel"));
+    assertEquals(5, envelope.getJSONArray("roster").length());
+    JSONArray messages = envelope.getJSONArray("messages");
+    assertEquals(1, messages.length());
+    assertEquals("hello", messages.getJSONObject(0).getString("outmsg"));
+    JSONArray exclude = messages.getJSONObject(0).getJSONArray("exclude");
+    assertEquals(1, exclude.length());
+    assertEquals("neil@gmail.com", exclude.getString(0));
+
+    JSONObject second = decode(xmpp.messages.get(1));
+    assertFalse(second.has("roster"));
+    assertEquals(envelope.getString("roster_hash"),
+        second.getString("roster_hash"));
+
+    proxyControl.forgetRosters(ImmutableList.of("pancake"));
+    proxyControl.send(channel, "after restart", channel.getMembers());
+    assertTrue(decode(xmpp.messages.get(2)).has("roster"));
+  }
+
+  public void testBatching() throws Exception {
+    proxyControl.startBatch();
+    proxyControl.send(channel, "one", channel.getMembers());
+    proxyControl.send(channel, "two", channel.getMembers());
+    assertTrue(xmpp.messages.isEmpty());
+    proxyControl.endBatch();
+
+    assertEquals(1, xmpp.messages.size());
+    JSONArray messages = decode(xmpp.messages.get(0)).getJSONArray("messages");
+    assertEquals(2, messages.length());
+    assertEquals("one", messages.getJSONObject(0).getString("outmsg"));
+    assertEquals("two", messages.getJSONObject(1).getString("outmsg"));
+    assertEquals(0, messages.getJSONObject(1).getJSONArray("exclude").length());
+  }
+
+  public void testBatchIsSentWhenFull() throws Exception {
+    proxyControl.startBatch();
+    for (int i = 0; i < ProxyControl.MAX_BATCH_MESSAGES + 1; i++) {
+      proxyControl.send(channel, "message " + i, channel.getMembers());
+    }
+    assertEquals(1, xmpp.messages.size());
+    proxyControl.endBatch();
+    assertEquals(2, xmpp.messages.size());
+    assertEquals(1,
+        decode(xmpp.messages.get(1)).getJSONArray("messages").length());
+  }
+
+  public void testRosterChangeFlushesBatch() throws Exception {
+    proxyControl.startBatch();
+    proxyControl.send(channel, "before", channel.getMembers());
+    Member akshay = channel.getMemberByAlias("akshay");
+    channel.removeMember(Datastore.instance().getUserByJID(akshay.getJID()));
+    proxyControl.send(channel, "after", channel.getMembers());
+    assertEquals(1, xmpp.messages.size());
+    proxyControl.endBatch();
+
+    assertEquals(2, xmpp.messages.size());
+    JSONObject after = decode(xmpp.messages.get(1));
+    assertEquals(4, after.getJSONArray("roster").length());
+    assertEquals("after",
+        after.getJSONArray("messages").getJSONObject(0).getString("outmsg"));
+  }
+
+  public void testEncode() throws Exception {
+    assertEquals("{}", ProxyControl.encode("{}"));
+
+    StringBuilder longEnvelope = new StringBuilder();
+    while (longEnvelope.length() < ProxyControl.COMPRESSION_THRESHOLD * 2) {
+      longEnvelope.append("\"someone@example.com\",");
+    }
+    String encoded = ProxyControl.encode(longEnvelope.toString());
+    assertTrue(encoded.startsWith(ProxyControl.COMPRESSED_PREFIX));
+    assertTrue(encoded.length() < longEnvelope.length());
+    assertEquals(longEnvelope.toString(), inflate(encoded));
+  }
+
+  public void testHashRoster() {
+    String hash = ProxyControl.hashRoster(ImmutableList.of("a@a.com", "b@b.com"));
+    assertEquals(hash,
+        ProxyControl.hashRoster(ImmutableList.of("a@a.com", "b@b.com")));
+    assertFalse(hash.equals(
+        ProxyControl.hashRoster(ImmutableList.of("a@a.com"))));
+    assertFalse(hash.equals(
+        ProxyControl.hashRoster(ImmutableList.of("a@a.comb@b.com"))));
+  }
+
+  private List<Member> recipientsExcept(Member excluded) {
+    List<Member> recipients = Lists.newArrayList(channel.getMembers());
+    recipients.remove(excluded);
+    return recipients;
+  }
+
+  private static JSONObject decode(Message message) throws Exception {
+    String body = message.getBody();
+    if (body.startsWith(ProxyControl.COMPRESSED_PREFIX)) {
+      body = inflate(body);
+    }
+    return new JSONObject(body);
+  }
+
+  private static String inflate(String encoded) throws Exception {
+    byte[] compressed = Base64.decode(
+        encoded.substring(ProxyControl.COMPRESSED_PREFIX.length()));
+    InflaterInputStream in =
+        new InflaterInputStream(new ByteArrayInputStream(compressed));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toString("UTF-8");
+  }
+}
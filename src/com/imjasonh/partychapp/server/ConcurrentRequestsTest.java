@@ -0,0 +1,149 @@
+package com.imjasonh.partychapp.server;
+
+import com.google.appengine.api.xmpp.JID;
+import com.google.appengine.api.xmpp.Message;
+import com.google.appengine.api.xmpp.MessageBuilder;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.InMemoryCachingDatastore;
+import com.imjasonh.partychapp.lastmessages.InMemoryLastMessages;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+import com.imjasonh.partychapp.testing.MockMailService;
+import com.imjasonh.partychapp.testing.MockXMPPService;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the same conversation in many channels at once, through one shared
+ * {@link PartychappServlet} (and so the same command handlers, datastore
+ * layers and other per-instance state), and checks that every channel sees
+ * exactly what a channel that has the conversation on its own sees. Each
+ * channel's messages are sent in order by one thread, like a user waiting
+ * for replies would; concurrent changes to the same channel are left to the
+ * datastore.
+ */
+public class ConcurrentRequestsTest extends TestCase {
+  private static final int THREADS = 8;
+  private static final int CHANNELS = 32;
+
+  /** Broadcasts and ++s at the end of the script, to add contention. */
+  private static final int CHATTER = 10;
+
+  private final MockXMPPService xmpp = new MockXMPPService();
+  private final PartychappServlet servlet = new PartychappServlet();
+
+  @Override
+  public void setUp() {
+    Datastore.setInstance(new InMemoryCachingDatastore(new FakeDatastore()));
+    SendUtil.setXMPP(xmpp);
+    MailUtil.setMailService(new MockMailService());
+    LastMessages.setInstance(new InMemoryLastMessages());
+  }
+
+  @Override
+  public void tearDown() {
+    LastMessages.setInstance(null);
+  }
+
+  public void testConcurrentChannels() throws Exception {
+    runScript("baseline");
+    List<String> expected = getTranscript("baseline");
+    assertFalse(expected.isEmpty());
+
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    List<Future<Void>> futures = Lists.newArrayList();
+    try {
+      for (int i = 0; i < CHANNELS; i++) {
+        final String channelName = "room" + i;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override public Void call() throws Exception {
+            start.await();
+            runScript(channelName);
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Void> future : futures) {
+        // Rethrows anything that a request threw.
+        future.get(60, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (int i = 0; i < CHANNELS; i++) {
+      assertEquals("room" + i, expected, getTranscript("room" + i));
+    }
+  }
+
+  private void runScript(String channelName) {
+    String alice = "alice@" + channelName + ".example.com";
+    String bob = "bob@" + channelName + ".example.com";
+    String carol = "carol@" + channelName + ".example.com";
+
+    send(channelName, alice, "hi everyone");
+    send(channelName, bob, "hello");
+    send(channelName, carol, "hey");
+    send(channelName, alice, "bob++ for joining");
+    send(channelName, bob, "/alias robert");
+    send(channelName, carol, "/me waves");
+    send(channelName, alice, "this has a typo");
+    send(channelName, alice, "s/typo/fix/");
+    send(channelName, carol, "carol++");
+    send(channelName, carol, "/undo");
+    send(channelName, bob, "/list");
+    send(channelName, carol, "/status");
+    for (int i = 0; i < CHATTER; i++) {
+      send(channelName, bob, "message " + i);
+      send(channelName, carol, "pancakes++ round " + i);
+    }
+  }
+
+  private void send(String channelName, String from, String body) {
+    servlet.doXmpp(new MessageBuilder()
+        .withBody(body)
+        .withFromJid(new JID(from))
+        .withRecipientJids(new JID(channelName + "@" + Configuration.chatDomain))
+        .build());
+  }
+
+  /**
+   * @return the channel's messages in order, each as its recipients and body,
+   * with the channel's name replaced so that transcripts can be compared
+   */
+  private List<String> getTranscript(String channelName) {
+    String serverJID = channelName + "@" + Configuration.chatDomain;
+    List<String> transcript = Lists.newArrayList();
+    synchronized (xmpp.messages) {
+      for (Message message : xmpp.messages) {
+        if (!message.getFromJid().getId().equals(serverJID)) {
+          continue;
+        }
+        List<String> recipients = Lists.newArrayList();
+        for (JID recipient : message.getRecipientJids()) {
+          recipients.add(recipient.getId());
+        }
+        Collections.sort(recipients);
+        String entry = Arrays.toString(recipients.toArray()) + " " +
+            message.getBody();
+        transcript.add(entry.replace(channelName, "CHANNEL"));
+      }
+    }
+    return transcript;
+  }
+}
@@ -8,7 +8,8 @@ import com.google.appengine.api.mail.MailService;
 import com.google.appengine.api.mail.MailServiceFactory;
 
 public class MailUtil {
-  private static MailService instance = null;
+  // Concurrent requests may both create one, which is harmless.
+  private static volatile MailService instance = null;
   
   private static final Logger LOG = Logger.getLogger(MailUtil.class.getName());
   
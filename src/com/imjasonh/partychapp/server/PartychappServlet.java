@@ -15,8 +15,11 @@ import com.imjasonh.partychapp.Datastore;
 import com.imjasonh.partychapp.Member;
 import com.imjasonh.partychapp.User;
 import com.imjasonh.partychapp.Message.MessageType;
+import com.imjasonh.partychapp.proxy.ProxyControl;
 import com.imjasonh.partychapp.server.command.Command;
 import com.imjasonh.partychapp.stats.ChannelStats;
+import com.imjasonh.partychapp.stats.RequestTrace;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
 
 import java.io.IOException;
 import java.util.Collections;
@@ -131,6 +134,7 @@ private void doControlPacket(Message xmppMessage) throws JSONException {
 	// this is to prevent the proxy from having to store state (i.e. roster).
 	if ((null != state) && state.equals("new")) {
 		logger.warning("Looks like the proxy just came up. Refreshing his roster");
+		ProxyControl.instance().forgetRosters(Channel.migratedChannelNames());
 			for (String channelName : Channel.migratedChannelNames()) {
 				
 				// send a message to this channel
@@ -176,8 +180,10 @@ private void doControlPacket(Message xmppMessage) throws JSONException {
   	
   	
     long startTime = System.currentTimeMillis();
+    RequestTrace.start("xmpp");
     Datastore datastore = Datastore.instance();
     datastore.startRequest();
+    ProxyControl.instance().startBatch();
     
     try {
       JID userJID = jidToLowerCase(xmppMessage.getFromJid());
@@ -202,6 +208,17 @@ private void doControlPacket(Message xmppMessage) throws JSONException {
       }
       User user = datastore.getOrCreateUser(userJID.getId().split("/")[0]);
       
+      RequestTrace.Span rateLimitSpan =
+          RequestTrace.startSpan(Stage.RATE_LIMIT);
+      try {
+        if (!RateLimiter.allowMessage(
+              channelName, userJID, serverJID, channel != null)) {
+          return;
+        }
+      } finally {
+        rateLimitSpan.end();
+      }
+      
       com.imjasonh.partychapp.Message message =
         new com.imjasonh.partychapp.Message.Builder()
           .setContent(body)
@@ -213,7 +230,20 @@ private void doControlPacket(Message xmppMessage) throws JSONException {
           .setMessageType(MessageType.XMPP)
           .build();
   
-      Command.getCommandHandler(message).doCommand(message);
+      RequestTrace.Span dispatchSpan = RequestTrace.startSpan(Stage.DISPATCH);
+      Command command;
+      try {
+        command = Command.getCommand(message);
+      } finally {
+        dispatchSpan.end();
+      }
+      RequestTrace.setCommand(command.name());
+      RequestTrace.Span commandSpan = RequestTrace.startSpan(Stage.COMMAND);
+      try {
+        command.commandHandler.doCommand(message);
+      } finally {
+        commandSpan.end();
+      }
       
       // {@link User#fixUp} can't be called by {@link FixingDatastore}, since
       // it can't know what channel the user is currently messaging, so we have
@@ -232,7 +262,14 @@ private void doControlPacket(Message xmppMessage) throws JSONException {
         }
       }
     } finally {    
-      datastore.endRequest();
+      ProxyControl.instance().endBatch();
+      RequestTrace.Span persistSpan = RequestTrace.startSpan(Stage.PERSIST);
+      try {
+        datastore.endRequest();
+      } finally {
+        persistSpan.end();
+      }
+      RequestTrace.finish();
     }
   }
 
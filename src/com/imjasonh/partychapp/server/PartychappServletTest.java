@@ -15,6 +15,8 @@ import com.imjasonh.partychapp.Channel;
 import com.imjasonh.partychapp.Configuration;
 import com.imjasonh.partychapp.Datastore;
 import com.imjasonh.partychapp.InMemoryCachingDatastore;
+import com.imjasonh.partychapp.lastmessages.InMemoryLastMessages;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
 import com.imjasonh.partychapp.User;
 import com.imjasonh.partychapp.testing.FakeDatastore;
 import com.imjasonh.partychapp.testing.MockMailService;
@@ -33,6 +35,12 @@ public class PartychappServletTest extends TestCase {
     Datastore.setInstance(datastore);
     SendUtil.setXMPP(xmpp);
     MailUtil.setMailService(new MockMailService());
+    LastMessages.setInstance(new InMemoryLastMessages());
+  }
+
+  @Override
+  public void tearDown() {
+    LastMessages.setInstance(null);
   }
   
   class TestMessage {
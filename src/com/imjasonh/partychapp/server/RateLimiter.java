@@ -0,0 +1,216 @@
+package com.imjasonh.partychapp.server;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.xmpp.JID;
+import com.google.common.annotations.VisibleForTesting;
+
+import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.PersistentConfiguration;
+import com.imjasonh.partychapp.stats.ChannelStats;
+
+import java.io.Serializable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-channel and per-sender token buckets (kept in memcache) that are checked
+ * before incoming messages are dispatched, so that a single runaway room (e.g.
+ * two bots talking to each other) can't use up the whole application's XMPP
+ * quota. Limits are set via {@link PersistentConfiguration}; a limit of 0
+ * disables that bucket. If memcache is unavailable, all messages are allowed.
+ */
+public class RateLimiter {
+  private static final Logger logger =
+      Logger.getLogger(RateLimiter.class.getName());
+
+  private static final String KEY_PREFIX = "ratelimit.";
+
+  private static final Expiration EXPIRATION = Expiration.byDeltaSeconds(10 * 60);
+
+  private static final int MAX_CAS_ATTEMPTS = 5;
+
+  /**
+   * Senders whose messages are being shed are told about it at most this
+   * often.
+   */
+  private static final long NOTICE_INTERVAL_MS = 60 * 1000L;
+
+  // Concurrent requests may both create one, which is harmless.
+  private static volatile MemcacheService memcache = null;
+
+  /**
+   * Token bucket that holds up to one minute's worth of messages and is
+   * refilled continuously.
+   */
+  @VisibleForTesting
+  static class TokenBucket implements Serializable {
+    private static final long serialVersionUID = 2364789032176394021L;
+
+    private double tokens;
+    private long lastRefillMillis;
+    private long lastNoticeMillis = 0;
+
+    TokenBucket(int messagesPerMinute, long nowMillis) {
+      this.tokens = messagesPerMinute;
+      this.lastRefillMillis = nowMillis;
+    }
+
+    /**
+     * @return true if a token was available (and was taken)
+     */
+    boolean tryAcquire(int messagesPerMinute, long nowMillis) {
+      long elapsedMillis = Math.max(0, nowMillis - lastRefillMillis);
+      tokens = Math.min(messagesPerMinute,
+          tokens + elapsedMillis * messagesPerMinute / 60000.0);
+      lastRefillMillis = nowMillis;
+      if (tokens >= 1) {
+        tokens -= 1;
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Gives back a token that was taken for a message that ended up being
+     * dropped anyway.
+     */
+    void release(int messagesPerMinute) {
+      tokens = Math.min(messagesPerMinute, tokens + 1);
+    }
+
+    /**
+     * @return true if the sender should be told that their messages are
+     * being dropped (at most once every {@link #NOTICE_INTERVAL_MS}).
+     */
+    boolean shouldSendNotice(long nowMillis) {
+      if (nowMillis - lastNoticeMillis >= NOTICE_INTERVAL_MS) {
+        lastNoticeMillis = nowMillis;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private enum Decision {
+    ALLOW,
+    SHED,
+    SHED_WITH_NOTICE
+  }
+
+  /**
+   * Checks (and consumes tokens from) the sender's and the channel's buckets.
+   * If the message should be dropped, the sender may be sent a notice and the
+   * drop is recorded in {@link ChannelStats}. Messages that the channel's
+   * bucket drops don't count against the sender's.
+   *
+   * @return true if the message should be handled
+   */
+  public static boolean allowMessage(String channelName, JID userJID,
+      JID serverJID, boolean channelExists) {
+    PersistentConfiguration pc = Configuration.persistentConfig();
+    int senderLimit = pc.senderMessagesPerMinute();
+    int channelLimit = pc.channelMessagesPerMinute();
+    if (senderLimit <= 0 && (channelLimit <= 0 || !channelExists)) {
+      return true;
+    }
+
+    String sender = userJID.getId().split("/")[0];
+    Decision decision = Decision.ALLOW;
+    String notice = null;
+    if (senderLimit > 0) {
+      decision = take("sender." + sender, senderLimit);
+      notice = "You are sending messages too quickly, some of them were " +
+          "dropped. You may send up to " + senderLimit + " messages a minute.";
+    }
+    if (decision == Decision.ALLOW && channelLimit > 0 && channelExists) {
+      decision = take("channel." + channelName, channelLimit);
+      notice = "'" + channelName + "' is receiving too many messages, some " +
+          "of them were dropped. Rooms may have up to " + channelLimit +
+          " messages a minute.";
+      if (decision != Decision.ALLOW && senderLimit > 0) {
+        release("sender." + sender, senderLimit);
+      }
+    }
+
+    if (decision == Decision.ALLOW) {
+      return true;
+    }
+
+    logger.warning("Shedding message from " + sender + " to " + channelName);
+    ChannelStats.recordShedMessage(channelName);
+    if (decision == Decision.SHED_WITH_NOTICE) {
+      SendUtil.sendDirect(notice, userJID, serverJID);
+    }
+    return false;
+  }
+
+  private static Decision take(String bucketName, int messagesPerMinute) {
+    MemcacheService memcache = getMemcache();
+    String key = KEY_PREFIX + bucketName;
+    long now = System.currentTimeMillis();
+    try {
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          TokenBucket bucket = new TokenBucket(messagesPerMinute, now);
+          bucket.tryAcquire(messagesPerMinute, now);
+          if (memcache.put(
+                key, bucket, EXPIRATION, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return Decision.ALLOW;
+          }
+          continue;
+        }
+
+        TokenBucket bucket = (TokenBucket) current.getValue();
+        Decision decision = Decision.ALLOW;
+        if (!bucket.tryAcquire(messagesPerMinute, now)) {
+          decision = bucket.shouldSendNotice(now) ?
+              Decision.SHED_WITH_NOTICE : Decision.SHED;
+        }
+        if (memcache.putIfUntouched(key, current, bucket, EXPIRATION)) {
+          return decision;
+        }
+      }
+      logger.warning("Too much contention for " + key + ", allowing");
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not check " + key + ", allowing", err);
+    }
+    return Decision.ALLOW;
+  }
+
+  /**
+   * Gives back a token that {@link #take} took. Best effort, a failure just
+   * means that the bucket stays a token short.
+   */
+  private static void release(String bucketName, int messagesPerMinute) {
+    MemcacheService memcache = getMemcache();
+    String key = KEY_PREFIX + bucketName;
+    try {
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          return;
+        }
+        TokenBucket bucket = (TokenBucket) current.getValue();
+        bucket.release(messagesPerMinute);
+        if (memcache.putIfUntouched(key, current, bucket, EXPIRATION)) {
+          return;
+        }
+      }
+      logger.warning("Too much contention for " + key + ", not refunding");
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not refund " + key, err);
+    }
+  }
+
+  private static MemcacheService getMemcache() {
+    if (memcache == null) {
+      memcache = MemcacheServiceFactory.getMemcacheService();
+    }
+    return memcache;
+  }
+}
@@ -0,0 +1,49 @@
+package com.imjasonh.partychapp.server;
+
+import com.imjasonh.partychapp.server.RateLimiter.TokenBucket;
+
+import junit.framework.TestCase;
+
+public class RateLimiterTest extends TestCase {
+  public void testBurstThenRefill() {
+    TokenBucket bucket = new TokenBucket(3, 0);
+    assertTrue(bucket.tryAcquire(3, 0));
+    assertTrue(bucket.tryAcquire(3, 0));
+    assertTrue(bucket.tryAcquire(3, 0));
+    assertFalse(bucket.tryAcquire(3, 0));
+
+    // 3 messages a minute is one every 20 seconds.
+    assertFalse(bucket.tryAcquire(3, 19 * 1000L));
+    assertTrue(bucket.tryAcquire(3, 20 * 1000L));
+    assertFalse(bucket.tryAcquire(3, 20 * 1000L));
+  }
+
+  public void testRefillIsCapped() {
+    TokenBucket bucket = new TokenBucket(2, 0);
+    assertTrue(bucket.tryAcquire(2, 0));
+    assertTrue(bucket.tryAcquire(2, 0));
+
+    long anHourLater = 60 * 60 * 1000L;
+    assertTrue(bucket.tryAcquire(2, anHourLater));
+    assertTrue(bucket.tryAcquire(2, anHourLater));
+    assertFalse(bucket.tryAcquire(2, anHourLater));
+  }
+
+  public void testReleaseIsCapped() {
+    TokenBucket bucket = new TokenBucket(2, 0);
+    assertTrue(bucket.tryAcquire(2, 0));
+    bucket.release(2);
+    bucket.release(2);
+    assertTrue(bucket.tryAcquire(2, 0));
+    assertTrue(bucket.tryAcquire(2, 0));
+    assertFalse(bucket.tryAcquire(2, 0));
+  }
+
+  public void testNoticesAreThrottled() {
+    TokenBucket bucket = new TokenBucket(1, 0);
+    long now = 10 * 60 * 1000L;
+    assertTrue(bucket.shouldSendNotice(now));
+    assertFalse(bucket.shouldSendNotice(now + 1000L));
+    assertTrue(bucket.shouldSendNotice(now + 60 * 1000L));
+  }
+}
@@ -19,9 +19,12 @@ import com.google.common.collect.Sets;
 import com.imjasonh.partychapp.Channel;
 import com.imjasonh.partychapp.Configuration;
 import com.imjasonh.partychapp.stats.ChannelStats;
+import com.imjasonh.partychapp.stats.RequestTrace;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
 
 public abstract class SendUtil {
-  private static XMPPService XMPP = XMPPServiceFactory.getXMPPService();
+  private static volatile XMPPService XMPP =
+      XMPPServiceFactory.getXMPPService();
 
   private static final Logger LOG = Logger.getLogger(Channel.class.getName());
 
@@ -55,31 +58,42 @@ public abstract class SendUtil {
    * meant for are returned.
    */
   public static Set<JID> sendMessage(String msg, JID fromJID, List<JID> toJIDs) {
-    if (!fromJID.getId().contains(Configuration.chatDomain)) {
-      throw new RuntimeException(fromJID
-        + " is not a server JID but is being used as the from");
+    checkServerJID(fromJID);
+    try {
+      return sendMessageOrThrow(msg, fromJID, toJIDs);
+    } catch (RuntimeException e) {
+      LOG.log(Level.SEVERE, "Got exception while sending msg '" + msg
+        + "' from " + fromJID + " to " + toJIDs, e);
+      return Collections.emptySet();
     }
+  }
+
+  /**
+   * Like {@link #sendMessage}, but throws if the message could not be sent at
+   * all, so that callers that can retry don't lose it.
+   */
+  public static Set<JID> sendMessageOrThrow(
+      String msg, JID fromJID, List<JID> toJIDs) {
+    checkServerJID(fromJID);
 
     if (toJIDs == null || toJIDs.isEmpty()) {
       return Collections.emptySet();
     }
     
-    SendResponse response = null;
+    SendResponse response;
+    RequestTrace.Span span = RequestTrace.startSpan(Stage.XMPP_SEND);
     try {
       response =
         XMPP.sendMessage(new MessageBuilder().withBody(msg)
                 .withFromJid(fromJID)
                 .withRecipientJids(toJIDs.toArray(new JID[]{}))
                 .build());
-    } catch (RuntimeException e) {
-      LOG.log(Level.SEVERE, "Got exception while sending msg '" + msg
-        + "' from " + fromJID + " to " + toJIDs.toString(), e);
-      return Collections.emptySet();
+    } finally {
+      span.end();
     }
 
     if (response == null) {
-      LOG.severe("XMPP.sendMessage() response is null!");
-      return Collections.emptySet();
+      throw new IllegalStateException("XMPP.sendMessage() response is null!");
     }
 
     Set<JID> errorJIDs = Sets.newHashSet();
@@ -103,4 +117,11 @@ public abstract class SendUtil {
     
     return errorJIDs;
   }
+
+  private static void checkServerJID(JID fromJID) {
+    if (!fromJID.getId().contains(Configuration.chatDomain)) {
+      throw new RuntimeException(fromJID
+        + " is not a server JID but is being used as the from");
+    }
+  }
 }
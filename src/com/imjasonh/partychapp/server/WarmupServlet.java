@@ -0,0 +1,192 @@
+package com.imjasonh.partychapp.server;
+
+import com.google.appengine.api.xmpp.JID;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.Member;
+import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.Message.MessageType;
+import com.imjasonh.partychapp.User;
+import com.imjasonh.partychapp.server.command.Command;
+import com.imjasonh.partychapp.stats.RequestTrace;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Handles /_ah/warmup requests, which App Engine sends to a new instance
+ * before it gets user traffic. Loads the configuration, sets up JDO and the
+ * datastore layers, loads the classes that are otherwise only loaded by the
+ * first request that needs them, and then dispatches some synthetic messages
+ * to a throwaway channel so that the command table and handler regexes are
+ * ready too. Each phase is timed, and the timings are logged and returned.
+ *
+ * Messages are only dispatched (as {@link PartychappServlet} does), not
+ * handled, since handling them would send XMPP messages and write to the
+ * datastore.
+ */
+public class WarmupServlet extends HttpServlet {
+  private static final long serialVersionUID = 3815460912874403361L;
+
+  private static final Logger logger =
+      Logger.getLogger(WarmupServlet.class.getName());
+
+  /** Classes that the first request to use them would otherwise load. */
+  private static final List<String> CLASSES = ImmutableList.of(
+      "com.imjasonh.partychapp.stats.ChannelStats",
+      "com.imjasonh.partychapp.stats.LatencyStats",
+      "com.imjasonh.partychapp.lastmessages.LastMessages",
+      "com.imjasonh.partychapp.messagelog.MessageLog",
+      "com.imjasonh.partychapp.outbox.Outbox",
+      "com.imjasonh.partychapp.proxy.ProxyControl",
+      "com.imjasonh.partychapp.server.RateLimiter",
+      "com.imjasonh.partychapp.ppb.PlusPlusBot",
+      "org.json.JSONObject",
+      "org.apache.commons.lang.StringEscapeUtils");
+
+  /** Covers the implicit handlers, a few slash commands and broadcasts. */
+  private static final List<String> MESSAGES = ImmutableList.of(
+      "hello",
+      "/help",
+      "/alias warmup",
+      "/me warms up",
+      "/snooze 1m",
+      "/score warmup",
+      "s/cold/warm/",
+      "warmup++ for starting",
+      "instances-- for being cold",
+      "http://www.example.com/");
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    RequestTrace.start("warmup");
+    Map<String, Long> timings;
+    try {
+      timings = warmUp();
+    } finally {
+      RequestTrace.finish();
+    }
+
+    resp.setContentType("text/plain");
+    Writer writer = resp.getWriter();
+    for (Map.Entry<String, Long> timing : timings.entrySet()) {
+      writer.write(timing.getKey() + ": " + timing.getValue() + "ms\n");
+    }
+  }
+
+  /**
+   * Runs every phase, even if an earlier one failed.
+   *
+   * @return how long each phase took, in milliseconds, in the order they ran
+   * (and the total)
+   */
+  @VisibleForTesting
+  static Map<String, Long> warmUp() {
+    long startNanos = System.nanoTime();
+    Map<String, Long> timings = Maps.newLinkedHashMap();
+
+    time(timings, "config", new Runnable() {
+      @Override public void run() {
+        Configuration.persistentConfig();
+      }
+    });
+
+    time(timings, "datastore", new Runnable() {
+      @Override public void run() {
+        // Sets up JDO and the caching layers. Channel names can't have
+        // spaces, so this won't find anything.
+        Datastore datastore = Datastore.instance();
+        datastore.startRequest();
+        try {
+          datastore.getChannelByName("warmup channel");
+        } finally {
+          datastore.endRequest();
+        }
+      }
+    });
+
+    time(timings, "classes", new Runnable() {
+      @Override public void run() {
+        for (String className : CLASSES) {
+          try {
+            Class.forName(className);
+          } catch (ClassNotFoundException err) {
+            logger.warning("Couldn't load " + className);
+          }
+        }
+      }
+    });
+
+    time(timings, "dispatch", new Runnable() {
+      @Override public void run() {
+        dispatchMessages();
+      }
+    });
+
+    timings.put("total", (System.nanoTime() - startNanos) / 1000000);
+    logger.info("Warmed up: " + timings);
+    return timings;
+  }
+
+  private static void time(Map<String, Long> timings, String phase,
+      Runnable runnable) {
+    long startNanos = System.nanoTime();
+    try {
+      runnable.run();
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Warmup phase " + phase + " failed", err);
+    }
+    timings.put(phase, (System.nanoTime() - startNanos) / 1000000);
+  }
+
+  /**
+   * Dispatches each of {@link #MESSAGES} to a channel that only exists in
+   * memory, from a member who isn't added to it (adding a member saves the
+   * user).
+   *
+   * @return the command that each message was dispatched to
+   */
+  @VisibleForTesting
+  static List<Command> dispatchMessages() {
+    JID serverJID = new JID("warmup@" + Configuration.chatDomain);
+    JID userJID = new JID("warmup@example.com");
+    Channel channel = new Channel(serverJID);
+    Member member = new Member(channel, userJID.getId());
+    User user = new User(userJID.getId());
+
+    ImmutableList.Builder<Command> commands = ImmutableList.builder();
+    for (String content : MESSAGES) {
+      Message message = new Message.Builder()
+          .setContent(content)
+          .setUserJID(userJID)
+          .setServerJID(serverJID)
+          .setChannel(channel)
+          .setMember(member)
+          .setUser(user)
+          .setMessageType(MessageType.XMPP)
+          .build();
+      RequestTrace.Span dispatchSpan = RequestTrace.startSpan(Stage.DISPATCH);
+      try {
+        commands.add(Command.getCommand(message));
+      } finally {
+        dispatchSpan.end();
+      }
+    }
+    return commands.build();
+  }
+}
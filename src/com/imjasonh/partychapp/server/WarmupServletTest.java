@@ -0,0 +1,44 @@
+package com.imjasonh.partychapp.server;
+
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.server.command.Command;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class WarmupServletTest extends TestCase {
+  @Override
+  public void setUp() {
+    Datastore.setInstance(new FakeDatastore());
+  }
+
+  public void testDispatchesToHandlers() {
+    assertEquals(
+        ImmutableList.of(
+            Command.BROADCAST,
+            Command.HELP,
+            Command.ALIAS,
+            Command.ME,
+            Command.SNOOZE,
+            Command.SCORE,
+            Command.SEARCHREPLACE,
+            Command.PLUSPLUSBOT,
+            Command.PLUSPLUSBOT,
+            Command.BROADCAST),
+        WarmupServlet.dispatchMessages());
+  }
+
+  public void testTimesEachPhase() {
+    Map<String, Long> timings = WarmupServlet.warmUp();
+    assertEquals(
+        ImmutableList.of("config", "datastore", "classes", "dispatch", "total"),
+        ImmutableList.copyOf(timings.keySet()));
+    for (long millis : timings.values()) {
+      assertTrue(millis >= 0);
+    }
+  }
+}
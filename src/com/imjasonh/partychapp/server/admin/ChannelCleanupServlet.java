@@ -4,9 +4,10 @@ import com.google.common.base.Strings;
 
 import com.imjasonh.partychapp.Channel;
 import com.imjasonh.partychapp.Datastore;
-import com.imjasonh.partychapp.Member;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -43,13 +44,15 @@ public class ChannelCleanupServlet extends HttpServlet {
       int lastMessageCount = 0;
       long lastMessageSize = 0;
       
-      for (Member member : channel.getMembers()) {
-        for (String message : member.getLastMessages()) {
+      List<String> jids = channel.getMemberJIDs();
+      for (List<String> messages :
+          LastMessages.instance().getAll(channel.getName(), jids).values()) {
+        for (String message : messages) {
           lastMessageCount++;
           lastMessageSize += message.length();
         }
-        member.clearLastMessages();
       }
+      LastMessages.instance().clear(channel.getName(), jids);
       
       channel.put();
       
@@ -7,15 +7,18 @@ import com.google.common.collect.Maps;
 import com.imjasonh.partychapp.CachingDatastore;
 import com.imjasonh.partychapp.Channel;
 import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.EntityDatastore;
 import com.imjasonh.partychapp.Member;
 import com.imjasonh.partychapp.User;
 import com.imjasonh.partychapp.WrappingDatastore;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
 
 import java.io.IOException;
 import java.io.Writer;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
@@ -69,7 +72,12 @@ public class ChannelServlet extends HttpServlet {
         writer.write("\t" + requestedInvitation + "\n");
       }
 
-      writer.write("Members:\n");
+      // How much of the stored channel (and its cache entries) the members
+      // take up.
+      int membersSize = EntityDatastore.toSerializedProperty(
+          new HashSet<Member>(channel.getMembers())).getBytes().length;
+      writer.write("Members: " + channel.getMembers().size() + " (" +
+          membersSize + " bytes serialized)\n");
       
       List<Member> members = Lists.newArrayList(channel.getMembers());
       
@@ -98,6 +106,9 @@ public class ChannelServlet extends HttpServlet {
           return lastSeen2.compareTo(lastSeen1);
        }});
       
+      Map<String, List<String>> lastMessages =
+          LastMessages.instance().getAll(
+              channel.getName(), channel.getMemberJIDs());
       for (Member member : members) {
         writer.write("\t" + member.getJID() + "\n");
         writer.write("\t\tlast seen: ");
@@ -114,7 +125,7 @@ public class ChannelServlet extends HttpServlet {
         }
         
         writer.write("\t\tlast messages :\n");
-        for (String message : member.getLastMessages()) {
+        for (String message : lastMessages.get(member.getJID())) {
           writer.write("\t\t\t" + message + "\n");
         }
       }
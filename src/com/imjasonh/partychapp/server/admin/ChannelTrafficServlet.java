@@ -0,0 +1,121 @@
+package com.imjasonh.partychapp.server.admin;
+
+import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.stats.ChannelStats;
+import com.imjasonh.partychapp.stats.ChannelStats.ChannelStat;
+import com.imjasonh.partychapp.stats.TrafficSeries;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Returns recent traffic (1 minute, 5 minute and 1 hour rollups, plus 24 hours
+ * overall) as JSON, for all channels and for the top channels by bytes (or
+ * just the one given by the "channel" parameter). Since instances flush their
+ * stats every minute, the most recent minute is incomplete.
+ */
+public class ChannelTrafficServlet extends HttpServlet {
+  private static final Logger logger =
+      Logger.getLogger(ChannelTrafficServlet.class.getName());
+
+  private static final long serialVersionUID = 8123379512094316634L;
+
+  private static final int[] CHANNEL_ROLLUP_MINUTES = {1, 5, 60};
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    resp.setContentType("application/json");
+
+    try {
+      resp.getWriter().write(getJson(req).toString());
+    } catch (JSONException err) {
+      logger.log(Level.WARNING, "Could not output JSON", err);
+    }
+  }
+
+  private JSONObject getJson(HttpServletRequest req) throws JSONException {
+    if (!Configuration.persistentConfig().areChannelStatsEnabled()) {
+      return new JSONObject().put("error", "channel stats are not enabled");
+    }
+    ChannelStats stats = ChannelStats.getCurrentStats();
+    if (stats == null) {
+      return new JSONObject().put("error", "no stats found");
+    }
+
+    long now = System.currentTimeMillis();
+    JSONObject globalJson = rollupsToJson(
+        stats.getTraffic(now, ChannelStats.GLOBAL_SERIES_MINUTES), null);
+    for (int minuteCount : CHANNEL_ROLLUP_MINUTES) {
+      rollupsToJson(stats.getTraffic(now, minuteCount), globalJson);
+    }
+
+    JSONObject channelsJson = new JSONObject();
+    String channelName = req.getParameter("channel");
+    if (channelName != null) {
+      addChannel(stats, channelName, now, channelsJson);
+    } else {
+      for (ChannelStat stat : stats.getTopChannels()) {
+        addChannel(stats, stat.getChannelName(), now, channelsJson);
+      }
+    }
+
+    return new JSONObject()
+        .put("asOfMsec", now)
+        .put("global", globalJson)
+        .put("channels", channelsJson);
+  }
+
+  private static void addChannel(ChannelStats stats, String channelName,
+      long now, JSONObject channelsJson) throws JSONException {
+    JSONObject channelJson = null;
+    for (int minuteCount : CHANNEL_ROLLUP_MINUTES) {
+      TrafficSeries.Rollup rollup =
+          stats.getChannelTraffic(channelName, now, minuteCount);
+      if (rollup == null) {
+        return;
+      }
+      channelJson = rollupsToJson(rollup, channelJson);
+    }
+    channelsJson.put(channelName, channelJson);
+  }
+
+  /**
+   * Adds {@code rollup} to {@code json} (creating it if it's null), keyed by
+   * its duration (e.g. "5m" or "1h").
+   */
+  private static JSONObject rollupsToJson(
+      TrafficSeries.Rollup rollup, JSONObject json) throws JSONException {
+    if (json == null) {
+      json = new JSONObject();
+    }
+    int minuteCount = rollup.getMinuteCount();
+    String key = minuteCount % 60 == 0 ?
+        (minuteCount / 60) + "h" : minuteCount + "m";
+
+    JSONObject rollupJson = new JSONObject();
+    rollupJson.put(
+        "messagePreFanoutCount", rollup.getMessagePreFanoutCount());
+    rollupJson.put(
+        "messagePostFanoutCount", rollup.getMessagePostFanoutCount());
+    rollupJson.put("byteCount", rollup.getByteCount());
+    rollupJson.put("cpuMegaCycles", rollup.getCpuMegaCycles());
+    rollupJson.put("messagePreFanoutPerSec",
+        rollup.perSecond(rollup.getMessagePreFanoutCount()));
+    rollupJson.put("messagePostFanoutPerSec",
+        rollup.perSecond(rollup.getMessagePostFanoutCount()));
+    rollupJson.put("bytesPerSec", rollup.perSecond(rollup.getByteCount()));
+    rollupJson.put("cpuMegaCyclesPerSec",
+        rollup.perSecond(rollup.getCpuMegaCycles()));
+    json.put(key, rollupJson);
+    return json;
+  }
+}
@@ -1,12 +1,15 @@
 package com.imjasonh.partychapp.server.admin;
 
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 
 import com.imjasonh.partychapp.Configuration;
 import com.imjasonh.partychapp.Datastore;
 import com.imjasonh.partychapp.PersistentConfiguration;
 
 import java.io.IOException;
+import java.util.List;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
@@ -34,7 +37,14 @@ public class ConfigEditServlet extends HttpServlet {
   @Override
   protected void doPost(HttpServletRequest req, HttpServletResponse resp)
       throws IOException {
-    PersistentConfiguration config = Configuration.persistentConfig();
+    // Requests share a frozen snapshot of the configuration, so a fresh copy
+    // is edited and then published to all instances.
+    Datastore datastore = Datastore.instance();
+    datastore.startRequest();
+    PersistentConfiguration config = datastore.getPersistentConfig();
+    if (config == null) {
+      config = new PersistentConfiguration();
+    }
 
     config.setSessionToken(getParam(req, "session-token"));
     config.setListFeedUrl(getParam(req, "list-feed-url"));
@@ -42,12 +52,18 @@ public class ConfigEditServlet extends HttpServlet {
         Boolean.parseBoolean(req.getParameter("channel-stats-enabled")));
     config.setEmbedlyKey(getParam(req, "embedly-key"));
     config.setFractionOfMessagesToLog(Double.parseDouble(getParam(req, "fraction-log")));
+    config.setChannelMessagesPerMinute(
+        getIntParam(req, "channel-messages-per-minute"));
+    config.setSenderMessagesPerMinute(
+        getIntParam(req, "sender-messages-per-minute"));
+    config.setMigratedChannels(getListParam(req, "migrated-channels"));
+    config.setPlusPlusBlacklist(getListParam(req, "plusplus-blacklist"));
+    config.setDatastoreGetBudget(getIntParam(req, "datastore-get-budget"));
+    config.setDatastoreQueryBudget(getIntParam(req, "datastore-query-budget"));
 
-    Datastore datastore = Datastore.instance();
-
-    datastore.startRequest();
     datastore.put(config);
     datastore.endRequest();    
+    Configuration.publish(config);
 
     resp.sendRedirect("/admin/config");
   }
@@ -62,4 +78,27 @@ public class ConfigEditServlet extends HttpServlet {
     }
     return value;
   }
+
+  /**
+   * Treats missing values as 0.
+   */
+  private static int getIntParam(HttpServletRequest req, String name) {
+    String value = getParam(req, name);
+    return value != null ? Integer.parseInt(value.trim()) : 0;
+  }
+
+  /**
+   * Splits comma or whitespace-separated values, missing values are an empty
+   * list.
+   */
+  private static List<String> getListParam(
+      HttpServletRequest req, String name) {
+    String value = getParam(req, name);
+    if (value == null) {
+      return Lists.newArrayList();
+    }
+    return Lists.newArrayList(Splitter.onPattern("[,\\s]+")
+        .omitEmptyStrings()
+        .split(value.toLowerCase()));
+  }
 }
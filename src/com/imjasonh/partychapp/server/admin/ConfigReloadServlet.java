@@ -13,7 +13,7 @@ import javax.servlet.http.HttpServletResponse;
 
 /**
  * Reloads the {@link PersistentConfiguration} that is cached by
- * {@link Configuration}.
+ * {@link Configuration}, and publishes it to all instances.
  * 
  * @author mihai.parparita@gmail.com (Mihai Parparita)
  */
@@ -30,11 +30,11 @@ public class ConfigReloadServlet extends HttpServlet {
     
     // We also re-save the configuration, so that new fields that were added
     // get reflected in the datastore, so they can be edited by the admin
-    // UI.
+    // UI. The snapshot itself is shared and frozen, so a copy is saved.
     Datastore datastore = Datastore.instance();
     
     datastore.startRequest();
-    datastore.put(Configuration.persistentConfig());
+    datastore.put(new PersistentConfiguration(Configuration.persistentConfig()));
     datastore.endRequest();
     
     resp.getWriter().write("Re-saved configuration");
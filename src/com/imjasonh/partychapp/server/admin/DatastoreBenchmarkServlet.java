@@ -0,0 +1,227 @@
+package com.imjasonh.partychapp.server.admin;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.EntityDatastore;
+import com.imjasonh.partychapp.LiveDatastore;
+import com.imjasonh.partychapp.Member;
+import com.imjasonh.partychapp.User;
+import com.imjasonh.partychapp.ppb.Reason;
+import com.imjasonh.partychapp.ppb.Target;
+import com.imjasonh.partychapp.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Compares {@link LiveDatastore} (JDO) and {@link EntityDatastore} by loading
+ * what requests in a channel would load (the channel, its members' users, its
+ * targets and a target's latest reasons) through each of them, alternating
+ * between the two. Nothing is written, and the implementations are used bare
+ * (without the caching and fixing layers).
+ *
+ * Reports how long creating each implementation took (which includes setting
+ * up JDO, the first time in an instance), how long the first load took and
+ * the percentiles of the rest, and whether both loaded the same data (as
+ * mapped by {@link EntityDatastore}, so that the mappings can be checked
+ * against JDO before switching). Cold start numbers are only meaningful on
+ * an instance that hasn't used the datastore yet (e.g. right after deploying
+ * a new version).
+ *
+ * Parameters: channel (required), iterations (default 10), max_users
+ * (default 20).
+ */
+public class DatastoreBenchmarkServlet extends HttpServlet {
+  private static final long serialVersionUID = 2907416688345160178L;
+
+  private static final int REASONS_PER_TARGET = 10;
+
+  private static class Run {
+    final String name;
+    final Datastore datastore;
+    final long createMicros;
+    final LatencyHistogram latency = new LatencyHistogram();
+    long firstMicros = -1;
+    /** Summary of the first load. */
+    String loaded = "";
+
+    Run(String name, Datastore datastore, long createMicros) {
+      this.name = name;
+      this.datastore = datastore;
+      this.createMicros = createMicros;
+    }
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String channelName = req.getParameter("channel");
+    if (channelName == null) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing channel");
+      return;
+    }
+    int iterations;
+    int maxUsers;
+    try {
+      iterations = getIntParameter(req, "iterations", 10);
+      maxUsers = getIntParameter(req, "max_users", 20);
+    } catch (NumberFormatException err) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+      return;
+    }
+
+    long start = System.nanoTime();
+    Datastore jdo = new LiveDatastore();
+    Run jdoRun = new Run("jdo", jdo, (System.nanoTime() - start) / 1000);
+    start = System.nanoTime();
+    Datastore entity = new EntityDatastore();
+    Run entityRun =
+        new Run("entity", entity, (System.nanoTime() - start) / 1000);
+    List<Run> runs = ImmutableList.of(jdoRun, entityRun);
+
+    for (int i = 0; i < iterations; i++) {
+      for (Run run : runs) {
+        start = System.nanoTime();
+        Loaded loaded = load(run.datastore, channelName, maxUsers);
+        long micros = (System.nanoTime() - start) / 1000;
+        if (run.firstMicros == -1) {
+          run.firstMicros = micros;
+          run.loaded = summarize(loaded);
+        } else {
+          run.latency.record(micros);
+        }
+      }
+    }
+
+    resp.setContentType("text/plain");
+    Writer writer = resp.getWriter();
+    writer.write("Loading " + channelName + " " + iterations +
+        " times, in ms\n\n");
+    writer.write(String.format("%-8s %10s %10s %10s %10s %10s\n",
+        "", "create", "first", "p50", "p90", "max"));
+    for (Run run : runs) {
+      writer.write(String.format("%-8s %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+          run.name,
+          run.createMicros / 1000.0,
+          run.firstMicros / 1000.0,
+          run.latency.getPercentileMicros(50) / 1000.0,
+          run.latency.getPercentileMicros(90) / 1000.0,
+          run.latency.getMaxMicros() / 1000.0));
+    }
+    writer.write("\n");
+    if (jdoRun.loaded.equals(entityRun.loaded)) {
+      writer.write("Both loaded the same data:\n" + jdoRun.loaded);
+    } else {
+      for (Run run : runs) {
+        writer.write(run.name + " loaded:\n" + run.loaded + "\n");
+      }
+    }
+  }
+
+  private static int getIntParameter(HttpServletRequest req, String name,
+      int defaultValue) {
+    String value = req.getParameter(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  /** What one load got, kept so that it can be summarized afterwards. */
+  private static class Loaded {
+    Channel channel;
+    final List<User> users = Lists.newArrayList();
+    final List<Target> targets = Lists.newArrayList();
+    final List<Reason> reasons = Lists.newArrayList();
+  }
+
+  private static Loaded load(Datastore datastore, String channelName,
+      int maxUsers) {
+    Loaded loaded = new Loaded();
+    datastore.startRequest();
+    try {
+      loaded.channel = datastore.getChannelByName(channelName);
+      if (loaded.channel == null) {
+        return loaded;
+      }
+      for (Member member : loaded.channel.getMembers()) {
+        if (loaded.users.size() == maxUsers) {
+          break;
+        }
+        User user = datastore.getUserByJID(member.getJID());
+        if (user != null) {
+          loaded.users.add(user);
+        }
+      }
+      loaded.targets.addAll(datastore.getTargetsByChannel(channelName));
+      if (!loaded.targets.isEmpty()) {
+        loaded.reasons.addAll(
+            datastore.getReasons(loaded.targets.get(0), REASONS_PER_TARGET));
+      }
+      return loaded;
+    } finally {
+      datastore.endRequest();
+    }
+  }
+
+  /**
+   * @return the members' JIDs, sorted (the serialized order of the members
+   * varies). Loaded channels haven't been fixed up (see
+   * {@link Channel#fixUp}), so they might not even have a member set.
+   */
+  @SuppressWarnings("unchecked")
+  private static List<String> getMemberJids(Channel channel) {
+    Collection<Member> members = (Collection<Member>)
+        EntityDatastore.getSerialized(channel.toEntity(), "members");
+    List<String> jids = Lists.newArrayList();
+    if (members != null) {
+      for (Member member : members) {
+        jids.add(member.getJID());
+      }
+    }
+    Collections.sort(jids);
+    return jids;
+  }
+
+  /**
+   * @return everything that was loaded, as it would be stored, to compare
+   * implementations by
+   */
+  private static String summarize(Loaded loaded) {
+    if (loaded.channel == null) {
+      return "no channel";
+    }
+    Map<String, Object> channel =
+        new TreeMap<String, Object>(loaded.channel.toEntity().getProperties());
+    channel.put("members", getMemberJids(loaded.channel));
+    StringBuilder summary = new StringBuilder();
+    summary.append("channel ").append(channel).append("\n");
+    for (User user : loaded.users) {
+      summary.append("user ").append(summarize(user.toEntity())).append("\n");
+    }
+    for (Target target : loaded.targets) {
+      summary.append("target ").append(summarize(target.toEntity()))
+          .append("\n");
+    }
+    for (Reason reason : loaded.reasons) {
+      summary.append("reason ").append(summarize(reason.toEntity()))
+          .append("\n");
+    }
+    return summary.toString();
+  }
+
+  private static String summarize(Entity entity) {
+    return entity.getKey() + " " +
+        new TreeMap<String, Object>(entity.getProperties());
+  }
+}
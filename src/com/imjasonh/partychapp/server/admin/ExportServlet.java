@@ -0,0 +1,286 @@
+package com.imjasonh.partychapp.server.admin;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.messagelog.DatastoreMessageLog;
+import com.imjasonh.partychapp.messagelog.MessageLog;
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Exports the message log (or summaries of channels or users) as CSV or
+ * NDJSON, gzipped by default. Parameters:
+ *
+ *   what=messageLog|channels|users   (default messageLog)
+ *   format=csv|ndjson                (default csv)
+ *   since_ms, until_ms               message log time range (default: all)
+ *   legacy=true                      also export the legacy messageLog kind
+ *   gzip=false                       don't compress
+ *   max_rows=N                       stop after about N rows
+ *   cursor=TOKEN                     resume an export that stopped early
+ *
+ * Datastore entities are read with cursors and only ever exported whole. A
+ * request can only run for so long, so when the time or row budget runs out
+ * the export ends with a next_cursor line, whose token can be passed back as
+ * the cursor parameter to get the rest. Message log CSV exports can be read
+ * by {@link com.imjasonh.partychapp.mr.LocalMapReduce} and
+ * {@link com.imjasonh.partychapp.costsim.CostSimulator}.
+ */
+public class ExportServlet extends HttpServlet {
+  private static final long serialVersionUID = 8150452280416624787L;
+
+  private static final Logger logger =
+      Logger.getLogger(ExportServlet.class.getName());
+
+  /** Leaves time to finish the response before the request deadline. */
+  private static final long TIME_BUDGET_MSEC = 45 * 1000;
+
+  private static final int DEFAULT_MAX_ROWS = 200000;
+
+  private static final int FETCH_CHUNK_SIZE = 200;
+
+  private static final int FLUSH_ROWS = 1000;
+
+  private static final List<String> MESSAGE_LOG_COLUMNS = ImmutableList.of(
+      "from", "to", "num_recipients", "payload_size", "time_ms", "weight");
+
+  private static final List<String> CHANNEL_COLUMNS = ImmutableList.of(
+      "name", "sequence_id", "invite_only", "invitees",
+      "requested_invitations", "coalescing_window_ms", "logging_disabled");
+
+  private static final List<String> USER_COLUMNS = ImmutableList.of(
+      "jid", "channel_count", "channels", "last_seen_ms");
+
+  /**
+   * The kinds an export reads, in order. Cursor tokens are the source's name,
+   * a colon and the datastore cursor within it.
+   */
+  private enum Source {
+    MESSAGE_LOG_BATCHES,
+    MESSAGE_LOG_LEGACY,
+    CHANNELS,
+    USERS,
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    String what = getParameter(req, "what", "messageLog");
+    List<Source> sources;
+    List<String> columns;
+    if (what.equals("messageLog")) {
+      sources = "true".equals(req.getParameter("legacy")) ?
+          ImmutableList.of(Source.MESSAGE_LOG_BATCHES, Source.MESSAGE_LOG_LEGACY) :
+          ImmutableList.of(Source.MESSAGE_LOG_BATCHES);
+      columns = MESSAGE_LOG_COLUMNS;
+    } else if (what.equals("channels")) {
+      sources = ImmutableList.of(Source.CHANNELS);
+      columns = CHANNEL_COLUMNS;
+    } else if (what.equals("users")) {
+      sources = ImmutableList.of(Source.USERS);
+      columns = USER_COLUMNS;
+    } else {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown what: " + what);
+      return;
+    }
+
+    String format = getParameter(req, "format", "csv");
+    if (!format.equals("csv") && !format.equals("ndjson")) {
+      resp.sendError(
+          HttpServletResponse.SC_BAD_REQUEST, "Unknown format: " + format);
+      return;
+    }
+
+    long sinceMillis;
+    long untilMillis;
+    int maxRows;
+    try {
+      sinceMillis = Long.parseLong(getParameter(req, "since_ms", "0"));
+      untilMillis = Long.parseLong(
+          getParameter(req, "until_ms", String.valueOf(Long.MAX_VALUE)));
+      maxRows = Integer.parseInt(
+          getParameter(req, "max_rows", String.valueOf(DEFAULT_MAX_ROWS)));
+    } catch (NumberFormatException err) {
+      resp.sendError(HttpServletResponse.SC_BAD_REQUEST, err.getMessage());
+      return;
+    }
+
+    int sourceIndex = 0;
+    Cursor cursor = null;
+    String token = req.getParameter("cursor");
+    if (token != null) {
+      int colon = token.indexOf(':');
+      try {
+        sourceIndex = sources.indexOf(Source.valueOf(token.substring(0, colon)));
+        if (colon + 1 < token.length()) {
+          cursor = Cursor.fromWebSafeString(token.substring(colon + 1));
+        }
+      } catch (RuntimeException err) {
+        sourceIndex = -1;
+      }
+      if (sourceIndex == -1) {
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Bad cursor");
+        return;
+      }
+    }
+
+    boolean gzip = !"false".equals(req.getParameter("gzip"));
+    String filename = what + "." + format;
+    OutputStream stream = resp.getOutputStream();
+    if (gzip) {
+      resp.setContentType("application/x-gzip");
+      filename += ".gz";
+      stream = new GZIPOutputStream(stream);
+    } else {
+      resp.setContentType(
+          format.equals("csv") ? "text/csv" : "application/x-ndjson");
+      resp.setCharacterEncoding("UTF-8");
+    }
+    resp.setHeader(
+        "Content-Disposition", "attachment; filename=\"" + filename + "\"");
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+    ExportWriter writer = format.equals("csv") ?
+        ExportWriter.newCsvWriter(out, columns) :
+        ExportWriter.newNdjsonWriter(out, columns);
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MSEC;
+    int rows = 0;
+    String nextCursor = null;
+    for (; sourceIndex < sources.size(); sourceIndex++, cursor = null) {
+      Source source = sources.get(sourceIndex);
+      FetchOptions options =
+          FetchOptions.Builder.withChunkSize(FETCH_CHUNK_SIZE);
+      if (cursor != null) {
+        options.startCursor(cursor);
+      }
+      QueryResultIterator<Entity> entities = datastore
+          .prepare(getQuery(source, sinceMillis, untilMillis))
+          .asQueryResultIterator(options);
+      while (entities.hasNext()) {
+        int before = rows;
+        rows += writeRows(
+            writer, source, entities.next(), sinceMillis, untilMillis);
+        if (rows / FLUSH_ROWS != before / FLUSH_ROWS) {
+          out.flush();
+        }
+        if (rows >= maxRows || System.currentTimeMillis() >= deadline) {
+          if (entities.hasNext()) {
+            nextCursor = source.name() + ":" +
+                entities.getCursor().toWebSafeString();
+          } else if (sourceIndex + 1 < sources.size()) {
+            // This source is done, so resume at the start of the next one.
+            nextCursor = sources.get(sourceIndex + 1).name() + ":";
+          }
+          break;
+        }
+      }
+      if (nextCursor != null) {
+        break;
+      }
+    }
+
+    if (nextCursor != null) {
+      writer.writeNextCursor(nextCursor);
+      logger.info("Export of " + what + " stopped after " + rows +
+          " rows, next cursor " + nextCursor);
+    }
+    out.close();
+  }
+
+  private static String getParameter(HttpServletRequest req, String name,
+      String defaultValue) {
+    String value = req.getParameter(name);
+    return value == null || value.length() == 0 ? defaultValue : value;
+  }
+
+  private static Query getQuery(Source source, long sinceMillis,
+      long untilMillis) {
+    switch (source) {
+      case MESSAGE_LOG_BATCHES:
+        // A batch only holds records from the flush interval before its end,
+        // so this finds every batch that might have records in the range.
+        long endMillisLimit = untilMillis > Long.MAX_VALUE -
+            MessageLog.FLUSH_INTERVAL_MSEC ?
+                Long.MAX_VALUE : untilMillis + MessageLog.FLUSH_INTERVAL_MSEC;
+        return new Query(DatastoreMessageLog.BATCH_KIND)
+            .addFilter(DatastoreMessageLog.END_MS_PROPERTY,
+                FilterOperator.GREATER_THAN_OR_EQUAL, sinceMillis)
+            .addFilter(DatastoreMessageLog.END_MS_PROPERTY,
+                FilterOperator.LESS_THAN, endMillisLimit)
+            .addSort(DatastoreMessageLog.END_MS_PROPERTY);
+      case MESSAGE_LOG_LEGACY:
+        // Not indexed by time, so the range is applied by writeRows.
+        return new Query(DatastoreMessageLog.LEGACY_KIND);
+      case CHANNELS:
+        return new Query("Channel");
+      case USERS:
+        return new Query("User");
+      default:
+        throw new IllegalArgumentException("Unknown source " + source);
+    }
+  }
+
+  /**
+   * @return how many rows were written
+   */
+  private static int writeRows(ExportWriter writer, Source source,
+      Entity entity, long sinceMillis, long untilMillis) throws IOException {
+    switch (source) {
+      case MESSAGE_LOG_BATCHES:
+      case MESSAGE_LOG_LEGACY:
+        int rows = 0;
+        for (Record record : DatastoreMessageLog.getRecords(entity)) {
+          if (record.getTimeMillis() >= sinceMillis &&
+              record.getTimeMillis() < untilMillis) {
+            writer.writeRow(record.getFrom(), record.getTo(),
+                record.getNumRecipients(), record.getPayloadSize(),
+                record.getTimeMillis(), record.getWeight());
+            rows++;
+          }
+        }
+        return rows;
+      case CHANNELS:
+        writer.writeRow(entity.getKey().getName(),
+            entity.getProperty("sequenceId"),
+            entity.getProperty("inviteOnly"),
+            entity.getProperty("invitedIds"),
+            entity.getProperty("requestedInvitations"),
+            entity.getProperty("coalescingWindowMillis"),
+            entity.getProperty("loggingDisabled"));
+        return 1;
+      case USERS:
+        List<?> channelNames = (List<?>) entity.getProperty("channelNames");
+        Date lastSeen = (Date) entity.getProperty("lastSeen");
+        writer.writeRow(entity.getKey().getName(),
+            channelNames == null ? 0 : channelNames.size(),
+            channelNames,
+            lastSeen == null ? null : lastSeen.getTime());
+        return 1;
+      default:
+        throw new IllegalArgumentException("Unknown source " + source);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.imjasonh.partychapp.server.admin;
+
+import com.google.common.base.Joiner;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes the rows of an {@link ExportServlet} response, either as CSV (with
+ * a header line) or as newline-delimited JSON objects. If the export stopped
+ * early, the last line holds the token to resume it from: "#next_cursor,..."
+ * for CSV (which {@link com.imjasonh.partychapp.mr.CsvMessageLogInput} skips)
+ * and {"next_cursor": ...} for NDJSON.
+ */
+abstract class ExportWriter {
+  protected final Writer out;
+  protected final List<String> columns;
+
+  protected ExportWriter(Writer out, List<String> columns) {
+    this.out = out;
+    this.columns = columns;
+  }
+
+  static ExportWriter newCsvWriter(Writer out, List<String> columns)
+      throws IOException {
+    ExportWriter writer = new CsvWriter(out, columns);
+    writer.writeCsvLine(columns.toArray());
+    return writer;
+  }
+
+  static ExportWriter newNdjsonWriter(Writer out, List<String> columns) {
+    return new NdjsonWriter(out, columns);
+  }
+
+  /**
+   * @param values one per column; collections are written as
+   * space-separated lists in CSV and as arrays in NDJSON
+   */
+  abstract void writeRow(Object... values) throws IOException;
+
+  abstract void writeNextCursor(String cursor) throws IOException;
+
+  void writeCsvLine(Object... values) throws IOException {
+    for (int i = 0; i < values.length; i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      String value;
+      if (values[i] == null) {
+        value = "";
+      } else if (values[i] instanceof Collection<?>) {
+        value = Joiner.on(' ').join((Collection<?>) values[i]);
+      } else {
+        value = values[i].toString();
+      }
+      if (value.indexOf(',') != -1 || value.indexOf('"') != -1 ||
+          value.indexOf('\n') != -1) {
+        value = '"' + value.replace("\"", "\"\"") + '"';
+      }
+      out.write(value);
+    }
+    out.write('\n');
+  }
+
+  private static class CsvWriter extends ExportWriter {
+    CsvWriter(Writer out, List<String> columns) {
+      super(out, columns);
+    }
+
+    @Override void writeRow(Object... values) throws IOException {
+      writeCsvLine(values);
+    }
+
+    @Override void writeNextCursor(String cursor) throws IOException {
+      writeCsvLine("#next_cursor", cursor);
+    }
+  }
+
+  private static class NdjsonWriter extends ExportWriter {
+    NdjsonWriter(Writer out, List<String> columns) {
+      super(out, columns);
+    }
+
+    @Override void writeRow(Object... values) throws IOException {
+      JSONObject row = new JSONObject();
+      try {
+        for (int i = 0; i < values.length; i++) {
+          Object value = values[i];
+          if (value == null) {
+            value = JSONObject.NULL;
+          } else if (value instanceof Collection<?>) {
+            value = new JSONArray((Collection<?>) value);
+          }
+          row.put(columns.get(i), value);
+        }
+      } catch (JSONException err) {
+        // Only thrown for non-finite numbers, which rows don't have.
+        throw new IllegalArgumentException(err);
+      }
+      out.write(row.toString());
+      out.write('\n');
+    }
+
+    @Override void writeNextCursor(String cursor) throws IOException {
+      out.write("{\"next_cursor\":" + JSONObject.quote(cursor) + "}\n");
+    }
+  }
+}
@@ -0,0 +1,60 @@
+package com.imjasonh.partychapp.server.admin;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.messagelog.MessageLog.Record;
+import com.imjasonh.partychapp.mr.CsvMessageLogInput;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+
+public class ExportWriterTest extends TestCase {
+  private static final List<String> COLUMNS = ImmutableList.of(
+      "from", "to", "num_recipients", "payload_size", "time_ms", "weight");
+
+  public void testCsv() throws IOException {
+    StringWriter out = new StringWriter();
+    ExportWriter writer = ExportWriter.newCsvWriter(out, COLUMNS);
+    writer.writeRow("neil, the \"great\"@example.com", "waffle", 2L, 20L, 2000L,
+        0.5f);
+    writer.writeRow("jason@example.com", null, ImmutableList.of("a", "b"));
+    assertEquals(
+        "from,to,num_recipients,payload_size,time_ms,weight\n" +
+        "\"neil, the \"\"great\"\"@example.com\",waffle,2,20,2000,0.5\n" +
+        "jason@example.com,,a b\n",
+        out.toString());
+  }
+
+  public void testNdjson() throws IOException {
+    StringWriter out = new StringWriter();
+    ExportWriter writer =
+        ExportWriter.newNdjsonWriter(out, ImmutableList.of("name", "invitees"));
+    writer.writeRow("pancake", ImmutableList.of("a@example.com"));
+    writer.writeRow("waffle", null);
+    writer.writeNextCursor("CHANNELS:abc");
+    String[] lines = out.toString().split("\n");
+    assertEquals(3, lines.length);
+    assertTrue(lines[0], lines[0].contains("\"name\":\"pancake\""));
+    assertTrue(lines[0], lines[0].contains("\"invitees\":[\"a@example.com\"]"));
+    assertTrue(lines[1], lines[1].contains("\"invitees\":null"));
+    assertEquals("{\"next_cursor\":\"CHANNELS:abc\"}", lines[2]);
+  }
+
+  public void testCsvRoundTrip() throws IOException {
+    StringWriter out = new StringWriter();
+    ExportWriter writer = ExportWriter.newCsvWriter(out, COLUMNS);
+    writer.writeRow("jason@example.com", "pancake", 3L, 10L, 1000L, 0.25f);
+    writer.writeNextCursor("MESSAGE_LOG_BATCHES:abc");
+
+    List<Record> records = Lists.newArrayList(
+        new CsvMessageLogInput(new StringReader(out.toString())));
+    assertEquals(1, records.size());
+    assertEquals("pancake", records.get(0).getTo());
+    assertEquals(0.25f, records.get(0).getWeight());
+  }
+}
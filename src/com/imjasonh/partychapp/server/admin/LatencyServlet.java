@@ -0,0 +1,88 @@
+package com.imjasonh.partychapp.server.admin;
+
+import com.imjasonh.partychapp.MeteringDatastore;
+import com.imjasonh.partychapp.stats.LatencyHistogram;
+import com.imjasonh.partychapp.stats.LatencyStats;
+import com.imjasonh.partychapp.stats.RequestTrace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+import java.util.Map;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Dumps this instance's request latency percentiles (per request type, stage
+ * and command), datastore operations (as counted by
+ * {@link MeteringDatastore}) and the span trees of recent slow requests.
+ */
+public class LatencyServlet extends HttpServlet {
+  private static final long serialVersionUID = 3350912765402187753L;
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws IOException {
+    resp.setContentType("text/plain");
+    Writer writer = resp.getWriter();
+
+    if ("true".equals(req.getParameter("reset"))) {
+      LatencyStats.reset();
+      MeteringDatastore.resetMeters();
+    }
+
+    writer.write("Latencies in ms, for this instance only\n\n");
+    writeHistograms(writer, "Requests", LatencyStats.getRequestHistograms());
+    writeHistograms(writer, "Stages", LatencyStats.getStageHistograms());
+    writeHistograms(writer, "Commands", LatencyStats.getCommandHistograms());
+    writeDatastoreMeters(writer);
+
+    writer.write("Slow requests (at least " + LatencyStats.SLOW_REQUEST_MSEC +
+        " ms), most recent first:\n\n");
+    for (RequestTrace trace : LatencyStats.getSlowTraces()) {
+      writer.write(new Date(trace.getStartMillis()) + "\n");
+      writer.write(trace.toString());
+      writer.write("\n");
+    }
+  }
+
+  private static void writeDatastoreMeters(Writer writer) throws IOException {
+    writer.write("Datastore operations:\n");
+    writer.write(String.format("%-40s %10s %12s %10s %10s %10s\n",
+        "", "count", "bytes", "p50", "p90", "p99"));
+    for (Map.Entry<String, MeteringDatastore.Meter> entry :
+        MeteringDatastore.getMeters().entrySet()) {
+      MeteringDatastore.Meter meter = entry.getValue();
+      LatencyHistogram latency = meter.getLatency();
+      writer.write(String.format("%-40s %10d %12d %10.1f %10.1f %10.1f\n",
+          entry.getKey(),
+          meter.getCount(),
+          meter.getByteCount(),
+          latency.getPercentileMicros(50) / 1000.0,
+          latency.getPercentileMicros(90) / 1000.0,
+          latency.getPercentileMicros(99) / 1000.0));
+    }
+    writer.write("\n");
+  }
+
+  private static void writeHistograms(Writer writer, String title,
+      Map<?, LatencyHistogram> histograms) throws IOException {
+    writer.write(title + ":\n");
+    writer.write(String.format("%-24s %10s %10s %10s %10s %10s %10s\n",
+        "", "count", "mean", "p50", "p90", "p99", "max"));
+    for (Map.Entry<?, LatencyHistogram> entry : histograms.entrySet()) {
+      LatencyHistogram histogram = entry.getValue();
+      writer.write(String.format("%-24s %10d %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+          entry.getKey(),
+          histogram.getCount(),
+          histogram.getMeanMicros() / 1000.0,
+          histogram.getPercentileMicros(50) / 1000.0,
+          histogram.getPercentileMicros(90) / 1000.0,
+          histogram.getPercentileMicros(99) / 1000.0,
+          histogram.getMaxMicros() / 1000.0));
+    }
+    writer.write("\n");
+  }
+}
@@ -4,8 +4,10 @@ import com.google.appengine.api.quota.QuotaService;
 import com.google.appengine.api.quota.QuotaServiceFactory;
 
 import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.PersistentConfiguration;
 import com.imjasonh.partychapp.stats.ChannelStats;
 import com.imjasonh.partychapp.stats.ChannelStats.ChannelStat;
+import com.imjasonh.partychapp.stats.ChannelStats.Metric;
 
 import java.io.IOException;
 import java.io.Writer;
@@ -17,7 +19,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * Dumps top channels by bytes sent.
+ * Dumps top channels by bytes sent (or by messages or CPU, via the "by"
+ * parameter).
  * 
  * @author mihai.parparita@gmail.com (Mihai Parparita)
  */
@@ -34,7 +37,12 @@ public class TopChannelsServlet extends HttpServlet {
     resp.setContentType("text/html");
     Writer writer = resp.getWriter();
 
-    if (!Configuration.persistentConfig().areChannelStatsEnabled()) {
+    PersistentConfiguration pc = Configuration.persistentConfig();
+    writer.write("Rate limits (messages per minute): " +
+        formatLimit(pc.channelMessagesPerMinute()) + " per channel, " +
+        formatLimit(pc.senderMessagesPerMinute()) + " per sender<br>");
+
+    if (!pc.areChannelStatsEnabled()) {
       writer.write("Channel stats are not enabled");
       return;
     }
@@ -62,7 +70,33 @@ public class TopChannelsServlet extends HttpServlet {
         NUMBER_FORMAT.format(stats.getTotalMessagePostFanoutCount()) + "<br>");
     writer.write("Total CPU seconds used: " +
         CPU_FORMAT.format(
-            qs.convertMegacyclesToCpuSeconds(stats.getTotalCpuMegaCycles())));
+            qs.convertMegacyclesToCpuSeconds(stats.getTotalCpuMegaCycles())) +
+        "<br>");
+    writer.write("Total messages shed by rate limiting: " +
+        NUMBER_FORMAT.format(stats.getTotalShedMessageCount()) + "<br>");
+    writer.write("Total search-and-replace timeouts: " +
+        NUMBER_FORMAT.format(stats.getTotalRegexTimeoutCount()) + "<br>");
+
+    Metric metric = Metric.BYTES;
+    String metricParam = req.getParameter("by");
+    if (metricParam != null) {
+      try {
+        metric = Metric.valueOf(metricParam.toUpperCase());
+      } catch (IllegalArgumentException err) {
+        // Ignore, stick with bytes
+      }
+    }
+    writer.write("Top channels by:");
+    for (Metric m : Metric.values()) {
+      String name = m.name().toLowerCase();
+      writer.write(" ");
+      writer.write(m == metric ?
+          "<b>" + name + "</b>" :
+          "<a href=\"?by=" + name + "\">" + name + "</a>");
+    }
+    writer.write("<br>");
+    writer.write("Counts may be overestimated by up to the amount in " +
+        "parentheses.");
 
     writer.write("<table>");
     writer.write("<tr>");
@@ -72,9 +106,11 @@ public class TopChannelsServlet extends HttpServlet {
     writer.write("<th>Message count<br>(pre-fanout)</th>");
     writer.write("<th>Message count<br>(post-fanout)</th>");
     writer.write("<th>CPU seconds</th>");
+    writer.write("<th>Shed messages</th>");
+    writer.write("<th>Regex timeouts</th>");
     writer.write("</tr>");
     
-    for (ChannelStat stat : stats.getTopChannels()) {
+    for (ChannelStat stat : stats.getTopChannels(metric)) {
       String htmlChannelName = stat.getChannelName()
           .replaceAll("&", "&amp;")
           .replaceAll("<", "&lt;")
@@ -88,6 +124,7 @@ public class TopChannelsServlet extends HttpServlet {
       
       writer.write("<td style=\"text-align: right\">");
       writer.write(NUMBER_FORMAT.format(stat.getByteCount()));
+      writer.write(formatError(NUMBER_FORMAT, stat.getByteCountError()));
       writer.write("</td>");
       
       writer.write("<td style=\"text-align: right\">");
@@ -100,11 +137,27 @@ public class TopChannelsServlet extends HttpServlet {
             
       writer.write("<td style=\"text-align: right\">");
       writer.write(NUMBER_FORMAT.format(stat.getMessagePostFanoutCount()));
+      writer.write(formatError(
+          NUMBER_FORMAT, stat.getMessagePostFanoutCountError()));
       writer.write("</td>");
       
       writer.write("<td style=\"text-align: right\">");
       writer.write(CPU_FORMAT.format(
           qs.convertMegacyclesToCpuSeconds(stat.getCpuMegaCycles())));
+      writer.write(formatError(CPU_FORMAT,
+          qs.convertMegacyclesToCpuSeconds(stat.getCpuMegaCyclesError())));
+      writer.write("</td>");
+      
+      writer.write("<td style=\"text-align: right\">");
+      writer.write(NUMBER_FORMAT.format(stat.getShedMessageCount()));
+      writer.write(formatError(
+          NUMBER_FORMAT, stat.getShedMessageCountError()));
+      writer.write("</td>");
+      
+      writer.write("<td style=\"text-align: right\">");
+      writer.write(NUMBER_FORMAT.format(stat.getRegexTimeoutCount()));
+      writer.write(formatError(
+          NUMBER_FORMAT, stat.getRegexTimeoutCountError()));
       writer.write("</td>");
       
       writer.write("</tr>");
@@ -112,4 +165,12 @@ public class TopChannelsServlet extends HttpServlet {
     
     writer.write("</table>");
   }
+  
+  private static String formatError(NumberFormat format, double error) {
+    return error > 0 ? " (" + format.format(error) + ")" : "";
+  }
+  
+  private static String formatLimit(int limit) {
+    return limit > 0 ? NUMBER_FORMAT.format(limit) : "unlimited";
+  }
 }
@@ -0,0 +1,126 @@
+package com.imjasonh.partychapp.server.command;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Helpers for running user-supplied regular expressions (from s/// search and
+ * replace) without letting a pattern that backtracks catastrophically pin the
+ * instance's CPU. Text is wrapped in a {@link CharSequence} that throws
+ * {@link RegexTimeoutException} once a deadline has passed, which the regex
+ * engine will hit since it reads the input through {@code charAt}.
+ *
+ * Compiled patterns are kept in a small per-instance LRU cache, since people
+ * tend to repeat (or slightly tweak) their corrections.
+ */
+class BoundedRegex {
+  /** How long all of the matching for a single command may take. */
+  static final long DEFAULT_BUDGET_MILLIS = 250;
+
+  private static final int PATTERN_CACHE_SIZE = 64;
+
+  /**
+   * The clock is only read every this many characters, to keep the overhead
+   * of the wrapper low.
+   */
+  private static final int CHARS_PER_DEADLINE_CHECK = 1024;
+
+  private static final Map<String, Pattern> patternCache =
+      Collections.synchronizedMap(new LinkedHashMap<String, Pattern>(
+          PATTERN_CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override protected boolean removeEldestEntry(
+            Map.Entry<String, Pattern> eldest) {
+          return size() > PATTERN_CACHE_SIZE;
+        }
+      });
+
+  private BoundedRegex() {}
+
+  /**
+   * Thrown when matching goes past its deadline.
+   */
+  static class RegexTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    RegexTimeoutException() {
+      super("Regular expression took too long to evaluate");
+    }
+  }
+
+  /**
+   * Compiles {@code regex}, or returns the previously compiled pattern for it.
+   */
+  static Pattern compile(String regex) throws PatternSyntaxException {
+    Pattern pattern = patternCache.get(regex);
+    if (pattern == null) {
+      pattern = Pattern.compile(regex);
+      patternCache.put(regex, pattern);
+    }
+    return pattern;
+  }
+
+  @VisibleForTesting static void clearCache() {
+    patternCache.clear();
+  }
+
+  @VisibleForTesting static int cacheSize() {
+    return patternCache.size();
+  }
+
+  /**
+   * @return the time (as per {@link System#nanoTime}) that is
+   * {@code budgetMillis} from now
+   */
+  static long deadline(long budgetMillis) {
+    return System.nanoTime() + budgetMillis * 1000L * 1000L;
+  }
+
+  /**
+   * Wraps {@code text} so that matching against it throws
+   * {@link RegexTimeoutException} once {@code deadlineNanos} has passed.
+   */
+  static CharSequence withDeadline(CharSequence text, long deadlineNanos) {
+    return new DeadlineCharSequence(text, deadlineNanos);
+  }
+
+  private static class DeadlineCharSequence implements CharSequence {
+    private final CharSequence text;
+    private final long deadlineNanos;
+    private int charsUntilCheck = CHARS_PER_DEADLINE_CHECK;
+
+    DeadlineCharSequence(CharSequence text, long deadlineNanos) {
+      this.text = text;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    @Override public char charAt(int index) {
+      if (--charsUntilCheck <= 0) {
+        charsUntilCheck = CHARS_PER_DEADLINE_CHECK;
+        if (System.nanoTime() - deadlineNanos > 0) {
+          throw new RegexTimeoutException();
+        }
+      }
+      return text.charAt(index);
+    }
+
+    @Override public int length() {
+      return text.length();
+    }
+
+    @Override public CharSequence subSequence(int start, int end) {
+      return new DeadlineCharSequence(
+          text.subSequence(start, end), deadlineNanos);
+    }
+
+    @Override public String toString() {
+      return text.toString();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.imjasonh.partychapp.server.command;
+
+import com.imjasonh.partychapp.server.command.BoundedRegex.RegexTimeoutException;
+
+import junit.framework.TestCase;
+
+import java.util.regex.Pattern;
+
+public class BoundedRegexTest extends TestCase {
+  @Override
+  public void setUp() {
+    BoundedRegex.clearCache();
+  }
+
+  public void testCompileIsCached() {
+    Pattern p = BoundedRegex.compile("fo+");
+    assertSame(p, BoundedRegex.compile("fo+"));
+    assertEquals(1, BoundedRegex.cacheSize());
+  }
+
+  public void testCacheIsBounded() {
+    for (int i = 0; i < 1000; i++) {
+      BoundedRegex.compile("x{" + i + "}");
+    }
+    assertTrue(BoundedRegex.cacheSize() < 1000);
+  }
+
+  public void testMatchingWithinDeadline() {
+    long deadline = BoundedRegex.deadline(BoundedRegex.DEFAULT_BUDGET_MILLIS);
+    CharSequence text = BoundedRegex.withDeadline("foo bar foo", deadline);
+    assertEquals("baz bar baz",
+        BoundedRegex.compile("fo+").matcher(text).replaceAll("baz"));
+  }
+
+  public void testPastDeadline() {
+    CharSequence text = BoundedRegex.withDeadline(
+        "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!",
+        BoundedRegex.deadline(0));
+    try {
+      BoundedRegex.compile("(a+)+\\1b").matcher(text).find();
+      fail("expected a timeout");
+    } catch (RegexTimeoutException expected) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.imjasonh.partychapp.server.command;
+
+import com.google.common.base.Strings;
+
+import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.outbox.Outbox;
+
+/**
+ * Sets the window during which a room's broadcasts are batched into a single
+ * multi-line message (see {@link Outbox}).
+ */
+public class CoalesceHandler extends SlashCommand {
+  private static final String USAGE =
+      "Give a batching window in milliseconds between " +
+      Outbox.MIN_WINDOW_MILLIS + " and " + Outbox.MAX_WINDOW_MILLIS +
+      ", or 'off' to send every message immediately.";
+
+  public CoalesceHandler() {
+    super("coalesce", "batch");
+  }
+
+  @Override
+  void doCommand(Message msg, String argument) {
+    if (Strings.isNullOrEmpty(argument)) {
+      int current = msg.channel.getCoalescingWindowMillis();
+      msg.channel.sendDirect(
+          (current > 0 ?
+              "Messages are batched for " + current + "ms. " :
+              "Messages are not batched. ") + USAGE,
+          msg.member);
+      return;
+    }
+
+    int windowMillis;
+    if (argument.equals("off")) {
+      windowMillis = 0;
+    } else {
+      try {
+        windowMillis = Integer.parseInt(argument.replaceFirst("ms$", ""));
+      } catch (NumberFormatException err) {
+        msg.channel.sendDirect(USAGE, msg.member);
+        return;
+      }
+      if (windowMillis != 0 &&
+          (windowMillis < Outbox.MIN_WINDOW_MILLIS ||
+              windowMillis > Outbox.MAX_WINDOW_MILLIS)) {
+        msg.channel.sendDirect(USAGE, msg.member);
+        return;
+      }
+    }
+
+    // Change the setting after announcing it when turning batching on (and
+    // before when turning it off), so that the announcement is not batched.
+    if (windowMillis > 0) {
+      msg.channel.broadcastIncludingSender("_" + msg.member.getAlias() +
+          " set message batching to " + windowMillis + "ms_");
+      msg.channel.setCoalescingWindowMillis(windowMillis);
+    } else {
+      msg.channel.setCoalescingWindowMillis(windowMillis);
+      msg.channel.broadcastIncludingSender(
+          "_" + msg.member.getAlias() + " turned off message batching_");
+    }
+    msg.channel.put();
+  }
+
+  public String documentation() {
+    return "/coalesce (<milliseconds>|off) - batch bursts of messages into " +
+        "a single message";
+  }
+}
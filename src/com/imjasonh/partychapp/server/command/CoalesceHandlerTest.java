@@ -0,0 +1,55 @@
+package com.imjasonh.partychapp.server.command;
+
+import com.imjasonh.partychapp.Channel;
+import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.datastoretask.FakeQueue;
+import com.imjasonh.partychapp.outbox.InMemoryOutbox;
+import com.imjasonh.partychapp.outbox.Outbox;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+
+public class CoalesceHandlerTest extends CommandHandlerTestCase {
+  CoalesceHandler handler = new CoalesceHandler();
+
+  @Override
+  public void setUp() {
+    super.setUp();
+    Outbox.setInstance(new InMemoryOutbox(new FakeQueue()));
+  }
+
+  @Override
+  public void tearDown() {
+    super.tearDown();
+    Outbox.setInstance(null);
+  }
+
+  public void testMatches() {
+    assertTrue(handler.matches(Message.createForTests("/coalesce 500")));
+    assertTrue(handler.matches(Message.createForTests(" /batch off")));
+    assertFalse(handler.matches(Message.createForTests("/coalescent")));
+  }
+
+  public void testSetAndClear() {
+    Channel channel = FakeDatastore.fakeChannel();
+    assertEquals(0, channel.getCoalescingWindowMillis());
+
+    handler.doCommand(Message.createForTests("/coalesce 500ms"));
+    assertEquals(500, channel.getCoalescingWindowMillis());
+    assertEquals(1, xmpp.messages.size());
+    assertEquals("_neil set message batching to 500ms_",
+        xmpp.messages.get(0).getBody());
+
+    xmpp.messages.clear();
+    handler.doCommand(Message.createForTests("/coalesce off"));
+    assertEquals(0, channel.getCoalescingWindowMillis());
+    assertEquals("_neil turned off message batching_",
+        xmpp.messages.get(0).getBody());
+  }
+
+  public void testOutOfRange() {
+    Channel channel = FakeDatastore.fakeChannel();
+    handler.doCommand(Message.createForTests("/coalesce 60000"));
+    assertEquals(0, channel.getCoalescingWindowMillis());
+    assertEquals(1, xmpp.messages.size());
+    assertTrue(xmpp.messages.get(0).getBody().startsWith("Give a batching"));
+  }
+}
@@ -1,8 +1,15 @@
 package com.imjasonh.partychapp.server.command;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
 import com.imjasonh.partychapp.Message;
 import com.imjasonh.partychapp.urlinfo.ChainedUrlInfoService;
 
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 public enum Command {
@@ -40,6 +47,7 @@ public enum Command {
   SET_CARRIER(new SetCarrierHandler(), Category.HIDDEN),
   BROADCAST_SMS(new SendBroadcastSMSHandler(), Category.HIDDEN),
   BUG(new BugHandler()),
+  COALESCE(new CoalesceHandler(), Category.HIDDEN),
   
   // these have to be after the slash-commands
   SEARCHREPLACE(new SearchReplaceHandler()),
@@ -70,7 +78,85 @@ public enum Command {
     this.category = category;
   }
 
+  /** Commands that are checked before the slash commands, in order. */
+  private static final List<Command> BEFORE_SLASH_COMMANDS = Lists.newArrayList();
+
+  /** Slash commands, by the word that comes after the /. */
+  private static final Map<String, Command> SLASH_COMMANDS = Maps.newHashMap();
+
+  /** Commands that are checked after the slash commands, in order. */
+  private static final List<Command> AFTER_SLASH_COMMANDS = Lists.newArrayList();
+
+  static {
+    for (Command command : values()) {
+      if (command.commandHandler instanceof SlashCommand) {
+        for (String word :
+            ((SlashCommand) command.commandHandler).commandWords()) {
+          Preconditions.checkState(!SLASH_COMMANDS.containsKey(word),
+              "/%s is used by both %s and %s",
+              word, SLASH_COMMANDS.get(word), command);
+          SLASH_COMMANDS.put(word, command);
+        }
+      } else if (SLASH_COMMANDS.isEmpty()) {
+        BEFORE_SLASH_COMMANDS.add(command);
+      } else {
+        AFTER_SLASH_COMMANDS.add(command);
+      }
+    }
+  }
+
+  /**
+   * Finds the handler for a message. This is equivalent to checking every
+   * command in order, except that slash commands are looked up by their
+   * command word instead of trying each one's pattern.
+   */
   public static CommandHandler getCommandHandler(Message msg) {
+    return getCommand(msg).commandHandler;
+  }
+
+  /**
+   * Like {@link #getCommandHandler}, but returns the command itself.
+   */
+  public static Command getCommand(Message msg) {
+    for (Command command : BEFORE_SLASH_COMMANDS) {
+      if (command.commandHandler.matches(msg)) {
+        return command;
+      }
+    }
+
+    Command slashCommand = getSlashCommand(msg.trimmedContent());
+    if (slashCommand != null && slashCommand.commandHandler.matches(msg)) {
+      return slashCommand;
+    }
+
+    for (Command command : AFTER_SLASH_COMMANDS) {
+      if (command.commandHandler.matches(msg)) {
+        return command;
+      }
+    }
+    throw new RuntimeException("getCommandHandler should never return null, " +
+                               "but we can't find a match. msg = " + msg.toString());
+  }
+
+  private static Command getSlashCommand(String content) {
+    if (!content.startsWith("/")) {
+      return null;
+    }
+    int end = 1;
+    while (end < content.length() &&
+        !Character.isWhitespace(content.charAt(end))) {
+      end++;
+    }
+    return SLASH_COMMANDS.get(content.substring(1, end));
+  }
+
+  /**
+   * The original dispatch, which tries every command's pattern in order.
+   * Kept as a reference for tests and benchmarks of
+   * {@link #getCommandHandler}.
+   */
+  @VisibleForTesting
+  static CommandHandler getCommandHandlerSequentially(Message msg) {
     for (Command command : Command.values()) {
       if (command.commandHandler.matches(msg)) {
         return command.commandHandler;
@@ -0,0 +1,83 @@
+package com.imjasonh.partychapp.server.command;
+
+import com.google.common.collect.Lists;
+
+import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.testing.FakeDatastore;
+
+import java.util.List;
+
+/**
+ * Compares the per-message cost of {@link Command#getCommandHandler} with the
+ * original sequential dispatch. Not run as part of the tests, run it with
+ * {@code java com.imjasonh.partychapp.server.command.CommandDispatchBenchmark}
+ * (with the test classpath).
+ */
+public class CommandDispatchBenchmark {
+  private static final int WARMUP_ROUNDS = 5;
+  private static final int ROUNDS = 20;
+  private static final int MESSAGES_PER_ROUND = 20000;
+
+  private interface Dispatcher {
+    CommandHandler dispatch(Message msg);
+  }
+
+  public static void main(String[] args) {
+    FakeDatastore datastore = new FakeDatastore();
+    Datastore.setInstance(datastore);
+    datastore.setUp();
+
+    // Mostly chat, which is the worst case for sequential dispatch.
+    List<String> contents = Lists.newArrayList();
+    for (int i = 0; i < 8; i++) {
+      contents.add("just a regular line of chat number " + i);
+    }
+    contents.addAll(CommandTest.MESSAGES);
+
+    Dispatcher sequential = new Dispatcher() {
+      public CommandHandler dispatch(Message msg) {
+        return Command.getCommandHandlerSequentially(msg);
+      }
+    };
+    Dispatcher indexed = new Dispatcher() {
+      public CommandHandler dispatch(Message msg) {
+        return Command.getCommandHandler(msg);
+      }
+    };
+
+    List<String> chat = contents.subList(0, 8);
+    report("sequential, chat only", sequential, chat);
+    report("indexed, chat only", indexed, chat);
+    report("sequential, mixed", sequential, contents);
+    report("indexed, mixed", indexed, contents);
+  }
+
+  private static void report(
+      String name, Dispatcher dispatcher, List<String> contents) {
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      run(dispatcher, contents);
+    }
+    long totalNanos = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      totalNanos += run(dispatcher, contents);
+    }
+    System.out.println(String.format("%-25s %8.0f ns/message", name,
+        (double) totalNanos / (ROUNDS * MESSAGES_PER_ROUND)));
+  }
+
+  private static long run(Dispatcher dispatcher, List<String> contents) {
+    // Messages are created ahead of time so that only dispatch is measured,
+    // and fresh ones are used each round so that no cached matches are used.
+    List<Message> messages = Lists.newArrayListWithExpectedSize(
+        MESSAGES_PER_ROUND);
+    for (int i = 0; i < MESSAGES_PER_ROUND; i++) {
+      messages.add(Message.createForTests(contents.get(i % contents.size())));
+    }
+    long start = System.nanoTime();
+    for (Message msg : messages) {
+      dispatcher.dispatch(msg);
+    }
+    return System.nanoTime() - start;
+  }
+}
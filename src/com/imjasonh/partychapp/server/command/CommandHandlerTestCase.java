@@ -3,6 +3,8 @@ package com.imjasonh.partychapp.server.command;
 import junit.framework.TestCase;
 
 import com.imjasonh.partychapp.Datastore;
+import com.imjasonh.partychapp.lastmessages.InMemoryLastMessages;
+import com.imjasonh.partychapp.lastmessages.LastMessages;
 import com.imjasonh.partychapp.server.SendUtil;
 import com.imjasonh.partychapp.testing.FakeDatastore;
 import com.imjasonh.partychapp.testing.MockXMPPService;
@@ -16,5 +18,11 @@ public abstract class CommandHandlerTestCase extends TestCase {
     Datastore.setInstance(datastore);
     datastore.setUp();
     SendUtil.setXMPP(xmpp);
+    LastMessages.setInstance(new InMemoryLastMessages());
+  }
+
+  @Override
+  public void tearDown() {
+    LastMessages.setInstance(null);
   }
 }
@@ -0,0 +1,86 @@
+package com.imjasonh.partychapp.server.command;
+
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.Message.MessageType;
+
+import java.util.List;
+
+public class CommandTest extends CommandHandlerTestCase {
+  static final List<String> MESSAGES = ImmutableList.of(
+      "hello everyone",
+      "   hello with whitespace   ",
+      "/me waves",
+      "  /me waves with whitespace  ",
+      "/me",
+      "/mewaves",
+      "/me\nmultiple lines",
+      "/help",
+      "/commands",
+      "/leave",
+      "/part now",
+      "/alias neilio",
+      "/nick neilio",
+      "/score foo",
+      "/score",
+      "/score  foo++",
+      "/graph-scores",
+      "/toggle_logging",
+      "/coalesce 500",
+      "/unknown command",
+      "/usr/bin is where it's at",
+      "/",
+      "s/foo/bar/",
+      "jason: s/foo/bar/g",
+      "this is not s/a search",
+      "pancakes++",
+      "c++ is hard",
+      "x-- because reasons",
+      "-- a dash",
+      "a+b");
+
+  public void testMatchesSequentialDispatch() {
+    for (String content : MESSAGES) {
+      Message msg = Message.createForTests(content);
+      assertSame(content,
+          Command.getCommandHandlerSequentially(
+              Message.createForTests(content)),
+          Command.getCommandHandler(msg));
+    }
+  }
+
+  public void testImplicitCommandsComeFirst() {
+    Message msg = Message.createForTests("/me waves", MessageType.EMAIL);
+    assertSame(Command.INCOMING_EMAIL.commandHandler,
+        Command.getCommandHandler(msg));
+
+    msg = Message.createForTests("/me waves");
+    msg.member = null;
+    assertSame(Command.JOIN.commandHandler, Command.getCommandHandler(msg));
+  }
+
+  public void testSlashCommandLookup() {
+    assertSame(Command.ME.commandHandler,
+        Command.getCommandHandler(Message.createForTests("/me waves")));
+    assertSame(Command.LIST.commandHandler,
+        Command.getCommandHandler(Message.createForTests("/who")));
+    assertSame(Command.SCORE.commandHandler,
+        Command.getCommandHandler(Message.createForTests("/score foo")));
+    assertSame(Command.BROADCAST.commandHandler,
+        Command.getCommandHandler(Message.createForTests("/score")));
+    assertSame(Command.BROADCAST.commandHandler,
+        Command.getCommandHandler(Message.createForTests("/nosuchcommand")));
+  }
+
+  public void testMatchIsCached() {
+    Message msg = Message.createForTests("/score foo");
+    CommandHandler handler = Command.getCommandHandler(msg);
+    assertNotNull(msg.getMatch(handler));
+    assertEquals("foo", msg.getMatch(handler).group(1));
+
+    handler.doCommand(msg);
+    assertEquals(1, xmpp.messages.size());
+    assertEquals("no scores found", xmpp.messages.get(0).getBody());
+  }
+}
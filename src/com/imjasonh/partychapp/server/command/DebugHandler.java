@@ -19,15 +19,16 @@ public class DebugHandler extends SlashCommand {
     Option option = Option.fromString(argument);
     
     if (option != null) {
-      msg.member.debugOptions().add(option);
+      msg.member.enableDebugOption(option);
       msg.channel.put();
       reply = "enabling " + argument + " for you";
     } else if (argument.equals("clear")) {
-      msg.member.debugOptions().clear();
+      msg.member.clearDebugOptions();
       msg.channel.put();
       reply = "clearing all debug options";
     } else {
-      reply = "Your current debug options are: " + msg.member.debugOptions();
+      reply = "Your current debug options are: " +
+          msg.member.getDebugOptions();
     }
     msg.channel.sendDirect(reply, msg.member);
   }
@@ -18,7 +18,7 @@ public class DebugHandlerTest extends CommandHandlerTestCase {
   public void testSequenceIds() {
     handler.doCommand(Message.createForTests("/debug sequenceIds"));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.SEQUENCE_IDS));
+        .isDebugOptionEnabled(Option.SEQUENCE_IDS));
     
     assertEquals(1, xmpp.messages.size());
     assertEquals("enabling sequenceIds for you",
@@ -28,7 +28,7 @@ public class DebugHandlerTest extends CommandHandlerTestCase {
   public void testErrorNotifications() {
     handler.doCommand(Message.createForTests("/debug errorNotifications"));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.ERROR_NOTIFICATIONS));
+        .isDebugOptionEnabled(Option.ERROR_NOTIFICATIONS));
     
     assertEquals(1, xmpp.messages.size());
     assertEquals("enabling errorNotifications for you",
@@ -38,10 +38,10 @@ public class DebugHandlerTest extends CommandHandlerTestCase {
   public void testClear() {
     handler.doCommand(Message.createForTests("/debug sequenceIds"));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.SEQUENCE_IDS));
+        .isDebugOptionEnabled(Option.SEQUENCE_IDS));
     handler.doCommand(Message.createForTests(" /debug clear"));
     assertFalse(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.SEQUENCE_IDS));
+        .isDebugOptionEnabled(Option.SEQUENCE_IDS));
     
     assertEquals(2, xmpp.messages.size());
     assertEquals("enabling sequenceIds for you",
@@ -53,15 +53,15 @@ public class DebugHandlerTest extends CommandHandlerTestCase {
   public void testList() {
     handler.doCommand(Message.createForTests("/debug sequenceIds"));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.SEQUENCE_IDS));
+        .isDebugOptionEnabled(Option.SEQUENCE_IDS));
     handler.doCommand(Message.createForTests("/debug errorNotifications"));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.ERROR_NOTIFICATIONS));
+        .isDebugOptionEnabled(Option.ERROR_NOTIFICATIONS));
     handler.doCommand(Message.createForTests(" /debug"));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.SEQUENCE_IDS));
+        .isDebugOptionEnabled(Option.SEQUENCE_IDS));
     assertTrue(FakeDatastore.fakeChannel().getMemberByAlias("neil")
-        .debugOptions().isEnabled(Option.ERROR_NOTIFICATIONS));
+        .isDebugOptionEnabled(Option.ERROR_NOTIFICATIONS));
     
     assertEquals(3, xmpp.messages.size());
     assertEquals("enabling sequenceIds for you",
@@ -22,7 +22,8 @@ public class InviteHandlerTest extends CommandHandlerTestCase {
   
   public void testInviteAndEmailIsSent() {
     handler.doCommand(Message.createForTests("/invite dan@gmail.com"));
-    List<String> invited = FakeDatastore.fakeChannel().getInvitees();
+    List<String> invited =
+        Lists.newArrayList(FakeDatastore.fakeChannel().getInvitees());
     assertEquals(1, invited.size());
     assertEquals("dan@gmail.com", invited.get(0));
     
@@ -51,7 +52,8 @@ public class InviteHandlerTest extends CommandHandlerTestCase {
 
   public void testMultipleInvitees() {
     handler.doCommand(Message.createForTests("/invite dan@gmail.com, roro@gmail.com"));
-    List<String> invited = FakeDatastore.fakeChannel().getInvitees();
+    List<String> invited =
+        Lists.newArrayList(FakeDatastore.fakeChannel().getInvitees());
     assertEquals(2, invited.size());
     assertEquals("dan@gmail.com", invited.get(0));
     assertEquals("roro@gmail.com", invited.get(1));
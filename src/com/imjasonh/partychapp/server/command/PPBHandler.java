@@ -1,11 +1,9 @@
 package com.imjasonh.partychapp.server.command;
 
-import com.google.common.base.Joiner;
-import com.google.common.collect.Lists;
-
 import java.util.List;
 import com.imjasonh.partychapp.Message;
 import com.imjasonh.partychapp.ppb.PlusPlusBot;
+import com.imjasonh.partychapp.ppb.PlusPlusBot.Token;
 import com.imjasonh.partychapp.ppb.Reason;
 
 public class PPBHandler implements CommandHandler {
@@ -15,41 +13,27 @@ public class PPBHandler implements CommandHandler {
       Message msg, String prefix, String suffix) {
     msg.member.addToLastMessages(msg.content);
     msg.channel.put();
-    List<Reason> reasons = ppb.extractReasons(msg);
+    List<Token> tokens = PlusPlusBot.tokenize(msg.content);
+    List<Reason> reasons = ppb.extractReasons(msg, tokens);
 
     // for "whee x++ and y-- yay" we want to change it into
     // "whee x++ [woot! now at 1] and y-- [ouch! now at -1] yay"
-    List<String> strList =
-        Lists.newArrayListWithCapacity(reasons.size() * 3 + 3);
-    strList.add(prefix);
-    strList.add(msg.content);
+    StringBuilder out = new StringBuilder(prefix);
     int nextStartPos = 0;
-    final String lcaseContent = msg.content.toLowerCase();
-    for (Reason reason: reasons) {
-      String searchString =
-          reason.target().name() + reason.action().toString();
-      int foundPos = lcaseContent.indexOf(searchString, nextStartPos);
-      
-      // zap the old "rest of the string" since we're going to do some cutting
-      strList.remove(strList.size() - 1);
-      
-      // add the part between the last reason and this one:
-      strList.add(msg.content.substring(nextStartPos, foundPos));
-      
-      // add the "x++" part
-      nextStartPos = foundPos + searchString.length();
-      strList.add(msg.content.substring(foundPos, nextStartPos));
+    for (int i = 0; i < reasons.size(); i++) {
+      // add the part between the last reason and this one, and the "x++"
+      Token token = tokens.get(i);
+      out.append(msg.content, nextStartPos, token.end());
+      nextStartPos = token.end();
 
       // add the "[woot x->1]" part
-      strList.add(" ");
-      strList.add(reason.wootString());
-      
-      // add the rest of the string
-      strList.add(msg.content.substring(nextStartPos));      
+      out.append(' ').append(reasons.get(i).wootString());
     }
-    strList.add(suffix);
+    // add the rest of the string
+    out.append(msg.content, nextStartPos, msg.content.length());
+    out.append(suffix);
     
-    String outString = Joiner.on("").join(strList);
+    String outString = out.toString();
 
     if (reasons.isEmpty()) {
       msg.channel.broadcast(outString, msg.member);    
@@ -90,7 +74,12 @@ public class PPBHandler implements CommandHandler {
   }
 
   public boolean matches(Message msg) {
-    return ppb.matches(msg.content);
+    String content = msg.trimmedContent();
+    // Cheap check first, most messages don't have any ++ or --.
+    if (content.indexOf("++") == -1 && content.indexOf("--") == -1) {
+      return false;
+    }
+    return ppb.matches(content);
   }
 
   public String documentation() {
@@ -52,4 +52,9 @@ public class PPBHandlerTest extends CommandHandlerTestCase {
 
     assertFalse(hasJID("neil@gmail.com"));
   }
+
+  public void testBlacklistedTokenBeforeScoredOne() {
+    assertResponse("c++ is nicer than Java-- really",
+                   "[neil] c++ is nicer than Java-- [ouch! now at -1] really");
+  }
 }
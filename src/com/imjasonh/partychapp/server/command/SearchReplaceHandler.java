@@ -5,14 +5,17 @@ import com.google.common.collect.Lists;
 import com.imjasonh.partychapp.Member;
 import com.imjasonh.partychapp.Message;
 import com.imjasonh.partychapp.ppb.PlusPlusBot;
+import com.imjasonh.partychapp.server.command.BoundedRegex.RegexTimeoutException;
+import com.imjasonh.partychapp.stats.ChannelStats;
 
 import java.util.List;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 public class SearchReplaceHandler implements CommandHandler {
-  private static Pattern pattern =
+  private static final Pattern pattern =
       Pattern.compile("^(" + AliasHandler.ALIAS_REGEX + ": )?s/([^/]+)/([^/]*)(/?)(g?)$");
 
   PlusPlusBot ppb = new PlusPlusBot();
@@ -40,8 +43,8 @@ public class SearchReplaceHandler implements CommandHandler {
     boolean isSuggestion = false;
     String correctionPrefix = msg.member.getAlias() + " meant _";
     
-    Matcher m = pattern.matcher(msg.content.trim());
-    if (!m.matches()) {
+    MatchResult m = getMatch(msg);
+    if (m == null) {
       sendNoMatchError(msg);
       return;
     }
@@ -74,28 +77,42 @@ public class SearchReplaceHandler implements CommandHandler {
     String messageToChange = null;
     Pattern p;
     try {
-      p = Pattern.compile(toReplace);
+      p = BoundedRegex.compile(toReplace);
     } catch (PatternSyntaxException err) {
       msg.channel.sendDirect("malformed search pattern", msg.member);
       return;
     }
-    for (String curr : lastMessages) {
-      if (p.matcher(curr).find()) {
-        messageToChange = curr;
-        break;
+
+    // User-supplied patterns may backtrack catastrophically, so all of the
+    // matching for this command shares a time budget.
+    long deadline = BoundedRegex.deadline(BoundedRegex.DEFAULT_BUDGET_MILLIS);
+    String after = null;
+    try {
+      for (String curr : lastMessages) {
+        if (p.matcher(BoundedRegex.withDeadline(curr, deadline)).find()) {
+          messageToChange = curr;
+          break;
+        }
       }
-    }
-    if (messageToChange == null) {
-      sendNoMatchError(msg);
+      if (messageToChange == null) {
+        sendNoMatchError(msg);
+        return;
+      }
+
+      Matcher replacer =
+          p.matcher(BoundedRegex.withDeadline(messageToChange, deadline));
+      if (replaceAll) {
+        after = replacer.replaceAll(replacement);
+      } else {
+        after = replacer.replaceFirst(replacement);
+      }
+    } catch (RegexTimeoutException err) {
+      ChannelStats.recordRegexTimeout(msg.channel.getName());
+      msg.channel.sendDirect(
+          "Sorry, that search pattern took too long to run. Try a simpler one.",
+          msg.member);
       return;
     }
-    
-    String after = null;
-    if (replaceAll) {
-      after = messageToChange.replaceAll(toReplace, replacement);
-    } else {
-      after = messageToChange.replaceFirst(toReplace, replacement);
-    }
 
     if (!isSuggestion) {
       Message originalMsg =
@@ -122,7 +139,25 @@ public class SearchReplaceHandler implements CommandHandler {
   }
 
   public boolean matches(Message msg) {
-    return pattern.matcher(msg.content.trim()).matches();
+    return getMatch(msg) != null;
+  }
+
+  private MatchResult getMatch(Message msg) {
+    MatchResult cached = msg.getMatch(this);
+    if (cached != null) {
+      return cached;
+    }
+    String content = msg.trimmedContent();
+    // Cheap check first, most messages aren't search-and-replace.
+    if (content.indexOf("s/") == -1) {
+      return null;
+    }
+    Matcher m = pattern.matcher(content);
+    if (!m.matches()) {
+      return null;
+    }
+    msg.setMatch(this, m);
+    return m;
   }
 
 }
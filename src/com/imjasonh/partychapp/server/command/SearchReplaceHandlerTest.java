@@ -219,4 +219,20 @@ public class SearchReplaceHandlerTest extends CommandHandlerTestCase {
         "room's page at http://partychapp.appspot.com/room/pancake",
         xmpp.messages.get(1).getBody());
   }
-}
\ No newline at end of file
+
+  public void testCatastrophicBacktrackingTimesOut() {
+    bcast.doCommand(Message.createForTests(
+        "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa!"));
+    xmpp.messages.clear();
+    long start = System.currentTimeMillis();
+    // The backreference keeps newer JVMs from optimizing the backtracking away.
+    handler.doCommand(Message.createForTests("s/(a+)+\\1b/c/"));
+    assertTrue(System.currentTimeMillis() - start <
+        BoundedRegex.DEFAULT_BUDGET_MILLIS * 10);
+    assertEquals(2, xmpp.messages.size());
+    assertEquals("[neil] s/(a+)+\\1b/c/", xmpp.messages.get(0).getBody());
+    assertEquals(
+        "Sorry, that search pattern took too long to run. Try a simpler one.",
+        xmpp.messages.get(1).getBody());
+  }
+}
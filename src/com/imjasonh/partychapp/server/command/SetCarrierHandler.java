@@ -1,6 +1,6 @@
 package com.imjasonh.partychapp.server.command;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableMap;
 
 import java.util.Map;
 
@@ -9,12 +9,13 @@ import com.imjasonh.partychapp.User;
 
 public class SetCarrierHandler extends SlashCommand {
 
-  public static Map<String, User.Carrier> supportedCarriers;
+  public static final Map<String, User.Carrier> supportedCarriers;
   static {
-    supportedCarriers = Maps.newHashMap();
+    ImmutableMap.Builder<String, User.Carrier> builder = ImmutableMap.builder();
     for (User.Carrier c : User.Carrier.values()) {
-      supportedCarriers.put(c.shortName, c);
+      builder.put(c.shortName, c);
     }
+    supportedCarriers = builder.build();
   }
   
   public SetCarrierHandler() {
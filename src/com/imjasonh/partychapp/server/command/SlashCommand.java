@@ -1,5 +1,10 @@
 package com.imjasonh.partychapp.server.command;
 
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.MatchResult;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,18 +18,44 @@ import com.imjasonh.partychapp.Message;
 abstract class SlashCommand implements CommandHandler {
 
   private final Pattern pattern;
+  private final List<String> commandWords = Lists.newArrayList();
 
   SlashCommand(String name, String... otherNames) {
     StringBuilder sb = new StringBuilder("^/(?:");
     sb.append(name);
+    commandWords.add(commandWord(name));
     for (String otherName : otherNames) {
       sb.append("|").append(otherName);
+      commandWords.add(commandWord(otherName));
     }
     sb.append(")(\\s.*)?$");
 
     this.pattern = Pattern.compile(sb.toString());
   }
 
+  /**
+   * @return the words (what comes after the /) that this command can be
+   * invoked with, used by {@link Command} to find the command without trying
+   * every pattern
+   */
+  List<String> commandWords() {
+    return Collections.unmodifiableList(commandWords);
+  }
+
+  /**
+   * Names may be regular expressions (e.g. for /score), in which case the
+   * command word is the literal prefix.
+   */
+  private static String commandWord(String name) {
+    int end = 0;
+    while (end < name.length() &&
+        (Character.isLetterOrDigit(name.charAt(end)) ||
+            name.charAt(end) == '-' || name.charAt(end) == '_')) {
+      end++;
+    }
+    return name.substring(0, end);
+  }
+
   /**
    * Subclass do the actual work here, including validating argument
    * as needed.
@@ -32,7 +63,7 @@ abstract class SlashCommand implements CommandHandler {
   abstract void doCommand(Message msg, String argument);
 
   public void doCommand(Message msg) {
-    Matcher matcher = getMatcher(msg);
+    MatchResult matcher = getMatcher(msg);
     String argument = matcher.group(1);
     if (argument != null) {
       argument = argument.trim();
@@ -48,8 +79,16 @@ abstract class SlashCommand implements CommandHandler {
    * @return the matcher for reading any groups off of, or null if there was no
    *         match.
    */
-  private Matcher getMatcher(Message msg) {
-    Matcher m = pattern.matcher(msg.content.trim());
-    return m.matches() ? m : null;
+  private MatchResult getMatcher(Message msg) {
+    MatchResult cached = msg.getMatch(this);
+    if (cached != null) {
+      return cached;
+    }
+    Matcher m = pattern.matcher(msg.trimmedContent());
+    if (!m.matches()) {
+      return null;
+    }
+    msg.setMatch(this, m);
+    return m;
   }
 }
@@ -1,13 +1,22 @@
 package com.imjasonh.partychapp.server.command;
 
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.datastoretask.DatastoreTask;
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
 
 public class SnoozeHandler extends SlashCommand {
+  private static final Logger logger =
+      Logger.getLogger(SnoozeHandler.class.getName());
+
   private static final String DETAILED_USAGE = 
       "You must specify a number and a unit of time to snooze " +
       "for -- for example, 20s for 20 seconds, 45m for 45 minutes, 1h for 1 " +
@@ -17,13 +26,28 @@ public class SnoozeHandler extends SlashCommand {
     super("snooze");
   }
   
-  private Long timeInMillisForTesting = null;
-  private DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG);
+  // Handlers are shared by concurrent requests, so the only state they keep
+  // is set up by tests.
+  private volatile Long timeInMillisForTesting = null;
   
   public void setTimeForTesting(long timeInMillis) {
     this.timeInMillisForTesting = timeInMillis;
   }
   
+  // Lazy since tests don't have task queues.
+  private volatile TestableQueue queue = null;
+
+  @VisibleForTesting void setQueue(TestableQueue queue) {
+    this.queue = queue;
+  }
+
+  private TestableQueue getQueue() {
+    if (queue == null) {
+      queue = new TestableQueue(QueueFactory.getDefaultQueue());
+    }
+    return queue;
+  }
+
   public long now() {
     if (timeInMillisForTesting == null) {
       return System.currentTimeMillis();
@@ -84,12 +108,31 @@ public class SnoozeHandler extends SlashCommand {
 
     msg.member.setSnoozeUntil(new Date(now() + seconds * 1000L));
     msg.channel.put();
+    scheduleWakeUp(msg);
     String reply = "Okay, snoozing for " + num + " " + unitToPrint +
         " (" + seconds + " seconds), until " +
-        df.format(msg.member.getSnoozeUntil());
+        DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.LONG)
+            .format(msg.member.getSnoozeUntil());
     msg.channel.sendDirect(reply, msg.member);
   }
 
+  /**
+   * Makes sure the member is woken up on time even if nobody else talks in the
+   * channel before then.
+   */
+  private void scheduleWakeUp(Message msg) {
+    try {
+      getQueue().add(new TestableQueue.Options(
+              "/tasks/" + DatastoreTask.Action.WAKE_SNOOZERS.name())
+          .param("key", msg.channel.getName())
+          .etaMillis(msg.member.getSnoozeUntil().getTime()));
+    } catch (RuntimeException err) {
+      // Not fatal, the member will be woken up by the next message instead.
+      logger.log(Level.WARNING,
+          "Could not schedule wake up for " + msg.channel.getName(), err);
+    }
+  }
+
   public String documentation() {
     return "/snooze (20s|45m|1h|2d) - snooze for a specified amount of time in seconds, minutes, hours, or days.";
   }
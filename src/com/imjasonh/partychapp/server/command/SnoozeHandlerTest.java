@@ -5,15 +5,21 @@ import java.text.ParseException;
 import java.util.Date;
 import java.util.Locale;
 
+import com.imjasonh.partychapp.Channel;
 import com.imjasonh.partychapp.Message;
+import com.imjasonh.partychapp.Member.SnoozeStatus;
+import com.imjasonh.partychapp.datastoretask.FakeQueue;
+import com.imjasonh.partychapp.datastoretask.TestableQueue;
 import com.imjasonh.partychapp.testing.FakeDatastore;
 
 public class SnoozeHandlerTest extends CommandHandlerTestCase {
   SnoozeHandler handler = new SnoozeHandler();
+  FakeQueue queue = new FakeQueue();
   
   @Override
   public void setUp() {
     super.setUp();
+    handler.setQueue(queue);
     // 10/21/2009 at 10:21:10 am EDT
     handler.setTimeForTesting(1256134870830L);
   }
@@ -59,6 +65,33 @@ public class SnoozeHandlerTest extends CommandHandlerTestCase {
                      "October 21, 2109 10:21:10 AM EDT");
   }
   
+  public void testSchedulesWakeUp() {
+    snoozeAndCheckReply("/snooze 60s", "Okay, snoozing for 60 seconds");
+    assertEquals(1, queue.getTasks().size());
+    TestableQueue.Options task = queue.getTasks().get(0);
+    assertEquals("/tasks/WAKE_SNOOZERS", task.url());
+    assertEquals("[key=pancake]", task.params().toString());
+    assertEquals(1256134870830L + 60 * 1000L, task.etaMillis());
+  }
+  
+  public void testBadInputDoesNotScheduleWakeUp() {
+    snoozeAndCheckReply("/snooze 10mm", "You must specify a number");
+    assertTrue(queue.getTasks().isEmpty());
+  }
+  
+  public void testAwakenSnoozersWithoutMessage() {
+    // The testing time is in the past, so the snooze has already expired.
+    snoozeAndCheckReply("/snooze 60s", "Okay, snoozing for 60 seconds");
+    xmpp.messages.clear();
+    Channel channel = FakeDatastore.fakeChannel();
+    channel.awakenSnoozers();
+    assertEquals(SnoozeStatus.NOT_SNOOZING,
+        channel.getMemberByAlias("neil").getSnoozeStatus());
+    assertEquals(1, xmpp.messages.size());
+    assertEquals("_neil is no longer snoozing_",
+        xmpp.messages.get(0).getBody());
+  }
+  
   private void snoozeAndCheckReply(String cmd, String reply) {
     xmpp.messages.clear();
     handler.doCommand(Message.createForTests(cmd));
@@ -19,7 +19,7 @@ public class StatusHandler extends SlashCommand {
     if (u.carrier() != null) {
       reply += " Your carrier is " + u.carrier().shortName + ".";
     }
-    if (msg.member.debugOptions().isEnabled(Option.SEQUENCE_IDS)) {
+    if (msg.member.isDebugOptionEnabled(Option.SEQUENCE_IDS)) {
       reply += "\nCurrent sequence ID: " + msg.channel.getSequenceId();
     }
     msg.channel.sendDirect(reply, msg.member);
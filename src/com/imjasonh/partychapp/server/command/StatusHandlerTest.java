@@ -35,11 +35,11 @@ public class StatusHandlerTest extends CommandHandlerTestCase {
   
   public void testSequenceId() {
     Member member = FakeDatastore.fakeChannel().getMemberByAlias("neil");
-    member.debugOptions().add(DebuggingOptions.Option.SEQUENCE_IDS);
+    member.enableDebugOption(DebuggingOptions.Option.SEQUENCE_IDS);
     handler.doCommand(Message.createForTests("/status"));
     assertEquals(1, xmpp.messages.size());
     assertEquals("You are currently in 'pancake' as 'neil.'\n" +
         "Current sequence ID: 0", xmpp.messages.get(0).getBody());
-    member.debugOptions().clear();
+    member.clearDebugOptions();
   }  
 }
\ No newline at end of file
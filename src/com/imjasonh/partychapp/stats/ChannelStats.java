@@ -1,31 +1,44 @@
 package com.imjasonh.partychapp.stats;
 
-import com.google.appengine.api.memcache.jsr107cache.GCacheFactory;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.xmpp.JID;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import com.imjasonh.partychapp.Configuration;
 
-import net.sf.jsr107cache.Cache;
-import net.sf.jsr107cache.CacheException;
-import net.sf.jsr107cache.CacheManager;
-
 import java.io.Serializable;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 /**
- * In-memory (via memcached) stats about channels. Not persisted or sychronized 
- * in any way, stats may go away at any point and concurrent requests may result
- * in data loss.
+ * In-memory (via memcached) stats about channels. Not persisted, stats may go
+ * away at any point. Each instance accumulates stats locally and flushes them
+ * every {@link #FLUSH_INTERVAL_MSEC} into one of {@link #SHARD_COUNT} memcache
+ * entries (with compare-and-set), so recording stats doesn't need memcache for
+ * most requests. Stats that an instance hasn't flushed yet are lost if it
+ * shuts down.
+ * Per-channel stats are only kept for the channels that are heaviest by bytes,
+ * messages, CPU, shed messages or regex timeouts (tracked with
+ * {@link SpaceSaving} summaries, one per {@link Metric}), so the size of
+ * the stats doesn't depend on how many channels are active. The estimates for
+ * those channels have bounded errors, the totals are exact.
+ * Recent traffic is also kept as per-minute {@link TrafficSeries}, for the
+ * last day overall and for the last hour for channels tracked by bytes.
  * Usage:
  * 1. Install ChannelStatsFilter as a servlet filter in front of all servlets
  * 2. Call ChannelStats.record* static methods to record per-channel statistics
@@ -41,6 +54,13 @@ public class ChannelStats implements Serializable {
     private long messagePreFanoutCount = 0;
     private long messagePostFanoutCount = 0;
     private long cpuMegaCycles = 0;
+    private long shedMessageCount = 0;
+    private long regexTimeoutCount = 0;
+    private long byteCountError = 0;
+    private long messagePostFanoutCountError = 0;
+    private long cpuMegaCyclesError = 0;
+    private long shedMessageCountError = 0;
+    private long regexTimeoutCountError = 0;
     
     private ChannelStat(String channelName) {
       this.channelName = channelName;
@@ -69,6 +89,38 @@ public class ChannelStats implements Serializable {
     public long getCpuMegaCycles() {
       return cpuMegaCycles;
     }
+    
+    public long getShedMessageCount() {
+      return shedMessageCount;
+    }
+    
+    public long getRegexTimeoutCount() {
+      return regexTimeoutCount;
+    }
+    
+    /**
+     * @return how much {@link #getByteCount} may be overestimated by (only set
+     * for stats returned by {@link ChannelStats#getTopChannels})
+     */
+    public long getByteCountError() {
+      return byteCountError;
+    }
+    
+    public long getMessagePostFanoutCountError() {
+      return messagePostFanoutCountError;
+    }
+    
+    public long getCpuMegaCyclesError() {
+      return cpuMegaCyclesError;
+    }
+    
+    public long getShedMessageCountError() {
+      return shedMessageCountError;
+    }
+    
+    public long getRegexTimeoutCountError() {
+      return regexTimeoutCountError;
+    }
 
     private void incrementByteCount(long incBy) {
       byteCount += incBy;
@@ -94,12 +146,29 @@ public class ChannelStats implements Serializable {
       this.cpuMegaCycles += cpuMegaCycles;
     }
     
+    private void incrementShedMessageCount(long shedMessageCount) {
+      this.shedMessageCount += shedMessageCount;
+    }
+    
+    private void incrementRegexTimeoutCount(long regexTimeoutCount) {
+      this.regexTimeoutCount += regexTimeoutCount;
+    }
+    
+    private ChannelStat copy() {
+      ChannelStat copy = new ChannelStat(channelName);
+      copy.merge(this);
+      return copy;
+    }
+    
     private void merge(ChannelStat src) {
       Preconditions.checkArgument(src.channelName.equals(channelName));
       incrementByteCount(src.byteCount);
       setMemberCount(src.memberCount);
-      incrementMessageCount(src.messagePostFanoutCount);
+      messagePreFanoutCount += src.messagePreFanoutCount;
+      messagePostFanoutCount += src.messagePostFanoutCount;
       incrementCpuMegaCycles(src.cpuMegaCycles);
+      incrementShedMessageCount(src.shedMessageCount);
+      incrementRegexTimeoutCount(src.regexTimeoutCount);
     }
   }
   
@@ -116,28 +185,80 @@ public class ChannelStats implements Serializable {
   private static final long STATS_EXPIRATION_SEC = 24 * 60 * 60L;
   private static final long STATS_EXPIRATION_MSEC = STATS_EXPIRATION_SEC * 1000;
   
-  private static Cache cache = null;
-  static {
-    try {
-      cache = CacheManager.getInstance().getCacheFactory().createCache(
-          ImmutableMap.of(
-              GCacheFactory.EXPIRATION_DELTA, STATS_EXPIRATION_SEC));
-    } catch (CacheException err) {
-      logger.warning("Could not initialize ChannelStats cache");
-    }
-  }
+  private static final Expiration EXPIRATION =
+      Expiration.byDeltaSeconds((int) STATS_EXPIRATION_SEC);
   
-  private static final String STATS_CACHE_KEY = "channel-stats5";
+  private static final String STATS_CACHE_KEY = "channel-stats10";
+
+  /**
+   * Instances flush their stats into one of this many memcache entries
+   * (picked at random), so that concurrent flushes rarely contend.
+   */
+  static final int SHARD_COUNT = 16;
+
+  /** How often an instance flushes the stats that it has accumulated. */
+  static final long FLUSH_INTERVAL_MSEC = 60 * 1000L;
+
+  private static final int MAX_CAS_ATTEMPTS = 5;
+
+  // Concurrent requests may both create one, which is harmless.
+  private static volatile MemcacheService memcache = null;
 
+  private static final Random random = new Random();
+
+  /**
+   * Stats recorded by this instance that haven't been flushed to memcache yet.
+   * Guarded by the ChannelStats class lock.
+   */
+  private static ChannelStats pendingStats = new ChannelStats();
+  private static long lastFlushMillis = System.currentTimeMillis();
+  
   private static final int TOP_CHANNEL_COUNT = 50;  
   
-  private final Date creationDate = new Date();
+  /**
+   * How many channels are tracked for each {@link Metric}. Channels whose share
+   * of a metric is above 1 / MONITORED_CHANNEL_COUNT are always tracked.
+   */
+  @VisibleForTesting
+  static final int MONITORED_CHANNEL_COUNT = 200;
+  
+  /** How many minutes of overall and per-channel traffic are kept. */
+  public static final int GLOBAL_SERIES_MINUTES = 24 * 60;
+  public static final int CHANNEL_SERIES_MINUTES = 60;
+  
+  /** What top channels can be ranked by. */
+  public enum Metric {
+    BYTES,
+    MESSAGES,
+    CPU,
+    SHED,
+    REGEX_TIMEOUTS
+  }
+  
+  private Date creationDate = new Date();
   private Date lastUpdateDate = new Date();
   private long totalByteCount = 0;
   private long totalMessagePreFanoutCount = 0;
   private long totalMessagePostFanoutCount = 0;
   private long totalCpuMegaCycles = 0;
+  private long totalShedMessageCount = 0;
+  private long totalRegexTimeoutCount = 0;
+  private final SpaceSaving topByBytes =
+      new SpaceSaving(MONITORED_CHANNEL_COUNT);
+  private final SpaceSaving topByMessages =
+      new SpaceSaving(MONITORED_CHANNEL_COUNT);
+  private final SpaceSaving topByCpu =
+      new SpaceSaving(MONITORED_CHANNEL_COUNT);
+  private final SpaceSaving topByShed =
+      new SpaceSaving(MONITORED_CHANNEL_COUNT);
+  private final SpaceSaving topByRegexTimeouts =
+      new SpaceSaving(MONITORED_CHANNEL_COUNT);
+  /** Exact stats since a channel started being tracked by any summary. */
   private final Map<String, ChannelStat> channelStats = Maps.newHashMap();
+  private final TrafficSeries globalSeries =
+      new TrafficSeries(GLOBAL_SERIES_MINUTES);
+  /** Only kept for channels that {@link #topByBytes} is tracking. */
+  private final Map<String, TrafficSeries> channelSeries = Maps.newHashMap();
   
   /**
    * Only {@link #recordStats} should be creating instances.
@@ -146,39 +267,236 @@ public class ChannelStats implements Serializable {
     // No further initialization needed
   }
   
+  /**
+   * Adds a request's stats to this instance's pending stats, and flushes them
+   * to memcache if it's been long enough since the last flush. This is cheap
+   * (no memcache access) for most requests.
+   */
   public static void recordStats(List<ChannelStat> requestStats) {
-    if (cache == null || !areChannelStatsEnabled()) {
+    if (!areChannelStatsEnabled()) {
       return;
     }
     
-    ChannelStats stats = (ChannelStats) cache.get(STATS_CACHE_KEY);
-    
-    if (stats == null || stats.areTooOld()) {
-      logger.warning("Initializing new ChannelStats");
-      stats = new ChannelStats();
+    ChannelStats toFlush =
+        accumulate(requestStats, System.currentTimeMillis());
+    if (toFlush != null) {
+      flush(toFlush);
     }
-    
+  }
+  
+  /**
+   * @return the stats that should be flushed, or null if it's not time to
+   * flush yet
+   */
+  @VisibleForTesting
+  static synchronized ChannelStats accumulate(
+      List<ChannelStat> requestStats, long nowMillis) {
     for (ChannelStat stat : requestStats) {
-      stats.recordStat(stat);
+      pendingStats.recordStat(stat, nowMillis);
     }
+    pendingStats.lastUpdateDate = new Date(nowMillis);
     
-    stats.lastUpdateDate = new Date();
+    if (nowMillis - lastFlushMillis < FLUSH_INTERVAL_MSEC) {
+      return null;
+    }
+    ChannelStats toFlush = pendingStats;
+    pendingStats = new ChannelStats();
+    lastFlushMillis = nowMillis;
+    return toFlush;
+  }
+  
+  /**
+   * Merges {@code stats} into a randomly picked shard.
+   */
+  private static void flush(ChannelStats stats) {
+    int shard = random.nextInt(SHARD_COUNT);
+    try {
+      MemcacheService memcache = getMemcache();
+      for (int attempt = 0; attempt < MAX_CAS_ATTEMPTS; attempt++) {
+        String key = shardKey((shard + attempt) % SHARD_COUNT);
+        IdentifiableValue current = memcache.getIdentifiable(key);
+        if (current == null) {
+          if (memcache.put(key, stats, EXPIRATION,
+                SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            return;
+          }
+          continue;
+        }
+        
+        ChannelStats shardStats = (ChannelStats) current.getValue();
+        if (shardStats.areTooOld()) {
+          logger.warning("Initializing new ChannelStats shard " + key);
+          // The series only cover the last day anyway, keep them.
+          stats.globalSeries.mergeFrom(shardStats.globalSeries);
+          shardStats = stats;
+        } else {
+          shardStats.mergeFrom(stats);
+        }
+        if (memcache.putIfUntouched(key, current, shardStats, EXPIRATION)) {
+          return;
+        }
+      }
+      logger.warning("Too much contention, dropping ChannelStats flush");
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not flush ChannelStats", err);
+    }
+  }
+  
+  private static String shardKey(int shard) {
+    return STATS_CACHE_KEY + "." + shard;
+  }
+  
+  /**
+   * Adds all of {@code other}'s stats to this one. {@code other} is not
+   * modified.
+   */
+  @VisibleForTesting
+  void mergeFrom(ChannelStats other) {
+    for (ChannelStat stat : other.channelStats.values()) {
+      ChannelStat existingStat = channelStats.get(stat.getChannelName());
+      if (existingStat == null) {
+        channelStats.put(stat.getChannelName(), stat.copy());
+      } else {
+        existingStat.merge(stat);
+      }
+    }
+    globalSeries.mergeFrom(other.globalSeries);
+    for (Map.Entry<String, TrafficSeries> entry :
+        other.channelSeries.entrySet()) {
+      getChannelSeries(entry.getKey()).mergeFrom(entry.getValue());
+    }
+    Set<String> dropped = Sets.newHashSet();
+    dropped.addAll(topByBytes.mergeFrom(other.topByBytes));
+    dropped.addAll(topByMessages.mergeFrom(other.topByMessages));
+    dropped.addAll(topByCpu.mergeFrom(other.topByCpu));
+    dropped.addAll(topByShed.mergeFrom(other.topByShed));
+    dropped.addAll(
+        topByRegexTimeouts.mergeFrom(other.topByRegexTimeouts));
+    // Channels that only the other stats were tracking may have been dropped
+    // too.
+    dropped.addAll(other.channelStats.keySet());
+    for (String channelName : dropped) {
+      forgetIfUntracked(channelName);
+    }
     
-    cache.put(STATS_CACHE_KEY, stats);
+    totalByteCount += other.totalByteCount;
+    totalMessagePreFanoutCount += other.totalMessagePreFanoutCount;
+    totalMessagePostFanoutCount += other.totalMessagePostFanoutCount;
+    totalCpuMegaCycles += other.totalCpuMegaCycles;
+    totalShedMessageCount += other.totalShedMessageCount;
+    totalRegexTimeoutCount += other.totalRegexTimeoutCount;
+    if (other.creationDate.before(creationDate)) {
+      creationDate = other.creationDate;
+    }
+    if (other.lastUpdateDate.after(lastUpdateDate)) {
+      lastUpdateDate = other.lastUpdateDate;
+    }
   }
   
-  private void recordStat(ChannelStat stat) {
-    ChannelStat existingStat = channelStats.get(stat.getChannelName());
+  private void recordStat(ChannelStat stat, long nowMillis) {
+    String channelName = stat.getChannelName();
+    ChannelStat existingStat = channelStats.get(channelName);
     if (existingStat == null) {
-      channelStats.put(stat.getChannelName(), stat);      
+      channelStats.put(channelName, stat.copy());      
     } else {
       existingStat.merge(stat);
     }
+    track(topByBytes, channelName, stat.getByteCount());
+    track(topByMessages, channelName, stat.getMessagePostFanoutCount());
+    track(topByCpu, channelName, stat.getCpuMegaCycles());
+    // Channels can be shedding without sending anything, so these need their
+    // own summaries to be tracked at all.
+    track(topByShed, channelName, stat.getShedMessageCount());
+    track(topByRegexTimeouts, channelName, stat.getRegexTimeoutCount());
+    forgetIfUntracked(channelName);
+    
+    globalSeries.add(nowMillis, stat.getMessagePreFanoutCount(),
+        stat.getMessagePostFanoutCount(), stat.getByteCount(),
+        stat.getCpuMegaCycles());
+    if (topByBytes.contains(channelName)) {
+      getChannelSeries(channelName).add(nowMillis,
+          stat.getMessagePreFanoutCount(), stat.getMessagePostFanoutCount(),
+          stat.getByteCount(), stat.getCpuMegaCycles());
+    }
     
     totalByteCount += stat.getByteCount();
     totalMessagePreFanoutCount += stat.getMessagePreFanoutCount();
     totalMessagePostFanoutCount += stat.getMessagePostFanoutCount();
     totalCpuMegaCycles += stat.getCpuMegaCycles();
+    totalShedMessageCount += stat.getShedMessageCount();
+    totalRegexTimeoutCount += stat.getRegexTimeoutCount();
+  }
+  
+  private void track(SpaceSaving summary, String channelName, long weight) {
+    if (weight > 0) {
+      String evicted = summary.add(channelName, weight);
+      if (evicted != null) {
+        forgetIfUntracked(evicted);
+      }
+    }
+  }
+  
+  private TrafficSeries getChannelSeries(String channelName) {
+    TrafficSeries series = channelSeries.get(channelName);
+    if (series == null) {
+      series = new TrafficSeries(CHANNEL_SERIES_MINUTES);
+      channelSeries.put(channelName, series);
+    }
+    return series;
+  }
+  
+  private void forgetIfUntracked(String channelName) {
+    if (!topByBytes.contains(channelName)) {
+      channelSeries.remove(channelName);
+    }
+    if (!topByBytes.contains(channelName) &&
+        !topByMessages.contains(channelName) &&
+        !topByCpu.contains(channelName) &&
+        !topByShed.contains(channelName) &&
+        !topByRegexTimeouts.contains(channelName)) {
+      channelStats.remove(channelName);
+    }
+  }
+  
+  private SpaceSaving getSummary(Metric metric) {
+    switch (metric) {
+      case BYTES: return topByBytes;
+      case MESSAGES: return topByMessages;
+      case CPU: return topByCpu;
+      case SHED: return topByShed;
+      case REGEX_TIMEOUTS: return topByRegexTimeouts;
+      default: throw new IllegalArgumentException(metric.name());
+    }
+  }
+  
+  /**
+   * @return the number of channels that per-channel stats are being kept for
+   */
+  @VisibleForTesting
+  int getTrackedChannelCount() {
+    return channelStats.size();
+  }
+  
+  /**
+   * @return overall traffic for the last {@code minuteCount} minutes (at most
+   * {@link #GLOBAL_SERIES_MINUTES})
+   */
+  public TrafficSeries.Rollup getTraffic(long nowMillis, int minuteCount) {
+    return globalSeries.getRollup(nowMillis, minuteCount);
+  }
+  
+  /**
+   * @return the channel's traffic for the last {@code minuteCount} minutes (at
+   * most {@link #CHANNEL_SERIES_MINUTES}), or null if the channel isn't
+   * among the ones tracked by bytes
+   */
+  public TrafficSeries.Rollup getChannelTraffic(
+      String channelName, long nowMillis, int minuteCount) {
+    TrafficSeries series = channelSeries.get(channelName);
+    if (series == null) {
+      return null;
+    }
+    return series.getRollup(nowMillis, minuteCount);
   }
   
   public Date getCreationDate() {
@@ -194,29 +512,47 @@ public class ChannelStats implements Serializable {
   }
   
   public List<ChannelStat> getTopChannels() {
+    return getTopChannels(Metric.BYTES);
+  }
+  
+  /**
+   * @return the top channels by {@code metric}, highest first. Byte, message
+   * and CPU counts are the summaries' estimates, see
+   * {@link ChannelStat#getByteCountError} and friends for their bounds.
+   */
+  public List<ChannelStat> getTopChannels(Metric metric) {
     if (!areChannelStatsEnabled()) {
       return Collections.emptyList();
     }
-    // TODO(mihaip): can be more efficient by using a heap
-    List<String> channelNames = Lists.newArrayList(channelStats.keySet());
-    Collections.sort(channelNames, new Comparator<String>() {
-      @Override public int compare(String channelName1, String channelName2) {
-        ChannelStat stat1 = channelStats.get(channelName1);
-        ChannelStat stat2 = channelStats.get(channelName2);
-        
-        return Long.valueOf(stat2.getByteCount())
-            .compareTo(stat1.getByteCount());
-      }
-    });
     
+    List<String> channelNames =
+        getSummary(metric).getTopKeys(TOP_CHANNEL_COUNT);
     List<ChannelStat> topChannelStats =
-          Lists.newArrayListWithExpectedSize(TOP_CHANNEL_COUNT);
-    
+        Lists.newArrayListWithExpectedSize(channelNames.size());
     for (String channelName : channelNames) {
-      topChannelStats.add(channelStats.get(channelName));
-      if (topChannelStats.size() == TOP_CHANNEL_COUNT) {
-        break;
+      ChannelStat stat = channelStats.get(channelName).copy();
+      if (topByBytes.contains(channelName)) {
+        stat.byteCount = topByBytes.getCount(channelName);
+        stat.byteCountError = topByBytes.getError(channelName);
+      }
+      if (topByMessages.contains(channelName)) {
+        stat.messagePostFanoutCount = topByMessages.getCount(channelName);
+        stat.messagePostFanoutCountError = topByMessages.getError(channelName);
+      }
+      if (topByCpu.contains(channelName)) {
+        stat.cpuMegaCycles = topByCpu.getCount(channelName);
+        stat.cpuMegaCyclesError = topByCpu.getError(channelName);
+      }
+      if (topByShed.contains(channelName)) {
+        stat.shedMessageCount = topByShed.getCount(channelName);
+        stat.shedMessageCountError = topByShed.getError(channelName);
       }
+      if (topByRegexTimeouts.contains(channelName)) {
+        stat.regexTimeoutCount = topByRegexTimeouts.getCount(channelName);
+        stat.regexTimeoutCountError =
+            topByRegexTimeouts.getError(channelName);
+      }
+      topChannelStats.add(stat);
     }
     
     return topChannelStats;
@@ -237,6 +573,14 @@ public class ChannelStats implements Serializable {
   public long getTotalCpuMegaCycles() {
     return totalCpuMegaCycles;
   }
+  
+  public long getTotalShedMessageCount() {
+    return totalShedMessageCount;
+  }
+
+  public long getTotalRegexTimeoutCount() {
+    return totalRegexTimeoutCount;
+  }
 
   public static void recordMessageSend(
       JID fromJID, String msg, List<JID> toJIDs) {
@@ -267,18 +611,100 @@ public class ChannelStats implements Serializable {
   }
   
   
+  /**
+   * Records that an incoming message was dropped by 
+   * {@link com.imjasonh.partychapp.server.RateLimiter}.
+   */
+  public static void recordShedMessage(String channelName) {
+    if (!areChannelStatsEnabled()) return;
+    ChannelStat stat = new ChannelStat(channelName);
+    stat.incrementShedMessageCount(1);
+    
+    perRequestStats.get().add(stat);
+  }
+  
+  /**
+   * Records that a search-and-replace pattern was abandoned because it took
+   * too long to evaluate.
+   */
+  public static void recordRegexTimeout(String channelName) {
+    if (!areChannelStatsEnabled()) return;
+    ChannelStat stat = new ChannelStat(channelName);
+    stat.incrementRegexTimeoutCount(1);
+    
+    perRequestStats.get().add(stat);
+  }
+  
+  /**
+   * @return the merged stats of all of the shards, plus any stats that this
+   * instance hasn't flushed yet, or null if there are none
+   */
   public static ChannelStats getCurrentStats() {
-    if (cache == null || !areChannelStatsEnabled()) {
+    if (!areChannelStatsEnabled()) {
       return null;
     }
     
-    return (ChannelStats) cache.get(STATS_CACHE_KEY);    
+    List<String> keys = Lists.newArrayListWithCapacity(SHARD_COUNT);
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      keys.add(shardKey(i));
+    }
+    Map<String, Object> shards;
+    try {
+      shards = getMemcache().getAll(keys);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not get ChannelStats shards", err);
+      shards = Collections.emptyMap();
+    }
+    
+    List<ChannelStats> allStats = Lists.newArrayList();
+    for (Object shard : shards.values()) {
+      allStats.add((ChannelStats) shard);
+    }
+    synchronized (ChannelStats.class) {
+      if (!pendingStats.channelStats.isEmpty()) {
+        allStats.add(pendingStats);
+      }
+      return merge(allStats);
+    }
+  }
+  
+  /**
+   * @return the combination of {@code allStats}, or null if it's empty
+   */
+  @VisibleForTesting
+  static ChannelStats merge(List<ChannelStats> allStats) {
+    if (allStats.isEmpty()) {
+      return null;
+    }
+    ChannelStats merged = new ChannelStats();
+    merged.creationDate = allStats.get(0).creationDate;
+    merged.lastUpdateDate = allStats.get(0).lastUpdateDate;
+    for (ChannelStats stats : allStats) {
+      merged.mergeFrom(stats);
+    }
+    return merged;
   }
 
   public static void reset() {
-    if (cache != null || !areChannelStatsEnabled()) {
-      cache.remove(STATS_CACHE_KEY);
+    synchronized (ChannelStats.class) {
+      pendingStats = new ChannelStats();
+    }
+    List<String> keys = Lists.newArrayListWithCapacity(SHARD_COUNT);
+    for (int i = 0; i < SHARD_COUNT; i++) {
+      keys.add(shardKey(i));
+    }
+    try {
+      getMemcache().deleteAll(keys);
+    } catch (RuntimeException err) {
+      logger.log(Level.WARNING, "Could not reset ChannelStats", err);
+    }
+  }
+  
+  private static MemcacheService getMemcache() {
+    if (memcache == null) {
+      memcache = MemcacheServiceFactory.getMemcacheService();
     }
+    return memcache;
   }
   
   private static boolean areChannelStatsEnabled() {
@@ -0,0 +1,195 @@
+package com.imjasonh.partychapp.stats;
+
+import com.google.appengine.api.xmpp.JID;
+import com.google.common.collect.ImmutableList;
+
+import com.imjasonh.partychapp.Configuration;
+import com.imjasonh.partychapp.PersistentConfiguration;
+import com.imjasonh.partychapp.stats.ChannelStats.ChannelStat;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+
+public class ChannelStatsTest extends TestCase {
+  /** Moves forward with each test, since the accumulator is static. */
+  private static long now = System.currentTimeMillis();
+
+  @Override
+  public void setUp() {
+    PersistentConfiguration pc = new PersistentConfiguration();
+    pc.setChannelStatsEnabled(true);
+    Configuration.setPersistentConfigForTesting(pc);
+    // Start from an empty accumulator, whatever earlier tests recorded.
+    now += 10 * ChannelStats.FLUSH_INTERVAL_MSEC;
+    ChannelStats.accumulate(Collections.<ChannelStat>emptyList(), now);
+  }
+
+  @Override
+  public void tearDown() {
+    Configuration.setPersistentConfigForTesting(new PersistentConfiguration());
+  }
+
+  public void testAccumulatesUntilFlushInterval() {
+    assertNull(ChannelStats.accumulate(send("pancake", 3), now + 1));
+    assertNull(ChannelStats.accumulate(send("pancake", 2), now + 2));
+    assertNull(ChannelStats.accumulate(send("waffle", 1), now + 3));
+
+    ChannelStats flushed = ChannelStats.accumulate(
+        send("pancake", 1), now + ChannelStats.FLUSH_INTERVAL_MSEC);
+    assertNotNull(flushed);
+    assertEquals(4, flushed.getTotalMessagePreFanoutCount());
+    assertEquals(7, flushed.getTotalMessagePostFanoutCount());
+
+    // The accumulator starts over after a flush.
+    assertNull(ChannelStats.accumulate(
+        send("pancake", 1), now + ChannelStats.FLUSH_INTERVAL_MSEC + 1));
+  }
+
+  public void testMergeShards() {
+    ChannelStats.accumulate(send("pancake", 3), now + 1);
+    ChannelStats.accumulate(send("pancake", 2), now + 2);
+    ChannelStats shard1 = ChannelStats.accumulate(
+        Collections.<ChannelStat>emptyList(),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC);
+
+    ChannelStats.accumulate(send("pancake", 5),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC + 1);
+    ChannelStats.accumulate(send("waffle", 1),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC + 2);
+    ChannelStats shard2 = ChannelStats.accumulate(
+        Collections.<ChannelStat>emptyList(),
+        now + 2 * ChannelStats.FLUSH_INTERVAL_MSEC);
+
+    ChannelStats merged =
+        ChannelStats.merge(ImmutableList.of(shard1, shard2));
+    assertEquals(4, merged.getTotalMessagePreFanoutCount());
+    assertEquals(11, merged.getTotalMessagePostFanoutCount());
+
+    List<ChannelStat> top = merged.getTopChannels();
+    assertEquals(2, top.size());
+    ChannelStat pancake = top.get(0);
+    assertEquals("pancake", pancake.getChannelName());
+    assertEquals(3, pancake.getMessagePreFanoutCount());
+    assertEquals(10, pancake.getMessagePostFanoutCount());
+    assertEquals(5, pancake.getMemberCount());
+
+    // Merging doesn't change the shards.
+    assertEquals(2, shard1.getTotalMessagePreFanoutCount());
+  }
+
+  public void testTrackedChannelsAreBounded() {
+    int channelCount = 5 * ChannelStats.MONITORED_CHANNEL_COUNT;
+    for (int i = 0; i < channelCount; i++) {
+      ChannelStats.accumulate(send("quiet" + i, 1), now + 1);
+      if (i % 10 == 0) {
+        ChannelStats.accumulate(send("busy", 20), now + 1);
+      }
+    }
+    ChannelStats stats = ChannelStats.accumulate(
+        Collections.<ChannelStat>emptyList(),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC);
+
+    assertTrue(stats.getTrackedChannelCount() <=
+        3 * ChannelStats.MONITORED_CHANNEL_COUNT);
+    // Totals are still exact.
+    assertEquals(channelCount + channelCount / 10,
+        stats.getTotalMessagePreFanoutCount());
+
+    ChannelStat busy = stats.getTopChannels(ChannelStats.Metric.MESSAGES).get(0);
+    assertEquals("busy", busy.getChannelName());
+    assertTrue(busy.getMessagePostFanoutCount() >= 20 * channelCount / 10);
+    assertTrue(busy.getMessagePostFanoutCount() -
+        busy.getMessagePostFanoutCountError() <= 20 * channelCount / 10);
+
+    // Merging shards keeps them bounded too.
+    ChannelStats merged = ChannelStats.merge(ImmutableList.of(stats, stats));
+    assertTrue(merged.getTrackedChannelCount() <=
+        3 * ChannelStats.MONITORED_CHANNEL_COUNT);
+    assertEquals("busy", merged.getTopChannels().get(0).getChannelName());
+  }
+
+  public void testShedOnlyChannelsAreTracked() {
+    // Fill every summary with channels that do send messages.
+    for (int i = 0; i < ChannelStats.MONITORED_CHANNEL_COUNT; i++) {
+      ChannelStats.accumulate(send("quiet" + i, 1), now + 1);
+    }
+    for (int i = 0; i < 3; i++) {
+      ChannelStats.accumulate(shed("flooded"), now + 1);
+    }
+    ChannelStats.accumulate(regexTimeout("flooded"), now + 1);
+    ChannelStats stats = ChannelStats.accumulate(
+        Collections.<ChannelStat>emptyList(),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC);
+
+    assertEquals(3, stats.getTotalShedMessageCount());
+    ChannelStat flooded =
+        stats.getTopChannels(ChannelStats.Metric.SHED).get(0);
+    assertEquals("flooded", flooded.getChannelName());
+    assertEquals(3, flooded.getShedMessageCount());
+    assertEquals(1, flooded.getRegexTimeoutCount());
+    assertEquals(0, flooded.getMessagePreFanoutCount());
+    assertEquals("flooded", stats.getTopChannels(
+        ChannelStats.Metric.REGEX_TIMEOUTS).get(0).getChannelName());
+
+    // Still there after merging with stats that don't know about it.
+    ChannelStats.accumulate(send("quiet0", 1),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC + 1);
+    ChannelStats other = ChannelStats.accumulate(
+        Collections.<ChannelStat>emptyList(),
+        now + 2 * ChannelStats.FLUSH_INTERVAL_MSEC);
+    ChannelStats merged = ChannelStats.merge(ImmutableList.of(stats, other));
+    assertEquals("flooded", merged.getTopChannels(ChannelStats.Metric.SHED)
+        .get(0).getChannelName());
+  }
+
+  public void testTraffic() {
+    ChannelStats.accumulate(send("pancake", 3), now + 1);
+    ChannelStats.accumulate(send("waffle", 2), now + 30 * 1000);
+    ChannelStats shard1 = ChannelStats.accumulate(
+        send("pancake", 1), now + ChannelStats.FLUSH_INTERVAL_MSEC);
+    ChannelStats.accumulate(send("pancake", 4),
+        now + ChannelStats.FLUSH_INTERVAL_MSEC + 1);
+    ChannelStats shard2 = ChannelStats.accumulate(
+        Collections.<ChannelStat>emptyList(),
+        now + 2 * ChannelStats.FLUSH_INTERVAL_MSEC);
+
+    ChannelStats merged =
+        ChannelStats.merge(ImmutableList.of(shard1, shard2));
+    long end = now + 2 * ChannelStats.FLUSH_INTERVAL_MSEC;
+    assertEquals(4,
+        merged.getTraffic(end, 60).getMessagePreFanoutCount());
+    assertEquals(10,
+        merged.getTraffic(end, 60).getMessagePostFanoutCount());
+    assertEquals(3, merged.getChannelTraffic("pancake", end, 60)
+        .getMessagePreFanoutCount());
+    assertEquals(2, merged.getChannelTraffic("waffle", end, 60)
+        .getMessagePostFanoutCount());
+    assertNull(merged.getChannelTraffic("crepe", end, 60));
+  }
+
+  public void testMergeNothing() {
+    assertNull(ChannelStats.merge(Collections.<ChannelStats>emptyList()));
+  }
+
+  private static List<ChannelStat> send(String channelName, int recipients) {
+    ChannelStats.perRequestStats.get().clear();
+    JID from = new JID(channelName + "@partychapp.appspotchat.com");
+    List<JID> to = Collections.nCopies(recipients, new JID("a@example.com"));
+    ChannelStats.recordMessageSend(from, "hello", to);
+    return ImmutableList.copyOf(ChannelStats.perRequestStats.get());
+  }
+
+  private static List<ChannelStat> shed(String channelName) {
+    ChannelStats.perRequestStats.get().clear();
+    ChannelStats.recordShedMessage(channelName);
+    return ImmutableList.copyOf(ChannelStats.perRequestStats.get());
+  }
+
+  private static List<ChannelStat> regexTimeout(String channelName) {
+    ChannelStats.perRequestStats.get().clear();
+    ChannelStats.recordRegexTimeout(channelName);
+    return ImmutableList.copyOf(ChannelStats.perRequestStats.get());
+  }
+}
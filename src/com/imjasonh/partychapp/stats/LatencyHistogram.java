@@ -0,0 +1,88 @@
+package com.imjasonh.partychapp.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed (roughly logarithmic) buckets, so that
+ * recording is a couple of atomic increments and memory use doesn't grow.
+ * Percentiles are reported as the upper bound of the bucket that they fall
+ * in. Thread-safe.
+ */
+public class LatencyHistogram {
+  /** Upper bounds of the buckets, in microseconds. */
+  private static final long[] BUCKET_BOUNDS_MICROS = {
+    100, 250, 500,
+    1000, 2500, 5000,
+    10000, 25000, 50000,
+    100000, 250000, 500000,
+    1000000, 2500000, 5000000,
+    10000000, 30000000
+  };
+
+  /** One more than the bounds, for everything that's slower. */
+  private final AtomicLongArray counts =
+      new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong totalMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  public void record(long micros) {
+    counts.incrementAndGet(bucketFor(micros));
+    count.incrementAndGet();
+    totalMicros.addAndGet(micros);
+    long max;
+    do {
+      max = maxMicros.get();
+    } while (micros > max && !maxMicros.compareAndSet(max, micros));
+  }
+
+  private static int bucketFor(long micros) {
+    for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+      if (micros <= BUCKET_BOUNDS_MICROS[i]) {
+        return i;
+      }
+    }
+    return BUCKET_BOUNDS_MICROS.length;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMeanMicros() {
+    long n = count.get();
+    return n == 0 ? 0 : totalMicros.get() / n;
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return an upper bound for the given percentile (the largest latency seen,
+   * for ones in the overflow bucket), or 0 if nothing has been recorded
+   */
+  public long getPercentileMicros(double percentile) {
+    long total = 0;
+    long[] snapshot = new long[counts.length()];
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = (long) Math.ceil(total * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return Math.min(BUCKET_BOUNDS_MICROS[i], getMaxMicros());
+      }
+    }
+    return getMaxMicros();
+  }
+}
@@ -0,0 +1,37 @@
+package com.imjasonh.partychapp.stats;
+
+import junit.framework.TestCase;
+
+public class LatencyHistogramTest extends TestCase {
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMeanMicros());
+    assertEquals(0, histogram.getPercentileMicros(50));
+  }
+
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 90; i++) {
+      histogram.record(800);
+    }
+    for (int i = 0; i < 9; i++) {
+      histogram.record(40000);
+    }
+    histogram.record(400000);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(400000, histogram.getMaxMicros());
+    // Percentiles are bucket upper bounds.
+    assertEquals(1000, histogram.getPercentileMicros(50));
+    assertEquals(1000, histogram.getPercentileMicros(90));
+    assertEquals(50000, histogram.getPercentileMicros(99));
+    assertEquals(400000, histogram.getPercentileMicros(100));
+  }
+
+  public void testOverflow() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(60 * 1000 * 1000L);
+    assertEquals(60 * 1000 * 1000L, histogram.getPercentileMicros(50));
+  }
+}
@@ -0,0 +1,121 @@
+package com.imjasonh.partychapp.stats;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import com.imjasonh.partychapp.stats.RequestTrace.Span;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Latency histograms (per request type, per {@link Stage} and per command)
+ * built from finished {@link RequestTrace}s, plus the span trees of the most
+ * recent slow requests. Histograms are kept per instance (in memory only), so
+ * they describe the instance that serves the admin page.
+ */
+public class LatencyStats {
+  private static final Logger logger =
+      Logger.getLogger(LatencyStats.class.getName());
+
+  /** Requests that take at least this long have their span tree kept. */
+  public static final long SLOW_REQUEST_MSEC = 300;
+
+  private static final int SLOW_TRACE_COUNT = 20;
+
+  private static final ConcurrentMap<String, LatencyHistogram> requests =
+      Maps.newConcurrentMap();
+  private static final ConcurrentMap<Stage, LatencyHistogram> stages =
+      Maps.newConcurrentMap();
+  private static final ConcurrentMap<String, LatencyHistogram> commands =
+      Maps.newConcurrentMap();
+
+  /** Most recent first. Guarded by itself. */
+  private static final LinkedList<RequestTrace> slowTraces = Lists.newLinkedList();
+
+  private LatencyStats() {
+    // Not instantiable
+  }
+
+  static void record(RequestTrace trace) {
+    getHistogram(requests, trace.getName()).record(trace.getDurationMicros());
+
+    long commandMicros = recordSpans(trace.getRoot());
+    if (trace.getCommand() != null) {
+      getHistogram(commands, trace.getCommand()).record(commandMicros);
+    }
+
+    if (trace.getDurationMicros() >= SLOW_REQUEST_MSEC * 1000) {
+      logger.info("Slow request:\n" + trace);
+      synchronized (slowTraces) {
+        slowTraces.addFirst(trace);
+        if (slowTraces.size() > SLOW_TRACE_COUNT) {
+          slowTraces.removeLast();
+        }
+      }
+    }
+  }
+
+  /**
+   * Records {@code span}'s descendants in the stage histograms.
+   *
+   * @return the time spent in {@link Stage#COMMAND} spans
+   */
+  private static long recordSpans(Span span) {
+    long commandMicros = 0;
+    for (Span child : span.getChildren()) {
+      getHistogram(stages, child.getStage()).record(
+          child.getDurationMicros());
+      if (child.getStage() == Stage.COMMAND) {
+        commandMicros += child.getDurationMicros();
+      }
+      commandMicros += recordSpans(child);
+    }
+    return commandMicros;
+  }
+
+  private static <K> LatencyHistogram getHistogram(
+      ConcurrentMap<K, LatencyHistogram> histograms, K key) {
+    LatencyHistogram histogram = histograms.get(key);
+    if (histogram == null) {
+      histograms.putIfAbsent(key, new LatencyHistogram());
+      histogram = histograms.get(key);
+    }
+    return histogram;
+  }
+
+  public static Map<String, LatencyHistogram> getRequestHistograms() {
+    return ImmutableSortedMap.copyOf(requests);
+  }
+
+  public static Map<Stage, LatencyHistogram> getStageHistograms() {
+    return ImmutableSortedMap.copyOf(stages);
+  }
+
+  public static Map<String, LatencyHistogram> getCommandHistograms() {
+    return ImmutableSortedMap.copyOf(commands);
+  }
+
+  /**
+   * @return the most recent slow requests, most recent first
+   */
+  public static ImmutableList<RequestTrace> getSlowTraces() {
+    synchronized (slowTraces) {
+      return ImmutableList.copyOf(slowTraces);
+    }
+  }
+
+  public static void reset() {
+    requests.clear();
+    stages.clear();
+    commands.clear();
+    synchronized (slowTraces) {
+      slowTraces.clear();
+    }
+  }
+}
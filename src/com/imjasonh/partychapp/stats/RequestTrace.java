@@ -0,0 +1,204 @@
+package com.imjasonh.partychapp.stats;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Lightweight per-request tracing. A request calls {@link #start}, wraps its
+ * interesting stages in {@link #startSpan}/{@link Span#end} (spans nest, so
+ * stages can be timed from deep inside e.g. the datastore), and calls
+ * {@link #finish}, which hands the trace to {@link LatencyStats}. Spans that
+ * are started on a thread without a trace are no-ops, so code that is shared
+ * with tasks and tests doesn't need to care.
+ */
+public class RequestTrace {
+  /** The stages of handling a request that get their own histograms. */
+  public enum Stage {
+    /** Loading channels and users from memcache. */
+    MEMCACHE_LOAD,
+    /** Loading channels and users from the datastore (on a cache miss). */
+    DATASTORE_LOAD,
+    /** Fixing up loaded channels. */
+    FIXUP,
+    RATE_LIMIT,
+    /** Finding the command handler for a message. */
+    DISPATCH,
+    /** Running the command handler. */
+    COMMAND,
+    /** Sending (fanning out) XMPP messages. */
+    XMPP_SEND,
+    /** Writing back modified channels and users at the end of the request. */
+    PERSIST
+  }
+
+  /**
+   * A timed section of a request.
+   */
+  public static class Span {
+    private static final Span NOOP = new Span(null, null, 0) {
+      @Override public void end() {
+        // Nothing to do
+      }
+    };
+
+    private final RequestTrace trace;
+    private final Stage stage;
+    private final long startNanos;
+    private long endNanos = -1;
+    private final List<Span> children = Lists.newArrayListWithCapacity(0);
+
+    private Span(RequestTrace trace, Stage stage, long startNanos) {
+      this.trace = trace;
+      this.stage = stage;
+      this.startNanos = startNanos;
+    }
+
+    public void end() {
+      if (endNanos == -1) {
+        endNanos = System.nanoTime();
+        trace.endSpan(this);
+      }
+    }
+
+    /**
+     * @return the stage, or null for the request's root span
+     */
+    public Stage getStage() {
+      return stage;
+    }
+
+    public List<Span> getChildren() {
+      return children;
+    }
+
+    public long getDurationMicros() {
+      long end = endNanos == -1 ? System.nanoTime() : endNanos;
+      return (end - startNanos) / 1000;
+    }
+
+    private void appendTo(StringBuilder sb, String name, String indent) {
+      sb.append(indent).append(name).append(": ")
+          .append(getDurationMicros() / 1000.0).append(" ms\n");
+      for (Span child : children) {
+        child.appendTo(sb, child.stage.name(), indent + "  ");
+      }
+    }
+  }
+
+  private static final ThreadLocal<RequestTrace> current =
+      new ThreadLocal<RequestTrace>();
+
+  private final String name;
+  private final long startMillis;
+  private final Span root;
+  private final List<Span> openSpans = Lists.newArrayList();
+  private String command = null;
+
+  private RequestTrace(String name) {
+    this.name = name;
+    this.startMillis = System.currentTimeMillis();
+    this.root = new Span(this, null, System.nanoTime());
+    openSpans.add(root);
+  }
+
+  /**
+   * Starts tracing the current thread's request (replacing any trace that
+   * wasn't finished).
+   */
+  public static void start(String name) {
+    current.set(new RequestTrace(name));
+  }
+
+  /**
+   * Starts a span for {@code stage}, nested inside whatever span is currently
+   * open. The caller must call {@link Span#end} (in a finally block).
+   */
+  public static Span startSpan(Stage stage) {
+    RequestTrace trace = current.get();
+    if (trace == null) {
+      return Span.NOOP;
+    }
+    Span parent = trace.openSpans.get(trace.openSpans.size() - 1);
+    Span span = new Span(trace, stage, System.nanoTime());
+    parent.children.add(span);
+    trace.openSpans.add(span);
+    return span;
+  }
+
+  /**
+   * Records which command handled the request, so that its
+   * {@link Stage#COMMAND} span is also counted towards that command's
+   * histogram.
+   */
+  public static void setCommand(String command) {
+    RequestTrace trace = current.get();
+    if (trace != null) {
+      trace.command = command;
+    }
+  }
+
+  /**
+   * Ends the current thread's trace and records it.
+   *
+   * @return the finished trace, or null if there wasn't one
+   */
+  public static RequestTrace finish() {
+    RequestTrace trace = current.get();
+    if (trace == null) {
+      return null;
+    }
+    current.remove();
+    trace.root.end();
+    LatencyStats.record(trace);
+    return trace;
+  }
+
+  private void endSpan(Span span) {
+    // Spans should be ended innermost first, but if one was left open (e.g.
+    // because of an exception without a finally), close it too.
+    int index = openSpans.lastIndexOf(span);
+    if (index == -1) {
+      return;
+    }
+    while (openSpans.size() > index) {
+      Span open = openSpans.remove(openSpans.size() - 1);
+      if (open.endNanos == -1) {
+        open.endNanos = span.endNanos;
+      }
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getStartMillis() {
+    return startMillis;
+  }
+
+  public Span getRoot() {
+    return root;
+  }
+
+  /**
+   * @return the command that handled the request, or null if none did
+   */
+  public String getCommand() {
+    return command;
+  }
+
+  public long getDurationMicros() {
+    return root.getDurationMicros();
+  }
+
+  /**
+   * @return the span tree, one span per line
+   */
+  @Override public String toString() {
+    StringBuilder sb = new StringBuilder();
+    String rootName = command == null ? name : name + " (" + command + ")";
+    root.appendTo(sb, rootName, "");
+    return sb.toString();
+  }
+}
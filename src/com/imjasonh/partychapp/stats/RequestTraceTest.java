@@ -0,0 +1,70 @@
+package com.imjasonh.partychapp.stats;
+
+import com.imjasonh.partychapp.stats.RequestTrace.Span;
+import com.imjasonh.partychapp.stats.RequestTrace.Stage;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class RequestTraceTest extends TestCase {
+  @Override
+  public void setUp() {
+    LatencyStats.reset();
+  }
+
+  public void testSpansWithoutTraceAreNoops() {
+    Span span = RequestTrace.startSpan(Stage.FIXUP);
+    span.end();
+    assertNull(RequestTrace.finish());
+    assertTrue(LatencyStats.getStageHistograms().isEmpty());
+  }
+
+  public void testSpanTree() {
+    RequestTrace.start("test");
+    Span command = RequestTrace.startSpan(Stage.COMMAND);
+    RequestTrace.startSpan(Stage.XMPP_SEND).end();
+    RequestTrace.startSpan(Stage.XMPP_SEND).end();
+    command.end();
+    RequestTrace.startSpan(Stage.PERSIST).end();
+    RequestTrace.setCommand("BROADCAST");
+    RequestTrace trace = RequestTrace.finish();
+
+    List<Span> children = trace.getRoot().getChildren();
+    assertEquals(2, children.size());
+    assertEquals(Stage.COMMAND, children.get(0).getStage());
+    assertEquals(2, children.get(0).getChildren().size());
+    assertEquals(Stage.PERSIST, children.get(1).getStage());
+    assertTrue(trace.toString().startsWith("test (BROADCAST): "));
+
+    assertEquals(1, LatencyStats.getRequestHistograms().get("test").getCount());
+    assertEquals(2,
+        LatencyStats.getStageHistograms().get(Stage.XMPP_SEND).getCount());
+    assertEquals(1,
+        LatencyStats.getCommandHistograms().get("BROADCAST").getCount());
+    assertTrue(LatencyStats.getSlowTraces().isEmpty());
+  }
+
+  public void testUnendedSpansAreClosedByParent() {
+    RequestTrace.start("test");
+    Span outer = RequestTrace.startSpan(Stage.COMMAND);
+    RequestTrace.startSpan(Stage.XMPP_SEND);
+    outer.end();
+    // Goes under the root, not under the unended span.
+    RequestTrace.startSpan(Stage.PERSIST).end();
+    RequestTrace trace = RequestTrace.finish();
+
+    assertEquals(2, trace.getRoot().getChildren().size());
+  }
+
+  public void testSlowRequestsAreKept() throws Exception {
+    RequestTrace.start("test");
+    Span span = RequestTrace.startSpan(Stage.DATASTORE_LOAD);
+    Thread.sleep(LatencyStats.SLOW_REQUEST_MSEC + 10);
+    span.end();
+    RequestTrace trace = RequestTrace.finish();
+
+    assertEquals(1, LatencyStats.getSlowTraces().size());
+    assertSame(trace, LatencyStats.getSlowTraces().get(0));
+  }
+}
@@ -0,0 +1,198 @@
+package com.imjasonh.partychapp.stats;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Weighted Space-Saving summary (Metwally, Agrawal and El Abbadi) that keeps
+ * track of the heaviest keys in a stream while using at most
+ * {@code capacity} counters, however many distinct keys are seen.
+ *
+ * For every monitored key, {@link #getCount} overestimates the key's true
+ * total weight by at most {@link #getError}. Any key whose true weight is more
+ * than {@code totalWeight / capacity} is guaranteed to be monitored.
+ *
+ * Not thread-safe.
+ */
+public class SpaceSaving implements Serializable {
+  private static final long serialVersionUID = 6630187712290648401L;
+
+  private static class Counter implements Serializable {
+    private static final long serialVersionUID = 2928410027381764611L;
+
+    private final String key;
+    private long count;
+    private long error;
+
+    Counter(String key, long count, long error) {
+      this.key = key;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  private static final Comparator<Counter> BY_COUNT =
+      new Comparator<Counter>() {
+        @Override public int compare(Counter counter1, Counter counter2) {
+          if (counter1.count != counter2.count) {
+            return counter1.count < counter2.count ? -1 : 1;
+          }
+          // Ties are broken by key so that results are deterministic.
+          return counter2.key.compareTo(counter1.key);
+        }
+      };
+
+  private final int capacity;
+  private final Map<String, Counter> counters;
+
+  public SpaceSaving(int capacity) {
+    Preconditions.checkArgument(capacity > 0);
+    this.capacity = capacity;
+    this.counters = Maps.newHashMapWithExpectedSize(capacity);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Adds {@code weight} to {@code key}'s count. If the summary is full and
+   * {@code key} isn't monitored, the counter with the smallest count is taken
+   * over by {@code key}.
+   *
+   * @return the key that stopped being monitored, or null if there was none
+   */
+  public String add(String key, long weight) {
+    Preconditions.checkArgument(weight >= 0);
+    Counter counter = counters.get(key);
+    if (counter != null) {
+      counter.count += weight;
+      return null;
+    }
+
+    if (counters.size() < capacity) {
+      counters.put(key, new Counter(key, weight, 0));
+      return null;
+    }
+
+    // A linear scan is cheaper than keeping the counters ordered, since only
+    // keys that aren't already monitored get here.
+    Counter min = Collections.min(counters.values(), BY_COUNT);
+    counters.remove(min.key);
+    counters.put(key, new Counter(key, min.count + weight, min.count));
+    return min.key;
+  }
+
+  public boolean contains(String key) {
+    return counters.containsKey(key);
+  }
+
+  /**
+   * @return the (over)estimated weight of {@code key}, or 0 if it's not
+   * monitored
+   */
+  public long getCount(String key) {
+    Counter counter = counters.get(key);
+    return counter == null ? 0 : counter.count;
+  }
+
+  /**
+   * @return how much {@link #getCount} may overestimate {@code key}'s weight
+   * by, or 0 if it's not monitored
+   */
+  public long getError(String key) {
+    Counter counter = counters.get(key);
+    return counter == null ? 0 : counter.error;
+  }
+
+  /**
+   * @return the smallest count that is monitored, which bounds the weight of
+   * any key that is not monitored
+   */
+  public long getMinCount() {
+    if (counters.size() < capacity) {
+      return 0;
+    }
+    return Collections.min(counters.values(), BY_COUNT).count;
+  }
+
+  /**
+   * @return the (at most) {@code n} monitored keys with the highest counts,
+   * highest first
+   */
+  public List<String> getTopKeys(int n) {
+    PriorityQueue<Counter> top = new PriorityQueue<Counter>(n + 1, BY_COUNT);
+    for (Counter counter : counters.values()) {
+      top.add(counter);
+      if (top.size() > n) {
+        top.poll();
+      }
+    }
+
+    List<String> keys = Lists.newArrayListWithCapacity(top.size());
+    while (!top.isEmpty()) {
+      keys.add(top.poll().key);
+    }
+    Collections.reverse(keys);
+    return keys;
+  }
+
+  /**
+   * Combines {@code other} into this summary (following Agarwal et al.,
+   * "Mergeable Summaries"), so that the error bounds hold for the combined
+   * stream. {@code other} is not modified.
+   *
+   * @return the keys that stopped being monitored
+   */
+  public Set<String> mergeFrom(SpaceSaving other) {
+    // A key that a full summary doesn't monitor may have had up to its
+    // minimum count.
+    long thisMin = getMinCount();
+    long otherMin = other.getMinCount();
+
+    Set<String> keys = Sets.newHashSet(counters.keySet());
+    keys.addAll(other.counters.keySet());
+    List<Counter> combined = Lists.newArrayListWithCapacity(keys.size());
+    for (String key : keys) {
+      Counter thisCounter = counters.get(key);
+      Counter otherCounter = other.counters.get(key);
+      long count = 0;
+      long error = 0;
+      if (thisCounter != null) {
+        count += thisCounter.count;
+        error += thisCounter.error;
+      } else {
+        count += thisMin;
+        error += thisMin;
+      }
+      if (otherCounter != null) {
+        count += otherCounter.count;
+        error += otherCounter.error;
+      } else {
+        count += otherMin;
+        error += otherMin;
+      }
+      combined.add(new Counter(key, count, error));
+    }
+
+    Collections.sort(combined, Collections.reverseOrder(BY_COUNT));
+    Set<String> dropped = Sets.newHashSet(counters.keySet());
+    counters.clear();
+    for (Counter counter : combined.subList(
+        0, Math.min(capacity, combined.size()))) {
+      counters.put(counter.key, counter);
+      dropped.remove(counter.key);
+    }
+    return dropped;
+  }
+}
@@ -0,0 +1,94 @@
+package com.imjasonh.partychapp.stats;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+import java.util.Random;
+
+public class SpaceSavingTest extends TestCase {
+  public void testExactUnderCapacity() {
+    SpaceSaving summary = new SpaceSaving(4);
+    summary.add("a", 5);
+    summary.add("b", 1);
+    summary.add("a", 2);
+    summary.add("c", 3);
+
+    assertEquals(ImmutableList.of("a", "c", "b"), summary.getTopKeys(10));
+    assertEquals(ImmutableList.of("a"), summary.getTopKeys(1));
+    assertEquals(7, summary.getCount("a"));
+    assertEquals(0, summary.getError("a"));
+    assertEquals(0, summary.getMinCount());
+  }
+
+  public void testEvictsSmallest() {
+    SpaceSaving summary = new SpaceSaving(2);
+    summary.add("a", 5);
+    summary.add("b", 1);
+
+    assertEquals("b", summary.add("c", 2));
+    assertFalse(summary.contains("b"));
+    // c inherits b's count as its error.
+    assertEquals(3, summary.getCount("c"));
+    assertEquals(1, summary.getError("c"));
+    assertEquals(ImmutableList.of("a", "c"), summary.getTopKeys(2));
+  }
+
+  public void testErrorBounds() {
+    Random random = new Random(42);
+    SpaceSaving summary = new SpaceSaving(20);
+    Map<String, Long> actual = Maps.newHashMap();
+    long total = 0;
+    for (int i = 0; i < 10000; i++) {
+      // A few heavy keys and a long tail of light ones.
+      String key = random.nextInt(4) == 0 ?
+          "heavy" + random.nextInt(5) : "light" + random.nextInt(1000);
+      long weight = 1 + random.nextInt(10);
+      summary.add(key, weight);
+      Long previous = actual.get(key);
+      actual.put(key, (previous == null ? 0 : previous) + weight);
+      total += weight;
+    }
+
+    for (Map.Entry<String, Long> entry : actual.entrySet()) {
+      String key = entry.getKey();
+      long weight = entry.getValue();
+      if (weight > total / summary.getCapacity()) {
+        assertTrue(key, summary.contains(key));
+      }
+      if (summary.contains(key)) {
+        assertTrue(key, summary.getCount(key) >= weight);
+        assertTrue(key,
+            summary.getCount(key) - summary.getError(key) <= weight);
+      }
+    }
+    for (int i = 0; i < 5; i++) {
+      assertTrue(summary.getTopKeys(5).contains("heavy" + i));
+    }
+  }
+
+  public void testMerge() {
+    SpaceSaving summary1 = new SpaceSaving(2);
+    summary1.add("a", 10);
+    summary1.add("b", 2);
+    summary1.add("c", 3);  // Evicts b, c = 5 (error 2)
+
+    SpaceSaving summary2 = new SpaceSaving(2);
+    summary2.add("b", 4);
+    summary2.add("a", 1);
+
+    assertTrue(summary1.mergeFrom(summary2).contains("c"));
+    // a was in both, b was only in summary2 (so it may have had up to
+    // summary1's minimum of 5).
+    assertEquals(11, summary1.getCount("a"));
+    assertEquals(0, summary1.getError("a"));
+    assertEquals(9, summary1.getCount("b"));
+    assertEquals(5, summary1.getError("b"));
+    assertEquals(ImmutableList.of("a", "b"), summary1.getTopKeys(2));
+
+    // The other summary is left alone.
+    assertEquals(4, summary2.getCount("b"));
+  }
+}
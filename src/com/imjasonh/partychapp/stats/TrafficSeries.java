@@ -0,0 +1,157 @@
+package com.imjasonh.partychapp.stats;
+
+import com.google.common.base.Preconditions;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Ring buffer of per-minute traffic buckets (messages before and after
+ * fan-out, bytes and CPU) covering the last {@code size} minutes. Each bucket
+ * remembers which minute it's for, so buckets that the ring has wrapped
+ * around past are ignored when reading and cleared when written to.
+ *
+ * Not thread-safe.
+ */
+public class TrafficSeries implements Serializable {
+  private static final long serialVersionUID = 3871190422506781273L;
+
+  public static final long MINUTE_MSEC = 60 * 1000L;
+
+  private final long[] minutes;
+  private final long[] messagePreFanoutCounts;
+  private final long[] messagePostFanoutCounts;
+  private final long[] byteCounts;
+  private final long[] cpuMegaCycles;
+
+  public TrafficSeries(int size) {
+    Preconditions.checkArgument(size > 0);
+    minutes = new long[size];
+    Arrays.fill(minutes, -1);
+    messagePreFanoutCounts = new long[size];
+    messagePostFanoutCounts = new long[size];
+    byteCounts = new long[size];
+    cpuMegaCycles = new long[size];
+  }
+
+  /**
+   * @return how many minutes the series covers
+   */
+  public int getSize() {
+    return minutes.length;
+  }
+
+  public void add(long nowMillis, long messagePreFanoutCount,
+      long messagePostFanoutCount, long byteCount, long cpuMegaCycles) {
+    long minute = nowMillis / MINUTE_MSEC;
+    int i = bucketFor(minute);
+    if (minutes[i] > minute) {
+      // Older than anything the ring still covers.
+      return;
+    }
+    if (minutes[i] < minute) {
+      clearBucket(i, minute);
+    }
+    messagePreFanoutCounts[i] += messagePreFanoutCount;
+    messagePostFanoutCounts[i] += messagePostFanoutCount;
+    byteCounts[i] += byteCount;
+    this.cpuMegaCycles[i] += cpuMegaCycles;
+  }
+
+  /**
+   * Adds {@code other}'s buckets into this series. Both must be the same
+   * size. {@code other} is not modified.
+   */
+  public void mergeFrom(TrafficSeries other) {
+    Preconditions.checkArgument(other.getSize() == getSize());
+    for (int i = 0; i < minutes.length; i++) {
+      long minute = other.minutes[i];
+      if (minute < 0 || minutes[i] > minute) {
+        continue;
+      }
+      if (minutes[i] < minute) {
+        clearBucket(i, minute);
+      }
+      messagePreFanoutCounts[i] += other.messagePreFanoutCounts[i];
+      messagePostFanoutCounts[i] += other.messagePostFanoutCounts[i];
+      byteCounts[i] += other.byteCounts[i];
+      cpuMegaCycles[i] += other.cpuMegaCycles[i];
+    }
+  }
+
+  /**
+   * @return the totals for the {@code minuteCount} minutes up to and
+   * including the one that {@code nowMillis} is in
+   */
+  public Rollup getRollup(long nowMillis, int minuteCount) {
+    Preconditions.checkArgument(minuteCount > 0 && minuteCount <= getSize());
+    long nowMinute = nowMillis / MINUTE_MSEC;
+    Rollup rollup = new Rollup(minuteCount);
+    for (long minute = nowMinute - minuteCount + 1; minute <= nowMinute;
+        minute++) {
+      int i = bucketFor(minute);
+      if (minutes[i] != minute) {
+        continue;
+      }
+      rollup.messagePreFanoutCount += messagePreFanoutCounts[i];
+      rollup.messagePostFanoutCount += messagePostFanoutCounts[i];
+      rollup.byteCount += byteCounts[i];
+      rollup.cpuMegaCycles += cpuMegaCycles[i];
+    }
+    return rollup;
+  }
+
+  private int bucketFor(long minute) {
+    return (int) (minute % minutes.length);
+  }
+
+  private void clearBucket(int i, long minute) {
+    minutes[i] = minute;
+    messagePreFanoutCounts[i] = 0;
+    messagePostFanoutCounts[i] = 0;
+    byteCounts[i] = 0;
+    cpuMegaCycles[i] = 0;
+  }
+
+  /**
+   * Traffic totals over a number of minutes.
+   */
+  public static class Rollup {
+    private final int minuteCount;
+    private long messagePreFanoutCount = 0;
+    private long messagePostFanoutCount = 0;
+    private long byteCount = 0;
+    private long cpuMegaCycles = 0;
+
+    private Rollup(int minuteCount) {
+      this.minuteCount = minuteCount;
+    }
+
+    public int getMinuteCount() {
+      return minuteCount;
+    }
+
+    public long getMessagePreFanoutCount() {
+      return messagePreFanoutCount;
+    }
+
+    public long getMessagePostFanoutCount() {
+      return messagePostFanoutCount;
+    }
+
+    public long getByteCount() {
+      return byteCount;
+    }
+
+    public long getCpuMegaCycles() {
+      return cpuMegaCycles;
+    }
+
+    /**
+     * @return {@code count} per second over this rollup's minutes
+     */
+    public double perSecond(long count) {
+      return count / (minuteCount * 60.0);
+    }
+  }
+}
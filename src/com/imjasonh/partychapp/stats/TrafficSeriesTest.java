@@ -0,0 +1,67 @@
+package com.imjasonh.partychapp.stats;
+
+import junit.framework.TestCase;
+
+public class TrafficSeriesTest extends TestCase {
+  private static final long MINUTE = TrafficSeries.MINUTE_MSEC;
+
+  /** Arbitrary, but minute-aligned. */
+  private static final long START = 1000000 * MINUTE;
+
+  public void testRollups() {
+    TrafficSeries series = new TrafficSeries(60);
+    series.add(START, 1, 3, 100, 10);
+    series.add(START + 30 * 1000, 1, 3, 100, 10);
+    series.add(START + 2 * MINUTE, 2, 6, 200, 20);
+    series.add(START + 10 * MINUTE, 4, 12, 400, 40);
+
+    long now = START + 10 * MINUTE + 5000;
+    TrafficSeries.Rollup lastMinute = series.getRollup(now, 1);
+    assertEquals(4, lastMinute.getMessagePreFanoutCount());
+    assertEquals(12, lastMinute.getMessagePostFanoutCount());
+    assertEquals(400, lastMinute.getByteCount());
+    assertEquals(40, lastMinute.getCpuMegaCycles());
+    assertEquals(40 / 60.0,
+        lastMinute.perSecond(lastMinute.getCpuMegaCycles()), 0.0001);
+
+    assertEquals(4, series.getRollup(now, 5).getMessagePreFanoutCount());
+    assertEquals(8, series.getRollup(now, 60).getMessagePreFanoutCount());
+    assertEquals(600, series.getRollup(now, 10).getByteCount());
+  }
+
+  public void testWrapsAround() {
+    TrafficSeries series = new TrafficSeries(5);
+    series.add(START, 1, 1, 1, 1);
+    series.add(START + MINUTE, 2, 2, 2, 2);
+    // Lands in the same bucket as START, which is cleared.
+    series.add(START + 5 * MINUTE, 4, 4, 4, 4);
+    // Too old for the ring now, ignored.
+    series.add(START, 8, 8, 8, 8);
+
+    long now = START + 5 * MINUTE;
+    assertEquals(6, series.getRollup(now, 5).getMessagePreFanoutCount());
+    assertEquals(4, series.getRollup(now, 1).getMessagePreFanoutCount());
+
+    // Much later, everything has expired.
+    assertEquals(0, series.getRollup(now + 60 * MINUTE, 5).getByteCount());
+  }
+
+  public void testMerge() {
+    TrafficSeries series1 = new TrafficSeries(5);
+    series1.add(START, 1, 1, 1, 1);
+    series1.add(START + MINUTE, 2, 2, 2, 2);
+
+    TrafficSeries series2 = new TrafficSeries(5);
+    series2.add(START + MINUTE, 4, 4, 4, 4);
+    // Replaces series1's START bucket.
+    series2.add(START + 5 * MINUTE, 8, 8, 8, 8);
+
+    series1.mergeFrom(series2);
+    long now = START + 5 * MINUTE;
+    assertEquals(14, series1.getRollup(now, 5).getByteCount());
+    assertEquals(8, series1.getRollup(now, 1).getByteCount());
+
+    // The other series is left alone.
+    assertEquals(12, series2.getRollup(now, 5).getByteCount());
+  }
+}
@@ -0,0 +1,65 @@
+package com.imjasonh.partychapp.testing;
+
+import com.google.apphosting.api.ApiProxy;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+/**
+ * Minimal environment for tests that create datastore {@link
+ * com.google.appengine.api.datastore.Key}s and entities, which need an app
+ * ID. API calls still fail, since no delegate is set up. Call
+ * {@link #install} in setUp and {@link #uninstall} in tearDown.
+ */
+public class FakeApiEnvironment implements ApiProxy.Environment {
+  private final Map<String, Object> attributes = Maps.newHashMap();
+
+  public static void install() {
+    ApiProxy.setEnvironmentForCurrentThread(new FakeApiEnvironment());
+  }
+
+  public static void uninstall() {
+    ApiProxy.clearEnvironmentForCurrentThread();
+  }
+
+  @Override
+  public String getAppId() {
+    return "partychapp";
+  }
+
+  @Override
+  public String getVersionId() {
+    return "test.1";
+  }
+
+  @Override
+  public String getEmail() {
+    return null;
+  }
+
+  @Override
+  public boolean isLoggedIn() {
+    return false;
+  }
+
+  @Override
+  public boolean isAdmin() {
+    return false;
+  }
+
+  @Override
+  public String getAuthDomain() {
+    return "gmail.com";
+  }
+
+  @Override
+  @SuppressWarnings("deprecation")
+  public String getRequestNamespace() {
+    return "";
+  }
+
+  @Override
+  public Map<String, Object> getAttributes() {
+    return attributes;
+  }
+}
@@ -20,6 +20,12 @@ import com.imjasonh.partychapp.User;
 import com.imjasonh.partychapp.ppb.Reason;
 import com.imjasonh.partychapp.ppb.Target;
 
+/**
+ * In-memory {@link Datastore} for tests. Methods are synchronized, so that
+ * it can be used by concurrent requests (but like the real datastore, it
+ * doesn't stop concurrent requests from overwriting each other's changes to
+ * the same entity).
+ */
 public class FakeDatastore extends Datastore {
   private Map<String, Channel> channels = Maps.newHashMap();
   private Map<String, Target> targets = Maps.newHashMap();
@@ -29,7 +35,7 @@ public class FakeDatastore extends Datastore {
   public FakeDatastore() {
   }
   
-  public void setUp() {
+  public synchronized void setUp() {
     Channel channel = new Channel(new JID("pancake@partychat.appspotchat.com"));
     // using fake addresses to avoid leaking our email addresses publicly
     channel.addMember(getOrCreateUser("neil@gmail.com"));
@@ -41,17 +47,17 @@ public class FakeDatastore extends Datastore {
   }
 
   @Override
-  public PersistentConfiguration getPersistentConfig() {
+  public synchronized PersistentConfiguration getPersistentConfig() {
     return null;
   }
 
   @Override
-  public Channel getChannelByName(String name) {
+  public synchronized Channel getChannelByName(String name) {
     return channels.get(name);
   }
   
   @Override
-  public User getUserByJID(String jid) {
+  public synchronized User getUserByJID(String jid) {
     User u = users.get(jid);
     if (u != null) {
       return new User(u);
@@ -60,7 +66,7 @@ public class FakeDatastore extends Datastore {
   }
 
   @Override
-  public User getUserByPhoneNumber(String phoneNumber) {
+  public synchronized User getUserByPhoneNumber(String phoneNumber) {
     for (User u : users.values()) {
       if (u.phoneNumber().equals(phoneNumber)) {
         return new User(u);
@@ -70,7 +76,7 @@ public class FakeDatastore extends Datastore {
   }
 
   @Override
-  public Target getTargetByID(String key) {
+  public synchronized Target getTargetByID(String key) {
     Target t = targets.get(key);
     if (t != null) {
       return new Target(t);
@@ -79,12 +85,12 @@ public class FakeDatastore extends Datastore {
   }
   
   @Override
-  public List<Target> getTargetsByChannel(String channel) {
+  public synchronized List<Target> getTargetsByChannel(String channel) {
 	  return new ArrayList<Target>(targets.values());
   }
   
   @Override
-  public List<Reason> getReasons(Target target, int limit) {
+  public synchronized List<Reason> getReasons(Target target, int limit) {
     List<Reason> list = reasons.get(target.key());
     if (list == null) {
       list =  Lists.newArrayList();
@@ -100,7 +106,7 @@ public class FakeDatastore extends Datastore {
   }
   
   @Override
-  public Datastore.Stats getStats(boolean useCache) {
+  public synchronized Datastore.Stats getStats(boolean useCache) {
     Datastore.Stats ret = new Datastore.Stats();
     ret.numChannels = channels.size();
     ret.numUsers = users.size();
@@ -114,7 +120,7 @@ public class FakeDatastore extends Datastore {
   }
   
   @Override
-  public void delete(Object o) {
+  public synchronized void delete(Object o) {
     if (o instanceof Channel) {
       channels.remove(((Channel) o).getName());
     } if (o instanceof User) {
@@ -125,14 +131,14 @@ public class FakeDatastore extends Datastore {
   }
   
   @Override
-  public void putAll(Collection<Object> objects) {
+  public synchronized void putAll(Collection<Object> objects) {
     for (Object o : objects) {
       put(o);
     }
   }
 
   @Override
-  public void put(Object o) {
+  public synchronized void put(Object o) {
     if (o instanceof Channel) {
       Channel c = (Channel)o;
       channels.put(c.getName(), c);
@@ -172,7 +178,7 @@ public class FakeDatastore extends Datastore {
   }
   
   @Override  
-  public Iterator<String> getAllEntityKeys(
+  public synchronized Iterator<String> getAllEntityKeys(
       Class<?> entityClass, String lastKey) {
     List<String> ret = Lists.newArrayList();
     Set<String> keySet;
@@ -12,13 +12,20 @@ import com.google.appengine.api.xmpp.XMPPService;
 import com.google.appengine.api.xmpp.SendResponse.Status;
 import com.google.common.collect.Lists;
 
+import java.util.Collections;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
+/**
+ * Records sent messages and invitations. Safe to use from concurrent requests
+ * (but iterating over the lists needs to synchronize on them).
+ */
 public class MockXMPPService implements XMPPService {
-  public List<Message> messages = Lists.newArrayList();
-  public List<JID> invited = Lists.newArrayList();
+  public final List<Message> messages =
+      Collections.synchronizedList(Lists.<Message>newArrayList());
+  public final List<JID> invited =
+      Collections.synchronizedList(Lists.<JID>newArrayList());
 
   @Override
   public Presence getPresence(JID jabberId) {
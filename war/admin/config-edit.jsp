@@ -1,6 +1,7 @@
 <%@ page contentType="text/html;charset=UTF-8" language="java"%>
 <%@ page import="com.imjasonh.partychapp.Configuration"%>
 <%@ page import="com.imjasonh.partychapp.PersistentConfiguration"%>
+<%@ page import="com.google.common.base.Joiner"%>
 
 <%
   PersistentConfiguration persistentConfig = Configuration.persistentConfig();
@@ -43,6 +44,42 @@
   </label>
   <br>
 
+  <label>
+    Messages per minute per channel (0 for no limit):
+    <input name="channel-messages-per-minute" type="text" value="<%=persistentConfig.channelMessagesPerMinute()%>" size="10">
+  </label>
+  <br>
+
+  <label>
+    Messages per minute per sender (0 for no limit):
+    <input name="sender-messages-per-minute" type="text" value="<%=persistentConfig.senderMessagesPerMinute()%>" size="10">
+  </label>
+  <br>
+
+  <label>
+    Migrated channels (comma-separated):
+    <input name="migrated-channels" type="text" value="<%=Joiner.on(", ").join(persistentConfig.migratedChannels())%>" size="50">
+  </label>
+  <br>
+
+  <label>
+    Targets ignored by PlusPlusBot (comma-separated):
+    <input name="plusplus-blacklist" type="text" value="<%=Joiner.on(", ").join(persistentConfig.plusPlusBlacklist())%>" size="50">
+  </label>
+  <br>
+
+  <label>
+    Datastore gets per request before it's logged (0 for no budget):
+    <input name="datastore-get-budget" type="text" value="<%=persistentConfig.datastoreGetBudget()%>" size="10">
+  </label>
+  <br>
+
+  <label>
+    Datastore queries per request before it's logged (0 for no budget):
+    <input name="datastore-query-budget" type="text" value="<%=persistentConfig.datastoreQueryBudget()%>" size="10">
+  </label>
+  <br>
+
   <input type="submit">
 </form>
 
@@ -20,7 +20,13 @@
   <b>List feed URL:</b> <%=persistentConfig.listFeedUrl()%><br>
   <b>Channel stats enabled:</b> <%=Boolean.toString(persistentConfig.areChannelStatsEnabled())%><br>
   <b>Embedly key:</b> <%=persistentConfig.embedlyKey()%> <br />
-  <b>Fraction of messages to log:</b> <%=persistentConfig.fractionOfMessagesToLog()%>
+  <b>Fraction of messages to log:</b> <%=persistentConfig.fractionOfMessagesToLog()%><br>
+  <b>Messages per minute per channel:</b> <%=persistentConfig.channelMessagesPerMinute()%><br>
+  <b>Messages per minute per sender:</b> <%=persistentConfig.senderMessagesPerMinute()%><br>
+  <b>Migrated channels:</b> <%=persistentConfig.migratedChannels()%><br>
+  <b>Targets ignored by PlusPlusBot:</b> <%=persistentConfig.plusPlusBlacklist()%><br>
+  <b>Datastore gets per request budget:</b> <%=persistentConfig.datastoreGetBudget()%><br>
+  <b>Datastore queries per request budget:</b> <%=persistentConfig.datastoreQueryBudget()%>
 </p>
 
 <p>